@@ -3,6 +3,7 @@ package com.freedom.starter.rocketmq.annotation;
 import com.alibaba.rocketmq.common.consumer.ConsumeFromWhere;
 import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
 import com.freedom.starter.rocketmq.enums.ConsumeMode;
+import com.freedom.starter.rocketmq.enums.DedupKey;
 import com.freedom.starter.rocketmq.enums.SelectorType;
 import org.springframework.stereotype.Service;
 
@@ -64,7 +65,13 @@ public @interface RocketMQMessageListener {
     int consumeThreadMax() default 64;
 
     /**
-     * 最大批量消费大小，默认1
+     * 是否自动调节并发数，默认false
+     * 开启后从consumeThreadMin开始，积压增加时逐步提高并发，耗时变长或失败率升高时降低并发，不超过consumeThreadMax
+     */
+    boolean adaptiveConcurrency() default false;
+
+    /**
+     * 最大批量消费大小，默认1，KEY_ORDERED消费模式下至少取keyOrderedLanes
      */
     int consumeMessageBatchMaxSize() default 1;
 
@@ -72,4 +79,52 @@ public @interface RocketMQMessageListener {
      * 最大重复消费次数，默认3
      */
     int maxReconsumeTime() default 3;
+
+    /**
+     * KEY_ORDERED消费模式下的lane数量，即并行处理消息的工作线程数，默认16
+     */
+    int keyOrderedLanes() default 16;
+
+    /**
+     * 开启共用消费线程池时的权重，默认1，各container按权重分配共用线程
+     */
+    int consumeWeight() default 1;
+
+    /**
+     * 开启共用消费线程池时的最低并发，默认1，有消息时优先保证该并发，最大并发仍为consumeThreadMax
+     * 所有listener的consumeMinShare之和不超过shared-executor-threads时才能保证
+     */
+    int consumeMinShare() default 1;
+
+    /**
+     * 消息体编解码器名称，默认json，消息上记录了编解码器时以消息上的为准
+     * 内置json；自定义MessageCodec注册为spring bean后可使用
+     */
+    String codec() default "json";
+
+    /**
+     * 分片消息重组时缓存分片的最大字节数，默认64Mb，超过时丢弃最早的未收齐分片组
+     */
+    long chunkBufferBytes() default 64 * 1024 * 1024;
+
+    /**
+     * 分片消息收齐的超时时间，单位毫秒，默认60秒，超时未收齐的分片组被丢弃
+     */
+    long chunkTimeoutMillis() default 60 * 1000;
+
+    /**
+     * 消费端去重的消息标识，默认NONE不去重
+     * 只在本实例内尽力去重，不能代替业务幂等
+     */
+    DedupKey dedupKey() default DedupKey.NONE;
+
+    /**
+     * 去重最多记录的消息数，默认100000，每条占用16～32字节
+     */
+    int dedupMaxEntries() default 100000;
+
+    /**
+     * 去重最长记录时间，单位毫秒，默认10分钟
+     */
+    long dedupWindowMillis() default 10 * 60 * 1000;
 }
@@ -2,15 +2,44 @@ package com.freedom.starter.rocketmq.config;
 
 import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
 import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.common.UtilAll;
 import com.freedom.starter.rocketmq.annotation.EnableRocketMQ;
 import com.freedom.starter.rocketmq.annotation.RocketMQMessageListener;
+import com.freedom.starter.rocketmq.core.codec.MessageCodec;
+import com.freedom.starter.rocketmq.core.codec.MessageCodecRegistry;
+import com.freedom.starter.rocketmq.core.compress.MessageCompressorRegistry;
 import com.freedom.starter.rocketmq.core.consumer.DefaultRocketMQListenerContainer;
+import com.freedom.starter.rocketmq.core.consumer.RocketMQBatchListener;
 import com.freedom.starter.rocketmq.core.consumer.RocketMQListener;
+import com.freedom.starter.rocketmq.core.consumer.RocketMQReplyListener;
+import com.freedom.starter.rocketmq.core.consumer.SharedConsumeExecutor;
+import com.freedom.starter.rocketmq.core.metrics.JmxConsumeMetricsExporter;
+import com.freedom.starter.rocketmq.core.metrics.JmxSendMetricsExporter;
+import com.freedom.starter.rocketmq.core.metrics.MicrometerConsumeMetricsExporter;
+import com.freedom.starter.rocketmq.core.metrics.MicrometerSendMetricsExporter;
+import com.freedom.starter.rocketmq.core.metrics.RocketMQConsumeMetrics;
+import com.freedom.starter.rocketmq.core.metrics.RocketMQSendMetrics;
+import com.freedom.starter.rocketmq.core.producer.AdaptiveRateLimiter;
+import com.freedom.starter.rocketmq.core.producer.HedgedSender;
+import com.freedom.starter.rocketmq.core.producer.ConsistentHashMessageQueueSelector;
+import com.freedom.starter.rocketmq.core.producer.InFlightLimiter;
+import com.freedom.starter.rocketmq.core.producer.LatencyAwareMessageQueueSelector;
+import com.freedom.starter.rocketmq.core.producer.MessageAccumulator;
+import com.freedom.starter.rocketmq.core.producer.MessageOutbox;
+import com.freedom.starter.rocketmq.core.producer.ProducerPool;
+import com.freedom.starter.rocketmq.core.producer.ProducerWarmup;
+import com.freedom.starter.rocketmq.core.producer.RequestReplyClient;
 import com.freedom.starter.rocketmq.core.producer.RocketMQTemplate;
+import com.freedom.starter.rocketmq.core.producer.TopicHedgePolicy;
+import com.freedom.starter.rocketmq.core.producer.TopicRateLimiter;
+import com.freedom.starter.rocketmq.core.route.TopicRouteSnapshot;
+import com.freedom.starter.rocketmq.enums.OrderlyQueueSelectorType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -19,6 +48,7 @@ import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -27,8 +57,14 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.StandardEnvironment;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.StringUtils;
 
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -40,6 +76,8 @@ import java.util.concurrent.atomic.AtomicLong;
 public class RocketMQAutoConfiguration {
     private static final Logger logger = LoggerFactory.getLogger(RocketMQAutoConfiguration.class);
 
+    private static final String METER_REGISTRY_CLASS = "io.micrometer.core.instrument.MeterRegistry";
+
     @Value("${spring.application.name:}")
     private String springApplicationName;
 
@@ -81,6 +119,9 @@ public class RocketMQAutoConfiguration {
         rocketmqProducer.setRetryTimesWhenSendAsyncFailed(producerConfig.getRetryTimesWhenSendAsyncFailed());
         rocketmqProducer.setMaxMessageSize(producerConfig.getMaxMessageSize());  //消息体最大值，单位byte，默认4Mb
         rocketmqProducer.setCompressMsgBodyOverHowmuch(producerConfig.getCompressMsgBodyOverHowmuch());  //压缩消息体的阀值，默认1024 * 4，4k，即默认大于4k的消息体将开启压缩
+        if(StringUtils.hasText(producerConfig.getCompression())){
+            rocketmqProducer.setCompressMsgBodyOverHowmuch(Integer.MAX_VALUE);  //使用RocketMQTemplate的压缩器时关闭zlib压缩，避免重复压缩
+        }
         rocketmqProducer.setRetryAnotherBrokerWhenNotStoreOK(producerConfig.isRetryAnotherBrokerWhenNotStoreOk());  //内部发送失败时是否重试另一个broker
 
         logger.info("DefaultMQProducer初始化完成： " + rocketmqProducer);
@@ -89,21 +130,226 @@ public class RocketMQAutoConfiguration {
     }
 
 
+    /**
+     * 创建topic路由快照，生产者和消费者启动前写入快照中的路由
+     * @param rocketMQProperties
+     * @return
+     */
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    @ConditionalOnMissingBean(TopicRouteSnapshot.class)
+    @ConditionalOnProperty(prefix = "spring.rocketmq.route-snapshot", name = "enabled", havingValue = "true")
+    public TopicRouteSnapshot topicRouteSnapshot(RocketMQProperties rocketMQProperties){
+        RocketMQProperties.RouteSnapshot routeSnapshot = rocketMQProperties.getRouteSnapshot();
+        String file = routeSnapshot.getFile();
+        if(!StringUtils.hasText(file)){
+            file = System.getProperty("user.home") + File.separator + "rocketmq_route_snapshot" + File.separator
+                    + (StringUtils.hasText(springApplicationName) ? springApplicationName : "default") + ".snapshot";
+        }
+        return new TopicRouteSnapshot(file, routeSnapshot.getMaxAgeMillis(), routeSnapshot.getSaveIntervalMillis());
+    }
+
+
     /**
      * 创建RocketMQTemplate
      * @param producer
+     * @param rocketMQProperties
+     * @param messageCodecs       spring容器中自定义的MessageCodec
+     * @param applicationContext  用于查找Micrometer的MeterRegistry
+     * @param topicRouteSnapshot  开启路由快照时的TopicRouteSnapshot
      * @return
      */
     @Bean(destroyMethod = "destroy")
     @ConditionalOnBean(DefaultMQProducer.class)
     @ConditionalOnMissingBean(RocketMQTemplate.class)
-    public RocketMQTemplate rocketMQTemplate(DefaultMQProducer producer){
+    public RocketMQTemplate rocketMQTemplate(DefaultMQProducer producer, RocketMQProperties rocketMQProperties, ObjectProvider<List<MessageCodec>> messageCodecs,
+                                             ApplicationContext applicationContext, ObjectProvider<TopicRouteSnapshot> topicRouteSnapshot){
+        RocketMQProperties.Producer producerConfig = rocketMQProperties.getProducer();
+        registerMessageCodecs(rocketMQProperties, messageCodecs.getIfAvailable());
+        registerMessageCompressors(rocketMQProperties);
+
         RocketMQTemplate rocketMQTemplate = new RocketMQTemplate();
         rocketMQTemplate.setProducer(producer);
+        rocketMQTemplate.setMessageCodec(MessageCodecRegistry.get(producerConfig.getCodec()));  //非String类型消息的编解码器
+
+        //消息体压缩器，lz4、zstd
+        if(StringUtils.hasText(producerConfig.getCompression())){
+            rocketMQTemplate.setMessageCompressor(MessageCompressorRegistry.get(producerConfig.getCompression()));
+            rocketMQTemplate.setCompressBodyOverHowmuch(producerConfig.getCompressionThreshold());
+        }
+
+        //生产者池，producer之外再创建producerPoolSize - 1个生产者，每个生产者使用不同的instanceName
+        List<DefaultMQProducer> producers = new ArrayList<DefaultMQProducer>();
+        producers.add(producer);
+        for(int i=1; i<producerConfig.getProducerPoolSize(); i++){
+            producers.add(cloneProducer(producer, UtilAll.getPid() + "#" + i));
+        }
+        ProducerPool producerPool = new ProducerPool(producers, producerConfig.getProducerStripeStrategy());
+        producerPool.setTopicRouteSnapshot(topicRouteSnapshot.getIfAvailable());  //启动前写入快照中的路由
+        rocketMQTemplate.setProducerPool(producerPool);
+
+        //异步启动生产者，并预热topic路由
+        if(producerConfig.isAsyncStartup() || !producerConfig.getPrewarmTopics().isEmpty()){
+            rocketMQTemplate.setProducerWarmup(new ProducerWarmup(producerPool, producerConfig.getPrewarmTopics(), producerConfig.isAsyncStartup()));
+        }
+
+        //顺序消息使用一致性哈希选择队列
+        if(producerConfig.getOrderlyQueueSelector() == OrderlyQueueSelectorType.CONSISTENT_HASH){
+            rocketMQTemplate.setDefaultMessageQueueSelector(new ConsistentHashMessageQueueSelector(producerConfig.getHotKeyRatio(), producerConfig.getHotKeyWindowMillis()));
+        }
+
+        //非顺序消息按发送耗时选择队列，发送失败按发送超时时间记录耗时
+        if(producerConfig.isLatencyAwareSelectorEnabled()){
+            rocketMQTemplate.setLatencyAwareSelector(new LatencyAwareMessageQueueSelector(producerConfig.getLatencyEwmaAlpha(), producer.getSendMsgTimeout()));
+        }
+
+        //限制异步发送中的消息条数、字节数
+        InFlightLimiter inFlightLimiter = null;
+        if(producerConfig.getMaxInFlightMessages() > 0 || producerConfig.getMaxInFlightBytes() > 0){
+            inFlightLimiter = new InFlightLimiter(producerConfig.getMaxInFlightMessages(),
+                    producerConfig.getMaxInFlightBytes(), producerConfig.getInFlightRejectPolicy());
+            rocketMQTemplate.setInFlightLimiter(inFlightLimiter);
+        }
+
+        //本地发件箱，broker不可用时暂存消息
+        if(producerConfig.isOutboxEnabled()){
+            String outboxDir = producerConfig.getOutboxDir();
+            if(!StringUtils.hasText(outboxDir)){
+                outboxDir = System.getProperty("user.home") + File.separator + "rocketmq_outbox" + File.separator + producer.getProducerGroup();
+            }
+            rocketMQTemplate.setMessageOutbox(new MessageOutbox(outboxDir, producerConfig.getOutboxSegmentSize(),
+                    producerConfig.getOutboxMode(), producerConfig.getOutboxReplayPermitsPerSecond(), producerPool));
+        }
+
+        //按topic的自适应发送速率限制
+        AdaptiveRateLimiter rateLimiter = null;
+        RocketMQProperties.RateLimit rateLimit = producerConfig.getRateLimit();
+        if(rateLimit.isEnabled()){
+            rateLimiter = new AdaptiveRateLimiter(rateLimit.getMaxPermitsPerSecond(), rateLimit.getMinPermitsPerSecond(),
+                    rateLimit.getIncreasePermits(), rateLimit.getDecreaseFactor(), rateLimit.getLatencyThresholdMillis());
+            for(Map.Entry<String, RocketMQProperties.RateLimit> entry : producerConfig.getTopicRateLimits().entrySet()){
+                RocketMQProperties.RateLimit topicRateLimit = entry.getValue();
+                rateLimiter.register(new TopicRateLimiter(entry.getKey(), topicRateLimit.getMaxPermitsPerSecond(), topicRateLimit.getMinPermitsPerSecond(),
+                        topicRateLimit.getIncreasePermits(), topicRateLimit.getDecreaseFactor(), topicRateLimit.getLatencyThresholdMillis()));
+            }
+            rocketMQTemplate.setRateLimiter(rateLimiter);
+        }
+
+        //对冲发送，只对配置的topic生效
+        HedgedSender hedgedSender = null;
+        RocketMQProperties.Hedge hedge = producerConfig.getHedge();
+        if(hedge.isEnabled() && !hedge.getTopics().isEmpty()){
+            hedgedSender = new HedgedSender();
+            for(String topic : hedge.getTopics()){
+                hedgedSender.register(new TopicHedgePolicy(topic, hedge.getPercentile(), hedge.getMinDelayMillis(),
+                        hedge.getMaxHedgeRatio(), hedge.getWindowMillis()));
+            }
+            rocketMQTemplate.setHedgedSender(hedgedSender);
+        }
+
+        //发送指标，有Micrometer的MeterRegistry时导出到Micrometer，否则导出到JMX
+        if(producerConfig.isMetricsEnabled()){
+            RocketMQSendMetrics sendMetrics = new RocketMQSendMetrics();
+            boolean micrometerBound = ClassUtils.isPresent(METER_REGISTRY_CLASS, applicationContext.getClassLoader())
+                    && MicrometerSendMetricsExporter.bind(sendMetrics, applicationContext);
+            if(!micrometerBound){
+                sendMetrics.addListener(new JmxSendMetricsExporter());
+            }
+            rocketMQTemplate.setSendMetrics(sendMetrics);
+            if(rateLimiter != null){
+                rateLimiter.setSendMetrics(sendMetrics);  //导出各topic的当前速率、限流次数
+            }
+            if(hedgedSender != null){
+                hedgedSender.setSendMetrics(sendMetrics);  //导出各topic的对冲延迟、对冲次数
+            }
+            if(inFlightLimiter != null){
+                sendMetrics.addInFlightLimiter(inFlightLimiter);  //导出发送中的消息条数、字节数、剩余许可、拒绝次数
+            }
+        }
+
+        Assert.isTrue(producerConfig.getSendManyMaxInFlight() > 0, "[spring.rocketmq.producer.send-many-max-in-flight] must be positive");
+        rocketMQTemplate.setSendManyMaxInFlight(producerConfig.getSendManyMaxInFlight());
+
+        //大消息分片，分片大小不能超过生产者的maxMessageSize
+        if(producerConfig.isChunkEnabled()){
+            Assert.isTrue(producerConfig.getChunkSize() > 0 && producerConfig.getChunkSize() <= producer.getMaxMessageSize(),
+                    "[spring.rocketmq.producer.chunk-size] must be positive and not greater than max-message-size");
+            rocketMQTemplate.setChunkSize(producerConfig.getChunkSize());
+        }
+
+        //请求/应答，应答consumer订阅应答topic下当前实例的tag，每个实例使用单独的消费组：生产组_REPLY_CONSUMER_应答tag，应答tag由实例标识生成
+        if(producerConfig.isReplyEnabled()){
+            String replyTopic = StringUtils.hasText(producerConfig.getReplyTopic()) ? producerConfig.getReplyTopic() : producer.getProducerGroup() + "_REPLY";
+            rocketMQTemplate.setRequestReplyClient(new RequestReplyClient(rocketMQProperties.getNameServer(), producer.getProducerGroup() + "_REPLY_CONSUMER",
+                    replyTopic, producerConfig.getReplyInstanceId(), Charset.forName(rocketMQTemplate.getCharset()), rocketMQTemplate.getMessageCodec()));
+        }
+
+        //开启攒批时，创建消息累加器，打包后的信封消息体不能超过生产者的maxMessageSize
+        if(producerConfig.isBatchEnabled()){
+            Assert.isTrue(producerConfig.getBatchMaxBytes() > 0 && producerConfig.getBatchMaxBytes() <= producer.getMaxMessageSize(),
+                    "[spring.rocketmq.producer.batch-max-bytes] must be positive and not greater than max-message-size");
+            rocketMQTemplate.setMessageAccumulator(new MessageAccumulator(producerPool,
+                    producerConfig.getBatchMaxMessages(), producerConfig.getBatchMaxBytes(), producerConfig.getBatchLingerMs()));
+        }
 
         return rocketMQTemplate;
     }
 
+    /**
+     * 按照producer的配置创建一个新的生产者
+     * @param producer      生产者
+     * @param instanceName  新生产者的instanceName，不同的instanceName使用不同的MQClientInstance
+     * @return
+     */
+    private static DefaultMQProducer cloneProducer(DefaultMQProducer producer, String instanceName) {
+        DefaultMQProducer clone = new DefaultMQProducer(producer.getProducerGroup());
+        clone.resetClientConfig(producer);  //nameServer、vip通道等客户端配置
+        clone.setInstanceName(instanceName);
+        clone.setSendMsgTimeout(producer.getSendMsgTimeout());
+        clone.setRetryTimesWhenSendFailed(producer.getRetryTimesWhenSendFailed());
+        clone.setRetryTimesWhenSendAsyncFailed(producer.getRetryTimesWhenSendAsyncFailed());
+        clone.setMaxMessageSize(producer.getMaxMessageSize());
+        clone.setCompressMsgBodyOverHowmuch(producer.getCompressMsgBodyOverHowmuch());
+        clone.setRetryAnotherBrokerWhenNotStoreOK(producer.isRetryAnotherBrokerWhenNotStoreOK());
+        return clone;
+    }
+
+    /**
+     * 将spring容器中自定义的MessageCodec注册到MessageCodecRegistry
+     * @param rocketMQProperties
+     * @param messageCodecs
+     */
+    private static void registerMessageCodecs(RocketMQProperties rocketMQProperties, Collection<MessageCodec> messageCodecs) {
+        if(messageCodecs != null){
+            for(MessageCodec messageCodec : messageCodecs){
+                MessageCodecRegistry.register(messageCodec);
+            }
+        }
+    }
+
+    /**
+     * 按配置的zstd压缩级别、解压后消息体最大字节数注册lz4、zstd压缩器
+     * @param rocketMQProperties
+     */
+    private static void registerMessageCompressors(RocketMQProperties rocketMQProperties) {
+        MessageCompressorRegistry.registerBuiltin(rocketMQProperties.getProducer().getZstdLevel(),
+                rocketMQProperties.getConsumer().getMaxDecompressedSize());
+    }
+
+
+    /**
+     * 类路径下有spring-boot-actuator时，注册生产者健康检查
+     */
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+    public static class ProducerHealthConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(name = "rocketMQProducerHealthIndicator")
+        public RocketMQProducerHealthIndicator rocketMQProducerHealthIndicator(ObjectProvider<RocketMQTemplate> rocketMQTemplate) {
+            return new RocketMQProducerHealthIndicator(rocketMQTemplate);
+        }
+    }
+
 
     /**
      * 消费者的RocketMQListener相关配置
@@ -111,7 +357,7 @@ public class RocketMQAutoConfiguration {
     @Configuration
     @ConditionalOnClass(DefaultMQPushConsumer.class)
     @EnableConfigurationProperties(RocketMQProperties.class)  //不添加@Autowired RocketMQProperties报错
-    public static class ListenerContainerConfiguration implements ApplicationContextAware, InitializingBean {
+    public static class ListenerContainerConfiguration implements ApplicationContextAware, InitializingBean, DisposableBean {
 
         private ConfigurableApplicationContext applicationContext;
 
@@ -129,6 +375,15 @@ public class RocketMQAutoConfiguration {
         //生成container beanName时的计数器
         private AtomicLong counter = new AtomicLong(0);
 
+        //topic路由快照，未开启时为null
+        private TopicRouteSnapshot topicRouteSnapshot;
+
+        //所有container共用的消费线程池，未开启时为null
+        private SharedConsumeExecutor sharedConsumeExecutor;
+
+        //所有container的消费指标，未开启时为null
+        private RocketMQConsumeMetrics consumeMetrics;
+
         /**
          * 实现InitializingBean接口的方法
          * 在所有属性设置完成后，由BeanFactory调用此方法
@@ -139,6 +394,34 @@ public class RocketMQAutoConfiguration {
         public void afterPropertiesSet() throws Exception {
             Assert.hasText(rocketMQProperties.getNameServer(), "[spring.rocketmq.name-server] must not be null");
 
+            //注册自定义的MessageCodec
+            registerMessageCodecs(rocketMQProperties, applicationContext.getBeansOfType(MessageCodec.class).values());
+            registerMessageCompressors(rocketMQProperties);
+
+            //开启路由快照时，所有container共用一个TopicRouteSnapshot
+            Map<String, TopicRouteSnapshot> snapshots = applicationContext.getBeansOfType(TopicRouteSnapshot.class);
+            if(!snapshots.isEmpty()){
+                topicRouteSnapshot = snapshots.values().iterator().next();
+            }
+
+            //开启共用消费线程池时，所有container的消费任务由同一组线程加权公平调度
+            RocketMQProperties.Consumer consumerConfig = rocketMQProperties.getConsumer();
+            if(consumerConfig.isSharedExecutorEnabled()){
+                Assert.isTrue(consumerConfig.getSharedExecutorThreads() > 0, "[spring.rocketmq.consumer.shared-executor-threads] must be positive");
+                sharedConsumeExecutor = new SharedConsumeExecutor(consumerConfig.getSharedExecutorThreads());
+            }
+
+            //消费指标，有Micrometer的MeterRegistry时导出到Micrometer，否则导出到JMX
+            if(consumerConfig.isMetricsEnabled()){
+                Assert.isTrue(consumerConfig.getLagIntervalMillis() > 0, "[spring.rocketmq.consumer.lag-interval-millis] must be positive");
+                consumeMetrics = new RocketMQConsumeMetrics(consumerConfig.getLagIntervalMillis());
+                boolean micrometerBound = ClassUtils.isPresent(METER_REGISTRY_CLASS, applicationContext.getClassLoader())
+                        && MicrometerConsumeMetricsExporter.bind(consumeMetrics, applicationContext);
+                if(!micrometerBound){
+                    consumeMetrics.addListener(new JmxConsumeMetricsExporter());
+                }
+            }
+
             //获取所有使用了@RocketMQMessageListener注解的spring容器中的bean
             Map<String, Object> beans = applicationContext.getBeansWithAnnotation(RocketMQMessageListener.class);
 
@@ -150,6 +433,21 @@ public class RocketMQAutoConfiguration {
             }
         }
 
+        /**
+         * 实现DisposableBean接口的方法
+         * 共用消费线程池执行完已提交的任务后退出，之后container提交的任务被拒绝，由rocketmq稍后重新提交，消息不会丢失
+         * 消费指标停止采集，注销JMX MBean
+         */
+        @Override
+        public void destroy() {
+            if(sharedConsumeExecutor != null){
+                sharedConsumeExecutor.shutdown();
+            }
+            if(consumeMetrics != null){
+                consumeMetrics.close();
+            }
+        }
+
         /**
          * 使用@RocketMQMessageListener的bean，向spring容器中注册RocketMQListenerContainer
          * @param beanName
@@ -158,12 +456,13 @@ public class RocketMQAutoConfiguration {
         private void registerContainer(String beanName, Object bean) {
             Class<?> clazz = AopUtils.getTargetClass(bean);  //获取bean的Class
 
-            //判断clazz是不是RocketMQListener接口类型的
-            if (!RocketMQListener.class.isAssignableFrom(clazz)) {
-                throw new IllegalStateException(clazz + " is not instance of " + RocketMQListener.class.getName());
+            //判断clazz是不是RocketMQListener、RocketMQReplyListener或RocketMQBatchListener接口类型的
+            boolean replyListener = RocketMQReplyListener.class.isAssignableFrom(clazz);
+            boolean batchListener = RocketMQBatchListener.class.isAssignableFrom(clazz);
+            if (!replyListener && !batchListener && !RocketMQListener.class.isAssignableFrom(clazz)) {
+                throw new IllegalStateException(clazz + " is not instance of " + RocketMQListener.class.getName() + ", "
+                        + RocketMQReplyListener.class.getName() + " or " + RocketMQBatchListener.class.getName());
             }
-
-            RocketMQListener rocketMQListener = (RocketMQListener) bean;
             RocketMQMessageListener annotation = clazz.getAnnotation(RocketMQMessageListener.class);//获取RocketMQListener接口实现类上的注解RocketMQMessageListener
 
             /**
@@ -174,7 +473,8 @@ public class RocketMQAutoConfiguration {
             beanBuilder.addPropertyValue("nameServer", rocketMQProperties.getNameServer());
             beanBuilder.addPropertyValue("topic", environment.resolvePlaceholders(annotation.topic()));
             beanBuilder.addPropertyValue("consumerGroup", environment.resolvePlaceholders(annotation.consumerGroup()));
-            beanBuilder.addPropertyValue("consumeMode", annotation.consumeMode()); //CONCURRENTLY 或 ORDERLY
+            beanBuilder.addPropertyValue("consumeMode", annotation.consumeMode()); //CONCURRENTLY、ORDERLY 或 KEY_ORDERED
+            beanBuilder.addPropertyValue("keyOrderedLanes", annotation.keyOrderedLanes()); //KEY_ORDERED的并行lane数，默认16
             beanBuilder.addPropertyValue("consumeThreadMin", annotation.consumeThreadMin()); //最小消费线程数，默认20
             beanBuilder.addPropertyValue("consumeThreadMax", annotation.consumeThreadMax()); //最大消费线程数，默认64
             beanBuilder.addPropertyValue("consumeMessageBatchMaxSize", annotation.consumeMessageBatchMaxSize()); //最大批量消费大小，默认1
@@ -182,7 +482,48 @@ public class RocketMQAutoConfiguration {
             beanBuilder.addPropertyValue("messageModel", annotation.messageModel());  //CLUSTERING 或 BROADCASTING
             beanBuilder.addPropertyValue("selectorType", annotation.selectorType());  //过滤类型，只有TAG
             beanBuilder.addPropertyValue("selectorExpress", environment.resolvePlaceholders(annotation.selectorExpress())); //过滤表达式
-            beanBuilder.addPropertyValue("rocketMQListener", rocketMQListener);  //rocketMQListener实现类的实例
+            beanBuilder.addPropertyValue("messageCodec", MessageCodecRegistry.get(environment.resolvePlaceholders(annotation.codec())));  //消息体编解码器，默认json
+            beanBuilder.addPropertyValue("chunkBufferBytes", annotation.chunkBufferBytes());  //分片重组缓存的最大字节数，默认64Mb
+            beanBuilder.addPropertyValue("chunkTimeoutMillis", annotation.chunkTimeoutMillis());  //分片收齐的超时时间，默认60秒
+            beanBuilder.addPropertyValue("dedupKey", annotation.dedupKey());  //消费端去重，默认不去重
+            beanBuilder.addPropertyValue("dedupMaxEntries", annotation.dedupMaxEntries());  //去重最多记录的消息数，默认100000
+            beanBuilder.addPropertyValue("dedupWindowMillis", annotation.dedupWindowMillis());  //去重最长记录时间，默认10分钟
+            beanBuilder.addPropertyValue("virtualThreads", rocketMQProperties.getConsumer().isVirtualThreadsEnabled());  //JDK 21+的并发消费使用虚拟线程
+            if(annotation.adaptiveConcurrency()){
+                //在consumeThreadMin和consumeThreadMax之间自动调节并发数
+                RocketMQProperties.Consumer consumerConfig = rocketMQProperties.getConsumer();
+                Assert.isTrue(consumerConfig.getAdaptiveConcurrencyIntervalMillis() > 0, "[spring.rocketmq.consumer.adaptive-concurrency-interval-millis] must be positive");
+                beanBuilder.addPropertyValue("adaptiveConcurrency", true);
+                beanBuilder.addPropertyValue("adaptiveConcurrencyIntervalMillis", consumerConfig.getAdaptiveConcurrencyIntervalMillis());
+                beanBuilder.addPropertyValue("adaptiveConcurrencyLatencyTolerance", consumerConfig.getAdaptiveConcurrencyLatencyTolerance());
+                beanBuilder.addPropertyValue("adaptiveConcurrencyErrorThreshold", consumerConfig.getAdaptiveConcurrencyErrorThreshold());
+            }
+            if(sharedConsumeExecutor != null){
+                beanBuilder.addPropertyValue("sharedConsumeExecutor", sharedConsumeExecutor);  //共用消费线程池
+                beanBuilder.addPropertyValue("consumeWeight", annotation.consumeWeight());  //共用消费线程池中的权重，默认1
+                beanBuilder.addPropertyValue("consumeMinShare", annotation.consumeMinShare());  //共用消费线程池中的最低并发，默认1
+            }
+            if(replyListener){
+                //RocketMQReplyListener的返回值通过RocketMQTemplate发送应答
+                String[] templateBeanNames = applicationContext.getBeanNamesForType(RocketMQTemplate.class);
+                if(templateBeanNames.length == 0){
+                    throw new IllegalStateException(clazz + " is RocketMQReplyListener, but no RocketMQTemplate found");
+                }
+                beanBuilder.addPropertyValue("rocketMQReplyListener", bean);
+                beanBuilder.addPropertyReference("rocketMQTemplate", templateBeanNames[0]);
+            }
+            else if(batchListener){
+                beanBuilder.addPropertyValue("rocketMQBatchListener", bean);  //每次处理consumeMessageBatchMaxSize条消息
+            }
+            else {
+                beanBuilder.addPropertyValue("rocketMQListener", bean);  //rocketMQListener实现类的实例
+            }
+            if(topicRouteSnapshot != null){
+                beanBuilder.addPropertyValue("topicRouteSnapshot", topicRouteSnapshot);  //启动前写入快照中的路由
+            }
+            if(consumeMetrics != null){
+                beanBuilder.addPropertyValue("rocketMQConsumeMetrics", consumeMetrics);  //消费指标和消费延迟
+            }
             beanBuilder.setDestroyMethodName("destroy");
 
             /**
@@ -0,0 +1,47 @@
+package com.freedom.starter.rocketmq.config;
+
+import com.freedom.starter.rocketmq.core.producer.ProducerWarmup;
+import com.freedom.starter.rocketmq.core.producer.RocketMQTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+/**
+ * 生产者健康检查，用于就绪探针
+ * 启动和topic路由预热完成前返回OUT_OF_SERVICE，启动失败返回DOWN
+ */
+public class RocketMQProducerHealthIndicator extends AbstractHealthIndicator {
+
+    private final ObjectProvider<RocketMQTemplate> rocketMQTemplate;
+
+
+    public RocketMQProducerHealthIndicator(ObjectProvider<RocketMQTemplate> rocketMQTemplate) {
+        this.rocketMQTemplate = rocketMQTemplate;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) throws Exception {
+        RocketMQTemplate template = rocketMQTemplate.getIfAvailable();
+        if(template == null){
+            builder.unknown();
+            return;
+        }
+
+        ProducerWarmup producerWarmup = template.getProducerWarmup();
+        if(producerWarmup == null){
+            builder.up();
+            return;
+        }
+
+        builder.withDetail("prewarmTopics", producerWarmup.getTopics());
+        if(producerWarmup.getStartFailure() != null){
+            builder.down().withDetail("error", producerWarmup.getStartFailure().toString());
+        }
+        else if(producerWarmup.isReady()){
+            builder.up();
+        }
+        else {
+            builder.outOfService().withDetail("started", producerWarmup.isStarted());
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package com.freedom.starter.rocketmq.config;
 
+import com.freedom.starter.rocketmq.enums.InFlightRejectPolicy;
+import com.freedom.starter.rocketmq.enums.OrderlyQueueSelectorType;
+import com.freedom.starter.rocketmq.enums.OutboxMode;
+import com.freedom.starter.rocketmq.enums.ProducerStripeStrategy;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @ConfigurationProperties( prefix = "spring.rocketmq")
 public class RocketMQProperties {
 
@@ -17,6 +26,16 @@ public class RocketMQProperties {
      */
     private Producer producer = new Producer(); //默认为空的Producer，否则application.yml中没有相关配置producer为null
 
+    /**
+     * topic路由快照，生产者和消费者共用
+     */
+    private RouteSnapshot routeSnapshot = new RouteSnapshot();
+
+    /**
+     * 消费者的全局配置，各listener的配置在@RocketMQMessageListener注解上指定
+     */
+    private Consumer consumer = new Consumer();
+
 
     /**
      * Producer参数
@@ -61,6 +80,193 @@ public class RocketMQProperties {
          */
         private int maxMessageSize = 1024 * 1024 * 4; // 4M
 
+        /**
+         * 是否在后台线程启动生产者，不阻塞spring容器刷新，默认值false
+         * 启动完成前的发送会等待启动完成，最多等待发送超时时间
+         */
+        private boolean asyncStartup = false;
+
+        /**
+         * 启动后预热路由的topic，提前从nameServer拉取路由并建立到broker的连接
+         */
+        private List<String> prewarmTopics = new ArrayList<String>();
+
+        /**
+         * 生产者池大小，默认1
+         * 大于1时创建多个使用不同instanceName的生产者，各自使用独立的netty连接
+         */
+        private int producerPoolSize = 1;
+
+        /**
+         * 非顺序消息在生产者池中选择生产者的方式，THREAD、KEY，默认THREAD
+         * 顺序消息始终按selectQueueKey选择
+         */
+        private ProducerStripeStrategy producerStripeStrategy = ProducerStripeStrategy.THREAD;
+
+        /**
+         * 非String类型消息的编解码器名称，默认json
+         * 内置json；自定义MessageCodec注册为spring bean后可使用
+         */
+        private String codec = "json";
+
+        /**
+         * 消息体压缩器名称，lz4、zstd，为空时使用rocketmq客户端自带的zlib压缩（compressMsgBodyOverHowmuch）
+         * 设置后关闭zlib压缩，需要引入对应的压缩库，消费端根据消息属性自动解压
+         */
+        private String compression;
+
+        /**
+         * 使用compression压缩消息体的阀值，单位byte，默认1024 * 4，4k
+         */
+        private int compressionThreshold = 1024 * 4;
+
+        /**
+         * zstd压缩级别，1-22，默认3
+         */
+        private int zstdLevel = 3;
+
+        /**
+         * 顺序消息默认的队列选择方式，HASH、CONSISTENT_HASH，默认HASH
+         */
+        private OrderlyQueueSelectorType orderlyQueueSelector = OrderlyQueueSelectorType.HASH;
+
+        /**
+         * CONSISTENT_HASH方式下热点key的阈值，一个统计窗口内key的发送次数占比，小于等于0不统计，默认0.1
+         */
+        private double hotKeyRatio = 0.1;
+
+        /**
+         * CONSISTENT_HASH方式下热点key的统计窗口，单位毫秒，默认60000
+         */
+        private long hotKeyWindowMillis = 60 * 1000;
+
+        /**
+         * 非顺序消息是否按发送耗时选择队列，默认值false
+         * 开启后按broker、队列统计发送耗时的EWMA，流量逐渐避开变慢的broker
+         * 发送失败时排除失败的broker重试，次数为retryTimesWhenSendFailed、retryTimesWhenSendAsyncFailed
+         */
+        private boolean latencyAwareSelectorEnabled = false;
+
+        /**
+         * 发送耗时EWMA的平滑系数，取值(0, 1]，越大越偏向最近的耗时，默认0.3
+         */
+        private double latencyEwmaAlpha = 0.3;
+
+        /**
+         * 异步发送中（已发出、还未回调）的最大消息条数，小于等于0不限制，默认0
+         */
+        private int maxInFlightMessages = 0;
+
+        /**
+         * 异步发送中的最大字节数，单位byte，小于等于0不限制，默认0
+         */
+        private int maxInFlightBytes = 0;
+
+        /**
+         * 发送中的消息达到上限时的处理策略，BLOCK、FAIL、CALLER_RUNS，默认BLOCK
+         */
+        private InFlightRejectPolicy inFlightRejectPolicy = InFlightRejectPolicy.BLOCK;
+
+        /**
+         * 是否统计发送指标（按topic、tag、发送方式的耗时直方图，成功、失败、超时次数，字节数），默认值false
+         * 类路径下有Micrometer且spring容器中有MeterRegistry时导出到Micrometer，否则导出到JMX
+         */
+        private boolean metricsEnabled = false;
+
+        /**
+         * 自适应发送速率限制（AIMD），broker繁忙、刷盘超时或发送超时时降低速率，发送耗时恢复正常后逐步提高
+         */
+        private RateLimit rateLimit = new RateLimit();
+
+        /**
+         * 按topic单独配置的发送速率限制，key为topic，未配置的topic使用rateLimit
+         * 开关以rateLimit.enabled为准
+         */
+        private Map<String, RateLimit> topicRateLimits = new HashMap<String, RateLimit>();
+
+        /**
+         * 是否开启本地发件箱，默认值false
+         * 开启后非顺序消息发送失败时写入本地文件，broker恢复后由后台线程重放
+         */
+        private boolean outboxEnabled = false;
+
+        /**
+         * 发件箱模式，FAILED（只写入发送失败的消息）、WRITE_AHEAD（所有消息先写入发件箱），默认FAILED
+         */
+        private OutboxMode outboxMode = OutboxMode.FAILED;
+
+        /**
+         * 发件箱目录，默认${user.home}/rocketmq_outbox/生产组
+         */
+        private String outboxDir;
+
+        /**
+         * 发件箱segment文件大小，单位byte，默认64Mb
+         */
+        private int outboxSegmentSize = 1024 * 1024 * 64;
+
+        /**
+         * 发件箱每秒最多重放的消息条数，小于等于0不限制，默认1000
+         */
+        private int outboxReplayPermitsPerSecond = 1000;
+
+        /**
+         * 是否开启异步发送、One-way发送的攒批，默认值false
+         * 开启后同一topic、tag的消息会打包成一条消息发送，消费端自动拆包
+         */
+        private boolean batchEnabled = false;
+
+        /**
+         * 每批最多消息条数，默认32
+         */
+        private int batchMaxMessages = 32;
+
+        /**
+         * 每批最大字节数，按打包后的消息体计算（包括每条消息的属性），单位byte，默认128k，不能超过max-message-size
+         */
+        private int batchMaxBytes = 1024 * 128;
+
+        /**
+         * 消息攒批的最长等待时间，单位毫秒，默认5
+         */
+        private long batchLingerMs = 5;
+
+        /**
+         * 流式发送RocketMQTemplate.sendMany()默认的最大未完成消息数，默认256
+         */
+        private int sendManyMaxInFlight = 256;
+
+        /**
+         * 是否开启大消息分片，默认值false
+         * 开启后消息体超过chunkSize的消息拆分成多条分片消息发送到同一个队列，消费端收齐后重组
+         */
+        private boolean chunkEnabled = false;
+
+        /**
+         * 分片大小，单位byte，默认1Mb，不能超过maxMessageSize
+         */
+        private int chunkSize = 1024 * 1024;
+
+        /**
+         * 是否开启请求/应答（RocketMQTemplate.sendAndReceive()），默认值false
+         */
+        private boolean replyEnabled = false;
+
+        /**
+         * 接收应答的topic，所有实例共用，按实例的tag区分，默认为生产组_REPLY
+         */
+        private String replyTopic;
+
+        /**
+         * 请求/应答的实例标识，用于生成本实例的应答tag和应答消费组，同时运行的实例之间不能相同，默认为客户端IP@进程号
+         */
+        private String replyInstanceId;
+
+        /**
+         * 对冲发送，只对topics中的topic的同步发送生效，这些topic的消费端需要能容忍重复消息
+         */
+        private Hedge hedge = new Hedge();
+
 
         public String getGroup() {
             return group;
@@ -110,6 +316,523 @@ public class RocketMQProperties {
         public void setMaxMessageSize(int maxMessageSize) {
             this.maxMessageSize = maxMessageSize;
         }
+        public boolean isAsyncStartup() {
+            return asyncStartup;
+        }
+        public void setAsyncStartup(boolean asyncStartup) {
+            this.asyncStartup = asyncStartup;
+        }
+        public List<String> getPrewarmTopics() {
+            return prewarmTopics;
+        }
+        public void setPrewarmTopics(List<String> prewarmTopics) {
+            this.prewarmTopics = prewarmTopics;
+        }
+        public int getProducerPoolSize() {
+            return producerPoolSize;
+        }
+        public void setProducerPoolSize(int producerPoolSize) {
+            this.producerPoolSize = producerPoolSize;
+        }
+        public ProducerStripeStrategy getProducerStripeStrategy() {
+            return producerStripeStrategy;
+        }
+        public void setProducerStripeStrategy(ProducerStripeStrategy producerStripeStrategy) {
+            this.producerStripeStrategy = producerStripeStrategy;
+        }
+        public String getCodec() {
+            return codec;
+        }
+        public void setCodec(String codec) {
+            this.codec = codec;
+        }
+        public String getCompression() {
+            return compression;
+        }
+        public void setCompression(String compression) {
+            this.compression = compression;
+        }
+        public int getCompressionThreshold() {
+            return compressionThreshold;
+        }
+        public void setCompressionThreshold(int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+        }
+        public int getZstdLevel() {
+            return zstdLevel;
+        }
+        public void setZstdLevel(int zstdLevel) {
+            this.zstdLevel = zstdLevel;
+        }
+        public OrderlyQueueSelectorType getOrderlyQueueSelector() {
+            return orderlyQueueSelector;
+        }
+        public void setOrderlyQueueSelector(OrderlyQueueSelectorType orderlyQueueSelector) {
+            this.orderlyQueueSelector = orderlyQueueSelector;
+        }
+        public double getHotKeyRatio() {
+            return hotKeyRatio;
+        }
+        public void setHotKeyRatio(double hotKeyRatio) {
+            this.hotKeyRatio = hotKeyRatio;
+        }
+        public long getHotKeyWindowMillis() {
+            return hotKeyWindowMillis;
+        }
+        public void setHotKeyWindowMillis(long hotKeyWindowMillis) {
+            this.hotKeyWindowMillis = hotKeyWindowMillis;
+        }
+        public boolean isLatencyAwareSelectorEnabled() {
+            return latencyAwareSelectorEnabled;
+        }
+        public void setLatencyAwareSelectorEnabled(boolean latencyAwareSelectorEnabled) {
+            this.latencyAwareSelectorEnabled = latencyAwareSelectorEnabled;
+        }
+        public double getLatencyEwmaAlpha() {
+            return latencyEwmaAlpha;
+        }
+        public void setLatencyEwmaAlpha(double latencyEwmaAlpha) {
+            this.latencyEwmaAlpha = latencyEwmaAlpha;
+        }
+        public int getMaxInFlightMessages() {
+            return maxInFlightMessages;
+        }
+        public void setMaxInFlightMessages(int maxInFlightMessages) {
+            this.maxInFlightMessages = maxInFlightMessages;
+        }
+        public int getMaxInFlightBytes() {
+            return maxInFlightBytes;
+        }
+        public void setMaxInFlightBytes(int maxInFlightBytes) {
+            this.maxInFlightBytes = maxInFlightBytes;
+        }
+        public InFlightRejectPolicy getInFlightRejectPolicy() {
+            return inFlightRejectPolicy;
+        }
+        public void setInFlightRejectPolicy(InFlightRejectPolicy inFlightRejectPolicy) {
+            this.inFlightRejectPolicy = inFlightRejectPolicy;
+        }
+        public boolean isMetricsEnabled() {
+            return metricsEnabled;
+        }
+        public void setMetricsEnabled(boolean metricsEnabled) {
+            this.metricsEnabled = metricsEnabled;
+        }
+        public RateLimit getRateLimit() {
+            return rateLimit;
+        }
+        public void setRateLimit(RateLimit rateLimit) {
+            this.rateLimit = rateLimit;
+        }
+        public Map<String, RateLimit> getTopicRateLimits() {
+            return topicRateLimits;
+        }
+        public void setTopicRateLimits(Map<String, RateLimit> topicRateLimits) {
+            this.topicRateLimits = topicRateLimits;
+        }
+        public boolean isOutboxEnabled() {
+            return outboxEnabled;
+        }
+        public void setOutboxEnabled(boolean outboxEnabled) {
+            this.outboxEnabled = outboxEnabled;
+        }
+        public OutboxMode getOutboxMode() {
+            return outboxMode;
+        }
+        public void setOutboxMode(OutboxMode outboxMode) {
+            this.outboxMode = outboxMode;
+        }
+        public String getOutboxDir() {
+            return outboxDir;
+        }
+        public void setOutboxDir(String outboxDir) {
+            this.outboxDir = outboxDir;
+        }
+        public int getOutboxSegmentSize() {
+            return outboxSegmentSize;
+        }
+        public void setOutboxSegmentSize(int outboxSegmentSize) {
+            this.outboxSegmentSize = outboxSegmentSize;
+        }
+        public int getOutboxReplayPermitsPerSecond() {
+            return outboxReplayPermitsPerSecond;
+        }
+        public void setOutboxReplayPermitsPerSecond(int outboxReplayPermitsPerSecond) {
+            this.outboxReplayPermitsPerSecond = outboxReplayPermitsPerSecond;
+        }
+        public boolean isBatchEnabled() {
+            return batchEnabled;
+        }
+        public void setBatchEnabled(boolean batchEnabled) {
+            this.batchEnabled = batchEnabled;
+        }
+        public int getBatchMaxMessages() {
+            return batchMaxMessages;
+        }
+        public void setBatchMaxMessages(int batchMaxMessages) {
+            this.batchMaxMessages = batchMaxMessages;
+        }
+        public int getBatchMaxBytes() {
+            return batchMaxBytes;
+        }
+        public void setBatchMaxBytes(int batchMaxBytes) {
+            this.batchMaxBytes = batchMaxBytes;
+        }
+        public long getBatchLingerMs() {
+            return batchLingerMs;
+        }
+        public void setBatchLingerMs(long batchLingerMs) {
+            this.batchLingerMs = batchLingerMs;
+        }
+        public int getSendManyMaxInFlight() {
+            return sendManyMaxInFlight;
+        }
+        public void setSendManyMaxInFlight(int sendManyMaxInFlight) {
+            this.sendManyMaxInFlight = sendManyMaxInFlight;
+        }
+        public boolean isChunkEnabled() {
+            return chunkEnabled;
+        }
+        public void setChunkEnabled(boolean chunkEnabled) {
+            this.chunkEnabled = chunkEnabled;
+        }
+        public int getChunkSize() {
+            return chunkSize;
+        }
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+        public boolean isReplyEnabled() {
+            return replyEnabled;
+        }
+        public void setReplyEnabled(boolean replyEnabled) {
+            this.replyEnabled = replyEnabled;
+        }
+        public String getReplyTopic() {
+            return replyTopic;
+        }
+        public void setReplyTopic(String replyTopic) {
+            this.replyTopic = replyTopic;
+        }
+        public String getReplyInstanceId() {
+            return replyInstanceId;
+        }
+        public void setReplyInstanceId(String replyInstanceId) {
+            this.replyInstanceId = replyInstanceId;
+        }
+        public Hedge getHedge() {
+            return hedge;
+        }
+        public void setHedge(Hedge hedge) {
+            this.hedge = hedge;
+        }
+    }
+
+    /**
+     * Consumer全局参数
+     */
+    public static class Consumer {
+
+        /**
+         * 是否所有listener共用一个消费线程池，按@RocketMQMessageListener的consumeWeight加权公平调度，默认值false
+         */
+        private boolean sharedExecutorEnabled = false;
+
+        /**
+         * 共用消费线程池的线程数，默认64
+         */
+        private int sharedExecutorThreads = 64;
+
+        /**
+         * 是否使用虚拟线程执行消费，JDK 21及以上的并发消费生效，同时执行的消息数不超过consumeThreadMax，默认值false
+         * 不满足条件时使用共用消费线程池或consumer自己的消费线程池
+         */
+        private boolean virtualThreadsEnabled = false;
+
+        /**
+         * 开启了adaptiveConcurrency的listener调节并发数的周期，单位毫秒，默认5000
+         */
+        private long adaptiveConcurrencyIntervalMillis = 5000;
+
+        /**
+         * 每条消息的平均耗时超过基线耗时的倍数时降低并发，大于1，默认2
+         */
+        private double adaptiveConcurrencyLatencyTolerance = 2.0;
+
+        /**
+         * 失败率超过该值时降低并发，取值[0, 1]，默认0.1
+         */
+        private double adaptiveConcurrencyErrorThreshold = 0.1;
+
+        /**
+         * 是否统计消费指标（每个listener的耗时直方图，成功、失败、重试消息数，tps，各队列的消费延迟），默认值false
+         * 类路径下有Micrometer且spring容器中有MeterRegistry时导出到Micrometer，否则导出到JMX
+         */
+        private boolean metricsEnabled = false;
+
+        /**
+         * 采集消费延迟、计算tps的周期，单位毫秒，默认10000
+         * 每个周期对分配到本实例的每个队列向broker查询一次最大offset
+         */
+        private long lagIntervalMillis = 10000;
+
+        /**
+         * lz4、zstd解压后消息体的最大字节数，默认64Mb
+         * 压缩消息头部记录的原长度超过该值时解压失败，避免异常消息耗尽内存
+         */
+        private int maxDecompressedSize = 64 * 1024 * 1024;
+
+        public boolean isSharedExecutorEnabled() {
+            return sharedExecutorEnabled;
+        }
+        public void setSharedExecutorEnabled(boolean sharedExecutorEnabled) {
+            this.sharedExecutorEnabled = sharedExecutorEnabled;
+        }
+        public int getSharedExecutorThreads() {
+            return sharedExecutorThreads;
+        }
+        public void setSharedExecutorThreads(int sharedExecutorThreads) {
+            this.sharedExecutorThreads = sharedExecutorThreads;
+        }
+        public boolean isVirtualThreadsEnabled() {
+            return virtualThreadsEnabled;
+        }
+        public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+            this.virtualThreadsEnabled = virtualThreadsEnabled;
+        }
+        public long getAdaptiveConcurrencyIntervalMillis() {
+            return adaptiveConcurrencyIntervalMillis;
+        }
+        public void setAdaptiveConcurrencyIntervalMillis(long adaptiveConcurrencyIntervalMillis) {
+            this.adaptiveConcurrencyIntervalMillis = adaptiveConcurrencyIntervalMillis;
+        }
+        public double getAdaptiveConcurrencyLatencyTolerance() {
+            return adaptiveConcurrencyLatencyTolerance;
+        }
+        public void setAdaptiveConcurrencyLatencyTolerance(double adaptiveConcurrencyLatencyTolerance) {
+            this.adaptiveConcurrencyLatencyTolerance = adaptiveConcurrencyLatencyTolerance;
+        }
+        public double getAdaptiveConcurrencyErrorThreshold() {
+            return adaptiveConcurrencyErrorThreshold;
+        }
+        public void setAdaptiveConcurrencyErrorThreshold(double adaptiveConcurrencyErrorThreshold) {
+            this.adaptiveConcurrencyErrorThreshold = adaptiveConcurrencyErrorThreshold;
+        }
+        public boolean isMetricsEnabled() {
+            return metricsEnabled;
+        }
+        public void setMetricsEnabled(boolean metricsEnabled) {
+            this.metricsEnabled = metricsEnabled;
+        }
+        public long getLagIntervalMillis() {
+            return lagIntervalMillis;
+        }
+        public void setLagIntervalMillis(long lagIntervalMillis) {
+            this.lagIntervalMillis = lagIntervalMillis;
+        }
+        public int getMaxDecompressedSize() {
+            return maxDecompressedSize;
+        }
+        public void setMaxDecompressedSize(int maxDecompressedSize) {
+            this.maxDecompressedSize = maxDecompressedSize;
+        }
+    }
+
+    /**
+     * topic路由快照参数
+     */
+    public static class RouteSnapshot {
+
+        /**
+         * 是否开启，默认值false
+         */
+        private boolean enabled = false;
+
+        /**
+         * 快照文件，默认${user.home}/rocketmq_route_snapshot/${spring.application.name}.snapshot
+         */
+        private String file;
+
+        /**
+         * 快照中路由的最长有效时间，超过后不再使用，单位毫秒，默认1小时，小于等于0时不过期
+         */
+        private long maxAgeMillis = 60 * 60 * 1000;
+
+        /**
+         * 定时保存快照的间隔，单位毫秒，默认30秒
+         */
+        private long saveIntervalMillis = 30 * 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        public String getFile() {
+            return file;
+        }
+        public void setFile(String file) {
+            this.file = file;
+        }
+        public long getMaxAgeMillis() {
+            return maxAgeMillis;
+        }
+        public void setMaxAgeMillis(long maxAgeMillis) {
+            this.maxAgeMillis = maxAgeMillis;
+        }
+        public long getSaveIntervalMillis() {
+            return saveIntervalMillis;
+        }
+        public void setSaveIntervalMillis(long saveIntervalMillis) {
+            this.saveIntervalMillis = saveIntervalMillis;
+        }
+    }
+
+    /**
+     * 对冲发送参数
+     */
+    public static class Hedge {
+
+        /**
+         * 是否开启，默认值false
+         */
+        private boolean enabled = false;
+
+        /**
+         * 开启对冲的topic，必须是幂等的topic
+         */
+        private List<String> topics = new ArrayList<String>();
+
+        /**
+         * 触发对冲的发送耗时分位数，0-1之间，默认0.95
+         */
+        private double percentile = 0.95;
+
+        /**
+         * 最小对冲延迟，单位毫秒，默认5
+         */
+        private long minDelayMillis = 5;
+
+        /**
+         * 对冲次数占发送次数的最大比例，0-1之间，默认0.05
+         */
+        private double maxHedgeRatio = 0.05;
+
+        /**
+         * 发送耗时的统计窗口，单位毫秒，默认60000
+         */
+        private long windowMillis = 60000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        public List<String> getTopics() {
+            return topics;
+        }
+        public void setTopics(List<String> topics) {
+            this.topics = topics;
+        }
+        public double getPercentile() {
+            return percentile;
+        }
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+        public long getMinDelayMillis() {
+            return minDelayMillis;
+        }
+        public void setMinDelayMillis(long minDelayMillis) {
+            this.minDelayMillis = minDelayMillis;
+        }
+        public double getMaxHedgeRatio() {
+            return maxHedgeRatio;
+        }
+        public void setMaxHedgeRatio(double maxHedgeRatio) {
+            this.maxHedgeRatio = maxHedgeRatio;
+        }
+        public long getWindowMillis() {
+            return windowMillis;
+        }
+        public void setWindowMillis(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+    }
+
+    /**
+     * 自适应发送速率限制参数
+     */
+    public static class RateLimit {
+
+        /**
+         * 是否开启，默认值false
+         */
+        private boolean enabled = false;
+
+        /**
+         * 最大发送速率，条/秒，也是初始速率，默认5000
+         */
+        private double maxPermitsPerSecond = 5000;
+
+        /**
+         * 最小发送速率，条/秒，默认10
+         */
+        private double minPermitsPerSecond = 10;
+
+        /**
+         * 发送正常时每秒增加的速率，默认100
+         */
+        private double increasePermits = 100;
+
+        /**
+         * 拥塞时速率乘以的系数，0-1之间，默认0.5
+         */
+        private double decreaseFactor = 0.5;
+
+        /**
+         * 发送耗时低于该值时才增加速率，单位毫秒，默认500
+         */
+        private long latencyThresholdMillis = 500;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        public double getMaxPermitsPerSecond() {
+            return maxPermitsPerSecond;
+        }
+        public void setMaxPermitsPerSecond(double maxPermitsPerSecond) {
+            this.maxPermitsPerSecond = maxPermitsPerSecond;
+        }
+        public double getMinPermitsPerSecond() {
+            return minPermitsPerSecond;
+        }
+        public void setMinPermitsPerSecond(double minPermitsPerSecond) {
+            this.minPermitsPerSecond = minPermitsPerSecond;
+        }
+        public double getIncreasePermits() {
+            return increasePermits;
+        }
+        public void setIncreasePermits(double increasePermits) {
+            this.increasePermits = increasePermits;
+        }
+        public double getDecreaseFactor() {
+            return decreaseFactor;
+        }
+        public void setDecreaseFactor(double decreaseFactor) {
+            this.decreaseFactor = decreaseFactor;
+        }
+        public long getLatencyThresholdMillis() {
+            return latencyThresholdMillis;
+        }
+        public void setLatencyThresholdMillis(long latencyThresholdMillis) {
+            this.latencyThresholdMillis = latencyThresholdMillis;
+        }
     }
 
 
@@ -125,4 +848,16 @@ public class RocketMQProperties {
     public void setProducer(Producer producer) {
         this.producer = producer;
     }
+    public RouteSnapshot getRouteSnapshot() {
+        return routeSnapshot;
+    }
+    public void setRouteSnapshot(RouteSnapshot routeSnapshot) {
+        this.routeSnapshot = routeSnapshot;
+    }
+    public Consumer getConsumer() {
+        return consumer;
+    }
+    public void setConsumer(Consumer consumer) {
+        this.consumer = consumer;
+    }
 }
@@ -0,0 +1,28 @@
+package com.freedom.starter.rocketmq.core.codec;
+
+import com.alibaba.fastjson.JSON;
+
+import java.lang.reflect.Type;
+
+/**
+ * 基于fastjson的JSON编解码，直接读写UTF-8的byte[]
+ */
+public class JsonMessageCodec implements MessageCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object payload) {
+        return JSON.toJSONBytes(payload);
+    }
+
+    @Override
+    public Object decode(byte[] body, Type type) {
+        return JSON.parseObject(body, type);
+    }
+}
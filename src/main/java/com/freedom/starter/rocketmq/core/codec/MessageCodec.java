@@ -0,0 +1,33 @@
+package com.freedom.starter.rocketmq.core.codec;
+
+import java.lang.reflect.Type;
+
+/**
+ * 消息体编解码接口
+ * 直接在对象和byte[]之间转换，不经过中间的字符串
+ *
+ * 发送时RocketMQTemplate会将getName()写入消息属性，消费端据此选择对应的MessageCodec解码，
+ * 自定义实现注册为spring bean或调用MessageCodecRegistry.register()后即可使用
+ */
+public interface MessageCodec {
+
+    /**
+     * 编解码器名称，需要全局唯一
+     */
+    String getName();
+
+    /**
+     * 对象编码为消息体
+     * @param payload  消息对象
+     * @return
+     */
+    byte[] encode(Object payload);
+
+    /**
+     * 消息体解码为对象
+     * @param body  消息体
+     * @param type  需要的对象类型
+     * @return
+     */
+    Object decode(byte[] body, Type type);
+}
@@ -0,0 +1,52 @@
+package com.freedom.starter.rocketmq.core.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * MessageCodec注册表，按名称查找编解码器
+ * 默认只注册了json，二进制编解码（如protobuf、hessian）由使用方实现MessageCodec后注册
+ */
+public class MessageCodecRegistry {
+
+    private static final ConcurrentMap<String, MessageCodec> codecs = new ConcurrentHashMap<String, MessageCodec>();
+
+    static {
+        register(new JsonMessageCodec());
+    }
+
+    private MessageCodecRegistry() {
+    }
+
+    /**
+     * 注册编解码器，同名的会被覆盖
+     * @param codec
+     */
+    public static void register(MessageCodec codec) {
+        if(codec==null || codec.getName()==null || "".equals(codec.getName())){
+            throw new IllegalArgumentException("'codec' and 'codec.name' cannot be null");
+        }
+        codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * 按名称获取编解码器
+     * @param name
+     * @return
+     */
+    public static MessageCodec get(String name) {
+        MessageCodec codec = codecs.get(name);
+        if(codec == null){
+            throw new IllegalArgumentException("MessageCodec [" + name + "] not registered");
+        }
+        return codec;
+    }
+
+    /**
+     * 默认的编解码器，json
+     * @return
+     */
+    public static MessageCodec getDefault() {
+        return get(JsonMessageCodec.NAME);
+    }
+}
@@ -0,0 +1,84 @@
+package com.freedom.starter.rocketmq.core.compress;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LZ4压缩，压缩率低于zlib，但压缩、解压速度快很多，适合对CPU敏感的场景
+ * 需要引入org.lz4:lz4-java
+ *
+ * 格式：[原消息体长度 int][LZ4 block]
+ * 解压时原消息体长度不能超过maxDecompressedSize，并使用校验输入的safeDecompressor，避免异常消息耗尽内存
+ */
+public class Lz4MessageCompressor implements MessageCompressor {
+
+    public static final String NAME = "lz4";
+
+    private final LZ4Compressor compressor;
+    private final LZ4SafeDecompressor decompressor;
+
+    /** 解压后消息体的最大字节数 */
+    private final int maxDecompressedSize;
+
+
+    public Lz4MessageCompressor() {
+        this(DEFAULT_MAX_DECOMPRESSED_SIZE);
+    }
+
+    public Lz4MessageCompressor(int maxDecompressedSize) {
+        if(maxDecompressedSize <= 0){
+            throw new IllegalArgumentException("'maxDecompressedSize' must be positive");
+        }
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+        this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+    public int getMaxDecompressedSize() {
+        return maxDecompressedSize;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] body) {
+        byte[] compressed = new byte[4 + compressor.maxCompressedLength(body.length)];
+        int length = compressor.compress(body, 0, body.length, compressed, 4, compressed.length - 4);
+        ByteBuffer.wrap(compressed).putInt(body.length);
+
+        byte[] result = new byte[4 + length];
+        System.arraycopy(compressed, 0, result, 0, result.length);
+        return result;
+    }
+
+    @Override
+    public byte[] decompress(byte[] compressed) {
+        if(compressed.length < 4){
+            throw new IllegalArgumentException("lz4 compressed body is too short. length:" + compressed.length);
+        }
+        int length = ByteBuffer.wrap(compressed).getInt();
+        if(length < 0 || length > maxDecompressedSize){
+            throw new IllegalArgumentException("invalid lz4 decompressed length:" + length + ", maxDecompressedSize:" + maxDecompressedSize);
+        }
+        byte[] body = new byte[length];
+        int size;
+        try {
+            size = decompressor.decompress(compressed, 4, compressed.length - 4, body, 0, length);
+        }
+        catch (LZ4Exception e) {
+            throw new IllegalArgumentException("lz4 decompress failed", e);
+        }
+        if(size != length){
+            throw new IllegalArgumentException("lz4 decompressed length mismatch. expected:" + length + ", actual:" + size);
+        }
+        return body;
+    }
+}
@@ -0,0 +1,33 @@
+package com.freedom.starter.rocketmq.core.compress;
+
+/**
+ * 消息体压缩器
+ * RocketMQTemplate发送时压缩超过阀值的消息体，并在消息属性中记录压缩器名称，
+ * DefaultRocketMQListenerContainer消费时按名称找到压缩器解压，再做类型转换
+ */
+public interface MessageCompressor {
+
+    /** 默认的解压后消息体最大字节数，64Mb，即4Mb的消息按16倍压缩率 */
+    int DEFAULT_MAX_DECOMPRESSED_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * 压缩器名称，随消息一起发送，消费端据此解压
+     * @return
+     */
+    String getName();
+
+    /**
+     * 压缩
+     * @param body  原消息体
+     * @return
+     */
+    byte[] compress(byte[] body);
+
+    /**
+     * 解压，消息体来自网络，长度等头信息不可信，需要校验
+     * @param compressed  compress()的结果
+     * @return
+     * @throws IllegalArgumentException  格式错误，或解压后超过最大长度
+     */
+    byte[] decompress(byte[] compressed);
+}
@@ -0,0 +1,77 @@
+package com.freedom.starter.rocketmq.core.compress;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+import org.springframework.util.ClassUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * MessageCompressor注册表，按名称查找压缩器
+ * 类路径下有lz4-java、zstd-jni时，自动注册lz4、zstd
+ * 使用spring boot时，RocketMQAutoConfiguration按配置的zstd压缩级别、解压后最大字节数重新注册
+ */
+public class MessageCompressorRegistry {
+
+    private static final ConcurrentMap<String, MessageCompressor> compressors = new ConcurrentHashMap<String, MessageCompressor>();
+
+    static {
+        registerBuiltin(ZstdMessageCompressor.DEFAULT_LEVEL, MessageCompressor.DEFAULT_MAX_DECOMPRESSED_SIZE);
+    }
+
+    private MessageCompressorRegistry() {
+    }
+
+    /**
+     * 按配置重新注册类路径下可用的lz4、zstd
+     * @param zstdLevel            zstd压缩级别
+     * @param maxDecompressedSize  解压后消息体的最大字节数
+     */
+    public static void registerBuiltin(int zstdLevel, int maxDecompressedSize) {
+        ClassLoader classLoader = MessageCompressorRegistry.class.getClassLoader();
+        if(ClassUtils.isPresent("net.jpountz.lz4.LZ4Factory", classLoader)){
+            register(new Lz4MessageCompressor(maxDecompressedSize));
+        }
+        if(ClassUtils.isPresent("com.github.luben.zstd.Zstd", classLoader)){
+            register(new ZstdMessageCompressor(zstdLevel, maxDecompressedSize));
+        }
+    }
+
+    /**
+     * 注册压缩器，同名的会被覆盖
+     * @param compressor
+     */
+    public static void register(MessageCompressor compressor) {
+        if(compressor==null || compressor.getName()==null || "".equals(compressor.getName())){
+            throw new IllegalArgumentException("'compressor' and 'compressor.name' cannot be null");
+        }
+        compressors.put(compressor.getName(), compressor);
+    }
+
+    /**
+     * 按名称获取压缩器
+     * @param name
+     * @return
+     */
+    public static MessageCompressor get(String name) {
+        MessageCompressor compressor = compressors.get(name);
+        if(compressor == null){
+            throw new IllegalArgumentException("MessageCompressor [" + name + "] not registered, check the compression library on classpath");
+        }
+        return compressor;
+    }
+
+    /**
+     * 如果消息体已被压缩，按消息属性中记录的压缩器解压，解压后的消息体写回消息并移除压缩标示
+     * @param message
+     */
+    public static void decompress(Message message) {
+        String name = message.getUserProperty(RocketMQMessageConst.PROPERTY_COMPRESSION);
+        if(name == null){
+            return;
+        }
+        message.setBody(get(name).decompress(message.getBody()));
+        message.getProperties().remove(RocketMQMessageConst.PROPERTY_COMPRESSION);  //避免重复解压
+    }
+}
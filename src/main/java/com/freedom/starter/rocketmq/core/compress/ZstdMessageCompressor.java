@@ -0,0 +1,81 @@
+package com.freedom.starter.rocketmq.core.compress;
+
+import com.github.luben.zstd.Zstd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * zstd压缩，压缩率接近甚至高于zlib，速度快于zlib
+ * 需要引入com.github.luben:zstd-jni
+ *
+ * 格式：[原消息体长度 int][zstd frame]
+ * 解压时原消息体长度不能超过maxDecompressedSize，避免异常消息耗尽内存
+ */
+public class ZstdMessageCompressor implements MessageCompressor {
+
+    public static final String NAME = "zstd";
+
+    /** 默认压缩级别 */
+    public static final int DEFAULT_LEVEL = 3;
+
+    /** 压缩级别，1-22，越大压缩率越高、越慢 */
+    private final int level;
+
+    /** 解压后消息体的最大字节数 */
+    private final int maxDecompressedSize;
+
+
+    public ZstdMessageCompressor() {
+        this(DEFAULT_LEVEL);
+    }
+
+    public ZstdMessageCompressor(int level) {
+        this(level, DEFAULT_MAX_DECOMPRESSED_SIZE);
+    }
+
+    public ZstdMessageCompressor(int level, int maxDecompressedSize) {
+        if(maxDecompressedSize <= 0){
+            throw new IllegalArgumentException("'maxDecompressedSize' must be positive");
+        }
+        this.level = level;
+        this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+    public int getMaxDecompressedSize() {
+        return maxDecompressedSize;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] body) {
+        byte[] compressed = Zstd.compress(body, level);
+        return ByteBuffer.allocate(4 + compressed.length).putInt(body.length).put(compressed).array();
+    }
+
+    @Override
+    public byte[] decompress(byte[] compressed) {
+        if(compressed.length < 4){
+            throw new IllegalArgumentException("zstd compressed body is too short. length:" + compressed.length);
+        }
+        int length = ByteBuffer.wrap(compressed).getInt();
+        if(length < 0 || length > maxDecompressedSize){
+            throw new IllegalArgumentException("invalid zstd decompressed length:" + length + ", maxDecompressedSize:" + maxDecompressedSize);
+        }
+        byte[] body = new byte[length];
+        long size = Zstd.decompressByteArray(body, 0, length, compressed, 4, compressed.length - 4);
+        if(Zstd.isError(size)){
+            throw new IllegalArgumentException("zstd decompress failed: " + Zstd.getErrorName(size));
+        }
+        if(size != length){
+            throw new IllegalArgumentException("zstd decompressed length mismatch. expected:" + length + ", actual:" + size);
+        }
+        return body;
+    }
+}
@@ -0,0 +1,351 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消费并发数自动调节（AIMD）
+ * 每个调节周期统计消费耗时、失败率和积压消息数，在[minConcurrency, maxConcurrency]之间调整并发数：
+ * 1、失败率超过errorThreshold，或平均耗时超过基线耗时的latencyTolerance倍（下游变慢），并发数乘以DECREASE_FACTOR
+ * 2、积压没有减少且并发已用满，并发数加1
+ * 3、没有积压且并发使用不到一半，并发数减1，逐步归还线程
+ * 基线耗时是正常周期平均耗时的EWMA，变慢的周期以更小的权重计入，下游长期变慢时基线随之升高，不会一直减到最小并发
+ *
+ * 每次调节的结果记录在计数器中，通过JMX查看
+ */
+public class ConsumeConcurrencyTuner implements ConsumeConcurrencyTunerMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(ConsumeConcurrencyTuner.class);
+
+    public static final String INCREASE = "INCREASE";
+    public static final String DECREASE = "DECREASE";
+    public static final String HOLD = "HOLD";
+
+    /** 拥塞时并发数乘以的系数 */
+    private static final double DECREASE_FACTOR = 0.75;
+
+    /** 正常周期计入基线耗时的权重 */
+    private static final double BASELINE_ALPHA = 0.1;
+
+    /** 变慢的周期计入基线耗时的权重 */
+    private static final double CONGESTED_BASELINE_ALPHA = 0.02;
+
+    /** 所有tuner共用的调节线程 */
+    private static volatile ScheduledExecutorService scheduler;
+
+    /** 被调节的消费执行器 */
+    public interface Target {
+        /** 积压消息数，包括已拉取未消费的和broker上未拉取的 */
+        long getBacklog();
+
+        /** 正在执行的消费任务数 */
+        int getActiveCount();
+
+        /** 设置并发数 */
+        void setConcurrency(int concurrency);
+    }
+
+    /**
+     * 调节ThreadPoolExecutor类型的消费执行器
+     * 共用消费线程池的Lane和虚拟线程执行器重写了setCorePoolSize()，核心线程数就是并发上限；
+     * consumer自己的消费线程池使用无界LinkedBlockingQueue，有积压时工作线程取任务不会超时，只调小核心线程数时忙碌的线程不会退出，
+     * 因此同时调整maximumPoolSize，线程数超过maximumPoolSize时，工作线程在取下一个任务前退出
+     */
+    public abstract static class ExecutorTarget implements Target {
+        private final ThreadPoolExecutor executor;
+
+        public ExecutorTarget(ThreadPoolExecutor executor) {
+            if(executor == null){
+                throw new IllegalArgumentException("'executor' cannot be null");
+            }
+            this.executor = executor;
+        }
+
+        @Override
+        public int getActiveCount() {
+            return executor.getActiveCount();
+        }
+
+        @Override
+        public void setConcurrency(int concurrency) {
+            if(executor instanceof SharedConsumeExecutor.Lane || executor instanceof VirtualThreadConsumeExecutor){
+                executor.setCorePoolSize(concurrency);
+            }
+            else if(concurrency > executor.getMaximumPoolSize()){
+                executor.setMaximumPoolSize(concurrency);  //增大时先调整最大线程数，核心线程数不能超过它
+                executor.setCorePoolSize(concurrency);
+            }
+            else {
+                executor.setCorePoolSize(concurrency);  //减小时先调整核心线程数，最大线程数不能小于它
+                executor.setMaximumPoolSize(concurrency);
+            }
+        }
+    }
+
+    private final String consumerGroup;
+    private final String topic;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final double latencyTolerance;
+    private final double errorThreshold;
+    private final Target target;
+
+    private volatile int concurrency;
+
+    /** 当前周期的消费统计 */
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong costMillis = new AtomicLong();
+
+    /** 基线耗时、上个周期的积压，只在调节线程中写 */
+    private volatile double baselineLatency;
+    private volatile long lastBacklog = -1;
+    private volatile double lastLatency;
+    private volatile double lastErrorRate;
+    private volatile String lastDecision = HOLD;
+
+    private final AtomicLong increaseCount = new AtomicLong();
+    private final AtomicLong decreaseCount = new AtomicLong();
+    private final AtomicLong holdCount = new AtomicLong();
+
+    private ScheduledFuture<?> future;
+
+
+    /**
+     * @param consumerGroup     消费组
+     * @param topic             主题
+     * @param minConcurrency    最小并发数，也是初始并发数
+     * @param maxConcurrency    最大并发数
+     * @param latencyTolerance  平均耗时超过基线耗时的倍数时降低并发，大于1
+     * @param errorThreshold    失败率超过该值时降低并发，取值[0, 1]
+     * @param target            被调节的消费执行器
+     */
+    public ConsumeConcurrencyTuner(String consumerGroup, String topic, int minConcurrency, int maxConcurrency,
+                                   double latencyTolerance, double errorThreshold, Target target) {
+        if(minConcurrency <= 0 || maxConcurrency < minConcurrency){
+            throw new IllegalArgumentException("'minConcurrency' must be positive and not greater than 'maxConcurrency'");
+        }
+        if(latencyTolerance <= 1){
+            throw new IllegalArgumentException("'latencyTolerance' must be greater than 1");
+        }
+        if(errorThreshold < 0 || errorThreshold > 1){
+            throw new IllegalArgumentException("'errorThreshold' must be in [0, 1]");
+        }
+        if(target == null){
+            throw new IllegalArgumentException("'target' cannot be null");
+        }
+        this.consumerGroup = consumerGroup;
+        this.topic = topic;
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.latencyTolerance = latencyTolerance;
+        this.errorThreshold = errorThreshold;
+        this.target = target;
+        this.concurrency = minConcurrency;
+    }
+
+
+    /**
+     * 设置初始并发数，开始周期调节
+     * @param intervalMillis  调节周期，单位毫秒
+     */
+    public synchronized void start(long intervalMillis) {
+        if(intervalMillis <= 0){
+            throw new IllegalArgumentException("'intervalMillis' must be positive");
+        }
+        if(future != null){
+            return;
+        }
+        target.setConcurrency(concurrency);
+        future = scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tune();
+                }
+                catch (Throwable e) {
+                    logger.warn("tune consume concurrency failed. consumerGroup:{}", consumerGroup, e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if(future != null){
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    /**
+     * 记录一次消费
+     * @param messages    消息条数
+     * @param costMillis  耗时
+     * @param success     是否全部成功
+     */
+    public void record(int messages, long costMillis, boolean success) {
+        consumed.addAndGet(messages);
+        this.costMillis.addAndGet(costMillis);
+        if(!success){
+            failed.addAndGet(messages);
+        }
+    }
+
+    /**
+     * 按上个周期的统计调节一次并发数
+     */
+    void tune() {
+        long count = consumed.getAndSet(0);
+        long errors = failed.getAndSet(0);
+        long cost = costMillis.getAndSet(0);
+        long backlog = target.getBacklog();
+        int active = target.getActiveCount();
+        int current = concurrency;
+
+        double latency = count > 0 ? (double) cost / count : lastLatency;
+        double errorRate = count > 0 ? (double) errors / count : 0;
+        if(count > 0 && baselineLatency == 0){
+            baselineLatency = Math.max(latency, 1);  //第一个有消费的周期作为初始基线
+        }
+
+        int next = current;
+        boolean congested = count > 0 && (errorRate > errorThreshold || latency > baselineLatency * latencyTolerance);
+        if(congested){
+            next = Math.max(minConcurrency, (int) (current * DECREASE_FACTOR));
+            baselineLatency += (latency - baselineLatency) * CONGESTED_BASELINE_ALPHA;
+        }
+        else {
+            if(count > 0){
+                baselineLatency = Math.max(1, baselineLatency + (latency - baselineLatency) * BASELINE_ALPHA);
+            }
+            if(backlog > 0 && backlog >= lastBacklog && active >= current){
+                next = Math.min(maxConcurrency, current + 1);  //积压没有减少且并发已用满
+            }
+            else if(backlog == 0 && active * 2 < current){
+                next = Math.max(minConcurrency, current - 1);  //空闲时逐步归还
+            }
+        }
+
+        String decision = next > current ? INCREASE : next < current ? DECREASE : HOLD;
+        if(next != current){
+            target.setConcurrency(next);
+            concurrency = next;
+        }
+        if(INCREASE.equals(decision)){
+            increaseCount.incrementAndGet();
+        }
+        else if(DECREASE.equals(decision)){
+            decreaseCount.incrementAndGet();
+        }
+        else {
+            holdCount.incrementAndGet();
+        }
+        lastDecision = decision;
+        lastLatency = latency;
+        lastErrorRate = errorRate;
+        lastBacklog = backlog;
+
+        if(next != current){
+            logger.info("consume concurrency {} {} -> {}, consumerGroup:{}, latency:{}ms, baseline:{}ms, errorRate:{}, backlog:{}",
+                    decision, current, next, consumerGroup, String.format("%.1f", latency), String.format("%.1f", baselineLatency),
+                    String.format("%.3f", errorRate), backlog);
+        }
+    }
+
+    private static ScheduledExecutorService scheduler() {
+        if(scheduler == null){
+            synchronized (ConsumeConcurrencyTuner.class) {
+                if(scheduler == null){
+                    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "RocketMQConcurrencyTuner");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return scheduler;
+    }
+
+
+    @Override
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public int getMinConcurrency() {
+        return minConcurrency;
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public double getBaselineLatencyMillis() {
+        return baselineLatency;
+    }
+
+    @Override
+    public double getLastLatencyMillis() {
+        return lastLatency;
+    }
+
+    @Override
+    public double getLastErrorRate() {
+        return lastErrorRate;
+    }
+
+    @Override
+    public long getLastBacklog() {
+        return lastBacklog;
+    }
+
+    @Override
+    public String getLastDecision() {
+        return lastDecision;
+    }
+
+    @Override
+    public long getIncreaseCount() {
+        return increaseCount.get();
+    }
+
+    @Override
+    public long getDecreaseCount() {
+        return decreaseCount.get();
+    }
+
+    @Override
+    public long getHoldCount() {
+        return holdCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumeConcurrencyTuner{consumerGroup=" + consumerGroup + ", topic=" + topic + ", concurrency=" + concurrency
+                + ", min=" + minConcurrency + ", max=" + maxConcurrency + ", lastDecision=" + lastDecision + "}";
+    }
+}
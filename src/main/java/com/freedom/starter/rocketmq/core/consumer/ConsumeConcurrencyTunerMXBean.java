@@ -0,0 +1,42 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+/**
+ * 消费并发数自动调节的JMX接口
+ */
+public interface ConsumeConcurrencyTunerMXBean {
+
+    String getConsumerGroup();
+
+    String getTopic();
+
+    /** 当前并发数 */
+    int getConcurrency();
+
+    int getMinConcurrency();
+
+    int getMaxConcurrency();
+
+    /** 基线耗时，单位毫秒 */
+    double getBaselineLatencyMillis();
+
+    /** 上个周期每条消息的平均耗时，单位毫秒 */
+    double getLastLatencyMillis();
+
+    /** 上个周期的失败率 */
+    double getLastErrorRate();
+
+    /** 上个周期的积压消息数 */
+    long getLastBacklog();
+
+    /** 上个周期的调节结果，INCREASE、DECREASE或HOLD */
+    String getLastDecision();
+
+    /** 增加并发的次数 */
+    long getIncreaseCount();
+
+    /** 降低并发的次数 */
+    long getDecreaseCount();
+
+    /** 保持不变的次数 */
+    long getHoldCount();
+}
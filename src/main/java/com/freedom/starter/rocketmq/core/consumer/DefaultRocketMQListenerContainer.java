@@ -1,6 +1,5 @@
 package com.freedom.starter.rocketmq.core.consumer;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
 import com.alibaba.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
 import com.alibaba.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
@@ -8,23 +7,48 @@ import com.alibaba.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
 import com.alibaba.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
 import com.alibaba.rocketmq.client.consumer.listener.MessageListenerConcurrently;
 import com.alibaba.rocketmq.client.consumer.listener.MessageListenerOrderly;
+import com.alibaba.rocketmq.client.consumer.store.ReadOffsetType;
 import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.client.impl.consumer.ConsumeMessageService;
+import com.alibaba.rocketmq.client.impl.consumer.ProcessQueue;
 import com.alibaba.rocketmq.common.consumer.ConsumeFromWhere;
 import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
+import com.freedom.starter.rocketmq.core.codec.MessageCodec;
+import com.freedom.starter.rocketmq.core.codec.MessageCodecRegistry;
+import com.freedom.starter.rocketmq.core.metrics.ConsumeMetrics;
+import com.freedom.starter.rocketmq.core.metrics.JmxSendMetricsExporter;
+import com.freedom.starter.rocketmq.core.metrics.RocketMQConsumeMetrics;
+import com.freedom.starter.rocketmq.core.producer.RocketMQTemplate;
+import com.freedom.starter.rocketmq.core.route.TopicRouteSnapshot;
 import com.freedom.starter.rocketmq.enums.ConsumeMode;
+import com.freedom.starter.rocketmq.enums.DedupKey;
 import com.freedom.starter.rocketmq.enums.SelectorType;
+import com.freedom.starter.rocketmq.message.MessageBatchEnvelope;
+import com.freedom.starter.rocketmq.message.MessageChunks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
-import java.lang.reflect.ParameterizedType;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
 import java.lang.reflect.Type;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * 整合rocketmq consumer监听消息 和 调用对应的RocketMQListener的onMessage()方法处理消费消息的逻辑
@@ -38,6 +62,15 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
     /** 消费监听接口实现 */
     private RocketMQListener rocketMQListener;
 
+    /** 请求/应答的应答方实现，和rocketMQListener、rocketMQBatchListener三选一 */
+    private RocketMQReplyListener<?, ?> rocketMQReplyListener;
+
+    /** 批量消费接口实现，和rocketMQListener、rocketMQReplyListener三选一 */
+    private RocketMQBatchListener<?> rocketMQBatchListener;
+
+    /** 发送应答的RocketMQTemplate，使用rocketMQReplyListener时必须设置 */
+    private RocketMQTemplate rocketMQTemplate;
+
     /** consumer是否启动标示 */
     private volatile boolean started;
 
@@ -71,6 +104,12 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
     /** 最大消费线程数，默认64 */
     private int consumeThreadMax = 64;
 
+    /** KEY_ORDERED消费模式下的lane数量，默认16 */
+    private int keyOrderedLanes = 16;
+
+    /** KEY_ORDERED消费模式的分发器，初始化consumer时创建 */
+    private KeyOrderedDispatcher keyOrderedDispatcher;
+
     /** 最大批量消费消息数量，默认值1 */
     private int consumeMessageBatchMaxSize = 1;
 
@@ -92,16 +131,111 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
      */
     private long suspendCurrentQueueTimeMillis = 1000;
 
-    /** rocketMQListener监听接口需要的消息类型 */
-    private Class messageType;
+    /** rocketMQListener监听接口需要的消息类型，包含泛型参数 */
+    private Type messageType;
+
+    /** 按messageType创建的解码器，start()时创建 */
+    private MessageDecoder messageDecoder;
 
     private String charset = "UTF-8";
 
+    /** 消息没有记录编解码器名称时使用的编解码器，默认json */
+    private MessageCodec messageCodec = MessageCodecRegistry.getDefault();
+
+    /** 分片消息重组时缓存分片的最大字节数，默认64Mb */
+    private long chunkBufferBytes = 64 * 1024 * 1024;
+
+    /** 分片消息收齐的超时时间，单位毫秒，默认60秒 */
+    private long chunkTimeoutMillis = 60 * 1000;
+
+    /** 分片消息重组，start()时创建 */
+    private MessageChunkAssembler chunkAssembler;
+
+    /** 顺序消费时各队列未收齐的分片组id，不为空时不提交该队列的offset */
+    private final ConcurrentMap<MessageQueue, Set<String>> pendingChunkGroups = new ConcurrentHashMap<MessageQueue, Set<String>>();
+
+    /** 并发消费收到分片消息时是否已打印警告 */
+    private volatile boolean concurrentChunkWarned;
+
+    /** topic路由快照，consumer启动前写入快照中的路由，为null时不使用 */
+    private TopicRouteSnapshot topicRouteSnapshot;
+
+    /** 消费端去重的消息标识，默认不去重 */
+    private DedupKey dedupKey = DedupKey.NONE;
+
+    /** 去重最多记录的消息数，默认100000 */
+    private int dedupMaxEntries = 100000;
+
+    /** 去重最长记录时间，单位毫秒，默认10分钟 */
+    private long dedupWindowMillis = 10 * 60 * 1000;
+
+    /** 消费端去重，dedupKey不为NONE时start()创建 */
+    private MessageDeduplicator deduplicator;
+
+    /** 去重指标注册的JMX ObjectName */
+    private ObjectName dedupObjectName;
+
+    /** 所有container共用的消费线程池，为null时使用consumer自己的消费线程池 */
+    private SharedConsumeExecutor sharedConsumeExecutor;
+
+    /** 共用消费线程池中的权重，默认1 */
+    private int consumeWeight = 1;
+
+    /** 共用消费线程池中的最低并发，默认1 */
+    private int consumeMinShare = 1;
+
+    /** 是否使用虚拟线程执行消费，JDK 21以下或非并发消费时不生效 */
+    private boolean virtualThreads = false;
+
+    /** 虚拟线程消费执行器，start()时创建 */
+    private VirtualThreadConsumeExecutor virtualThreadExecutor;
+
+    /** 共用消费线程池中本container的任务队列，start()时创建 */
+    private SharedConsumeExecutor.Lane sharedConsumeLane;
+
+    /** 共用消费线程池队列指标注册的JMX ObjectName */
+    private ObjectName sharedLaneObjectName;
+
+    /** 是否自动调节并发数，在consumeThreadMin和consumeThreadMax之间调整，默认false */
+    private boolean adaptiveConcurrency = false;
+
+    /** 并发数调节周期，单位毫秒，默认5秒 */
+    private long adaptiveConcurrencyIntervalMillis = 5000;
+
+    /** 平均耗时超过基线耗时的倍数时降低并发，默认2 */
+    private double adaptiveConcurrencyLatencyTolerance = 2.0;
+
+    /** 失败率超过该值时降低并发，默认0.1 */
+    private double adaptiveConcurrencyErrorThreshold = 0.1;
+
+    /** 并发数自动调节，start()时创建 */
+    private ConsumeConcurrencyTuner concurrencyTuner;
+
+    /** 并发数调节指标注册的JMX ObjectName */
+    private ObjectName tunerObjectName;
+
+    /** consumer内部的消费线程池，或替换后的共用消费线程池队列、虚拟线程执行器 */
+    private volatile ThreadPoolExecutor consumeExecutor;
+
+    /** 所有container的消费指标，为null时不记录 */
+    private RocketMQConsumeMetrics rocketMQConsumeMetrics;
+
+    /** 本container的消费指标，start()时创建 */
+    private ConsumeMetrics consumeMetrics;
 
 
     public void setRocketMQListener(RocketMQListener rocketMQListener) {
         this.rocketMQListener = rocketMQListener;
     }
+    public void setRocketMQReplyListener(RocketMQReplyListener<?, ?> rocketMQReplyListener) {
+        this.rocketMQReplyListener = rocketMQReplyListener;
+    }
+    public void setRocketMQBatchListener(RocketMQBatchListener<?> rocketMQBatchListener) {
+        this.rocketMQBatchListener = rocketMQBatchListener;
+    }
+    public void setRocketMQTemplate(RocketMQTemplate rocketMQTemplate) {
+        this.rocketMQTemplate = rocketMQTemplate;
+    }
     public boolean isStarted() {
         return started;
     }
@@ -168,6 +302,12 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
     public void setConsumeThreadMax(int consumeThreadMax) {
         this.consumeThreadMax = consumeThreadMax;
     }
+    public int getKeyOrderedLanes() {
+        return keyOrderedLanes;
+    }
+    public void setKeyOrderedLanes(int keyOrderedLanes) {
+        this.keyOrderedLanes = keyOrderedLanes;
+    }
     public int getConsumeMessageBatchMaxSize() {
         return consumeMessageBatchMaxSize;
     }
@@ -198,6 +338,120 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
     public void setCharset(String charset) {
         this.charset = charset;
     }
+    public MessageCodec getMessageCodec() {
+        return messageCodec;
+    }
+    public void setMessageCodec(MessageCodec messageCodec) {
+        this.messageCodec = messageCodec;
+    }
+    public long getChunkBufferBytes() {
+        return chunkBufferBytes;
+    }
+    public void setChunkBufferBytes(long chunkBufferBytes) {
+        this.chunkBufferBytes = chunkBufferBytes;
+    }
+    public long getChunkTimeoutMillis() {
+        return chunkTimeoutMillis;
+    }
+    public void setChunkTimeoutMillis(long chunkTimeoutMillis) {
+        this.chunkTimeoutMillis = chunkTimeoutMillis;
+    }
+    public MessageChunkAssembler getChunkAssembler() {
+        return chunkAssembler;
+    }
+    public TopicRouteSnapshot getTopicRouteSnapshot() {
+        return topicRouteSnapshot;
+    }
+    public void setTopicRouteSnapshot(TopicRouteSnapshot topicRouteSnapshot) {
+        this.topicRouteSnapshot = topicRouteSnapshot;
+    }
+    public DedupKey getDedupKey() {
+        return dedupKey;
+    }
+    public void setDedupKey(DedupKey dedupKey) {
+        this.dedupKey = dedupKey;
+    }
+    public int getDedupMaxEntries() {
+        return dedupMaxEntries;
+    }
+    public void setDedupMaxEntries(int dedupMaxEntries) {
+        this.dedupMaxEntries = dedupMaxEntries;
+    }
+    public long getDedupWindowMillis() {
+        return dedupWindowMillis;
+    }
+    public void setDedupWindowMillis(long dedupWindowMillis) {
+        this.dedupWindowMillis = dedupWindowMillis;
+    }
+    public MessageDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+    public SharedConsumeExecutor getSharedConsumeExecutor() {
+        return sharedConsumeExecutor;
+    }
+    public void setSharedConsumeExecutor(SharedConsumeExecutor sharedConsumeExecutor) {
+        this.sharedConsumeExecutor = sharedConsumeExecutor;
+    }
+    public int getConsumeWeight() {
+        return consumeWeight;
+    }
+    public void setConsumeWeight(int consumeWeight) {
+        this.consumeWeight = consumeWeight;
+    }
+    public int getConsumeMinShare() {
+        return consumeMinShare;
+    }
+    public void setConsumeMinShare(int consumeMinShare) {
+        this.consumeMinShare = consumeMinShare;
+    }
+    public SharedConsumeExecutor.Lane getSharedConsumeLane() {
+        return sharedConsumeLane;
+    }
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+    public VirtualThreadConsumeExecutor getVirtualThreadExecutor() {
+        return virtualThreadExecutor;
+    }
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+    public long getAdaptiveConcurrencyIntervalMillis() {
+        return adaptiveConcurrencyIntervalMillis;
+    }
+    public void setAdaptiveConcurrencyIntervalMillis(long adaptiveConcurrencyIntervalMillis) {
+        this.adaptiveConcurrencyIntervalMillis = adaptiveConcurrencyIntervalMillis;
+    }
+    public double getAdaptiveConcurrencyLatencyTolerance() {
+        return adaptiveConcurrencyLatencyTolerance;
+    }
+    public void setAdaptiveConcurrencyLatencyTolerance(double adaptiveConcurrencyLatencyTolerance) {
+        this.adaptiveConcurrencyLatencyTolerance = adaptiveConcurrencyLatencyTolerance;
+    }
+    public double getAdaptiveConcurrencyErrorThreshold() {
+        return adaptiveConcurrencyErrorThreshold;
+    }
+    public void setAdaptiveConcurrencyErrorThreshold(double adaptiveConcurrencyErrorThreshold) {
+        this.adaptiveConcurrencyErrorThreshold = adaptiveConcurrencyErrorThreshold;
+    }
+    public ConsumeConcurrencyTuner getConcurrencyTuner() {
+        return concurrencyTuner;
+    }
+    public RocketMQConsumeMetrics getRocketMQConsumeMetrics() {
+        return rocketMQConsumeMetrics;
+    }
+    public void setRocketMQConsumeMetrics(RocketMQConsumeMetrics rocketMQConsumeMetrics) {
+        this.rocketMQConsumeMetrics = rocketMQConsumeMetrics;
+    }
+    public ConsumeMetrics getConsumeMetrics() {
+        return consumeMetrics;
+    }
 
 
     /**
@@ -218,7 +472,21 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
      */
     @Override
     public void destroy() throws Exception {
+        if(concurrencyTuner != null){
+            concurrencyTuner.stop();
+            unregisterMBean(tunerObjectName);
+            tunerObjectName = null;
+        }
+        if(consumeMetrics != null){
+            rocketMQConsumeMetrics.unregister(consumeMetrics);
+        }
         consumer.shutdown();
+        if(keyOrderedDispatcher != null){
+            keyOrderedDispatcher.shutdown();
+        }
+        unregisterDeduplicator();
+        unregisterMBean(sharedLaneObjectName);
+        sharedLaneObjectName = null;
     }
 
 
@@ -236,13 +504,43 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
         //初始化consumer
         initRocketMQPushConsumer();
 
+        //大消息的分片重组
+        this.chunkAssembler = new MessageChunkAssembler(chunkBufferBytes, chunkTimeoutMillis);
+
         // 获取需要转换的消息类型
         this.messageType = getMessageType();
-        logger.debug("msgType: {}", messageType.getName());
+        this.messageDecoder = MessageDecoders.create(messageType, charset, messageCodec);
+        logger.debug("msgType: {}", messageType);
+
+        //消费端去重
+        if(dedupKey != null && dedupKey != DedupKey.NONE){
+            this.deduplicator = new MessageDeduplicator(consumerGroup, topic, dedupKey, dedupMaxEntries, dedupWindowMillis);
+            registerDeduplicator();
+        }
+
+        //写入快照中的路由，nameServer不可用时也能立即开始消费
+        if(topicRouteSnapshot != null){
+            topicRouteSnapshot.seedConsumer(consumer);
+        }
 
         //启动rocketmq consumer
         consumer.start();
 
+        //使用虚拟线程或共用消费线程池，都不可用时使用consumer自己的消费线程池
+        if(!(virtualThreads && useVirtualThreads()) && sharedConsumeExecutor != null){
+            useSharedConsumeExecutor();
+        }
+
+        //自动调节并发数
+        if(adaptiveConcurrency){
+            startConcurrencyTuner();
+        }
+
+        //消费指标和消费延迟
+        if(rocketMQConsumeMetrics != null){
+            registerConsumeMetrics();
+        }
+
         //设置启动标示
         this.setStarted(true);
 
@@ -254,7 +552,11 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
      */
     private void initRocketMQPushConsumer() throws MQClientException {
         //校验
-        Assert.notNull(rocketMQListener, "Property 'rocketMQListener' is required");
+        Assert.isTrue(rocketMQListener != null || rocketMQReplyListener != null || rocketMQBatchListener != null,
+                "Property 'rocketMQListener', 'rocketMQReplyListener' or 'rocketMQBatchListener' is required");
+        if(rocketMQReplyListener != null){
+            Assert.notNull(rocketMQTemplate, "Property 'rocketMQTemplate' is required when using 'rocketMQReplyListener'");
+        }
         Assert.notNull(consumerGroup, "Property 'consumerGroup' is required");
         Assert.notNull(nameServer, "Property 'nameServer' is required");
         Assert.notNull(topic, "Property 'topic' is required");
@@ -274,6 +576,14 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
             consumer.setConsumeThreadMin(consumeThreadMin);
         }
 
+        if(consumeMode == ConsumeMode.KEY_ORDERED){
+            //KEY_ORDERED只在一批消息内并行，批量至少取lane数
+            int batchMaxSize = KeyOrderedDispatcher.batchMaxSize(consumeMessageBatchMaxSize, keyOrderedLanes);
+            if(batchMaxSize != consumeMessageBatchMaxSize){
+                logger.info("consumeMode KEY_ORDERED adjust consumeMessageBatchMaxSize from {} to {}, consumerGroup:{}", consumeMessageBatchMaxSize, batchMaxSize, consumerGroup);
+                consumeMessageBatchMaxSize = batchMaxSize;
+            }
+        }
         consumer.setConsumeMessageBatchMaxSize(consumeMessageBatchMaxSize);  //最大批量消息大小，默认值1
 
         consumer.setMessageModel(messageModel);  //默认集群模式
@@ -296,6 +606,11 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
             case ORDERLY:  //顺序消费
                 consumer.setMessageListener(new DefaultMessageListenerOrderly());
                 break;
+            case KEY_ORDERED:  //按keys顺序消费，同一队列中keys不同的消息并行处理
+                Assert.isNull(rocketMQBatchListener, "RocketMQBatchListener does not support consumeMode KEY_ORDERED");
+                keyOrderedDispatcher = new KeyOrderedDispatcher(consumerGroup, keyOrderedLanes);
+                consumer.setMessageListener(new DefaultMessageListenerKeyOrdered());
+                break;
             default:
                 throw new IllegalArgumentException("Property 'consumeMode' was wrong.");
         }
@@ -304,83 +619,444 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
          * provide an entryway to custom setting RocketMQ consumer
          * 如果rocketMQListener实现了RocketMQPushConsumerLifecycleListener接口，就将consumer作为参数传入，可在consumer启动前进行配置
          */
-        if (rocketMQListener instanceof RocketMQPushConsumerLifecycleListener) {
-            ((RocketMQPushConsumerLifecycleListener) rocketMQListener).prepareStart(consumer);
+        if (getListener() instanceof RocketMQPushConsumerLifecycleListener) {
+            ((RocketMQPushConsumerLifecycleListener) getListener()).prepareStart(consumer);
         }
     }
 
     /**
-     * 获取RocketMQListener接口的类型
-     * @return
+     * 去重的命中、未命中次数注册为JMX MBean
+     * ObjectName：com.freedom.starter.rocketmq:type=ConsumeDedup,consumerGroup=消费组,topic=主题
      */
-    private Class getMessageType() {
-        //得到目标类实现的接口对应的Type对象，带泛型信息  RocketMQListener<T>
-        Type[] interfaces = rocketMQListener.getClass().getGenericInterfaces();
-
-        if (interfaces != null) {
-            for (Type type : interfaces) {
-                //ParameterizedType表示参数化的类型，比如Collection<String>
-                if (type instanceof ParameterizedType) {
-                    ParameterizedType parameterizedType = (ParameterizedType) type;
-
-                    //如果接口原始类型是RocketMQListener
-                    if (Objects.equals(parameterizedType.getRawType(), RocketMQListener.class)) {
-                        Type[] actualTypeArguments = parameterizedType.getActualTypeArguments();  //实际的泛型参数类型
-                        if (actualTypeArguments!=null && actualTypeArguments.length > 0) {
-                            return (Class) actualTypeArguments[0];  //返回RocketMQListener接口的泛型参数类型
-                        }
-                        else {
-                            return Object.class;
-                        }
+    private void registerDeduplicator() {
+        dedupObjectName = registerMBean("ConsumeDedup", deduplicator);
+    }
+
+    private void unregisterDeduplicator() {
+        unregisterMBean(dedupObjectName);
+        dedupObjectName = null;
+    }
+
+    /**
+     * 用共用消费线程池中本container的任务队列替换consumer内部的消费线程池，替换失败时继续使用consumer自己的消费线程池
+     * 队列深度、并发数注册为JMX MBean，ObjectName：com.freedom.starter.rocketmq:type=ConsumeExecutor,consumerGroup=消费组,topic=主题
+     */
+    private void useSharedConsumeExecutor() {
+        int maxShare = Math.max(1, consumeThreadMax);
+        SharedConsumeExecutor.Lane lane = sharedConsumeExecutor.register(consumerGroup, topic, consumeWeight, consumeMinShare, maxShare);
+        if(!replaceConsumeExecutor(lane)){
+            lane.shutdown();
+            return;
+        }
+        sharedConsumeLane = lane;
+        sharedLaneObjectName = registerMBean("ConsumeExecutor", lane);
+        logger.info("use shared consume executor. {}", lane);
+    }
+
+    /**
+     * 使用虚拟线程执行消费，同时执行的消息数不超过consumeThreadMax
+     * 只支持并发消费：顺序消费在synchronized中调用listener，虚拟线程阻塞时会占住载体线程
+     * @return  JDK 21以下、非并发消费或替换失败时返回false
+     */
+    private boolean useVirtualThreads() {
+        if(!VirtualThreadConsumeExecutor.isSupported()){
+            logger.info("virtual threads not supported on JDK {}, consumerGroup:{}", System.getProperty("java.version"), consumerGroup);
+            return false;
+        }
+        if(consumeMode != ConsumeMode.CONCURRENTLY){
+            logger.info("virtual threads only support consumeMode CONCURRENTLY, consumerGroup:{}", consumerGroup);
+            return false;
+        }
+        VirtualThreadConsumeExecutor executor = new VirtualThreadConsumeExecutor("RocketMQVirtualConsumer_" + consumerGroup, Math.max(1, consumeThreadMax));
+        if(!replaceConsumeExecutor(executor)){
+            executor.shutdown();
+            return false;
+        }
+        virtualThreadExecutor = executor;
+        logger.info("use virtual threads to consume. consumerGroup:{}, maxConcurrency:{}", consumerGroup, executor.getMaxConcurrency());
+        return true;
+    }
+
+    /**
+     * 替换consumer内部的消费线程池
+     * rocketmq 3.5.8没有设置消费线程池的接口，通过反射替换ConsumeMessageService的consumeExecutor
+     * @param executor
+     * @return  替换失败时返回false，继续使用consumer自己的消费线程池
+     */
+    private boolean replaceConsumeExecutor(ThreadPoolExecutor executor) {
+        try {
+            ConsumeMessageService consumeMessageService = consumer.getDefaultMQPushConsumerImpl().getConsumeMessageService();
+            Field field = consumeExecutorField(consumeMessageService);
+            ThreadPoolExecutor original = (ThreadPoolExecutor) field.get(consumeMessageService);
+            field.set(consumeMessageService, executor);
+            original.shutdown();  //已提交到原线程池的任务执行完后，原线程池的线程退出
+            consumeExecutor = executor;
+            return true;
+        }
+        catch (Exception e) {
+            logger.warn("replace consume executor failed, fallback to consumer's own executor. consumerGroup:{}", consumerGroup, e);
+            return false;
+        }
+    }
+
+    private static Field consumeExecutorField(ConsumeMessageService consumeMessageService) throws NoSuchFieldException {
+        Field field = consumeMessageService.getClass().getDeclaredField("consumeExecutor");
+        field.setAccessible(true);
+        return field;
+    }
+
+    /**
+     * 正在使用的消费线程池
+     * @return  获取失败时返回null
+     */
+    private ThreadPoolExecutor getConsumeExecutor() {
+        if(consumeExecutor == null){
+            try {
+                ConsumeMessageService consumeMessageService = consumer.getDefaultMQPushConsumerImpl().getConsumeMessageService();
+                consumeExecutor = (ThreadPoolExecutor) consumeExecutorField(consumeMessageService).get(consumeMessageService);
+            }
+            catch (Exception e) {
+                logger.warn("get consume executor failed. consumerGroup:{}", consumerGroup, e);
+            }
+        }
+        return consumeExecutor;
+    }
+
+    /**
+     * 开始自动调节并发数，见ConsumeConcurrencyTuner.ExecutorTarget：
+     * consumer自己的消费线程池同时调整核心线程数和最大线程数，共用消费线程池调整最大并发，虚拟线程调整信号量
+     * 调节指标注册为JMX MBean，ObjectName：com.freedom.starter.rocketmq:type=ConsumeConcurrency,consumerGroup=消费组,topic=主题
+     */
+    private void startConcurrencyTuner() {
+        final ThreadPoolExecutor executor = getConsumeExecutor();
+        if(executor == null){
+            logger.warn("adaptive concurrency disabled, consume executor not available. consumerGroup:{}", consumerGroup);
+            return;
+        }
+        int max = Math.max(1, consumeThreadMax);
+        int min = Math.max(1, Math.min(consumeThreadMin, max));
+        concurrencyTuner = new ConsumeConcurrencyTuner(consumerGroup, topic, min, max,
+                adaptiveConcurrencyLatencyTolerance, adaptiveConcurrencyErrorThreshold, new ConsumeConcurrencyTuner.ExecutorTarget(executor) {
+            @Override
+            public long getBacklog() {
+                long backlog = 0;
+                for(Map.Entry<MessageQueue, ProcessQueue> entry : consumer.getDefaultMQPushConsumerImpl().getRebalanceImpl().getProcessQueueTable().entrySet()){
+                    ProcessQueue processQueue = entry.getValue();
+                    if(entry.getKey().getTopic().equals(topic) && !processQueue.isDropped()){
+                        backlog += processQueue.getMsgCount().get() + Math.max(0, processQueue.getMsgAccCnt());  //已拉取未消费的 + broker上未拉取的
                     }
                 }
+                return backlog;
             }
+        });
+        concurrencyTuner.start(adaptiveConcurrencyIntervalMillis);
+        tunerObjectName = registerMBean("ConsumeConcurrency", concurrencyTuner);
+        logger.info("adaptive consume concurrency started. {}", concurrencyTuner);
+    }
 
-            return Object.class;
+    /**
+     * 记录一次消费，用于自动调节并发数，并统计重新投递的消息数
+     * @param msgs       拉取到的消息
+     * @param startTime  开始时间
+     * @param success    是否全部成功
+     */
+    private void recordConsume(List<MessageExt> msgs, long startTime, boolean success) {
+        if(concurrencyTuner != null){
+            concurrencyTuner.record(msgs.size(), System.currentTimeMillis() - startTime, success);
         }
-        else {
-            return Object.class;
+        if(consumeMetrics != null){
+            int retries = 0;
+            for(MessageExt msg : msgs){
+                if(msg.getReconsumeTimes() > 0){
+                    retries++;
+                }
+            }
+            if(retries > 0){
+                consumeMetrics.recordRetry(retries);
+            }
         }
     }
 
-    //public static void main(String[] args){
-    //    DefaultRocketMQListenerContainer container = new DefaultRocketMQListenerContainer();
-    //    container.setRocketMQListener(new TestRcoektMQListener());
-    //
-    //    Object clazz = container.getMessageType();
-    //    System.out.println(clazz);
-    //}
-    //
-    //static class TestRcoektMQListener implements RocketMQListener<String> {
-    //    @Override
-    //    public void onMessage(String message) {
-    //
-    //    }
-    //}
+    /**
+     * 记录消费指标，单条消费每条记录一次，批量消费每批记录一次
+     * @param succeeded   成功的消息数
+     * @param failed      失败的消息数
+     * @param startNanos  开始时间，System.nanoTime()
+     */
+    private void recordMetrics(int succeeded, int failed, long startNanos) {
+        if(consumeMetrics != null){
+            consumeMetrics.record(succeeded, failed, System.nanoTime() - startNanos);
+        }
+    }
 
+    /**
+     * 创建本container的消费指标，由RocketMQConsumeMetrics定时采集分配到本实例的各队列消费延迟：
+     * broker上的最大offset - consumer内存中的消费offset，每个队列每个周期向broker查询一次
+     */
+    private void registerConsumeMetrics() {
+        consumeMetrics = rocketMQConsumeMetrics.register(consumerGroup, topic, new ConsumeMetrics.LagCollector() {
+            @Override
+            public Set<String> collect(ConsumeMetrics metrics) throws Exception {
+                Set<String> assigned = new HashSet<String>();
+                for(Map.Entry<MessageQueue, ProcessQueue> entry : consumer.getDefaultMQPushConsumerImpl().getRebalanceImpl().getProcessQueueTable().entrySet()){
+                    MessageQueue mq = entry.getKey();
+                    if(!mq.getTopic().equals(topic) || entry.getValue().isDropped()){
+                        continue;  //重试队列、已rebalance到其它实例的队列
+                    }
+                    long consumerOffset = consumer.getDefaultMQPushConsumerImpl().getOffsetStore().readOffset(mq, ReadOffsetType.READ_FROM_MEMORY);
+                    if(consumerOffset < 0){
+                        continue;  //还没有开始消费
+                    }
+                    long brokerOffset = consumer.getDefaultMQPushConsumerImpl().maxOffset(mq);
+                    assigned.add(metrics.updateLag(mq.getBrokerName(), mq.getQueueId(), brokerOffset, consumerOffset));
+                }
+                return assigned;
+            }
+        });
+    }
 
     /**
-     * 做MessageExt到RocketMQListener指定的messageType的类型转换
+     * 注册本container的JMX MBean
+     * @param type   ObjectName的type
+     * @param mBean
+     * @return  注册失败时返回null
+     */
+    private ObjectName registerMBean(String type, Object mBean) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JmxSendMetricsExporter.DOMAIN + ":type=" + type
+                    + ",consumerGroup=" + ObjectName.quote(consumerGroup)
+                    + ",topic=" + ObjectName.quote(topic));
+            if(mBeanServer.isRegistered(objectName)){
+                mBeanServer.unregisterMBean(objectName);  //同一个JVM中有多个spring容器时，使用最新的
+            }
+            mBeanServer.registerMBean(mBean, objectName);
+            return objectName;
+        }
+        catch (Exception e) {
+            logger.warn("register {} MBean failed. {}", type, mBean, e);
+            return null;
+        }
+    }
+
+    private void unregisterMBean(ObjectName objectName) {
+        if(objectName == null){
+            return;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if(mBeanServer.isRegistered(objectName)){
+                mBeanServer.unregisterMBean(objectName);
+            }
+        }
+        catch (Exception e) {
+            logger.warn("unregister MBean failed. {}", objectName, e);
+        }
+    }
+
+    /**
+     * 获取监听接口的消息类型，按监听类的完整继承关系解析，支持AOP代理和嵌套泛型
+     * @return
+     */
+    private Type getMessageType() {
+        return MessageDecoders.resolveMessageType(getListener(), RocketMQListener.class, RocketMQReplyListener.class, RocketMQBatchListener.class);
+    }
+
+
+    /**
+     * 使用中的监听接口实现，rocketMQListener、rocketMQReplyListener或rocketMQBatchListener
+     * @return
+     */
+    private Object getListener() {
+        if(rocketMQListener != null){
+            return rocketMQListener;
+        }
+        return rocketMQReplyListener != null ? rocketMQReplyListener : rocketMQBatchListener;
+    }
+
+    /**
+     * 转换消息并调用监听接口，RocketMQReplyListener的返回值作为应答发送给请求方
+     * 开启去重时，已消费成功过的消息直接跳过，处理成功后记录
+     * @param messageExt
+     */
+    @SuppressWarnings("unchecked")
+    private void invokeListener(MessageExt messageExt) {
+        if(deduplicator != null && deduplicator.isDuplicate(messageExt)){
+            logger.debug("duplicate msg skipped: {}", messageExt.getMsgId());
+            return;
+        }
+        Object message = doConvertMessage(messageExt);
+        if(rocketMQReplyListener == null){
+            rocketMQListener.onMessage(message);
+            markConsumed(messageExt);
+            return;
+        }
+
+        Object reply;
+        try {
+            reply = ((RocketMQReplyListener<Object, ?>) rocketMQReplyListener).onMessage(message);
+        }
+        catch (RuntimeException e) {
+            //请求方已收到失败应答，请求不再重新消费；不是请求消息时按普通消息重试
+            if(rocketMQTemplate.reply(messageExt, null, e)){
+                logger.error("reply listener failed, error reply sent. msgId:{}", messageExt.getMsgId(), e);
+                markConsumed(messageExt);
+                return;
+            }
+            throw e;
+        }
+        rocketMQTemplate.reply(messageExt, reply, null);
+        markConsumed(messageExt);
+    }
+
+    /**
+     * 开启去重时记录消费成功的消息
      * @param messageExt
+     */
+    private void markConsumed(MessageExt messageExt) {
+        if(deduplicator != null){
+            deduplicator.markConsumed(messageExt);
+        }
+    }
+
+    /**
+     * 拆包一条拉取到的消息
+     * @param received  consumer拉取到的消息
+     * @return  不是批量消息信封时返回只有原消息的列表
+     */
+    private List<MessageExt> unpack(MessageExt received) {
+        return MessageBatchEnvelope.isEnvelope(received) ? MessageBatchEnvelope.unpack(received) : Collections.singletonList(received);
+    }
+
+    /**
+     * 转换一批消息并调用批量消费接口
+     * 开启去重时，已消费成功过的消息不交给监听接口，处理成功的消息记录到去重中
+     * @param messageExts  拆包、重组后的消息
+     * @return  第一条处理失败的消息在messageExts中的下标，全部成功时返回RocketMQBatchListener.CONSUME_ALL
+     */
+    @SuppressWarnings("unchecked")
+    private int invokeBatchListener(List<MessageExt> messageExts) {
+        List<Object> messages = new ArrayList<Object>(messageExts.size());
+        List<Integer> indexes = new ArrayList<Integer>(messageExts.size());  //交给监听接口的消息在messageExts中的下标
+        for(int i = 0; i < messageExts.size(); i++){
+            MessageExt messageExt = messageExts.get(i);
+            if(deduplicator != null && deduplicator.isDuplicate(messageExt)){
+                logger.debug("duplicate msg skipped: {}", messageExt.getMsgId());
+                continue;
+            }
+            messages.add(doConvertMessage(messageExt));
+            indexes.add(i);
+        }
+        if(messages.isEmpty()){
+            return RocketMQBatchListener.CONSUME_ALL;
+        }
+
+        int failedIndex = ((RocketMQBatchListener<Object>) rocketMQBatchListener).onMessage(messages);
+        int succeeded = failedIndex < 0 || failedIndex >= messages.size() ? messages.size() : failedIndex;
+        for(int i = 0; i < succeeded; i++){
+            markConsumed(messageExts.get(indexes.get(i)));
+        }
+        return succeeded == messages.size() ? RocketMQBatchListener.CONSUME_ALL : indexes.get(failedIndex);
+    }
+
+    /**
+     * 并发消费从第rawIndex条拉取到的消息开始重试，之前的消息确认消费
+     * 拉取到的消息是批量消息信封时，信封中的消息一起重试
+     * @param rawIndex  第一条需要重试的消息在拉取到的消息中的下标
+     * @param context
      * @return
      */
-    private Object doConvertMessage(MessageExt messageExt) {
-        //如果需要的消息类型是MessageExt，直接返回
-        if(Objects.equals(messageType, MessageExt.class)){
+    private ConsumeConcurrentlyStatus retryFrom(int rawIndex, ConsumeConcurrentlyContext context) {
+        if(rawIndex <= 0){
+            return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+        }
+        context.setAckIndex(rawIndex - 1);  //ackIndex之后的消息发回broker重试
+        return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+    }
+
+    /**
+     * 并发消费时分片消息交给chunkAssembler重组
+     * rocketmq并发消费无法推迟提交已确认消息的offset，未收齐的分片直接确认，
+     * 分片组收齐前消费者重启或队列重新分配时，已确认的分片不会重新投递，该分片组超时后被丢弃
+     * @param messageExt
+     * @return  不是分片消息时返回原消息，分片未收齐时返回null
+     */
+    private MessageExt assembleChunk(MessageExt messageExt) {
+        if(!MessageChunks.isChunk(messageExt)){
             return messageExt;
         }
-        else {
-            String messageStr = new String(messageExt.getBody(), Charset.forName(charset));
+        if(!concurrentChunkWarned){
+            concurrentChunkWarned = true;
+            logger.warn("chunked messages are consumed CONCURRENTLY, chunks are acked before the group is complete and a restart or rebalance may lose the group, use consumeMode ORDERLY to hold the offset. consumerGroup:{}, topic:{}", consumerGroup, topic);
+        }
+        return chunkAssembler.assemble(messageExt);
+    }
 
-            //如果需要的类型是字符串
-            if(Objects.equals(messageType, String.class)){
-                return messageStr;
+    /**
+     * 顺序消费时分片消息交给chunkAssembler重组，未收齐的分片组记录到队列的pendingChunkGroups
+     * @param messageExt
+     * @param messageQueue  消息所在队列
+     * @return  不是分片消息时返回原消息，分片未收齐时返回null
+     */
+    private MessageExt assembleChunk(MessageExt messageExt, MessageQueue messageQueue) {
+        if(!MessageChunks.isChunk(messageExt)){
+            return messageExt;
+        }
+        String chunkGroup = MessageChunks.getGroup(messageExt);
+        MessageExt assembled = chunkAssembler.assemble(messageExt);
+        Set<String> pending = pendingChunkGroups.get(messageQueue);
+        if(assembled == null){
+            if(pending == null){
+                pending = new HashSet<String>();  //同一个队列同时只有一个线程顺序消费
+                pendingChunkGroups.put(messageQueue, pending);
             }
-            //否则按照json转换
-            else {
-                return JSON.parseObject(messageStr, messageType);
+            pending.add(chunkGroup);
+        }
+        else if(pending != null){
+            pending.remove(chunkGroup);
+        }
+        return assembled;
+    }
+
+    /**
+     * 顺序消费成功后，队列还有未收齐的分片组时不提交offset
+     * rocketmq顺序消费在autoCommit为false时返回SUCCESS不提交offset，消息留在ProcessQueue中，
+     * 之后autoCommit为true的SUCCESS一起提交；分片组收齐前消费者重启或队列重新分配时，从未收齐的分片重新投递
+     * 超时、超过缓存上限被丢弃的分片组不再阻止提交
+     * @param context
+     */
+    private void holdOffsetIfChunkPending(ConsumeOrderlyContext context) {
+        Set<String> pending = pendingChunkGroups.get(context.getMessageQueue());
+        if(pending == null || pending.isEmpty()){
+            return;
+        }
+        for(Iterator<String> iterator = pending.iterator(); iterator.hasNext(); ){
+            if(!chunkAssembler.contains(iterator.next())){
+                iterator.remove();
             }
         }
+        if(!pending.isEmpty()){
+            context.setAutoCommit(false);
+        }
+    }
+
+    /**
+     * 重组后的分片消息消费成功，释放缓存的分片
+     * @param chunkGroup  分片组id，不是分片消息时为null
+     */
+    private void releaseChunk(String chunkGroup) {
+        if(chunkGroup != null){
+            chunkAssembler.release(chunkGroup);
+        }
+    }
+
+    /**
+     * 做MessageExt到RocketMQListener指定的messageType的类型转换
+     * @param messageExt
+     * @return
+     */
+    private Object doConvertMessage(MessageExt messageExt) {
+        return messageDecoder.decode(messageExt);  //消息体被压缩过时先解压，RocketMQMessage在getPayload()时才解压、解码
     }
 
 
@@ -390,33 +1066,112 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
     public class DefaultMessageListenerConcurrently implements MessageListenerConcurrently {
         @Override
         public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
-            for(MessageExt messageExt : msgs) {
-                try {
-                    logger.debug("received msg: {}", messageExt);
+            long now = System.currentTimeMillis();
+            ConsumeConcurrentlyStatus status = doConsumeMessage(msgs, context);
+            recordConsume(msgs, now, status == ConsumeConcurrentlyStatus.CONSUME_SUCCESS && context.getAckIndex() >= msgs.size() - 1);
+            return status;
+        }
 
-                    long now = System.currentTimeMillis();
-                    rocketMQListener.onMessage(doConvertMessage(messageExt));
-                    long costTime = System.currentTimeMillis() - now;
-                    logger.info("consume success. msgId: {} cost: {} ms", messageExt.getMsgId(), costTime);
-                }
-                catch (Exception e){
-                    context.setDelayLevelWhenNextConsume(delayLevelWhenNextConsume);  //默认值0，broker control retry frequency
+        private ConsumeConcurrentlyStatus doConsumeMessage(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
+            if(rocketMQBatchListener != null){
+                return consumeBatch(msgs, context);
+            }
 
-                    //没到最大重试次数，返回RECONSUME_LATER
-                    if(messageExt.getReconsumeTimes() <= maxReconsumeTime) {
-                        logger.error("consume failed, recomsume time[" + messageExt.getReconsumeTimes() + "], messageExt:" + messageExt, e);
-                        return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+            for(int i = 0; i < msgs.size(); i++){
+                for(MessageExt received : unpack(msgs.get(i))) {  //批量消息信封拆包
+                    String chunkGroup = MessageChunks.getGroup(received);
+                    MessageExt messageExt = assembleChunk(received);  //分片消息收齐后才消费，未收齐的分片缓存后直接确认
+                    if(messageExt == null){
+                        continue;
                     }
-                    //达到最大重试次数，返回CONSUME_SUCCESS，可结合日志收集告警人工方式排查问题
-                    else {
-                        logger.error("consume failed, reach the maximum number of retries[" + maxReconsumeTime + "]. messageExt:" + messageExt, e);
-                        return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+                    long start = System.nanoTime();
+                    try {
+                        logger.debug("received msg: {}", messageExt);
+
+                        invokeListener(messageExt);
+                        recordMetrics(1, 0, start);
+                        logger.debug("consume success. msgId: {} cost: {} ns", messageExt.getMsgId(), System.nanoTime() - start);
+                        releaseChunk(chunkGroup);
+                    }
+                    catch (Exception e){
+                        recordMetrics(0, 1, start);
+                        context.setDelayLevelWhenNextConsume(delayLevelWhenNextConsume);  //默认值0，broker control retry frequency
+
+                        //没到最大重试次数，从当前消息开始重试，之前已成功的消息不再重新投递
+                        if(messageExt.getReconsumeTimes() <= maxReconsumeTime) {
+                            logger.error("consume failed, recomsume time[" + messageExt.getReconsumeTimes() + "], messageExt:" + messageExt, e);
+                            return retryFrom(i, context);
+                        }
+                        //达到最大重试次数，跳过当前消息继续消费，可结合日志收集告警人工方式排查问题
+                        else {
+                            logger.error("consume failed, reach the maximum number of retries[" + maxReconsumeTime + "]. messageExt:" + messageExt, e);
+                        }
                     }
                 }
             }
 
             return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
         }
+
+        /**
+         * 批量消费，确认第一条失败的消息之前的消息，从失败的消息开始重试
+         */
+        private ConsumeConcurrentlyStatus consumeBatch(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
+            List<MessageExt> messageExts = new ArrayList<MessageExt>(msgs.size());
+            List<Integer> rawIndexes = new ArrayList<Integer>(msgs.size());  //每条消息在拉取到的消息中的下标
+            List<String> chunkGroups = new ArrayList<String>(msgs.size());
+            for(int i = 0; i < msgs.size(); i++){
+                for(MessageExt received : unpack(msgs.get(i))){  //批量消息信封拆包
+                    String chunkGroup = MessageChunks.getGroup(received);
+                    MessageExt messageExt = assembleChunk(received);  //分片消息收齐后才消费，未收齐的分片缓存后直接确认
+                    if(messageExt != null){
+                        messageExts.add(messageExt);
+                        rawIndexes.add(i);
+                        chunkGroups.add(chunkGroup);
+                    }
+                }
+            }
+            if(messageExts.isEmpty()){
+                return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;  //只有未收齐的分片
+            }
+
+            int failedIndex;
+            long start = System.nanoTime();
+            try {
+                failedIndex = invokeBatchListener(messageExts);
+            }
+            catch (Exception e){
+                failedIndex = 0;
+                logger.error("consume batch failed, size:" + messageExts.size() + ", first messageExt:" + messageExts.get(0), e);
+            }
+            logger.debug("consume batch size: {} cost: {} ns, failedIndex: {}", messageExts.size(), System.nanoTime() - start, failedIndex);
+
+            int succeeded = failedIndex == RocketMQBatchListener.CONSUME_ALL ? messageExts.size() : failedIndex;
+            recordMetrics(succeeded, messageExts.size() - succeeded, start);
+            for(int i = 0; i < succeeded; i++){
+                releaseChunk(chunkGroups.get(i));
+            }
+            if(failedIndex == RocketMQBatchListener.CONSUME_ALL){
+                return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+            }
+
+            context.setDelayLevelWhenNextConsume(delayLevelWhenNextConsume);  //默认值0，broker control retry frequency
+            MessageExt failed = messageExts.get(failedIndex);
+            int rawIndex = rawIndexes.get(failedIndex);
+            //达到最大重试次数，确认失败的消息，从下一条开始重试
+            if(failed.getReconsumeTimes() > maxReconsumeTime){
+                logger.error("consume failed, reach the maximum number of retries[" + maxReconsumeTime + "]. messageExt:" + failed);
+                releaseChunk(chunkGroups.get(failedIndex));
+                rawIndex++;
+                if(rawIndex >= msgs.size()){
+                    return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+                }
+            }
+            else {
+                logger.error("consume failed, recomsume time[" + failed.getReconsumeTimes() + "], index:" + failedIndex + ", messageExt:" + failed);
+            }
+            return retryFrom(rawIndex, context);
+        }
     }
 
     /**
@@ -425,15 +1180,36 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
     public class DefaultMessageListenerOrderly implements MessageListenerOrderly {
         @Override
         public ConsumeOrderlyStatus consumeMessage(List<MessageExt> msgs, ConsumeOrderlyContext context) {
-            for(MessageExt messageExt : msgs){
+            long now = System.currentTimeMillis();
+            ConsumeOrderlyStatus status = doConsumeMessage(msgs, context);
+            recordConsume(msgs, now, status == ConsumeOrderlyStatus.SUCCESS);
+            if(status == ConsumeOrderlyStatus.SUCCESS){
+                holdOffsetIfChunkPending(context);
+            }
+            return status;
+        }
+
+        private ConsumeOrderlyStatus doConsumeMessage(List<MessageExt> msgs, ConsumeOrderlyContext context) {
+            if(rocketMQBatchListener != null){
+                return consumeBatch(msgs, context);
+            }
+
+            for(MessageExt received : MessageBatchEnvelope.unpack(msgs)){  //批量消息信封拆包
+                String chunkGroup = MessageChunks.getGroup(received);
+                MessageExt messageExt = assembleChunk(received, context.getMessageQueue());  //分片消息收齐后才消费，未收齐时不提交offset
+                if(messageExt == null){
+                    continue;
+                }
                 logger.debug("received msg: {}", messageExt);
+                long start = System.nanoTime();
                 try{
-                    long now = System.currentTimeMillis();
-                    rocketMQListener.onMessage(doConvertMessage(messageExt));
-                    long costTime = System.currentTimeMillis() - now;
-                    logger.debug("consume {} cost: {} ms", messageExt.getMsgId(), costTime);
+                    invokeListener(messageExt);
+                    recordMetrics(1, 0, start);
+                    logger.debug("consume {} cost: {} ns", messageExt.getMsgId(), System.nanoTime() - start);
+                    releaseChunk(chunkGroup);
                 }
                 catch(Exception e){
+                    recordMetrics(0, 1, start);
                     context.setSuspendCurrentQueueTimeMillis(suspendCurrentQueueTimeMillis);  //暂停默认1000ms
 
                     //没到最大重试次数，返回SUSPEND_CURRENT_QUEUE_A_MOMENT
@@ -451,6 +1227,119 @@ public class DefaultRocketMQListenerContainer implements InitializingBean, Dispo
 
             return ConsumeOrderlyStatus.SUCCESS;
         }
+
+        /**
+         * 批量顺序消费，顺序消费不支持部分确认，有消息失败时整批暂停后重试
+         */
+        private ConsumeOrderlyStatus consumeBatch(List<MessageExt> msgs, ConsumeOrderlyContext context) {
+            List<MessageExt> messageExts = new ArrayList<MessageExt>(msgs.size());
+            List<String> chunkGroups = new ArrayList<String>(msgs.size());
+            for(MessageExt received : MessageBatchEnvelope.unpack(msgs)){  //批量消息信封拆包
+                String chunkGroup = MessageChunks.getGroup(received);
+                MessageExt messageExt = assembleChunk(received, context.getMessageQueue());  //分片消息收齐后才消费，未收齐时不提交offset
+                if(messageExt != null){
+                    messageExts.add(messageExt);
+                    chunkGroups.add(chunkGroup);
+                }
+            }
+            if(messageExts.isEmpty()){
+                return ConsumeOrderlyStatus.SUCCESS;
+            }
+
+            int failedIndex;
+            long start = System.nanoTime();
+            try {
+                failedIndex = invokeBatchListener(messageExts);
+            }
+            catch (Exception e){
+                failedIndex = 0;
+                logger.error("consume batch failed, size:" + messageExts.size() + ", first messageExt:" + messageExts.get(0), e);
+            }
+            int succeeded = failedIndex == RocketMQBatchListener.CONSUME_ALL ? messageExts.size() : failedIndex;
+            recordMetrics(succeeded, messageExts.size() - succeeded, start);
+            if(failedIndex == RocketMQBatchListener.CONSUME_ALL){
+                for(String chunkGroup : chunkGroups){
+                    releaseChunk(chunkGroup);
+                }
+                return ConsumeOrderlyStatus.SUCCESS;
+            }
+
+            MessageExt failed = messageExts.get(failedIndex);
+            //没到最大重试次数，返回SUSPEND_CURRENT_QUEUE_A_MOMENT
+            if(failed.getReconsumeTimes() <= maxReconsumeTime){
+                context.setSuspendCurrentQueueTimeMillis(suspendCurrentQueueTimeMillis);  //暂停默认1000ms
+                logger.error("consume failed, recomsume time[" + failed.getReconsumeTimes() + "], index:" + failedIndex + ", messageExt:" + failed);
+                return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT;
+            }
+            //达到最大重试次数，返回SUCCESS，可结合日志收集告警人工方式排查问题
+            logger.error("consume failed, reach the maximum number of retries[" + maxReconsumeTime + "]. messageExt:" + failed);
+            for(String chunkGroup : chunkGroups){
+                releaseChunk(chunkGroup);
+            }
+            return ConsumeOrderlyStatus.SUCCESS;
+        }
+    }
+
+    /**
+     * 按keys顺序消费的MessageListenerOrderly实现
+     * 每个队列仍由一个顺序消费线程拉取，一批消息交给KeyOrderedDispatcher按keys并行处理，全部完成后才提交offset
+     */
+    public class DefaultMessageListenerKeyOrdered implements MessageListenerOrderly {
+        @Override
+        public ConsumeOrderlyStatus consumeMessage(List<MessageExt> msgs, ConsumeOrderlyContext context) {
+            long now = System.currentTimeMillis();
+            ConsumeOrderlyStatus status = doConsumeMessage(msgs, context);
+            recordConsume(msgs, now, status == ConsumeOrderlyStatus.SUCCESS);
+            if(status == ConsumeOrderlyStatus.SUCCESS){
+                holdOffsetIfChunkPending(context);
+            }
+            return status;
+        }
+
+        private ConsumeOrderlyStatus doConsumeMessage(List<MessageExt> msgs, ConsumeOrderlyContext context) {
+            List<MessageExt> messageExts = new ArrayList<MessageExt>(msgs.size());
+            final Map<MessageExt, String> chunkGroups = new IdentityHashMap<MessageExt, String>();
+            for(MessageExt received : MessageBatchEnvelope.unpack(msgs)){  //批量消息信封拆包
+                String chunkGroup = MessageChunks.getGroup(received);
+                MessageExt messageExt = assembleChunk(received, context.getMessageQueue());  //分片消息收齐后才消费，未收齐时不提交offset
+                if(messageExt != null){
+                    messageExts.add(messageExt);
+                    chunkGroups.put(messageExt, chunkGroup);
+                }
+            }
+            if(messageExts.isEmpty()){
+                return ConsumeOrderlyStatus.SUCCESS;
+            }
+
+            boolean success = keyOrderedDispatcher.dispatch(context.getMessageQueue(), messageExts, new KeyOrderedDispatcher.Handler() {
+                @Override
+                public void handle(MessageExt messageExt) throws Exception {
+                    logger.debug("received msg: {}", messageExt);
+                    long start = System.nanoTime();
+                    try {
+                        invokeListener(messageExt);
+                        recordMetrics(1, 0, start);
+                    }
+                    catch (Exception e) {
+                        recordMetrics(0, 1, start);
+                        //没到最大重试次数，该lane停止，整批暂停后重新投递
+                        if(messageExt.getReconsumeTimes() <= maxReconsumeTime){
+                            throw e;
+                        }
+                        //达到最大重试次数，跳过该消息，可结合日志收集告警人工方式排查问题
+                        logger.error("consume failed, reach the maximum number of retries[" + maxReconsumeTime + "]. messageExt:" + messageExt, e);
+                    }
+                    releaseChunk(chunkGroups.get(messageExt));
+                }
+            });
+            if(success){
+                return ConsumeOrderlyStatus.SUCCESS;
+            }
+
+            //已成功的消息记录在分发器中，重新投递时跳过
+            context.setSuspendCurrentQueueTimeMillis(suspendCurrentQueueTimeMillis);  //暂停默认1000ms
+            return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT;
+        }
     }
 
 }
@@ -0,0 +1,227 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * KEY_ORDERED消费模式的分发器
+ * 顺序消费线程拿到一个队列的一批消息后，按消息keys哈希分到多个lane，各lane在工作线程池中并行处理，
+ * lane内按队列中的顺序逐条处理，keys相同的消息一定在同一个lane中，保证同一key的顺序
+ * 没有keys的消息按offset分散到各lane
+ *
+ * 一批消息全部处理完成后才返回，rocketmq只在整批成功后提交offset，即offset不会越过未完成的消息；
+ * lane中有消息失败时，该lane后续的消息不再处理，其它lane继续，整批暂停后重新投递，
+ * 已处理成功的消息记录在completed中，重新投递时跳过，不会重复处理
+ */
+public class KeyOrderedDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(KeyOrderedDispatcher.class);
+
+    /** rocketmq允许的最大consumeMessageBatchMaxSize */
+    static final int MAX_BATCH_SIZE = 1024;
+
+    /** 处理一条消息，抛出异常表示失败 */
+    public interface Handler {
+        void handle(MessageExt messageExt) throws Exception;
+    }
+
+    /** lane的数量，也是工作线程数 */
+    private final int lanes;
+
+    private final ExecutorService executor;
+
+    /** 整批成功前已处理成功的消息，key为队列，value为消息标识 */
+    private final ConcurrentMap<MessageQueue, Set<String>> completed = new ConcurrentHashMap<MessageQueue, Set<String>>();
+
+
+    public KeyOrderedDispatcher(final String name, int lanes) {
+        if(lanes <= 0){
+            throw new IllegalArgumentException("'lanes' must be positive");
+        }
+        this.lanes = lanes;
+        this.executor = Executors.newFixedThreadPool(lanes, new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RocketMQKeyOrdered_" + name + "_" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    /**
+     * KEY_ORDERED只在一批消息内并行，批量小于lane数时lane用不满，批量为1时与ORDERLY相同，
+     * 因此批量至少取lane数，最大不超过rocketmq的上限
+     * @param consumeMessageBatchMaxSize    配置的最大批量消费大小
+     * @param lanes                         lane数量
+     * @return  实际使用的最大批量消费大小
+     */
+    public static int batchMaxSize(int consumeMessageBatchMaxSize, int lanes) {
+        return Math.min(Math.max(consumeMessageBatchMaxSize, lanes), MAX_BATCH_SIZE);
+    }
+
+
+    /**
+     * 并行处理一个队列的一批消息，处理完成后返回
+     * @param messageQueue  消息所在的队列
+     * @param messages      按队列顺序排列的消息
+     * @param handler       处理一条消息
+     * @return  是否全部处理成功，成功时清除该队列的completed记录
+     */
+    public boolean dispatch(MessageQueue messageQueue, List<MessageExt> messages, Handler handler) {
+        Set<String> done = completed.get(messageQueue);
+        if(done == null){
+            Set<String> newDone = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            done = completed.putIfAbsent(messageQueue, newDone);
+            if(done == null){
+                done = newDone;
+            }
+        }
+
+        //按keys分到各lane，跳过之前已处理成功的消息
+        List<List<Entry>> laneEntries = new ArrayList<List<Entry>>();
+        Map<Integer, List<Entry>> byLane = new HashMap<Integer, List<Entry>>();
+        Map<Long, Integer> seenOffsets = new HashMap<Long, Integer>();
+        for(MessageExt messageExt : messages){
+            String id = nextId(messageExt, seenOffsets);
+            if(done.contains(id)){
+                continue;
+            }
+            int lane = laneOf(messageExt);
+            List<Entry> entries = byLane.get(lane);
+            if(entries == null){
+                entries = new ArrayList<Entry>();
+                byLane.put(lane, entries);
+                laneEntries.add(entries);
+            }
+            entries.add(new Entry(id, messageExt));
+        }
+
+        CountDownLatch latch = new CountDownLatch(laneEntries.size());
+        List<LaneTask> tasks = new ArrayList<LaneTask>(laneEntries.size());
+        for(List<Entry> entries : laneEntries){
+            LaneTask task = new LaneTask(entries, handler, done, latch);
+            tasks.add(task);
+            //只有一个lane时在当前线程处理，省去线程切换
+            if(laneEntries.size() == 1){
+                task.run();
+            }
+            else {
+                executor.execute(task);
+            }
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;  //lane已在执行，必须等待完成，否则会和重新投递的消息并发
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+
+        for(LaneTask task : tasks){
+            if(task.failed){
+                return false;
+            }
+        }
+        completed.remove(messageQueue);
+        return true;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 消息标识，批量消息信封拆出的消息共用offset，按出现次序区分
+     */
+    private static String nextId(MessageExt messageExt, Map<Long, Integer> seenOffsets) {
+        long offset = messageExt.getQueueOffset();
+        Integer seen = seenOffsets.get(offset);
+        int index = seen == null ? 0 : seen + 1;
+        seenOffsets.put(offset, index);
+        return offset + "#" + index;
+    }
+
+    private int laneOf(MessageExt messageExt) {
+        String keys = messageExt.getKeys();
+        int hash = keys != null && keys.length() > 0 ? keys.hashCode() : (int) (messageExt.getQueueOffset() ^ (messageExt.getQueueOffset() >>> 32));
+        return (hash & Integer.MAX_VALUE) % lanes;
+    }
+
+
+    private static class Entry {
+        private final String id;
+        private final MessageExt messageExt;
+
+        Entry(String id, MessageExt messageExt) {
+            this.id = id;
+            this.messageExt = messageExt;
+        }
+    }
+
+    /**
+     * 顺序处理一个lane的消息，失败后停止
+     */
+    private static class LaneTask implements Runnable {
+        private final List<Entry> entries;
+        private final Handler handler;
+        private final Set<String> done;
+        private final CountDownLatch latch;
+        private volatile boolean failed;
+
+        LaneTask(List<Entry> entries, Handler handler, Set<String> done, CountDownLatch latch) {
+            this.entries = entries;
+            this.handler = handler;
+            this.done = done;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for(Entry entry : entries){
+                    try {
+                        handler.handle(entry.messageExt);
+                        done.add(entry.id);
+                    }
+                    catch (Throwable e) {
+                        logger.error("consume failed, recomsume time[" + entry.messageExt.getReconsumeTimes() + "], messageExt:" + entry.messageExt, e);
+                        failed = true;
+                        return;
+                    }
+                }
+            }
+            finally {
+                latch.countDown();
+            }
+        }
+    }
+}
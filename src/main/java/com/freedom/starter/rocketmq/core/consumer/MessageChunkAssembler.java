@@ -0,0 +1,246 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分片消息重组
+ * 缓存收到的分片，同一分片组的分片收齐后拼接成完整的消息体
+ *
+ * 缓存的分片总字节数超过maxBufferedBytes时，丢弃最早的分片组；
+ * 分片组从收到第一个分片开始超过timeoutMillis仍未收齐时丢弃，丢弃时记录error日志
+ *
+ * 收齐的分片组在release()之前保留，消费失败后重新投递最后一个分片时可以再次重组
+ *
+ * 同一分片组的分片由生产者发送到同一个队列，集群消费时一个队列同时只分配给一个消费者，因此不要求只有一个消费者；
+ * 广播消费时每个消费者各自重组。顺序消费时分片组收齐前不提交offset，重启、队列重新分配后从未收齐的分片重新投递；
+ * 并发消费时未收齐的分片直接确认，收齐前重启、队列重新分配会丢失该分片组
+ */
+public class MessageChunkAssembler {
+    private static final Logger logger = LoggerFactory.getLogger(MessageChunkAssembler.class);
+
+    /** 检查超时分片组的最小间隔，单位毫秒 */
+    private static final long EXPIRE_CHECK_INTERVAL_MILLIS = 1000;
+
+    /** 缓存分片的最大字节数 */
+    private final long maxBufferedBytes;
+
+    /** 分片组收齐的超时时间，单位毫秒 */
+    private final long timeoutMillis;
+
+    /** 正在重组的分片组，key为分片组id */
+    private final ConcurrentMap<String, ChunkGroup> groups = new ConcurrentHashMap<String, ChunkGroup>();
+
+    /** 当前缓存的分片字节数 */
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    /** 上次检查超时分片组的时间 */
+    private final AtomicLong lastExpireCheck = new AtomicLong(System.currentTimeMillis());
+
+    /** 超时或超过缓存上限被丢弃的分片组数 */
+    private final AtomicLong discardedGroups = new AtomicLong();
+
+
+    public MessageChunkAssembler(long maxBufferedBytes, long timeoutMillis) {
+        if(maxBufferedBytes <= 0 || timeoutMillis <= 0){
+            throw new IllegalArgumentException("'maxBufferedBytes' and 'timeoutMillis' must be positive");
+        }
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+
+    /**
+     * 添加一个分片
+     * @param chunk  分片消息
+     * @return  分片组已收齐时返回当前分片，消息体替换为完整的消息体，否则返回null
+     */
+    public MessageExt assemble(MessageExt chunk) {
+        String groupId = chunk.getProperty(RocketMQMessageConst.PROPERTY_CHUNK_GROUP);
+        int index = Integer.parseInt(chunk.getProperty(RocketMQMessageConst.PROPERTY_CHUNK_INDEX));
+        int total = Integer.parseInt(chunk.getProperty(RocketMQMessageConst.PROPERTY_CHUNK_TOTAL));
+        if(index < 0 || index >= total){
+            throw new IllegalArgumentException("illegal chunk index " + index + " of " + total + ", msgId:" + chunk.getMsgId());
+        }
+
+        long now = System.currentTimeMillis();
+        expireIfNecessary(now);
+
+        while (true) {
+            ChunkGroup group = groups.get(groupId);
+            if(group == null){
+                ChunkGroup newGroup = new ChunkGroup(groupId, total, now);
+                group = groups.putIfAbsent(groupId, newGroup);
+                if(group == null){
+                    group = newGroup;
+                }
+            }
+
+            byte[] body = null;
+            int added = 0;
+            synchronized (group) {
+                if(group.removed){
+                    continue;  //分片组已被丢弃或释放，重新创建
+                }
+                if(group.parts[index] == null){
+                    group.parts[index] = chunk.getBody();
+                    group.received++;
+                    group.bytes += chunk.getBody().length;
+                    added = chunk.getBody().length;
+                }
+                if(group.received == group.parts.length){
+                    body = group.concat();
+                }
+            }
+
+            if(added > 0 && bufferedBytes.addAndGet(added) > maxBufferedBytes){
+                evict(group);
+            }
+            if(body == null){
+                return null;
+            }
+
+            chunk.setBody(body);
+            Map<String, String> properties = chunk.getProperties();
+            properties.remove(RocketMQMessageConst.PROPERTY_CHUNK_GROUP);
+            properties.remove(RocketMQMessageConst.PROPERTY_CHUNK_INDEX);
+            properties.remove(RocketMQMessageConst.PROPERTY_CHUNK_TOTAL);
+            return chunk;
+        }
+    }
+
+    /**
+     * 分片组重组后的消息消费成功，释放缓存的分片
+     * @param groupId  分片组id
+     */
+    public void release(String groupId) {
+        ChunkGroup group = groups.get(groupId);
+        if(group != null){
+            remove(group);
+        }
+    }
+
+    /**
+     * 分片组是否正在重组或已收齐未释放，超时、超过缓存上限被丢弃后返回false
+     * @param groupId  分片组id
+     * @return
+     */
+    public boolean contains(String groupId) {
+        return groups.containsKey(groupId);
+    }
+
+    /**
+     * 当前缓存的分片字节数
+     * @return
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * 正在重组的分片组数
+     * @return
+     */
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * 超时或超过缓存上限被丢弃的分片组数
+     * @return
+     */
+    public long getDiscardedGroups() {
+        return discardedGroups.get();
+    }
+
+    /**
+     * 超过缓存上限，从最早的分片组开始丢弃，current放不下时也会被丢弃
+     */
+    private void evict(ChunkGroup current) {
+        while (bufferedBytes.get() > maxBufferedBytes) {
+            ChunkGroup oldest = null;
+            for(ChunkGroup group : groups.values()){
+                if(group != current && (oldest == null || group.createTime < oldest.createTime)){
+                    oldest = group;
+                }
+            }
+            ChunkGroup victim = oldest != null ? oldest : current;
+            if(remove(victim)){
+                discardedGroups.incrementAndGet();
+                logger.error("chunk buffer is full, discard chunk group. group:{}, received:{}/{}, bufferedBytes:{}",
+                        victim.id, victim.received, victim.parts.length, bufferedBytes.get());
+            }
+            if(victim == current){
+                return;
+            }
+        }
+    }
+
+    /**
+     * 丢弃超时的分片组，最多每EXPIRE_CHECK_INTERVAL_MILLIS检查一次
+     */
+    private void expireIfNecessary(long now) {
+        long last = lastExpireCheck.get();
+        if(now - last < EXPIRE_CHECK_INTERVAL_MILLIS || !lastExpireCheck.compareAndSet(last, now)){
+            return;
+        }
+        for(ChunkGroup group : groups.values()){
+            if(now - group.createTime > timeoutMillis && remove(group)){
+                discardedGroups.incrementAndGet();
+                logger.error("chunk group timeout, discard it. group:{}, received:{}/{}", group.id, group.received, group.parts.length);
+            }
+        }
+    }
+
+    /**
+     * 移除分片组
+     * @return  是否由当前线程移除
+     */
+    private boolean remove(ChunkGroup group) {
+        synchronized (group) {
+            if(group.removed){
+                return false;
+            }
+            group.removed = true;
+        }
+        groups.remove(group.id, group);
+        bufferedBytes.addAndGet(-group.bytes);
+        return true;
+    }
+
+
+    /**
+     * 一个正在重组的分片组
+     */
+    private static class ChunkGroup {
+        private final String id;
+        private final byte[][] parts;
+        private final long createTime;
+        private int received;
+        private long bytes;
+        private boolean removed;
+
+        ChunkGroup(String id, int total, long createTime) {
+            this.id = id;
+            this.parts = new byte[total][];
+            this.createTime = createTime;
+        }
+
+        byte[] concat() {
+            byte[] body = new byte[(int) bytes];
+            int position = 0;
+            for(byte[] part : parts){
+                System.arraycopy(part, 0, body, position, part.length);
+                position += part.length;
+            }
+            return body;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+
+/**
+ * 把消息体解码为监听接口需要的消息类型
+ * 由MessageDecoders按消息类型在容器启动时创建，消费时不再判断类型
+ * 消息体被压缩过时，解码前先解压
+ */
+public interface MessageDecoder {
+
+    /**
+     * 解码
+     * @param messageExt
+     * @return
+     */
+    Object decode(MessageExt messageExt);
+}
@@ -0,0 +1,264 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.freedom.starter.rocketmq.core.codec.MessageCodec;
+import com.freedom.starter.rocketmq.core.codec.MessageCodecRegistry;
+import com.freedom.starter.rocketmq.core.compress.MessageCompressorRegistry;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.ResolvableType;
+import org.springframework.messaging.converter.MessageConversionException;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * 解析监听接口的消息类型，并创建对应的MessageDecoder
+ *
+ * 消息类型按监听类的完整继承关系解析，支持父类实现监听接口、父类的泛型参数、
+ * AOP代理，以及List<Foo>、Map<String, List<Foo>>等嵌套泛型，解析不出时为Object
+ * 消息类型是RocketMQMessage<T>时，消息体按T延迟解码
+ */
+public class MessageDecoders {
+
+    private MessageDecoders() {
+    }
+
+
+    /**
+     * 解析监听接口的第一个泛型参数
+     * @param listener       监听接口实现，可以是AOP代理
+     * @param listenerTypes  监听接口，按顺序匹配第一个实现了的
+     * @return  完整的泛型类型，解析不出时返回Object.class
+     */
+    public static Type resolveMessageType(Object listener, Class<?>... listenerTypes) {
+        Class<?> listenerClass = AopUtils.getTargetClass(listener);
+        for(Class<?> listenerType : listenerTypes){
+            if(!listenerType.isAssignableFrom(listenerClass)){
+                continue;
+            }
+            ResolvableType messageType = ResolvableType.forClass(listenerClass).as(listenerType).getGeneric(0);
+            return toType(messageType);
+        }
+        return Object.class;
+    }
+
+    /**
+     * 创建消息类型对应的解码器
+     * @param messageType   消息类型
+     * @param charset       String类型消息的字符集
+     * @param defaultCodec  消息没有记录编解码器名称时使用的编解码器
+     * @return
+     */
+    public static MessageDecoder create(Type messageType, String charset, MessageCodec defaultCodec) {
+        //延迟解码的消息视图，消息体按泛型参数解码
+        if(messageType == RocketMQMessage.class){
+            return new LazyMessageDecoder(create(Object.class, charset, defaultCodec));
+        }
+        if(messageType instanceof ParameterizedType && ((ParameterizedType) messageType).getRawType() == RocketMQMessage.class){
+            return new LazyMessageDecoder(create(((ParameterizedType) messageType).getActualTypeArguments()[0], charset, defaultCodec));
+        }
+
+        if(messageType == MessageExt.class){
+            return new MessageExtDecoder();
+        }
+        if(messageType == String.class){
+            return new StringDecoder(Charset.forName(charset));
+        }
+        if(messageType == byte[].class){
+            return new BytesDecoder();
+        }
+        return new CodecDecoder(messageType, defaultCodec);
+    }
+
+    /**
+     * ResolvableType转换为Type，父类中的类型变量替换为实际类型
+     */
+    private static Type toType(ResolvableType resolvableType) {
+        if(resolvableType == ResolvableType.NONE){
+            return Object.class;
+        }
+        if(resolvableType.isArray()){
+            Type componentType = toType(resolvableType.getComponentType());
+            if(componentType instanceof Class){
+                return resolvableType.resolve(Object[].class);
+            }
+            return new GenericArrayTypeImpl(componentType);
+        }
+
+        Class<?> rawType = resolvableType.resolve(Object.class);
+        if(!resolvableType.hasGenerics()){
+            return rawType;
+        }
+        ResolvableType[] generics = resolvableType.getGenerics();
+        Type[] actualTypeArguments = new Type[generics.length];
+        for(int i = 0; i < generics.length; i++){
+            actualTypeArguments[i] = toType(generics[i]);
+        }
+        return new ParameterizedTypeImpl(rawType, actualTypeArguments, rawType.getDeclaringClass());
+    }
+
+
+    private static class LazyMessageDecoder implements MessageDecoder {
+        private final MessageDecoder payloadDecoder;
+
+        LazyMessageDecoder(MessageDecoder payloadDecoder) {
+            this.payloadDecoder = payloadDecoder;
+        }
+
+        @Override
+        public Object decode(MessageExt messageExt) {
+            return new RocketMQMessage<Object>(messageExt, payloadDecoder);
+        }
+    }
+
+    private static class MessageExtDecoder implements MessageDecoder {
+        @Override
+        public Object decode(MessageExt messageExt) {
+            MessageCompressorRegistry.decompress(messageExt);
+            return messageExt;
+        }
+    }
+
+    private static class BytesDecoder implements MessageDecoder {
+        @Override
+        public Object decode(MessageExt messageExt) {
+            MessageCompressorRegistry.decompress(messageExt);
+            return messageExt.getBody();
+        }
+    }
+
+    private static class StringDecoder implements MessageDecoder {
+        private final Charset charset;
+
+        StringDecoder(Charset charset) {
+            this.charset = charset;
+        }
+
+        @Override
+        public Object decode(MessageExt messageExt) {
+            MessageCompressorRegistry.decompress(messageExt);
+            return new String(messageExt.getBody(), charset);
+        }
+    }
+
+    /**
+     * 直接从byte[]解码，优先使用消息上记录的编解码器
+     * 消息上记录的编解码器没有注册时解码失败
+     */
+    private static class CodecDecoder implements MessageDecoder {
+        private final Type messageType;
+        private final MessageCodec defaultCodec;
+
+        CodecDecoder(Type messageType, MessageCodec defaultCodec) {
+            this.messageType = messageType;
+            this.defaultCodec = defaultCodec;
+        }
+
+        @Override
+        public Object decode(MessageExt messageExt) {
+            MessageCompressorRegistry.decompress(messageExt);
+            String codecName = messageExt.getUserProperty(RocketMQMessageConst.PROPERTY_CODEC);
+            if(codecName == null || codecName.equals(defaultCodec.getName())){
+                return defaultCodec.decode(messageExt.getBody(), messageType);
+            }
+            MessageCodec codec;
+            try {
+                codec = MessageCodecRegistry.get(codecName);
+            }
+            catch (IllegalArgumentException e) {
+                throw new MessageConversionException("codec [" + codecName + "] not registered, msgId:" + messageExt.getMsgId(), e);
+            }
+            return codec.decode(messageExt.getBody(), messageType);
+        }
+    }
+
+    /**
+     * equals()、hashCode()与JDK的实现一致，可以作为编解码器缓存的key
+     */
+    private static class ParameterizedTypeImpl implements ParameterizedType {
+        private final Class<?> rawType;
+        private final Type[] actualTypeArguments;
+        private final Type ownerType;
+
+        ParameterizedTypeImpl(Class<?> rawType, Type[] actualTypeArguments, Type ownerType) {
+            this.rawType = rawType;
+            this.actualTypeArguments = actualTypeArguments;
+            this.ownerType = ownerType;
+        }
+
+        @Override
+        public Type[] getActualTypeArguments() {
+            return actualTypeArguments.clone();
+        }
+
+        @Override
+        public Type getRawType() {
+            return rawType;
+        }
+
+        @Override
+        public Type getOwnerType() {
+            return ownerType;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof ParameterizedType)){
+                return false;
+            }
+            ParameterizedType that = (ParameterizedType) other;
+            return rawType.equals(that.getRawType())
+                    && (ownerType == null ? that.getOwnerType() == null : ownerType.equals(that.getOwnerType()))
+                    && Arrays.equals(actualTypeArguments, that.getActualTypeArguments());
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(actualTypeArguments) ^ (ownerType == null ? 0 : ownerType.hashCode()) ^ rawType.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(rawType.getName()).append('<');
+            for(int i = 0; i < actualTypeArguments.length; i++){
+                if(i > 0){
+                    builder.append(", ");
+                }
+                builder.append(actualTypeArguments[i] instanceof Class ? ((Class) actualTypeArguments[i]).getName() : actualTypeArguments[i].toString());
+            }
+            return builder.append('>').toString();
+        }
+    }
+
+    private static class GenericArrayTypeImpl implements GenericArrayType {
+        private final Type componentType;
+
+        GenericArrayTypeImpl(Type componentType) {
+            this.componentType = componentType;
+        }
+
+        @Override
+        public Type getGenericComponentType() {
+            return componentType;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof GenericArrayType && componentType.equals(((GenericArrayType) other).getGenericComponentType());
+        }
+
+        @Override
+        public int hashCode() {
+            return componentType.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return componentType + "[]";
+        }
+    }
+}
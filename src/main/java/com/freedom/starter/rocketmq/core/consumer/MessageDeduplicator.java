@@ -0,0 +1,257 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageClientIDSetter;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.freedom.starter.rocketmq.enums.DedupKey;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消费端去重，记录最近消费成功的消息，重复投递（消费重试、rebalance、生产者重试）时跳过
+ *
+ * 消息标识按64位哈希保存在分桶的开放寻址long数组中，不保存字符串，内存占用固定为maxEntries的常数倍；
+ * 共BUCKETS个桶，当前桶写满或超过windowMillis / BUCKETS时清空最早的桶继续写入，
+ * 即最多记录最近maxEntries条、最长windowMillis内的消息
+ * 哈希冲突会把不同消息误判为重复，64位哈希下概率可以忽略
+ *
+ * 只是尽力去重：同一条消息并发投递时可能都判定为不重复；进程重启后记录丢失
+ */
+public class MessageDeduplicator implements MessageDeduplicatorMXBean {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** 桶数 */
+    private static final int BUCKETS = 4;
+
+    /** 哈希为0表示空槽，真实哈希为0时替换为该值 */
+    private static final long ZERO_REPLACEMENT = 0x9E3779B97F4A7C15L;
+
+    private final String consumerGroup;
+    private final String topic;
+    private final DedupKey dedupKey;
+    private final int maxEntries;
+
+    /** 每个桶最多记录的消息数 */
+    private final int bucketEntries;
+
+    /** 每个桶的时间跨度，单位毫秒 */
+    private final long bucketMillis;
+
+    /** 开放寻址的哈希表，容量为bucketEntries的2倍以上 */
+    private final long[][] tables = new long[BUCKETS][];
+    private final int[] sizes = new int[BUCKETS];
+    private int current;
+    private long currentStart = System.currentTimeMillis();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+
+    /**
+     * @param consumerGroup  消费组
+     * @param topic          主题
+     * @param dedupKey       消息标识，不能为NONE
+     * @param maxEntries     最多记录的消息数
+     * @param windowMillis   最长记录时间，单位毫秒
+     */
+    public MessageDeduplicator(String consumerGroup, String topic, DedupKey dedupKey, int maxEntries, long windowMillis) {
+        if(dedupKey == null || dedupKey == DedupKey.NONE){
+            throw new IllegalArgumentException("'dedupKey' cannot be null or NONE");
+        }
+        if(maxEntries < BUCKETS || windowMillis <= 0){
+            throw new IllegalArgumentException("'maxEntries' must not be less than " + BUCKETS + " and 'windowMillis' must be positive");
+        }
+        this.consumerGroup = consumerGroup;
+        this.topic = topic;
+        this.dedupKey = dedupKey;
+        this.maxEntries = maxEntries;
+        this.bucketEntries = maxEntries / BUCKETS;
+        this.bucketMillis = Math.max(1, windowMillis / BUCKETS);
+        int capacity = Integer.highestOneBit(bucketEntries * 2 - 1) << 1;
+        for(int i = 0; i < BUCKETS; i++){
+            tables[i] = new long[capacity];
+        }
+    }
+
+
+    /**
+     * 消息是否已经消费成功过，同时统计命中次数
+     * @param messageExt
+     * @return
+     */
+    public boolean isDuplicate(MessageExt messageExt) {
+        long hash = hash(messageExt);
+        boolean duplicate;
+        synchronized (this) {
+            rotateIfNecessary(System.currentTimeMillis());
+            duplicate = false;
+            for(int i = 0; i < BUCKETS; i++){
+                if(contains(tables[i], hash)){
+                    duplicate = true;
+                    break;
+                }
+            }
+        }
+        if(duplicate){
+            hitCount.incrementAndGet();
+        }
+        else {
+            missCount.incrementAndGet();
+        }
+        return duplicate;
+    }
+
+    /**
+     * 记录消费成功的消息
+     * @param messageExt
+     */
+    public void markConsumed(MessageExt messageExt) {
+        long hash = hash(messageExt);
+        synchronized (this) {
+            rotateIfNecessary(System.currentTimeMillis());
+            if(sizes[current] >= bucketEntries){
+                rotate(System.currentTimeMillis());
+            }
+            if(insert(tables[current], hash)){
+                sizes[current]++;
+            }
+        }
+    }
+
+    /**
+     * 消息标识
+     * MSG_ID使用生产者生成的唯一id（UNIQ_KEY），没有时依次使用重试消息的原始id、msgId；
+     * 批量消息信封拆出的消息加上在信封中的序号
+     * @param messageExt
+     * @return
+     */
+    String dedupId(MessageExt messageExt) {
+        String id = null;
+        if(dedupKey == DedupKey.KEYS){
+            id = messageExt.getKeys();
+        }
+        if(id == null || id.isEmpty()){
+            id = MessageClientIDSetter.getUniqID(messageExt);
+            if(id == null){
+                id = messageExt.getProperty(MessageConst.PROPERTY_ORIGIN_MESSAGE_ID);
+            }
+            if(id == null){
+                id = messageExt.getMsgId();
+            }
+            String batchIndex = messageExt.getUserProperty(RocketMQMessageConst.PROPERTY_BATCH_INDEX);
+            if(batchIndex != null){
+                id = id + "#" + batchIndex;
+            }
+        }
+        return id;
+    }
+
+    private long hash(MessageExt messageExt) {
+        //FNV-1a 64位，再做一次混合
+        long hash = 0xcbf29ce484222325L;
+        for(byte b : dedupId(messageExt).getBytes(UTF8)){
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? ZERO_REPLACEMENT : hash;
+    }
+
+    private void rotateIfNecessary(long now) {
+        if(now - currentStart >= bucketMillis){
+            //超过多个桶的时间跨度时，过期的桶都要清空
+            long elapsedBuckets = Math.min(BUCKETS, (now - currentStart) / bucketMillis);
+            for(long i = 0; i < elapsedBuckets; i++){
+                rotate(now);
+            }
+        }
+    }
+
+    /**
+     * 清空最早的桶作为当前桶
+     */
+    private void rotate(long now) {
+        current = (current + 1) % BUCKETS;
+        Arrays.fill(tables[current], 0L);
+        sizes[current] = 0;
+        currentStart = now;
+    }
+
+    private static boolean contains(long[] table, long hash) {
+        int mask = table.length - 1;
+        int index = (int) hash & mask;
+        while (true) {
+            long value = table[index];
+            if(value == 0){
+                return false;
+            }
+            if(value == hash){
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static boolean insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        int index = (int) hash & mask;
+        while (true) {
+            long value = table[index];
+            if(value == 0){
+                table[index] = hash;
+                return true;
+            }
+            if(value == hash){
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+
+    @Override
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public synchronized int getSize() {
+        int size = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            size += sizes[i];
+        }
+        return size;
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageDeduplicator{consumerGroup=" + consumerGroup + ", topic=" + topic + ", dedupKey=" + dedupKey
+                + ", hitCount=" + hitCount + ", missCount=" + missCount + "}";
+    }
+}
@@ -0,0 +1,23 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+/**
+ * 消费端去重的JMX接口
+ */
+public interface MessageDeduplicatorMXBean {
+
+    String getConsumerGroup();
+
+    String getTopic();
+
+    /** 判定为重复而跳过的消息数 */
+    long getHitCount();
+
+    /** 判定为不重复的消息数 */
+    long getMissCount();
+
+    /** 当前记录的消息数 */
+    int getSize();
+
+    /** 最多记录的消息数 */
+    int getMaxEntries();
+}
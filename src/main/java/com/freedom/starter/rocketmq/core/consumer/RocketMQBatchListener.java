@@ -0,0 +1,26 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import java.util.List;
+
+/**
+ * RocketMQ批量消费接口，一次处理consumer拉取到的一批消息，用于批量写库等场景
+ * 每批最多@RocketMQMessageListener.consumeMessageBatchMaxSize()条
+ *
+ * 返回第一条处理失败的消息下标时，之前的消息确认消费，从该消息开始重试；
+ * 抛出异常时整批重试
+ * 并发消费的集群模式才支持部分确认，顺序消费和广播模式下部分失败也按整批处理
+ *
+ * @param <T>  消息类型
+ */
+public interface RocketMQBatchListener<T> {
+
+    /** 全部处理成功 */
+    int CONSUME_ALL = -1;
+
+    /**
+     * 处理一批消息
+     * @param messages  消息，按队列中的顺序
+     * @return  第一条处理失败的消息下标，全部成功时返回CONSUME_ALL
+     */
+    int onMessage(List<T> messages);
+}
@@ -0,0 +1,122 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 延迟解码的消息视图，作为RocketMQListener等监听接口的消息类型使用，如RocketMQListener<RocketMQMessage<OrderDTO>>
+ * 可以直接读取消息头和属性，第一次调用getPayload()时才解压、解码消息体，之后返回缓存的结果
+ * 只根据tag、keys、属性判断是否处理的监听接口，跳过的消息不需要解码
+ *
+ * 不是线程安全的，只在当前消费线程中使用
+ *
+ * @param <T>  消息体类型
+ */
+public class RocketMQMessage<T> {
+
+    private final MessageExt messageExt;
+
+    /** 消息体的解码器 */
+    private final MessageDecoder payloadDecoder;
+
+    private boolean decoded;
+
+    private T payload;
+
+
+    RocketMQMessage(MessageExt messageExt, MessageDecoder payloadDecoder) {
+        this.messageExt = messageExt;
+        this.payloadDecoder = payloadDecoder;
+    }
+
+
+    /**
+     * 消息体，第一次调用时解码
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public T getPayload() {
+        if(!decoded){
+            payload = (T) payloadDecoder.decode(messageExt);
+            decoded = true;
+        }
+        return payload;
+    }
+
+    /**
+     * 消息体是否已经解码
+     * @return
+     */
+    public boolean isPayloadDecoded() {
+        return decoded;
+    }
+
+    public String getMsgId() {
+        return messageExt.getMsgId();
+    }
+
+    public String getTopic() {
+        return messageExt.getTopic();
+    }
+
+    public String getTags() {
+        return messageExt.getTags();
+    }
+
+    public String getKeys() {
+        return messageExt.getKeys();
+    }
+
+    /**
+     * 消息属性，包括用户属性
+     * @param name
+     * @return
+     */
+    public String getProperty(String name) {
+        return messageExt.getProperty(name);
+    }
+
+    /**
+     * 全部消息属性，只读
+     * @return
+     */
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(messageExt.getProperties());
+    }
+
+    public int getReconsumeTimes() {
+        return messageExt.getReconsumeTimes();
+    }
+
+    public int getQueueId() {
+        return messageExt.getQueueId();
+    }
+
+    public long getQueueOffset() {
+        return messageExt.getQueueOffset();
+    }
+
+    public long getBornTimestamp() {
+        return messageExt.getBornTimestamp();
+    }
+
+    public long getStoreTimestamp() {
+        return messageExt.getStoreTimestamp();
+    }
+
+    /**
+     * 原始消息，消息体可能还没有解压
+     * @return
+     */
+    public MessageExt getMessageExt() {
+        return messageExt;
+    }
+
+    @Override
+    public String toString() {
+        return "RocketMQMessage{msgId=" + messageExt.getMsgId() + ", topic=" + messageExt.getTopic() + ", tags=" + messageExt.getTags()
+                + ", keys=" + messageExt.getKeys() + ", payloadDecoded=" + decoded + "}";
+    }
+}
@@ -0,0 +1,15 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+/**
+ * RocketMQ请求/应答的应答方接口
+ * 处理RocketMQTemplate.sendAndReceive()发送的请求，返回值自动发送回请求方
+ *
+ * onMessage()抛出异常时，异常信息作为失败应答发送回请求方，请求消息不再重新消费；
+ * 不是通过sendAndReceive()发送的消息，按普通消息处理，返回值被忽略
+ *
+ * @param <T>  请求消息类型
+ * @param <R>  应答消息类型
+ */
+public interface RocketMQReplyListener<T, R> {
+    R onMessage(T message);
+}
@@ -0,0 +1,365 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 所有listener container共用的消费线程池
+ * 每个container一个任务队列，固定数量的工作线程按加权公平方式从各队列取任务：
+ * 1、正在执行的任务数小于minShare的队列优先，保证每个container的最低并发
+ * 2、其余按虚拟时间最小的队列优先，每执行一个任务虚拟时间增加1/weight，即各container按权重分配线程
+ * 3、正在执行的任务数达到maxShare的队列暂不调度，单个container不会占满所有线程
+ * 各container的minShare之和不超过线程数时才能同时保证，超过时register()记录警告，低于minShare的队列之间按虚拟时间调度
+ *
+ * 由DefaultRocketMQListenerContainer替换rocketmq consumer内部的消费线程池后使用，见register()
+ */
+public class SharedConsumeExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(SharedConsumeExecutor.class);
+
+    /** 工作线程数 */
+    private final int threads;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private final List<Lane> lanes = new CopyOnWriteArrayList<Lane>();
+
+    /** 最近调度的任务的虚拟时间，新变为非空的队列从这里开始，不能用空闲期间积累的份额抢占其它队列 */
+    private double virtualTime;
+
+    private volatile boolean stopped;
+
+
+    public SharedConsumeExecutor(int threads) {
+        if(threads <= 0){
+            throw new IllegalArgumentException("'threads' must be positive");
+        }
+        this.threads = threads;
+        for(int i = 0; i < threads; i++){
+            Thread thread = new Thread(new Worker(), "RocketMQSharedConsumer_" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public List<Lane> getLanes() {
+        return lanes;
+    }
+
+
+    /**
+     * 为一个container创建任务队列
+     * @param consumerGroup  消费组
+     * @param topic          主题
+     * @param weight         权重，大于0
+     * @param minShare       最低并发，有任务时优先调度到该并发，各队列minShare之和不超过线程数时才能保证
+     * @param maxShare       最大并发，可以通过Lane.setCorePoolSize()调整
+     * @return  提交任务到该队列的ThreadPoolExecutor，shutdown()后不再接收任务，已提交的任务执行完后移除队列
+     */
+    public Lane register(String consumerGroup, String topic, int weight, int minShare, int maxShare) {
+        if(weight <= 0){
+            throw new IllegalArgumentException("'weight' must be positive");
+        }
+        if(maxShare <= 0){
+            throw new IllegalArgumentException("'maxShare' must be positive");
+        }
+        if(stopped){
+            throw new IllegalStateException("shared consume executor already shutdown");
+        }
+        Lane lane = new Lane(consumerGroup, topic, weight, Math.max(0, Math.min(minShare, maxShare)), maxShare);
+        lanes.add(lane);
+        int totalMinShare = 0;
+        for(Lane registered : lanes){
+            totalMinShare += registered.minShare;
+        }
+        if(totalMinShare > threads){
+            logger.warn("total minShare {} exceeds shared consume threads {}, minShare cannot be guaranteed for every consumer. consumerGroup:{}",
+                    totalMinShare, threads, consumerGroup);
+        }
+        return lane;
+    }
+
+    public void shutdown() {
+        lock.lock();
+        try {
+            stopped = true;
+            available.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * 取下一个可以执行的任务，持有lock时调用
+     * @return  没有可以执行的任务时返回null
+     */
+    private Runnable poll() {
+        Lane selected = null;
+        boolean selectedBelowMin = false;
+        for(Lane lane : lanes){
+            if(lane.tasks.isEmpty() || lane.active >= lane.maxShare){
+                continue;
+            }
+            boolean belowMin = lane.active < lane.minShare;
+            if(selected == null
+                    || (belowMin && !selectedBelowMin)
+                    || (belowMin == selectedBelowMin && lane.virtualTime < selected.virtualTime)){
+                selected = lane;
+                selectedBelowMin = belowMin;
+            }
+        }
+        if(selected == null){
+            return null;
+        }
+        Runnable task = selected.tasks.poll();
+        selected.active++;
+        virtualTime = selected.virtualTime;
+        selected.virtualTime += 1.0 / selected.weight;
+        return new LaneTask(selected, task);
+    }
+
+    /**
+     * 任务执行完成，持有lock时调用
+     */
+    private void complete(Lane lane) {
+        lane.active--;
+        lane.completed.incrementAndGet();
+        if(lane.isShutdown() && lane.tasks.isEmpty() && lane.active == 0){
+            lanes.remove(lane);
+        }
+        available.signal();  //该队列可能因达到maxShare被跳过
+    }
+
+
+    /**
+     * 一个container的任务队列
+     * 继承ThreadPoolExecutor是为了替换rocketmq consumer内部ThreadPoolExecutor类型的消费线程池，自身不创建线程
+     */
+    public class Lane extends ThreadPoolExecutor implements SharedConsumeLaneMXBean {
+        private final String consumerGroup;
+        private final String topic;
+        private final int weight;
+        private final int minShare;
+        private volatile int maxShare;
+
+        /** 等待执行的任务，持有lock时访问 */
+        private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        private volatile int queueDepth;
+        private volatile int active;
+        private double virtualTime;
+
+        private final AtomicLong completed = new AtomicLong();
+
+        Lane(String consumerGroup, String topic, int weight, int minShare, int maxShare) {
+            super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+            this.consumerGroup = consumerGroup;
+            this.topic = topic;
+            this.weight = weight;
+            this.minShare = minShare;
+            this.maxShare = maxShare;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if(command == null){
+                throw new NullPointerException();
+            }
+            lock.lock();
+            try {
+                if(stopped || isShutdown()){
+                    throw new RejectedExecutionException("shared consume executor lane shutdown. consumerGroup:" + consumerGroup);
+                }
+                if(tasks.isEmpty() && active == 0){
+                    virtualTime = Math.max(virtualTime, SharedConsumeExecutor.this.virtualTime);
+                }
+                tasks.add(command);
+                queueDepth = tasks.size();
+                available.signal();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            lock.lock();
+            try {
+                super.shutdown();
+                if(tasks.isEmpty() && active == 0){
+                    lanes.remove(this);
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            lock.lock();
+            try {
+                List<Runnable> dropped = super.shutdownNow();
+                dropped.addAll(tasks);
+                tasks.clear();
+                queueDepth = 0;
+                if(active == 0){
+                    lanes.remove(this);
+                }
+                return dropped;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 调整最大并发，rocketmq的updateCorePoolSize()和并发自动调节通过该方法调整
+         * @param corePoolSize
+         */
+        @Override
+        public void setCorePoolSize(int corePoolSize) {
+            if(corePoolSize <= 0){
+                throw new IllegalArgumentException("'corePoolSize' must be positive");
+            }
+            lock.lock();
+            try {
+                maxShare = corePoolSize;
+                available.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int getCorePoolSize() {
+            return maxShare;
+        }
+
+        @Override
+        public int getActiveCount() {
+            return active;
+        }
+
+        @Override
+        public long getCompletedTaskCount() {
+            return completed.get();
+        }
+
+        @Override
+        public String getConsumerGroup() {
+            return consumerGroup;
+        }
+
+        @Override
+        public String getTopic() {
+            return topic;
+        }
+
+        @Override
+        public int getWeight() {
+            return weight;
+        }
+
+        @Override
+        public int getMinShare() {
+            return minShare;
+        }
+
+        @Override
+        public int getMaxShare() {
+            return maxShare;
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        @Override
+        public String toString() {
+            return "Lane{consumerGroup=" + consumerGroup + ", topic=" + topic + ", weight=" + weight + ", minShare=" + minShare
+                    + ", maxShare=" + maxShare + ", queueDepth=" + queueDepth + ", active=" + active + "}";
+        }
+    }
+
+    /**
+     * 执行一个队列的任务，记录队列深度
+     */
+    private static class LaneTask implements Runnable {
+        private final Lane lane;
+        private final Runnable task;
+
+        LaneTask(Lane lane, Runnable task) {
+            this.lane = lane;
+            this.task = task;
+            lane.queueDepth = lane.tasks.size();
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * 工作线程
+     */
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                LaneTask task;
+                lock.lock();
+                try {
+                    Runnable next;
+                    while ((next = poll()) == null) {
+                        if(stopped){
+                            return;
+                        }
+                        available.awaitUninterruptibly();
+                    }
+                    task = (LaneTask) next;
+                }
+                finally {
+                    lock.unlock();
+                }
+
+                try {
+                    task.run();
+                }
+                catch (Throwable e) {
+                    logger.error("shared consume task failed. consumerGroup:{}", task.lane.consumerGroup, e);
+                }
+                finally {
+                    lock.lock();
+                    try {
+                        complete(task.lane);
+                    }
+                    finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+/**
+ * 共用消费线程池中一个container任务队列的JMX接口
+ */
+public interface SharedConsumeLaneMXBean {
+
+    String getConsumerGroup();
+
+    String getTopic();
+
+    /** 权重 */
+    int getWeight();
+
+    /** 最低并发 */
+    int getMinShare();
+
+    /** 最大并发 */
+    int getMaxShare();
+
+    /** 等待执行的任务数 */
+    int getQueueDepth();
+
+    /** 正在执行的任务数 */
+    int getActiveCount();
+
+    /** 已执行完成的任务数 */
+    long getCompletedTaskCount();
+}
@@ -0,0 +1,295 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 使用虚拟线程执行消费任务，JDK 21及以上可用，见isSupported()
+ * 每个任务一个虚拟线程，同时执行的任务数由信号量限制为maxConcurrency，
+ * 超过时任务在队列中等待，不占用线程；阻塞I/O的listener不再受平台线程数限制
+ *
+ * 项目按Java 1.7编译，通过反射调用Thread.ofVirtual()
+ * 继承ThreadPoolExecutor是为了替换rocketmq consumer内部ThreadPoolExecutor类型的消费线程池，自身不创建平台线程，
+ * 因此shutdown()、awaitTermination()等按等待和执行中的虚拟线程任务重新实现
+ */
+public class VirtualThreadConsumeExecutor extends ThreadPoolExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadConsumeExecutor.class);
+
+    /** Thread.ofVirtual()，JDK 21以下为null */
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            name = builderClass.getMethod("name", String.class, long.class);
+            factory = builderClass.getMethod("factory");
+        }
+        catch (Exception e) {
+            ofVirtual = null;  //JDK 21以下没有虚拟线程
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+    }
+
+    private final ThreadFactory threadFactory;
+
+    /** 同时执行的任务数 */
+    private final AdjustableSemaphore permits;
+    private volatile int maxConcurrency;
+
+    /** 等待执行的任务 */
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    /** 已取出等待执行或正在执行的任务数，在取出任务前增加，保证与pending一起判断终止时不会遗漏 */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /** 正在执行任务的虚拟线程，shutdownNow()时中断 */
+    private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    /** execute()的检查和入队与shutdown()互斥，shutdown后不会再有新任务入队 */
+    private final Object stateLock = new Object();
+
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+
+    /**
+     * @param name            虚拟线程名称前缀
+     * @param maxConcurrency  同时执行的最大任务数
+     * @throws IllegalStateException  当前JDK不支持虚拟线程
+     */
+    public VirtualThreadConsumeExecutor(String name, int maxConcurrency) {
+        super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        if(maxConcurrency <= 0){
+            throw new IllegalArgumentException("'maxConcurrency' must be positive");
+        }
+        if(!isSupported()){
+            throw new IllegalStateException("virtual threads require JDK 21+, current: " + System.getProperty("java.version"));
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, name + "_", 1L);
+            this.threadFactory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("create virtual thread factory failed", e);
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new AdjustableSemaphore(maxConcurrency);
+    }
+
+    /**
+     * 当前JDK是否支持虚拟线程
+     * @return
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if(command == null){
+            throw new NullPointerException();
+        }
+        synchronized (stateLock) {
+            if(isShutdown()){
+                throw new RejectedExecutionException("virtual thread consume executor shutdown");
+            }
+            pending.offer(command);
+        }
+        drain();
+    }
+
+    /**
+     * 有空闲许可时为等待的任务启动虚拟线程
+     */
+    private void drain() {
+        while (!pending.isEmpty() && permits.tryAcquire()) {
+            running.incrementAndGet();
+            final Runnable task = pending.poll();
+            if(task == null){
+                running.decrementAndGet();
+                permits.release();  //其它线程已取走
+                continue;
+            }
+            try {
+                threadFactory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Thread thread = Thread.currentThread();
+                        threads.add(thread);
+                        try {
+                            task.run();
+                        }
+                        catch (Throwable e) {
+                            logger.error("virtual thread consume task failed", e);
+                        }
+                        finally {
+                            threads.remove(thread);
+                            completed.incrementAndGet();
+                            running.decrementAndGet();
+                            permits.release();
+                            drain();  //释放许可后检查等待的任务，避免与execute()并发时遗漏
+                            tryTerminate();
+                        }
+                    }
+                }).start();
+            }
+            catch (Throwable e) {
+                permits.release();
+                pending.offer(task);
+                running.decrementAndGet();
+                logger.error("start virtual thread failed", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 已shutdown、没有等待和执行中的任务时终止
+     * 先检查pending再检查running，任务在取出前已计入running，不会两边都看不到
+     */
+    private void tryTerminate() {
+        if(isShutdown() && pending.isEmpty() && running.get() == 0){
+            terminated.countDown();
+        }
+    }
+
+    /**
+     * 不再接收新任务，已提交的任务继续执行
+     */
+    @Override
+    public void shutdown() {
+        synchronized (stateLock) {
+            super.shutdown();
+        }
+        tryTerminate();
+    }
+
+    /**
+     * 不再接收新任务，返回等待执行的任务，中断正在执行任务的虚拟线程
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> dropped;
+        synchronized (stateLock) {
+            dropped = super.shutdownNow();
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>(dropped);
+        Runnable task;
+        while ((task = pending.poll()) != null) {
+            tasks.add(task);
+        }
+        for(Thread thread : threads){
+            thread.interrupt();
+        }
+        tryTerminate();
+        return tasks;
+    }
+
+    @Override
+    public boolean isTerminating() {
+        return isShutdown() && !isTerminated();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    /**
+     * 等待shutdown后等待和执行中的任务全部完成
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * 调整同时执行的最大任务数，rocketmq的updateCorePoolSize()和并发自动调节通过该方法调整
+     * 调小时正在执行的任务不受影响，正在执行的任务数降到新的上限以下后才启动新任务
+     * @param corePoolSize
+     */
+    @Override
+    public synchronized void setCorePoolSize(int corePoolSize) {
+        if(corePoolSize <= 0){
+            throw new IllegalArgumentException("'corePoolSize' must be positive");
+        }
+        int delta = corePoolSize - maxConcurrency;
+        maxConcurrency = corePoolSize;
+        if(delta > 0){
+            permits.release(delta);
+            drain();
+        }
+        else if(delta < 0){
+            permits.reduce(-delta);
+        }
+    }
+
+    @Override
+    public int getCorePoolSize() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public int getActiveCount() {
+        return Math.max(0, maxConcurrency - permits.availablePermits());
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return completed.get();
+    }
+
+    /**
+     * 可以减少许可的信号量，减少后可用许可可能为负，归还到正数后才能再获取
+     */
+    private static class AdjustableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        AdjustableSemaphore(int permits) {
+            super(permits);
+        }
+
+        void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualThreadConsumeExecutor{maxConcurrency=" + maxConcurrency + ", active=" + getActiveCount()
+                + ", pending=" + pending.size() + "}";
+    }
+}
@@ -0,0 +1,213 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个listener container的消费指标
+ * 成功、失败、重试消息数，消费耗时直方图，每秒消费消息数，以及各队列的消费延迟（lag）
+ * 记录时只有原子操作，不加锁
+ */
+public class ConsumeMetrics implements ConsumeMetricsMXBean {
+
+    private static final double NANOS_PER_MILLI = 1000000D;
+
+    /** 采集各队列的消费延迟，由DefaultRocketMQListenerContainer实现 */
+    public interface LagCollector {
+        /**
+         * 采集一次消费延迟，对每个分配到的队列调用ConsumeMetrics.updateLag()
+         * @param consumeMetrics
+         * @return  当前分配到的队列，key为QueueLag.key()，其它队列标记为未分配
+         */
+        Set<String> collect(ConsumeMetrics consumeMetrics) throws Exception;
+    }
+
+    private final String consumerGroup;
+
+    private final String topic;
+
+    private final RocketMQConsumeMetrics registry;
+
+    private final LagCollector lagCollector;
+
+    private final AtomicLong successCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong retryCount = new AtomicLong();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /** key为QueueLag.key() */
+    private final ConcurrentMap<String, QueueLag> queueLags = new ConcurrentHashMap<String, QueueLag>();
+
+    /** 上次计算tps时的消费消息数和时间，只在采集线程中访问 */
+    private long lastConsumed;
+    private long lastTickNanos = System.nanoTime();
+
+    private volatile double tps;
+
+
+    ConsumeMetrics(String consumerGroup, String topic, RocketMQConsumeMetrics registry, LagCollector lagCollector) {
+        this.consumerGroup = consumerGroup;
+        this.topic = topic;
+        this.registry = registry;
+        this.lagCollector = lagCollector;
+    }
+
+    /**
+     * 记录一次消费，批量消费时一批记录一次耗时
+     * @param succeeded  成功的消息数
+     * @param failed     失败的消息数
+     * @param costNanos  耗时，单位纳秒
+     */
+    public void record(int succeeded, int failed, long costNanos) {
+        if(succeeded > 0){
+            successCount.addAndGet(succeeded);
+        }
+        if(failed > 0){
+            failureCount.addAndGet(failed);
+        }
+        latency.record(costNanos);
+    }
+
+    /**
+     * 记录重新投递的消息数
+     * @param messages
+     */
+    public void recordRetry(int messages) {
+        retryCount.addAndGet(messages);
+    }
+
+    /**
+     * 更新一个队列的消费延迟，由LagCollector调用
+     * @param brokerName      broker名称
+     * @param queueId         队列id
+     * @param brokerOffset    broker上的最大offset
+     * @param consumerOffset  已提交的消费offset
+     * @return  QueueLag.key()
+     */
+    public String updateLag(String brokerName, int queueId, long brokerOffset, long consumerOffset) {
+        String key = QueueLag.key(brokerName, queueId);
+        QueueLag queueLag = queueLags.get(key);
+        if(queueLag == null){
+            QueueLag newQueueLag = new QueueLag(consumerGroup, topic, brokerName, queueId);
+            queueLag = queueLags.putIfAbsent(key, newQueueLag);
+            if(queueLag == null){
+                queueLag = newQueueLag;
+                registry.fireQueueLagCreated(queueLag);
+            }
+        }
+        queueLag.update(brokerOffset, consumerOffset);
+        return key;
+    }
+
+    /**
+     * 采集消费延迟并计算tps，由RocketMQConsumeMetrics定时调用
+     */
+    void tick() throws Exception {
+        long now = System.nanoTime();
+        long consumed = successCount.get() + failureCount.get();
+        if(now > lastTickNanos){
+            tps = (consumed - lastConsumed) * 1000000000D / (now - lastTickNanos);
+        }
+        lastConsumed = consumed;
+        lastTickNanos = now;
+
+        if(lagCollector != null){
+            Set<String> assigned = lagCollector.collect(this);
+            for(QueueLag queueLag : queueLags.values()){
+                if(!assigned.contains(queueLag.key())){
+                    queueLag.unassign();  //rebalance到其它实例的队列
+                }
+            }
+        }
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public Collection<QueueLag> getQueueLags() {
+        return new ArrayList<QueueLag>(queueLags.values());
+    }
+
+    @Override
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public double getTps() {
+        return tps;
+    }
+
+    @Override
+    public long getLag() {
+        long lag = 0;
+        for(QueueLag queueLag : queueLags.values()){
+            lag += queueLag.getLag();
+        }
+        return lag;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getValueAtQuantile(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return latency.getValueAtQuantile(0.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getValueAtQuantile(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latency.getValueAtQuantile(0.999) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMaxNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumeMetrics{consumerGroup=" + consumerGroup + ", topic=" + topic
+                + ", success=" + successCount + ", failure=" + failureCount + ", retry=" + retryCount + "}";
+    }
+}
@@ -0,0 +1,24 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+/**
+ * 消费指标的监听器，用于把指标导出到JMX、Micrometer等监控系统
+ */
+public interface ConsumeMetricsListener {
+
+    /**
+     * listener container启动，创建了新的消费指标
+     * @param consumeMetrics
+     */
+    void onCreated(ConsumeMetrics consumeMetrics);
+
+    /**
+     * 第一次采集到某个队列的消费延迟
+     * @param queueLag
+     */
+    void onQueueLagCreated(QueueLag queueLag);
+
+    /**
+     * RocketMQConsumeMetrics关闭
+     */
+    void onClose();
+}
@@ -0,0 +1,38 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+/**
+ * 消费指标的JMX接口，耗时单位毫秒，分位数为启动以来的累计值
+ */
+public interface ConsumeMetricsMXBean {
+
+    String getConsumerGroup();
+
+    String getTopic();
+
+    /** 消费成功的消息数 */
+    long getSuccessCount();
+
+    /** 消费失败的消息数 */
+    long getFailureCount();
+
+    /** 重新投递的消息数 */
+    long getRetryCount();
+
+    /** 最近一个采集周期每秒消费的消息数 */
+    double getTps();
+
+    /** 分配到本实例的各队列消费延迟之和 */
+    long getLag();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+}
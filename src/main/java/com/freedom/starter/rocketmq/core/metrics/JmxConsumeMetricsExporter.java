@@ -0,0 +1,84 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 将消费指标注册为JMX MBean
+ * ObjectName：com.freedom.starter.rocketmq:type=ConsumeMetrics,consumerGroup=消费组,topic=主题
+ *            com.freedom.starter.rocketmq:type=ConsumeLag,consumerGroup=消费组,topic=主题,broker=broker名称,queue=队列id
+ */
+public class JmxConsumeMetricsExporter implements ConsumeMetricsListener {
+    private static final Logger logger = LoggerFactory.getLogger(JmxConsumeMetricsExporter.class);
+
+    private final MBeanServer mBeanServer;
+
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+
+
+    public JmxConsumeMetricsExporter() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxConsumeMetricsExporter(MBeanServer mBeanServer) {
+        if(mBeanServer == null){
+            throw new IllegalArgumentException("'mBeanServer' cannot be null");
+        }
+        this.mBeanServer = mBeanServer;
+    }
+
+    @Override
+    public void onCreated(ConsumeMetrics consumeMetrics) {
+        try {
+            register(consumeMetrics, new ObjectName(JmxSendMetricsExporter.DOMAIN + ":type=ConsumeMetrics"
+                    + ",consumerGroup=" + ObjectName.quote(consumeMetrics.getConsumerGroup())
+                    + ",topic=" + ObjectName.quote(consumeMetrics.getTopic())));
+        }
+        catch (Exception e) {
+            logger.warn("register ConsumeMetrics MBean failed. {}", consumeMetrics, e);
+        }
+    }
+
+    @Override
+    public void onQueueLagCreated(QueueLag queueLag) {
+        try {
+            register(queueLag, new ObjectName(JmxSendMetricsExporter.DOMAIN + ":type=ConsumeLag"
+                    + ",consumerGroup=" + ObjectName.quote(queueLag.getConsumerGroup())
+                    + ",topic=" + ObjectName.quote(queueLag.getTopic())
+                    + ",broker=" + ObjectName.quote(queueLag.getBrokerName())
+                    + ",queue=" + queueLag.getQueueId()));
+        }
+        catch (Exception e) {
+            logger.warn("register ConsumeLag MBean failed. {}", queueLag, e);
+        }
+    }
+
+    private void register(Object mBean, ObjectName objectName) throws Exception {
+        if(mBeanServer.isRegistered(objectName)){
+            mBeanServer.unregisterMBean(objectName);  //同一个JVM中有多个spring容器时，使用最新的
+        }
+        mBeanServer.registerMBean(mBean, objectName);
+        registered.add(objectName);
+    }
+
+    @Override
+    public void onClose() {
+        for(ObjectName objectName : registered){
+            try {
+                if(mBeanServer.isRegistered(objectName)){
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            }
+            catch (Exception e) {
+                logger.warn("unregister ConsumeMetrics MBean failed. {}", objectName, e);
+            }
+        }
+        registered.clear();
+    }
+}
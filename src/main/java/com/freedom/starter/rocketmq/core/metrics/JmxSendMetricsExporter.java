@@ -0,0 +1,110 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import com.freedom.starter.rocketmq.core.producer.InFlightLimiter;
+import com.freedom.starter.rocketmq.core.producer.TopicHedgePolicy;
+import com.freedom.starter.rocketmq.core.producer.TopicRateLimiter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 将发送指标注册为JMX MBean
+ * ObjectName：com.freedom.starter.rocketmq:type=SendMetrics,topic=主题,tag=标签,mode=发送方式
+ *            com.freedom.starter.rocketmq:type=SendRateLimiter,topic=主题
+ *            com.freedom.starter.rocketmq:type=SendHedge,topic=主题
+ *            com.freedom.starter.rocketmq:type=SendInFlight
+ */
+public class JmxSendMetricsExporter implements SendMetricsListener {
+    private static final Logger logger = LoggerFactory.getLogger(JmxSendMetricsExporter.class);
+
+    public static final String DOMAIN = "com.freedom.starter.rocketmq";
+
+    private final MBeanServer mBeanServer;
+
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+
+
+    public JmxSendMetricsExporter() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxSendMetricsExporter(MBeanServer mBeanServer) {
+        if(mBeanServer == null){
+            throw new IllegalArgumentException("'mBeanServer' cannot be null");
+        }
+        this.mBeanServer = mBeanServer;
+    }
+
+    @Override
+    public void onCreated(SendMetrics sendMetrics) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=SendMetrics"
+                    + ",topic=" + ObjectName.quote(sendMetrics.getTopic())
+                    + ",tag=" + ObjectName.quote(sendMetrics.getTag())
+                    + ",mode=" + sendMetrics.getMode());
+            register(sendMetrics, objectName);
+        }
+        catch (Exception e) {
+            logger.warn("register SendMetrics MBean failed. {}", sendMetrics, e);
+        }
+    }
+
+    @Override
+    public void onRateLimiterCreated(TopicRateLimiter rateLimiter) {
+        try {
+            register(rateLimiter, new ObjectName(DOMAIN + ":type=SendRateLimiter,topic=" + ObjectName.quote(rateLimiter.getTopic())));
+        }
+        catch (Exception e) {
+            logger.warn("register SendRateLimiter MBean failed. topic:{}", rateLimiter.getTopic(), e);
+        }
+    }
+
+    @Override
+    public void onHedgePolicyCreated(TopicHedgePolicy hedgePolicy) {
+        try {
+            register(hedgePolicy, new ObjectName(DOMAIN + ":type=SendHedge,topic=" + ObjectName.quote(hedgePolicy.getTopic())));
+        }
+        catch (Exception e) {
+            logger.warn("register SendHedge MBean failed. topic:{}", hedgePolicy.getTopic(), e);
+        }
+    }
+
+    @Override
+    public void onInFlightLimiterCreated(InFlightLimiter inFlightLimiter) {
+        try {
+            register(inFlightLimiter, new ObjectName(DOMAIN + ":type=SendInFlight"));
+        }
+        catch (Exception e) {
+            logger.warn("register SendInFlight MBean failed", e);
+        }
+    }
+
+    private void register(Object mBean, ObjectName objectName) throws Exception {
+        if(mBeanServer.isRegistered(objectName)){
+            mBeanServer.unregisterMBean(objectName);  //同一个JVM中有多个spring容器时，使用最新的
+        }
+        mBeanServer.registerMBean(mBean, objectName);
+        registered.add(objectName);
+    }
+
+    @Override
+    public void onClose() {
+        for(ObjectName objectName : registered){
+            try {
+                if(mBeanServer.isRegistered(objectName)){
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            }
+            catch (Exception e) {
+                logger.warn("unregister SendMetrics MBean failed. {}", objectName, e);
+            }
+        }
+        registered.clear();
+    }
+}
@@ -0,0 +1,124 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的耗时直方图，单位纳秒
+ * 采用与HdrHistogram相同的对数-线性分桶：每个2的幂区间再等分为32个子桶，相对误差不超过1/32，
+ * 记录时只有一次AtomicLongArray自增和两次AtomicLong更新，不分配对象
+ *
+ * 可记录的最大值约为2^40纳秒（18分钟），超过的按最大值记录
+ */
+public class LatencyHistogram {
+
+    /** 每个2的幂区间的子桶数量的位数 */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** 可记录的最大值的位数 */
+    private static final int MAX_VALUE_BITS = 40;
+
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+
+    /**
+     * 记录一次耗时
+     * @param nanos  耗时，单位纳秒，小于0的按0记录
+     */
+    public void record(long nanos) {
+        long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalNanos.addAndGet(value);
+
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public double getMeanNanos() {
+        long count = totalCount.get();
+        return count == 0 ? 0D : (double) totalNanos.get() / count;
+    }
+
+    /**
+     * 分位数，返回所在桶的中间值
+     * 读取时不加锁，与并发的record()之间可能有少量误差
+     * @param quantile  0-1之间，如0.99
+     * @return  单位纳秒
+     */
+    public long getValueAtQuantile(double quantile) {
+        if(quantile < 0 || quantile > 1){
+            throw new IllegalArgumentException("'quantile' must be in [0, 1]");
+        }
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for(int i=0; i<BUCKET_COUNT; i++){
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if(total == 0){
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for(int i=0; i<BUCKET_COUNT; i++){
+            seen += snapshot[i];
+            if(seen >= rank){
+                return Math.min(bucketMiddle(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * 值所在的桶，小于SUB_BUCKET_COUNT的值每个值一个桶，之后每个2的幂区间SUB_BUCKET_COUNT个桶
+     */
+    static int bucketIndex(long value) {
+        if(value < SUB_BUCKET_COUNT){
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * 桶的中间值
+     */
+    static long bucketMiddle(int index) {
+        if(index < SUB_BUCKET_COUNT){
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowest = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + ((1L << shift) >> 1);
+    }
+}
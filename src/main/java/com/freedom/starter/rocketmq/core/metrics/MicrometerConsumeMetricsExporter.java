@@ -0,0 +1,158 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.NoUniqueBeanDefinitionException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * 将消费指标导出到Micrometer MeterRegistry，需要引入io.micrometer:micrometer-core
+ *
+ * rocketmq.consumer.consume          FunctionTimer，消费次数、总耗时，批量消费时一批记一次
+ * rocketmq.consumer.consume.success  消费成功的消息数
+ * rocketmq.consumer.consume.failure  消费失败的消息数，包含抛出异常的
+ * rocketmq.consumer.consume.retry    重新投递的消息数
+ * rocketmq.consumer.consume.tps      最近一个采集周期每秒消费的消息数
+ * rocketmq.consumer.consume.latency  TimeGauge，耗时分位数，quantile标签为0.5、0.9、0.99、0.999、1.0（最大值）
+ * rocketmq.consumer.lag              分配到本实例的各队列消费延迟之和
+ * 都带有consumerGroup、topic标签
+ *
+ * rocketmq.consumer.queue.lag        单个队列的消费延迟，另带有broker、queue标签，队列rebalance到其它实例后为0
+ *
+ * 与MicrometerSendMetricsExporter一样只使用MeterRegistry的实例方法注册，使用Micrometer时需要Java 8
+ */
+public class MicrometerConsumeMetricsExporter implements ConsumeMetricsListener {
+
+    private static final String PREFIX = "rocketmq.consumer.consume";
+
+    private static final String LAG = "rocketmq.consumer.lag";
+
+    private static final String QUEUE_LAG = "rocketmq.consumer.queue.lag";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final MeterRegistry meterRegistry;
+
+
+    public MicrometerConsumeMetricsExporter(MeterRegistry meterRegistry) {
+        if(meterRegistry == null){
+            throw new IllegalArgumentException("'meterRegistry' cannot be null");
+        }
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 使用spring容器中的MeterRegistry导出消费指标，有多个时优先使用@Primary的
+     * @param consumeMetrics  消费指标
+     * @param beanFactory     spring容器
+     * @return  容器中没有MeterRegistry时返回false
+     */
+    public static boolean bind(RocketMQConsumeMetrics consumeMetrics, ListableBeanFactory beanFactory) {
+        String[] names = beanFactory.getBeanNamesForType(MeterRegistry.class);
+        if(names.length == 0){
+            return false;
+        }
+        MeterRegistry meterRegistry;
+        try {
+            meterRegistry = beanFactory.getBean(MeterRegistry.class);
+        }
+        catch (NoUniqueBeanDefinitionException e) {
+            meterRegistry = beanFactory.getBean(names[0], MeterRegistry.class);
+        }
+        consumeMetrics.addListener(new MicrometerConsumeMetricsExporter(meterRegistry));
+        return true;
+    }
+
+    @Override
+    public void onCreated(ConsumeMetrics consumeMetrics) {
+        Tags tags = Tags.of("consumerGroup", consumeMetrics.getConsumerGroup(), "topic", consumeMetrics.getTopic());
+
+        meterRegistry.more().timer(PREFIX, tags, consumeMetrics,
+                new ToLongFunction<ConsumeMetrics>() {
+                    @Override
+                    public long applyAsLong(ConsumeMetrics metrics) {
+                        return metrics.getLatency().getCount();
+                    }
+                },
+                new ToDoubleFunction<ConsumeMetrics>() {
+                    @Override
+                    public double applyAsDouble(ConsumeMetrics metrics) {
+                        return metrics.getLatency().getTotalNanos();
+                    }
+                }, TimeUnit.NANOSECONDS);
+
+        meterRegistry.more().counter(PREFIX + ".success", tags, consumeMetrics, new ToDoubleFunction<ConsumeMetrics>() {
+            @Override
+            public double applyAsDouble(ConsumeMetrics metrics) {
+                return metrics.getSuccessCount();
+            }
+        });
+
+        meterRegistry.more().counter(PREFIX + ".failure", tags, consumeMetrics, new ToDoubleFunction<ConsumeMetrics>() {
+            @Override
+            public double applyAsDouble(ConsumeMetrics metrics) {
+                return metrics.getFailureCount();
+            }
+        });
+
+        meterRegistry.more().counter(PREFIX + ".retry", tags, consumeMetrics, new ToDoubleFunction<ConsumeMetrics>() {
+            @Override
+            public double applyAsDouble(ConsumeMetrics metrics) {
+                return metrics.getRetryCount();
+            }
+        });
+
+        meterRegistry.gauge(PREFIX + ".tps", tags, consumeMetrics, new ToDoubleFunction<ConsumeMetrics>() {
+            @Override
+            public double applyAsDouble(ConsumeMetrics metrics) {
+                return metrics.getTps();
+            }
+        });
+
+        for(final double quantile : QUANTILES){
+            meterRegistry.more().timeGauge(PREFIX + ".latency", tags.and("quantile", String.valueOf(quantile)), consumeMetrics, TimeUnit.NANOSECONDS,
+                    new ToDoubleFunction<ConsumeMetrics>() {
+                        @Override
+                        public double applyAsDouble(ConsumeMetrics metrics) {
+                            return metrics.getLatency().getValueAtQuantile(quantile);
+                        }
+                    });
+        }
+        meterRegistry.more().timeGauge(PREFIX + ".latency", tags.and("quantile", "1.0"), consumeMetrics, TimeUnit.MILLISECONDS,
+                new ToDoubleFunction<ConsumeMetrics>() {
+                    @Override
+                    public double applyAsDouble(ConsumeMetrics metrics) {
+                        return metrics.getMaxMillis();
+                    }
+                });
+
+        meterRegistry.gauge(LAG, tags, consumeMetrics, new ToDoubleFunction<ConsumeMetrics>() {
+            @Override
+            public double applyAsDouble(ConsumeMetrics metrics) {
+                return metrics.getLag();
+            }
+        });
+    }
+
+    @Override
+    public void onQueueLagCreated(QueueLag queueLag) {
+        Tags tags = Tags.of("consumerGroup", queueLag.getConsumerGroup(), "topic", queueLag.getTopic(),
+                "broker", queueLag.getBrokerName(), "queue", String.valueOf(queueLag.getQueueId()));
+
+        meterRegistry.gauge(QUEUE_LAG, tags, queueLag, new ToDoubleFunction<QueueLag>() {
+            @Override
+            public double applyAsDouble(QueueLag lag) {
+                return lag.getLag();
+            }
+        });
+    }
+
+    @Override
+    public void onClose() {
+        //meter由MeterRegistry管理，随spring容器关闭
+    }
+}
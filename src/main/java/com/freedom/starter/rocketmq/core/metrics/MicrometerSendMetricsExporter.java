@@ -0,0 +1,270 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import com.freedom.starter.rocketmq.core.producer.InFlightLimiter;
+import com.freedom.starter.rocketmq.core.producer.TopicHedgePolicy;
+import com.freedom.starter.rocketmq.core.producer.TopicRateLimiter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.NoUniqueBeanDefinitionException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * 将发送指标导出到Micrometer MeterRegistry，需要引入io.micrometer:micrometer-core
+ *
+ * rocketmq.producer.send            FunctionTimer，成功和失败的发送次数、总耗时
+ * rocketmq.producer.send.success    成功次数
+ * rocketmq.producer.send.failure    失败次数，包含超时
+ * rocketmq.producer.send.timeout    超时次数
+ * rocketmq.producer.send.bytes      发送的消息体字节数
+ * rocketmq.producer.send.latency    TimeGauge，耗时分位数，quantile标签为0.5、0.9、0.99、0.999、1.0（最大值）
+ * 都带有topic、tag、mode标签
+ *
+ * rocketmq.producer.rate.limit            当前允许的发送速率，条/秒
+ * rocketmq.producer.rate.limit.throttled  因限流等待过的发送次数
+ * rocketmq.producer.rate.limit.rejected   等待超时被拒绝的发送次数
+ * rocketmq.producer.rate.limit.decrease   降低速率的次数
+ * 都带有topic标签
+ *
+ * rocketmq.producer.hedge.delay    当前对冲延迟，单位毫秒，样本不足时为-1
+ * rocketmq.producer.hedge.fired    发出的对冲次数
+ * rocketmq.producer.hedge.won      对冲先于原发送成功的次数
+ * rocketmq.producer.hedge.skipped  超过对冲比例或只有一个broker而放弃对冲的次数
+ * 都带有topic标签
+ *
+ * rocketmq.producer.inflight.messages            发送中的消息条数
+ * rocketmq.producer.inflight.bytes               发送中的字节数
+ * rocketmq.producer.inflight.messages.available  剩余可用的消息条数许可，不限制时没有该指标
+ * rocketmq.producer.inflight.bytes.available     剩余可用的字节数许可，不限制时没有该指标
+ * rocketmq.producer.inflight.rejected            达到上限被拒绝（FAIL、BLOCK超时、CALLER_RUNS）的次数
+ *
+ * 只使用MeterRegistry的实例方法注册，不调用Gauge.builder()等接口静态方法，starter本身仍可按Java 1.7编译；
+ * 使用Micrometer时需要Java 8
+ */
+public class MicrometerSendMetricsExporter implements SendMetricsListener {
+
+    private static final String PREFIX = "rocketmq.producer.send";
+
+    private static final String RATE_LIMIT_PREFIX = "rocketmq.producer.rate.limit";
+
+    private static final String HEDGE_PREFIX = "rocketmq.producer.hedge";
+
+    private static final String IN_FLIGHT_PREFIX = "rocketmq.producer.inflight";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final MeterRegistry meterRegistry;
+
+
+    public MicrometerSendMetricsExporter(MeterRegistry meterRegistry) {
+        if(meterRegistry == null){
+            throw new IllegalArgumentException("'meterRegistry' cannot be null");
+        }
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 使用spring容器中的MeterRegistry导出发送指标，有多个时优先使用@Primary的
+     * @param sendMetrics  发送指标
+     * @param beanFactory  spring容器
+     * @return  容器中没有MeterRegistry时返回false
+     */
+    public static boolean bind(RocketMQSendMetrics sendMetrics, ListableBeanFactory beanFactory) {
+        String[] names = beanFactory.getBeanNamesForType(MeterRegistry.class);
+        if(names.length == 0){
+            return false;
+        }
+        MeterRegistry meterRegistry;
+        try {
+            meterRegistry = beanFactory.getBean(MeterRegistry.class);
+        }
+        catch (NoUniqueBeanDefinitionException e) {
+            meterRegistry = beanFactory.getBean(names[0], MeterRegistry.class);
+        }
+        sendMetrics.addListener(new MicrometerSendMetricsExporter(meterRegistry));
+        return true;
+    }
+
+    @Override
+    public void onCreated(SendMetrics sendMetrics) {
+        Tags tags = Tags.of("topic", sendMetrics.getTopic(), "tag", sendMetrics.getTag(), "mode", sendMetrics.getMode());
+
+        meterRegistry.more().timer(PREFIX, tags, sendMetrics,
+                new ToLongFunction<SendMetrics>() {
+                    @Override
+                    public long applyAsLong(SendMetrics metrics) {
+                        return metrics.getLatency().getCount();
+                    }
+                },
+                new ToDoubleFunction<SendMetrics>() {
+                    @Override
+                    public double applyAsDouble(SendMetrics metrics) {
+                        return metrics.getLatency().getTotalNanos();
+                    }
+                }, TimeUnit.NANOSECONDS);
+
+        meterRegistry.more().counter(PREFIX + ".success", tags, sendMetrics, new ToDoubleFunction<SendMetrics>() {
+            @Override
+            public double applyAsDouble(SendMetrics metrics) {
+                return metrics.getSuccessCount();
+            }
+        });
+
+        meterRegistry.more().counter(PREFIX + ".failure", tags, sendMetrics, new ToDoubleFunction<SendMetrics>() {
+            @Override
+            public double applyAsDouble(SendMetrics metrics) {
+                return metrics.getFailureCount();
+            }
+        });
+
+        meterRegistry.more().counter(PREFIX + ".timeout", tags, sendMetrics, new ToDoubleFunction<SendMetrics>() {
+            @Override
+            public double applyAsDouble(SendMetrics metrics) {
+                return metrics.getTimeoutCount();
+            }
+        });
+
+        meterRegistry.more().counter(PREFIX + ".bytes", tags, sendMetrics, new ToDoubleFunction<SendMetrics>() {
+            @Override
+            public double applyAsDouble(SendMetrics metrics) {
+                return metrics.getBytes();
+            }
+        });
+
+        for(final double quantile : QUANTILES){
+            meterRegistry.more().timeGauge(PREFIX + ".latency", tags.and("quantile", String.valueOf(quantile)), sendMetrics, TimeUnit.NANOSECONDS,
+                    new ToDoubleFunction<SendMetrics>() {
+                        @Override
+                        public double applyAsDouble(SendMetrics metrics) {
+                            return metrics.getLatency().getValueAtQuantile(quantile);
+                        }
+                    });
+        }
+        meterRegistry.more().timeGauge(PREFIX + ".latency", tags.and("quantile", "1.0"), sendMetrics, TimeUnit.MILLISECONDS,
+                new ToDoubleFunction<SendMetrics>() {
+                    @Override
+                    public double applyAsDouble(SendMetrics metrics) {
+                        return metrics.getMaxMillis();
+                    }
+                });
+    }
+
+    @Override
+    public void onRateLimiterCreated(TopicRateLimiter rateLimiter) {
+        Tags tags = Tags.of("topic", rateLimiter.getTopic());
+
+        meterRegistry.gauge(RATE_LIMIT_PREFIX, tags, rateLimiter, new ToDoubleFunction<TopicRateLimiter>() {
+            @Override
+            public double applyAsDouble(TopicRateLimiter limiter) {
+                return limiter.getPermitsPerSecond();
+            }
+        });
+
+        meterRegistry.more().counter(RATE_LIMIT_PREFIX + ".throttled", tags, rateLimiter, new ToDoubleFunction<TopicRateLimiter>() {
+            @Override
+            public double applyAsDouble(TopicRateLimiter limiter) {
+                return limiter.getThrottledCount();
+            }
+        });
+
+        meterRegistry.more().counter(RATE_LIMIT_PREFIX + ".rejected", tags, rateLimiter, new ToDoubleFunction<TopicRateLimiter>() {
+            @Override
+            public double applyAsDouble(TopicRateLimiter limiter) {
+                return limiter.getRejectedCount();
+            }
+        });
+
+        meterRegistry.more().counter(RATE_LIMIT_PREFIX + ".decrease", tags, rateLimiter, new ToDoubleFunction<TopicRateLimiter>() {
+            @Override
+            public double applyAsDouble(TopicRateLimiter limiter) {
+                return limiter.getDecreaseCount();
+            }
+        });
+    }
+
+    @Override
+    public void onHedgePolicyCreated(TopicHedgePolicy hedgePolicy) {
+        Tags tags = Tags.of("topic", hedgePolicy.getTopic());
+
+        meterRegistry.gauge(HEDGE_PREFIX + ".delay", tags, hedgePolicy, new ToDoubleFunction<TopicHedgePolicy>() {
+            @Override
+            public double applyAsDouble(TopicHedgePolicy policy) {
+                return policy.getHedgeDelayMillis();
+            }
+        });
+
+        meterRegistry.more().counter(HEDGE_PREFIX + ".fired", tags, hedgePolicy, new ToDoubleFunction<TopicHedgePolicy>() {
+            @Override
+            public double applyAsDouble(TopicHedgePolicy policy) {
+                return policy.getHedgeFiredCount();
+            }
+        });
+
+        meterRegistry.more().counter(HEDGE_PREFIX + ".won", tags, hedgePolicy, new ToDoubleFunction<TopicHedgePolicy>() {
+            @Override
+            public double applyAsDouble(TopicHedgePolicy policy) {
+                return policy.getHedgeWonCount();
+            }
+        });
+
+        meterRegistry.more().counter(HEDGE_PREFIX + ".skipped", tags, hedgePolicy, new ToDoubleFunction<TopicHedgePolicy>() {
+            @Override
+            public double applyAsDouble(TopicHedgePolicy policy) {
+                return policy.getHedgeSkippedCount();
+            }
+        });
+    }
+
+    @Override
+    public void onInFlightLimiterCreated(InFlightLimiter inFlightLimiter) {
+        Tags tags = Tags.empty();
+
+        meterRegistry.gauge(IN_FLIGHT_PREFIX + ".messages", tags, inFlightLimiter, new ToDoubleFunction<InFlightLimiter>() {
+            @Override
+            public double applyAsDouble(InFlightLimiter limiter) {
+                return limiter.getInFlightMessages();
+            }
+        });
+
+        meterRegistry.gauge(IN_FLIGHT_PREFIX + ".bytes", tags, inFlightLimiter, new ToDoubleFunction<InFlightLimiter>() {
+            @Override
+            public double applyAsDouble(InFlightLimiter limiter) {
+                return limiter.getInFlightBytes();
+            }
+        });
+
+        if(inFlightLimiter.getMaxMessages() > 0){
+            meterRegistry.gauge(IN_FLIGHT_PREFIX + ".messages.available", tags, inFlightLimiter, new ToDoubleFunction<InFlightLimiter>() {
+                @Override
+                public double applyAsDouble(InFlightLimiter limiter) {
+                    return limiter.getAvailableMessages();
+                }
+            });
+        }
+
+        if(inFlightLimiter.getMaxBytes() > 0){
+            meterRegistry.gauge(IN_FLIGHT_PREFIX + ".bytes.available", tags, inFlightLimiter, new ToDoubleFunction<InFlightLimiter>() {
+                @Override
+                public double applyAsDouble(InFlightLimiter limiter) {
+                    return limiter.getAvailableBytes();
+                }
+            });
+        }
+
+        meterRegistry.more().counter(IN_FLIGHT_PREFIX + ".rejected", tags, inFlightLimiter, new ToDoubleFunction<InFlightLimiter>() {
+            @Override
+            public double applyAsDouble(InFlightLimiter limiter) {
+                return limiter.getRejectedCount();
+            }
+        });
+    }
+
+    @Override
+    public void onClose() {
+        //meter由MeterRegistry管理，随spring容器关闭
+    }
+}
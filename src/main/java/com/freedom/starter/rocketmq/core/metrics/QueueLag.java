@@ -0,0 +1,94 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+/**
+ * 一个队列的消费延迟，brokerOffset - consumerOffset
+ * 由ConsumeMetrics定时采集，队列rebalance到其它实例后标记为未分配，延迟记为0
+ */
+public class QueueLag implements QueueLagMXBean {
+
+    private final String consumerGroup;
+
+    private final String topic;
+
+    private final String brokerName;
+
+    private final int queueId;
+
+    private volatile long brokerOffset;
+
+    private volatile long consumerOffset;
+
+    private volatile boolean assigned;
+
+
+    QueueLag(String consumerGroup, String topic, String brokerName, int queueId) {
+        this.consumerGroup = consumerGroup;
+        this.topic = topic;
+        this.brokerName = brokerName;
+        this.queueId = queueId;
+    }
+
+    static String key(String brokerName, int queueId) {
+        return brokerName + "#" + queueId;
+    }
+
+    String key() {
+        return key(brokerName, queueId);
+    }
+
+    void update(long brokerOffset, long consumerOffset) {
+        this.brokerOffset = brokerOffset;
+        this.consumerOffset = consumerOffset;
+        this.assigned = true;
+    }
+
+    void unassign() {
+        this.assigned = false;
+    }
+
+    @Override
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public String getBrokerName() {
+        return brokerName;
+    }
+
+    @Override
+    public int getQueueId() {
+        return queueId;
+    }
+
+    @Override
+    public long getBrokerOffset() {
+        return brokerOffset;
+    }
+
+    @Override
+    public long getConsumerOffset() {
+        return consumerOffset;
+    }
+
+    @Override
+    public long getLag() {
+        return assigned ? Math.max(0, brokerOffset - consumerOffset) : 0;
+    }
+
+    @Override
+    public boolean isAssigned() {
+        return assigned;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueLag{consumerGroup=" + consumerGroup + ", topic=" + topic + ", brokerName=" + brokerName
+                + ", queueId=" + queueId + ", lag=" + getLag() + "}";
+    }
+}
@@ -0,0 +1,27 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+/**
+ * 一个队列消费延迟的JMX接口
+ */
+public interface QueueLagMXBean {
+
+    String getConsumerGroup();
+
+    String getTopic();
+
+    String getBrokerName();
+
+    int getQueueId();
+
+    /** broker上的最大offset */
+    long getBrokerOffset();
+
+    /** 已提交的消费offset */
+    long getConsumerOffset();
+
+    /** 未消费的消息数，队列没有分配到本实例时为0 */
+    long getLag();
+
+    /** 队列是否分配到本实例 */
+    boolean isAssigned();
+}
@@ -0,0 +1,142 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 所有listener container的消费指标，每个container一个ConsumeMetrics
+ * 定时线程按lagIntervalMillis计算各container的tps，并采集各队列的消费延迟：
+ * 采集时向broker查询最大offset，与consumer内存中已提交的offset比较
+ */
+public class RocketMQConsumeMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(RocketMQConsumeMetrics.class);
+
+    private final List<ConsumeMetrics> metrics = new CopyOnWriteArrayList<ConsumeMetrics>();
+
+    private final List<ConsumeMetricsListener> listeners = new CopyOnWriteArrayList<ConsumeMetricsListener>();
+
+    private final ScheduledExecutorService scheduler;
+
+
+    /**
+     * @param lagIntervalMillis  消费延迟的采集周期，单位毫秒
+     */
+    public RocketMQConsumeMetrics(long lagIntervalMillis) {
+        if(lagIntervalMillis <= 0){
+            throw new IllegalArgumentException("'lagIntervalMillis' must be positive");
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RocketMQConsumeMetrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, lagIntervalMillis, lagIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 添加监听器，已创建的消费指标、队列消费延迟会立即回调
+     * @param listener
+     */
+    public void addListener(ConsumeMetricsListener listener) {
+        if(listener == null){
+            throw new IllegalArgumentException("'listener' cannot be null");
+        }
+        listeners.add(listener);
+        for(ConsumeMetrics consumeMetrics : metrics){
+            listener.onCreated(consumeMetrics);
+            for(QueueLag queueLag : consumeMetrics.getQueueLags()){
+                listener.onQueueLagCreated(queueLag);
+            }
+        }
+    }
+
+    /**
+     * 创建一个container的消费指标，由DefaultRocketMQListenerContainer启动时调用
+     * @param consumerGroup  消费组
+     * @param topic          主题
+     * @param lagCollector   采集各队列的消费延迟，为null时不采集
+     * @return
+     */
+    public ConsumeMetrics register(String consumerGroup, String topic, ConsumeMetrics.LagCollector lagCollector) {
+        ConsumeMetrics consumeMetrics = new ConsumeMetrics(consumerGroup, topic, this, lagCollector);
+        metrics.add(consumeMetrics);
+        for(ConsumeMetricsListener listener : listeners){
+            try {
+                listener.onCreated(consumeMetrics);
+            }
+            catch (Throwable e) {
+                logger.warn("ConsumeMetricsListener.onCreated failed. {}", consumeMetrics, e);
+            }
+        }
+        return consumeMetrics;
+    }
+
+    /**
+     * container关闭后不再采集消费延迟，已导出的指标保留到close()
+     * @param consumeMetrics
+     */
+    public void unregister(ConsumeMetrics consumeMetrics) {
+        metrics.remove(consumeMetrics);
+    }
+
+    /**
+     * 所有container的消费指标
+     * @return
+     */
+    public List<ConsumeMetrics> getAll() {
+        return new ArrayList<ConsumeMetrics>(metrics);
+    }
+
+    /**
+     * 关闭，停止采集，通知监听器释放资源，如注销JMX MBean
+     */
+    public void close() {
+        scheduler.shutdownNow();
+        for(ConsumeMetricsListener listener : listeners){
+            try {
+                listener.onClose();
+            }
+            catch (Throwable e) {
+                logger.warn("ConsumeMetricsListener.onClose failed", e);
+            }
+        }
+    }
+
+    void fireQueueLagCreated(QueueLag queueLag) {
+        for(ConsumeMetricsListener listener : listeners){
+            try {
+                listener.onQueueLagCreated(queueLag);
+            }
+            catch (Throwable e) {
+                logger.warn("ConsumeMetricsListener.onQueueLagCreated failed. {}", queueLag, e);
+            }
+        }
+    }
+
+    private void tick() {
+        for(ConsumeMetrics consumeMetrics : metrics){
+            try {
+                consumeMetrics.tick();
+            }
+            catch (Throwable e) {
+                logger.warn("collect consume lag failed. {}", consumeMetrics, e);
+            }
+        }
+    }
+}
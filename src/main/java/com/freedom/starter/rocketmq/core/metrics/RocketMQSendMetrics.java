@@ -0,0 +1,239 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.remoting.exception.RemotingTimeoutException;
+import com.alibaba.rocketmq.remoting.exception.RemotingTooMuchRequestException;
+import com.freedom.starter.rocketmq.core.producer.InFlightLimiter;
+import com.freedom.starter.rocketmq.core.producer.TopicHedgePolicy;
+import com.freedom.starter.rocketmq.core.producer.TopicRateLimiter;
+import com.freedom.starter.rocketmq.enums.SendMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * RocketMQTemplate的发送指标，按topic、tag、发送方式分别统计
+ * 已存在的指标在记录时只有ConcurrentHashMap的读取和原子操作，不加锁
+ */
+public class RocketMQSendMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(RocketMQSendMetrics.class);
+
+    private static final SendMode[] SEND_MODES = SendMode.values();
+
+    /** topic -> tag -> 按SendMode.ordinal()保存的发送指标 */
+    private final ConcurrentMap<String, ConcurrentMap<String, AtomicReferenceArray<SendMetrics>>> metrics
+            = new ConcurrentHashMap<String, ConcurrentMap<String, AtomicReferenceArray<SendMetrics>>>();
+
+    private final List<SendMetricsListener> listeners = new CopyOnWriteArrayList<SendMetricsListener>();
+
+    /** 各topic的自适应速率限制 */
+    private final List<TopicRateLimiter> rateLimiters = new CopyOnWriteArrayList<TopicRateLimiter>();
+
+    /** 各topic的对冲发送策略 */
+    private final List<TopicHedgePolicy> hedgePolicies = new CopyOnWriteArrayList<TopicHedgePolicy>();
+
+    /** 发送中消息限制 */
+    private final List<InFlightLimiter> inFlightLimiters = new CopyOnWriteArrayList<InFlightLimiter>();
+
+
+    /**
+     * 添加监听器，已创建的发送指标、速率限制、对冲策略、发送中消息限制会立即回调
+     * @param listener
+     */
+    public void addListener(SendMetricsListener listener) {
+        if(listener == null){
+            throw new IllegalArgumentException("'listener' cannot be null");
+        }
+        listeners.add(listener);
+        for(SendMetrics sendMetrics : getAll()){
+            listener.onCreated(sendMetrics);
+        }
+        for(TopicRateLimiter rateLimiter : rateLimiters){
+            listener.onRateLimiterCreated(rateLimiter);
+        }
+        for(TopicHedgePolicy hedgePolicy : hedgePolicies){
+            listener.onHedgePolicyCreated(hedgePolicy);
+        }
+        for(InFlightLimiter inFlightLimiter : inFlightLimiters){
+            listener.onInFlightLimiterCreated(inFlightLimiter);
+        }
+    }
+
+    /**
+     * 添加topic的速率限制，由AdaptiveRateLimiter调用，导出当前速率、限流次数等
+     * @param rateLimiter
+     */
+    public void addRateLimiter(TopicRateLimiter rateLimiter) {
+        rateLimiters.add(rateLimiter);
+        for(SendMetricsListener listener : listeners){
+            try {
+                listener.onRateLimiterCreated(rateLimiter);
+            }
+            catch (Throwable e) {
+                logger.warn("SendMetricsListener.onRateLimiterCreated failed. topic:{}", rateLimiter.getTopic(), e);
+            }
+        }
+    }
+
+    /**
+     * 添加topic的对冲策略，由HedgedSender调用，导出对冲延迟、对冲次数等
+     * @param hedgePolicy
+     */
+    public void addHedgePolicy(TopicHedgePolicy hedgePolicy) {
+        hedgePolicies.add(hedgePolicy);
+        for(SendMetricsListener listener : listeners){
+            try {
+                listener.onHedgePolicyCreated(hedgePolicy);
+            }
+            catch (Throwable e) {
+                logger.warn("SendMetricsListener.onHedgePolicyCreated failed. topic:{}", hedgePolicy.getTopic(), e);
+            }
+        }
+    }
+
+    /**
+     * 添加发送中消息限制，导出发送中的消息条数、字节数、剩余许可和拒绝次数
+     * @param inFlightLimiter
+     */
+    public void addInFlightLimiter(InFlightLimiter inFlightLimiter) {
+        inFlightLimiters.add(inFlightLimiter);
+        for(SendMetricsListener listener : listeners){
+            try {
+                listener.onInFlightLimiterCreated(inFlightLimiter);
+            }
+            catch (Throwable e) {
+                logger.warn("SendMetricsListener.onInFlightLimiterCreated failed", e);
+            }
+        }
+    }
+
+    /**
+     * 记录一次成功的发送
+     * @param rocketmqMsg  rocketmq message
+     * @param mode         发送方式
+     * @param startNanos   开始发送时的System.nanoTime()
+     */
+    public void recordSuccess(Message rocketmqMsg, SendMode mode, long startNanos) {
+        get(rocketmqMsg.getTopic(), rocketmqMsg.getTags(), mode).recordSuccess(rocketmqMsg.getBody().length, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 记录一次失败的发送
+     * @param rocketmqMsg  rocketmq message
+     * @param mode         发送方式
+     * @param startNanos   开始发送时的System.nanoTime()
+     * @param e            失败的原因，用于判断是否超时
+     */
+    public void recordFailure(Message rocketmqMsg, SendMode mode, long startNanos, Throwable e) {
+        get(rocketmqMsg.getTopic(), rocketmqMsg.getTags(), mode).recordFailure(rocketmqMsg.getBody().length, System.nanoTime() - startNanos, isTimeout(e));
+    }
+
+    /**
+     * 获取发送指标，不存在时创建
+     * @param topic  主题
+     * @param tag    标签，null按""统计
+     * @param mode   发送方式
+     * @return
+     */
+    public SendMetrics get(String topic, String tag, SendMode mode) {
+        if(tag == null){
+            tag = "";
+        }
+
+        ConcurrentMap<String, AtomicReferenceArray<SendMetrics>> tagMetrics = metrics.get(topic);
+        if(tagMetrics == null){
+            ConcurrentMap<String, AtomicReferenceArray<SendMetrics>> newTagMetrics = new ConcurrentHashMap<String, AtomicReferenceArray<SendMetrics>>();
+            tagMetrics = metrics.putIfAbsent(topic, newTagMetrics);
+            if(tagMetrics == null){
+                tagMetrics = newTagMetrics;
+            }
+        }
+
+        AtomicReferenceArray<SendMetrics> modeMetrics = tagMetrics.get(tag);
+        if(modeMetrics == null){
+            AtomicReferenceArray<SendMetrics> newModeMetrics = new AtomicReferenceArray<SendMetrics>(SEND_MODES.length);
+            modeMetrics = tagMetrics.putIfAbsent(tag, newModeMetrics);
+            if(modeMetrics == null){
+                modeMetrics = newModeMetrics;
+            }
+        }
+
+        SendMetrics sendMetrics = modeMetrics.get(mode.ordinal());
+        if(sendMetrics == null){
+            SendMetrics newSendMetrics = new SendMetrics(topic, tag, mode);
+            if(modeMetrics.compareAndSet(mode.ordinal(), null, newSendMetrics)){
+                sendMetrics = newSendMetrics;
+                fireCreated(sendMetrics);
+            }
+            else {
+                sendMetrics = modeMetrics.get(mode.ordinal());
+            }
+        }
+        return sendMetrics;
+    }
+
+    /**
+     * 所有已创建的发送指标
+     * @return
+     */
+    public List<SendMetrics> getAll() {
+        List<SendMetrics> result = new ArrayList<SendMetrics>();
+        for(ConcurrentMap<String, AtomicReferenceArray<SendMetrics>> tagMetrics : metrics.values()){
+            for(AtomicReferenceArray<SendMetrics> modeMetrics : tagMetrics.values()){
+                for(int i=0; i<modeMetrics.length(); i++){
+                    SendMetrics sendMetrics = modeMetrics.get(i);
+                    if(sendMetrics != null){
+                        result.add(sendMetrics);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 关闭，通知监听器释放资源，如注销JMX MBean
+     */
+    public void close() {
+        for(SendMetricsListener listener : listeners){
+            try {
+                listener.onClose();
+            }
+            catch (Throwable e) {
+                logger.warn("SendMetricsListener.onClose failed", e);
+            }
+        }
+    }
+
+    private void fireCreated(SendMetrics sendMetrics) {
+        for(SendMetricsListener listener : listeners){
+            try {
+                listener.onCreated(sendMetrics);
+            }
+            catch (Throwable e) {
+                logger.warn("SendMetricsListener.onCreated failed. {}", sendMetrics, e);
+            }
+        }
+    }
+
+    /**
+     * 是否是发送超时，同步发送超时抛出RemotingTooMuchRequestException，异步发送超时回调RemotingTimeoutException
+     */
+    static boolean isTimeout(Throwable e) {
+        for(Throwable cause = e; cause != null; cause = cause.getCause()){
+            if(cause instanceof RemotingTimeoutException || cause instanceof RemotingTooMuchRequestException){
+                return true;
+            }
+            if(cause.getCause() == cause){
+                break;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,131 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import com.freedom.starter.rocketmq.enums.SendMode;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个topic、tag、发送方式的发送指标
+ * 成功、失败、超时次数，发送字节数，以及成功和失败发送的耗时直方图
+ */
+public class SendMetrics implements SendMetricsMXBean {
+
+    private static final double NANOS_PER_MILLI = 1000000D;
+
+    private final String topic;
+
+    private final String tag;
+
+    private final SendMode mode;
+
+    private final AtomicLong successCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+
+    SendMetrics(String topic, String tag, SendMode mode) {
+        this.topic = topic;
+        this.tag = tag;
+        this.mode = mode;
+    }
+
+    void recordSuccess(int bodyBytes, long costNanos) {
+        successCount.incrementAndGet();
+        bytes.addAndGet(bodyBytes);
+        latency.record(costNanos);
+    }
+
+    void recordFailure(int bodyBytes, long costNanos, boolean timeout) {
+        failureCount.incrementAndGet();
+        if(timeout){
+            timeoutCount.incrementAndGet();
+        }
+        bytes.addAndGet(bodyBytes);
+        latency.record(costNanos);
+    }
+
+    public SendMode getSendMode() {
+        return mode;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public String getTag() {
+        return tag;
+    }
+
+    @Override
+    public String getMode() {
+        return mode.name();
+    }
+
+    @Override
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getValueAtQuantile(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return latency.getValueAtQuantile(0.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getValueAtQuantile(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latency.getValueAtQuantile(0.999) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMaxNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public String toString() {
+        return "SendMetrics{topic=" + topic + ", tag=" + tag + ", mode=" + mode
+                + ", success=" + successCount + ", failure=" + failureCount + ", timeout=" + timeoutCount + "}";
+    }
+}
@@ -0,0 +1,40 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import com.freedom.starter.rocketmq.core.producer.InFlightLimiter;
+import com.freedom.starter.rocketmq.core.producer.TopicHedgePolicy;
+import com.freedom.starter.rocketmq.core.producer.TopicRateLimiter;
+
+/**
+ * 发送指标的监听器，用于把指标导出到JMX、Micrometer等监控系统
+ */
+public interface SendMetricsListener {
+
+    /**
+     * 第一次发送某个topic、tag、发送方式的消息时，创建了新的发送指标
+     * @param sendMetrics
+     */
+    void onCreated(SendMetrics sendMetrics);
+
+    /**
+     * 开启了自适应限流，创建了某个topic的速率限制
+     * @param rateLimiter
+     */
+    void onRateLimiterCreated(TopicRateLimiter rateLimiter);
+
+    /**
+     * 开启了对冲发送，创建了某个topic的对冲策略
+     * @param hedgePolicy
+     */
+    void onHedgePolicyCreated(TopicHedgePolicy hedgePolicy);
+
+    /**
+     * 限制了异步发送中的消息条数、字节数，创建了发送中消息限制
+     * @param inFlightLimiter
+     */
+    void onInFlightLimiterCreated(InFlightLimiter inFlightLimiter);
+
+    /**
+     * RocketMQSendMetrics关闭
+     */
+    void onClose();
+}
@@ -0,0 +1,35 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+/**
+ * 发送指标的JMX接口，耗时单位毫秒，分位数为启动以来的累计值
+ */
+public interface SendMetricsMXBean {
+
+    String getTopic();
+
+    String getTag();
+
+    String getMode();
+
+    long getSuccessCount();
+
+    /** 失败次数，包含超时 */
+    long getFailureCount();
+
+    long getTimeoutCount();
+
+    /** 发送的消息体字节数，包含失败的 */
+    long getBytes();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+}
@@ -0,0 +1,169 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.client.producer.SendStatus;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.remoting.exception.RemotingTimeoutException;
+import com.alibaba.rocketmq.remoting.exception.RemotingTooMuchRequestException;
+import com.freedom.starter.rocketmq.core.metrics.RocketMQSendMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按topic的自适应发送速率限制，每个topic一个TopicRateLimiter
+ * 单独配置过的topic使用自己的参数，其它topic第一次发送时按默认参数创建
+ *
+ * 拥塞信号：
+ *   broker返回SYSTEM_BUSY（包括[TIMEOUT_CLEAN_QUEUE]broker busy）
+ *   SendResult为FLUSH_DISK_TIMEOUT、FLUSH_SLAVE_TIMEOUT
+ *   发送超时
+ */
+public class AdaptiveRateLimiter {
+
+    private final double maxPermitsPerSecond;
+
+    private final double minPermitsPerSecond;
+
+    private final double increasePermits;
+
+    private final double decreaseFactor;
+
+    private final long latencyThresholdMillis;
+
+    private final ConcurrentMap<String, TopicRateLimiter> limiters = new ConcurrentHashMap<String, TopicRateLimiter>();
+
+    /** 发送指标，不为空时把每个topic的限流器导出到监控系统 */
+    private RocketMQSendMetrics sendMetrics;
+
+
+    /**
+     * @param maxPermitsPerSecond    默认最大发送速率，条/秒
+     * @param minPermitsPerSecond    默认最小发送速率，条/秒
+     * @param increasePermits        默认每秒增加的速率
+     * @param decreaseFactor         默认降低速率时乘以的系数
+     * @param latencyThresholdMillis 默认发送耗时阀值，低于该值时才增加速率
+     */
+    public AdaptiveRateLimiter(double maxPermitsPerSecond, double minPermitsPerSecond, double increasePermits,
+                               double decreaseFactor, long latencyThresholdMillis) {
+        this.maxPermitsPerSecond = maxPermitsPerSecond;
+        this.minPermitsPerSecond = minPermitsPerSecond;
+        this.increasePermits = increasePermits;
+        this.decreaseFactor = decreaseFactor;
+        this.latencyThresholdMillis = latencyThresholdMillis;
+    }
+
+    public RocketMQSendMetrics getSendMetrics() {
+        return sendMetrics;
+    }
+    public void setSendMetrics(RocketMQSendMetrics sendMetrics) {
+        this.sendMetrics = sendMetrics;
+        if(sendMetrics != null){
+            for(TopicRateLimiter limiter : limiters.values()){
+                sendMetrics.addRateLimiter(limiter);
+            }
+        }
+    }
+
+
+    /**
+     * 单独配置一个topic的速率限制
+     * @param limiter
+     */
+    public void register(TopicRateLimiter limiter) {
+        if(limiter == null){
+            throw new IllegalArgumentException("'limiter' cannot be null");
+        }
+        limiters.put(limiter.getTopic(), limiter);
+        if(sendMetrics != null){
+            sendMetrics.addRateLimiter(limiter);
+        }
+    }
+
+    /**
+     * 获取topic的速率限制，不存在时按默认参数创建
+     * @param topic
+     * @return
+     */
+    public TopicRateLimiter get(String topic) {
+        TopicRateLimiter limiter = limiters.get(topic);
+        if(limiter == null){
+            TopicRateLimiter newLimiter = new TopicRateLimiter(topic, maxPermitsPerSecond, minPermitsPerSecond, increasePermits, decreaseFactor, latencyThresholdMillis);
+            limiter = limiters.putIfAbsent(topic, newLimiter);
+            if(limiter == null){
+                limiter = newLimiter;
+                if(sendMetrics != null){
+                    sendMetrics.addRateLimiter(limiter);
+                }
+            }
+        }
+        return limiter;
+    }
+
+    public List<TopicRateLimiter> getAll() {
+        return new ArrayList<TopicRateLimiter>(limiters.values());
+    }
+
+
+    /**
+     * 获取一个发送许可
+     * @param topic          主题
+     * @param timeoutMillis  最长等待时间，单位毫秒
+     */
+    public void acquire(String topic, long timeoutMillis) {
+        get(topic).acquire(timeoutMillis);
+    }
+
+    /**
+     * 发送成功，刷盘超时按拥塞处理，否则按耗时决定是否增加速率
+     * @param topic       主题
+     * @param sendResult  发送结果
+     * @param costNanos   发送耗时，单位纳秒
+     */
+    public void onSuccess(String topic, SendResult sendResult, long costNanos) {
+        SendStatus sendStatus = sendResult != null ? sendResult.getSendStatus() : null;
+        if(sendStatus == SendStatus.FLUSH_DISK_TIMEOUT || sendStatus == SendStatus.FLUSH_SLAVE_TIMEOUT){
+            get(topic).onCongestion();
+        }
+        else {
+            get(topic).onSuccess(costNanos);
+        }
+    }
+
+    /**
+     * 发送失败，是拥塞信号时降低速率
+     * @param topic  主题
+     * @param e      失败原因
+     */
+    public void onException(String topic, Throwable e) {
+        if(isCongestion(e)){
+            get(topic).onCongestion();
+        }
+    }
+
+    /**
+     * 是否是broker拥塞导致的失败
+     * @param e
+     * @return
+     */
+    public static boolean isCongestion(Throwable e) {
+        for(Throwable cause = e; cause != null; cause = cause.getCause()){
+            if(cause instanceof MQBrokerException){
+                int code = ((MQBrokerException) cause).getResponseCode();
+                if(code == ResponseCode.SYSTEM_BUSY || code == ResponseCode.FLUSH_DISK_TIMEOUT || code == ResponseCode.FLUSH_SLAVE_TIMEOUT){
+                    return true;
+                }
+            }
+            if(cause instanceof RemotingTimeoutException || cause instanceof RemotingTooMuchRequestException){
+                return true;
+            }
+            if(cause.getCause() == cause){
+                break;
+            }
+        }
+        return false;
+    }
+}
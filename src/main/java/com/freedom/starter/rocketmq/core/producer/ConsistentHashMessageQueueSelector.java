@@ -0,0 +1,186 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.producer.MessageQueueSelector;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 顺序消息的队列选择器，使用jump consistent hash选择队列
+ * 队列数从n变为n+1时，只有约1/(n+1)的key会映射到新的队列，而取模方式几乎所有key都会变化
+ *
+ * 每个topic缓存一份队列列表快照，路由更新（队列列表变化）时打印告警；
+ * 同时使用count-min sketch统计selectQueueKey的发送次数，
+ * 一个统计窗口内占比超过hotKeyRatio的key记为热点key，可通过getHotKeys()查询
+ */
+public class ConsistentHashMessageQueueSelector implements MessageQueueSelector {
+    private static final Logger logger = LoggerFactory.getLogger(ConsistentHashMessageQueueSelector.class);
+
+    /** count-min sketch的行数 */
+    private static final int SKETCH_DEPTH = 4;
+
+    /** count-min sketch每行的宽度，2的幂 */
+    private static final int SKETCH_WIDTH = 1024;
+
+    /** 热点key最多保留的个数 */
+    private static final int MAX_HOT_KEYS = 32;
+
+    /** 一个窗口内至少发送多少次才开始判断热点key */
+    private static final long MIN_WINDOW_SAMPLES = 1000;
+
+    /** 热点key阈值，key在一个窗口内的发送次数占比 */
+    private final double hotKeyRatio;
+
+    /** 统计窗口，单位毫秒 */
+    private final long windowMillis;
+
+    /** 每个topic的队列列表快照 */
+    private final ConcurrentMap<String, List<MessageQueue>> snapshots = new ConcurrentHashMap<String, List<MessageQueue>>();
+
+    private final AtomicLongArray sketch = new AtomicLongArray(SKETCH_DEPTH * SKETCH_WIDTH);
+
+    private final AtomicLong windowTotal = new AtomicLong();
+
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+    /** 当前窗口的热点key，value为估算的发送次数 */
+    private final ConcurrentMap<String, Long> hotKeys = new ConcurrentHashMap<String, Long>();
+
+    /** 上一个窗口的热点key */
+    private volatile Map<String, Long> lastHotKeys = new HashMap<String, Long>();
+
+
+    public ConsistentHashMessageQueueSelector(double hotKeyRatio, long windowMillis) {
+        this.hotKeyRatio = hotKeyRatio;
+        this.windowMillis = windowMillis;
+    }
+
+
+    @Override
+    public MessageQueue select(List<MessageQueue> mqs, Message msg, Object arg) {
+        checkSnapshot(msg.getTopic(), mqs);
+
+        String key = String.valueOf(arg);
+        long hash = mix64(key.hashCode());
+        MessageQueue messageQueue = mqs.get(jumpConsistentHash(hash, mqs.size()));
+
+        if(hotKeyRatio > 0){
+            countKey(key, hash);
+        }
+        return messageQueue;
+    }
+
+    /**
+     * jump consistent hash，见 Lamping & Veach, A Fast, Minimal Memory, Consistent Hash Algorithm
+     * @param key      64位的key
+     * @param buckets  桶（队列）数
+     * @return [0, buckets)
+     */
+    static int jumpConsistentHash(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    /**
+     * 将32位hashCode扩散为64位，murmur3的fmix64
+     */
+    private static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 队列列表变化时更新快照，队列数变化时打印告警
+     * rocketmq路由没有变化时传入的是同一个List实例，只做一次引用比较
+     */
+    private void checkSnapshot(String topic, List<MessageQueue> mqs) {
+        List<MessageQueue> snapshot = snapshots.get(topic);
+        if(snapshot == mqs){
+            return;
+        }
+        snapshots.put(topic, mqs);
+        if(snapshot != null && snapshot.size() != mqs.size()){
+            int oldSize = snapshot.size();
+            int newSize = mqs.size();
+            logger.warn("topic [{}] queue count changed from {} to {}, about {}% of selectQueueKeys are remapped to other queues, ordering across the change is not guaranteed",
+                    topic, oldSize, newSize, Math.abs(newSize - oldSize) * 100 / Math.max(newSize, oldSize));
+        }
+    }
+
+    /**
+     * 统计key的发送次数，判断是否是热点key
+     */
+    private void countKey(String key, long hash) {
+        rollWindowIfNecessary();
+
+        long total = windowTotal.incrementAndGet();
+        long estimate = Long.MAX_VALUE;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for(int i=0; i<SKETCH_DEPTH; i++){
+            int index = i * SKETCH_WIDTH + ((h1 + i * h2) & (SKETCH_WIDTH - 1));
+            estimate = Math.min(estimate, sketch.incrementAndGet(index));
+        }
+
+        if(total >= MIN_WINDOW_SAMPLES && estimate > total * hotKeyRatio){
+            if(hotKeys.size() < MAX_HOT_KEYS || hotKeys.containsKey(key)){
+                if(hotKeys.put(key, estimate) == null){
+                    logger.warn("hot selectQueueKey detected. key:{}, count:{}, windowTotal:{}", key, estimate, total);
+                }
+            }
+        }
+    }
+
+    /**
+     * 超过统计窗口后清空统计数据
+     */
+    private void rollWindowIfNecessary() {
+        long start = windowStart.get();
+        long now = System.currentTimeMillis();
+        if(now - start < windowMillis || !windowStart.compareAndSet(start, now)){
+            return;
+        }
+        lastHotKeys = new HashMap<String, Long>(hotKeys);
+        hotKeys.clear();
+        windowTotal.set(0);
+        for(int i=0; i<sketch.length(); i++){
+            sketch.set(i, 0);
+        }
+    }
+
+    /**
+     * 热点key，包括当前窗口和上一个窗口的，value为估算的发送次数
+     * @return
+     */
+    public Map<String, Long> getHotKeys() {
+        Map<String, Long> result = new HashMap<String, Long>(lastHotKeys);
+        result.putAll(hotKeys);
+        return result;
+    }
+
+    public double getHotKeyRatio() {
+        return hotKeyRatio;
+    }
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+}
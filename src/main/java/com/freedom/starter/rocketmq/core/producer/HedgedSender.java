@@ -0,0 +1,347 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.impl.producer.TopicPublishInfo;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.MessageQueueSelector;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageAccessor;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.freedom.starter.rocketmq.core.metrics.RocketMQSendMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.MessagingException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对冲发送，只用于幂等的topic（消费端能容忍重复消息）的同步发送
+ * 原发送超过对冲延迟仍未成功时，向另一个broker的队列再发送一次，取先成功的结果；
+ * 原发送失败时，如果还没有对冲，立即向另一个broker对冲，相当于一次换broker的重试
+ *
+ * 原发送和对冲发送都按队列选择器发送，rocketmq不会再在内部重试；
+ * topic只有一个broker可写（或还没有路由信息）时无法对冲，按普通同步发送，保留rocketmq客户端的失败重试
+ */
+public class HedgedSender {
+    private static final Logger logger = LoggerFactory.getLogger(HedgedSender.class);
+
+    /** 按QueuePick选择队列，排除指定的broker */
+    private static final MessageQueueSelector SELECTOR = new MessageQueueSelector() {
+        @Override
+        public MessageQueue select(List<MessageQueue> mqs, Message msg, Object arg) {
+            QueuePick pick = (QueuePick) arg;
+            List<MessageQueue> candidates = mqs;
+            if(pick.excludeBroker != null){
+                candidates = new ArrayList<MessageQueue>(mqs.size());
+                for(MessageQueue mq : mqs){
+                    if(!pick.excludeBroker.equals(mq.getBrokerName())){
+                        candidates.add(mq);
+                    }
+                }
+                if(candidates.isEmpty()){
+                    candidates = mqs;
+                }
+            }
+            MessageQueue selected = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+            pick.brokerName = selected.getBrokerName();
+            return selected;
+        }
+    };
+
+    /** 对冲策略，key为topic */
+    private final ConcurrentMap<String, TopicHedgePolicy> policies = new ConcurrentHashMap<String, TopicHedgePolicy>();
+
+    /** 到达对冲延迟时发起对冲 */
+    private final ScheduledExecutorService scheduler;
+
+    /** 发送指标，不为空时把每个topic的对冲策略导出到监控系统 */
+    private RocketMQSendMetrics sendMetrics;
+
+
+    public HedgedSender() {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RocketMQHedgedSender");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void setSendMetrics(RocketMQSendMetrics sendMetrics) {
+        this.sendMetrics = sendMetrics;
+        if(sendMetrics != null){
+            for(TopicHedgePolicy policy : policies.values()){
+                sendMetrics.addHedgePolicy(policy);
+            }
+        }
+    }
+
+    /**
+     * 为topic开启对冲发送
+     * @param policy
+     */
+    public void register(TopicHedgePolicy policy) {
+        if(policy == null){
+            throw new IllegalArgumentException("'policy' cannot be null");
+        }
+        policies.put(policy.getTopic(), policy);
+        if(sendMetrics != null){
+            sendMetrics.addHedgePolicy(policy);
+        }
+    }
+
+    /**
+     * 获取topic的对冲策略
+     * @param topic
+     * @return  没有开启对冲时返回null
+     */
+    public TopicHedgePolicy get(String topic) {
+        return policies.get(topic);
+    }
+
+    public List<TopicHedgePolicy> getAll() {
+        return new ArrayList<TopicHedgePolicy>(policies.values());
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+
+    /**
+     * 对冲发送
+     * @param producer     生产者
+     * @param rocketmqMsg  rocketmq message
+     * @param policy       topic的对冲策略
+     * @param timeout      发送超时时间，单位毫秒
+     * @return  先成功的发送结果
+     * @throws Exception  原发送和对冲发送都失败时，抛出最后一个异常
+     */
+    public SendResult send(DefaultMQProducer producer, Message rocketmqMsg, TopicHedgePolicy policy, long timeout) throws Exception {
+        long delayNanos = policy.onSend();
+        if(brokerCount(producer, rocketmqMsg.getTopic()) < 2){
+            long startNanos = System.nanoTime();
+            SendResult sendResult = producer.send(rocketmqMsg, timeout);
+            policy.recordLatency(System.nanoTime() - startNanos);  //broker增加后立即有对冲延迟可用
+            return sendResult;
+        }
+
+        HedgedSend hedgedSend = new HedgedSend(producer, rocketmqMsg, policy, timeout);
+        hedgedSend.sendPrimary();
+
+        ScheduledFuture<?> hedgeTimer = null;
+        if(delayNanos >= 0){
+            final HedgedSend current = hedgedSend;
+            hedgeTimer = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    current.sendHedge(false);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        try {
+            return hedgedSend.await();
+        }
+        finally {
+            if(hedgeTimer != null){
+                hedgeTimer.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 复制消息，发送过程中rocketmq会修改消息（如压缩消息体），两次发送不能共用一个Message
+     */
+    private static Message copy(Message rocketmqMsg) {
+        Message copy = new Message(rocketmqMsg.getTopic(), rocketmqMsg.getBody());
+        MessageAccessor.setProperties(copy, new HashMap<String, String>(rocketmqMsg.getProperties()));
+        copy.setFlag(rocketmqMsg.getFlag());
+        return copy;
+    }
+
+    /**
+     * 有多少个不同的broker可写
+     */
+    private static int brokerCount(DefaultMQProducer producer, String topic) {
+        TopicPublishInfo publishInfo = producer.getDefaultMQProducerImpl().getTopicPublishInfoTable().get(topic);
+        if(publishInfo == null || publishInfo.getMessageQueueList() == null){
+            return 0;
+        }
+        String first = null;
+        for(MessageQueue mq : publishInfo.getMessageQueueList()){
+            if(first == null){
+                first = mq.getBrokerName();
+            }
+            else if(!first.equals(mq.getBrokerName())){
+                return 2;
+            }
+        }
+        return first == null ? 0 : 1;
+    }
+
+
+    /**
+     * 选择队列的参数和结果
+     */
+    private static class QueuePick {
+        private final String excludeBroker;
+        private volatile String brokerName;
+
+        QueuePick(String excludeBroker) {
+            this.excludeBroker = excludeBroker;
+        }
+    }
+
+    /**
+     * 一次对冲发送，原发送和对冲发送的状态变化都在对象锁内完成
+     */
+    private static class HedgedSend {
+        private final DefaultMQProducer producer;
+        private final Message rocketmqMsg;
+        private final TopicHedgePolicy policy;
+        private final long timeout;
+        private final QueuePick primaryPick = new QueuePick(null);
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        /** 还没有结束的发送数 */
+        private int inFlight;
+        private boolean hedged;
+        private boolean done;
+        private SendResult result;
+        private Throwable error;
+
+        HedgedSend(DefaultMQProducer producer, Message rocketmqMsg, TopicHedgePolicy policy, long timeout) {
+            this.producer = producer;
+            this.rocketmqMsg = rocketmqMsg;
+            this.policy = policy;
+            this.timeout = timeout;
+        }
+
+        void sendPrimary() throws Exception {
+            synchronized (this) {
+                inFlight++;
+            }
+            producer.send(rocketmqMsg, SELECTOR, primaryPick, new AttemptCallback(false, System.nanoTime()), timeout);
+        }
+
+        /**
+         * 向原发送之外的broker对冲
+         * @param primaryFailed  是否因原发送失败而对冲
+         * @return  是否发出了对冲
+         */
+        boolean sendHedge(boolean primaryFailed) {
+            synchronized (this) {
+                if(done || hedged){
+                    return false;
+                }
+                if(brokerCount(producer, rocketmqMsg.getTopic()) < 2){
+                    policy.onHedgeSkipped();
+                    return false;
+                }
+                if(!policy.tryAcquireHedge()){
+                    return false;
+                }
+                hedged = true;
+                inFlight++;
+            }
+
+            policy.onHedgeFired();
+            logger.debug("hedge send. topic:{}, primaryBroker:{}, primaryFailed:{}", rocketmqMsg.getTopic(), primaryPick.brokerName, primaryFailed);
+            try {
+                producer.send(copy(rocketmqMsg), SELECTOR, new QueuePick(primaryPick.brokerName), new AttemptCallback(true, System.nanoTime()), timeout);
+            }
+            catch (Exception e) {
+                onFailure(e);
+            }
+            return true;
+        }
+
+        SendResult await() throws Exception {
+            if(!latch.await(timeout, TimeUnit.MILLISECONDS)){
+                throw new MessagingException("hedged send timeout. topic:" + rocketmqMsg.getTopic());
+            }
+            synchronized (this) {
+                if(result != null){
+                    return result;
+                }
+                if(error instanceof Exception){
+                    throw (Exception) error;
+                }
+                throw new MessagingException(error.getMessage(), error);
+            }
+        }
+
+        void onSuccess(SendResult sendResult, boolean hedge, long costNanos) {
+            policy.recordLatency(costNanos);
+            synchronized (this) {
+                inFlight--;
+                if(done){
+                    return;
+                }
+                done = true;
+                result = sendResult;
+            }
+            if(hedge){
+                policy.onHedgeWon();
+            }
+            latch.countDown();
+        }
+
+        void onFailure(Throwable e) {
+            boolean failed;
+            synchronized (this) {
+                inFlight--;
+                error = e;
+                failed = !done && inFlight == 0;
+            }
+            //原发送失败，还没有对冲时立即对冲
+            if(failed && !sendHedge(true)){
+                synchronized (this) {
+                    if(done || inFlight > 0){
+                        return;
+                    }
+                    done = true;
+                }
+                latch.countDown();
+            }
+        }
+
+        /**
+         * 原发送或对冲发送的回调
+         */
+        private class AttemptCallback implements SendCallback {
+            private final boolean hedge;
+            private final long startNanos;
+
+            AttemptCallback(boolean hedge, long startNanos) {
+                this.hedge = hedge;
+                this.startNanos = startNanos;
+            }
+
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                HedgedSend.this.onSuccess(sendResult, hedge, System.nanoTime() - startNanos);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                HedgedSend.this.onFailure(e);
+            }
+        }
+    }
+}
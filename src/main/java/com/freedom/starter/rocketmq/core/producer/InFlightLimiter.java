@@ -0,0 +1,161 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.freedom.starter.rocketmq.enums.InFlightRejectPolicy;
+import org.springframework.messaging.MessagingException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 限制异步发送中（已发出、还未回调）的消息条数和字节数
+ * 避免broker变慢时回调堆积导致内存耗尽
+ */
+public class InFlightLimiter implements InFlightLimiterMXBean {
+
+    /** 达到上限后CALLER_RUNS策略的返回值 */
+    public static final int CALLER_RUNS = -1;
+
+    /** 最大发送中消息条数，小于等于0不限制 */
+    private final int maxMessages;
+
+    /** 最大发送中字节数，小于等于0不限制 */
+    private final int maxBytes;
+
+    /** 达到上限时的处理策略 */
+    private final InFlightRejectPolicy rejectPolicy;
+
+    private final Semaphore messagePermits;
+
+    private final Semaphore bytePermits;
+
+    /** 被拒绝（包括FAIL、BLOCK超时、CALLER_RUNS）的次数 */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+
+    public InFlightLimiter(int maxMessages, int maxBytes, InFlightRejectPolicy rejectPolicy) {
+        if(rejectPolicy == null){
+            throw new IllegalArgumentException("'rejectPolicy' cannot be null");
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.rejectPolicy = rejectPolicy;
+        this.messagePermits = maxMessages > 0 ? new Semaphore(maxMessages) : null;
+        this.bytePermits = maxBytes > 0 ? new Semaphore(maxBytes) : null;
+    }
+
+
+    /**
+     * 获取一条消息的发送许可
+     * @param rocketmqMsg  rocketmq message
+     * @param timeout      BLOCK策略的最长等待时间，单位毫秒
+     * @return 占用的字节数，发送完成后需要调用release()归还；CALLER_RUNS表示需要调用方同步发送
+     * @throws MessagingException FAIL策略下达到上限，或BLOCK策略等待超时
+     */
+    public int acquire(Message rocketmqMsg, long timeout) {
+        int bytes = bytePermits != null ? Math.min(rocketmqMsg.getBody().length, maxBytes) : 0;
+
+        boolean acquired;
+        if(rejectPolicy == InFlightRejectPolicy.BLOCK){
+            acquired = blockAcquire(bytes, timeout);
+        }
+        else {
+            acquired = tryAcquire(bytes);
+        }
+
+        if(acquired){
+            return bytes;
+        }
+
+        rejectedCount.incrementAndGet();
+        if(rejectPolicy == InFlightRejectPolicy.CALLER_RUNS){
+            return CALLER_RUNS;
+        }
+        throw new MessagingException("too many in-flight messages. inFlightMessages:" + getInFlightMessages() + ", inFlightBytes:" + getInFlightBytes());
+    }
+
+    /**
+     * 发送完成后归还许可
+     * @param bytes  acquire()的返回值
+     */
+    public void release(int bytes) {
+        if(messagePermits != null){
+            messagePermits.release();
+        }
+        if(bytePermits != null && bytes > 0){
+            bytePermits.release(bytes);
+        }
+    }
+
+    private boolean tryAcquire(int bytes) {
+        if(messagePermits!=null && !messagePermits.tryAcquire()){
+            return false;
+        }
+        if(bytePermits!=null && !bytePermits.tryAcquire(bytes)){
+            if(messagePermits != null){
+                messagePermits.release();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean blockAcquire(int bytes, long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            if(messagePermits!=null && !messagePermits.tryAcquire(timeout, TimeUnit.MILLISECONDS)){
+                return false;
+            }
+            if(bytePermits!=null && !bytePermits.tryAcquire(bytes, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)){
+                if(messagePermits != null){
+                    messagePermits.release();
+                }
+                return false;
+            }
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("interrupted while waiting for in-flight permits", e);
+        }
+    }
+
+
+    @Override
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+    @Override
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+    @Override
+    public InFlightRejectPolicy getRejectPolicy() {
+        return rejectPolicy;
+    }
+    /** 发送中的消息条数，不限制时返回0 */
+    @Override
+    public int getInFlightMessages() {
+        return messagePermits != null ? maxMessages - messagePermits.availablePermits() : 0;
+    }
+    /** 发送中的字节数，不限制时返回0 */
+    @Override
+    public int getInFlightBytes() {
+        return bytePermits != null ? maxBytes - bytePermits.availablePermits() : 0;
+    }
+    /** 剩余可用的消息条数许可，不限制时返回Integer.MAX_VALUE */
+    @Override
+    public int getAvailableMessages() {
+        return messagePermits != null ? messagePermits.availablePermits() : Integer.MAX_VALUE;
+    }
+    /** 剩余可用的字节数许可，不限制时返回Integer.MAX_VALUE */
+    @Override
+    public int getAvailableBytes() {
+        return bytePermits != null ? bytePermits.availablePermits() : Integer.MAX_VALUE;
+    }
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
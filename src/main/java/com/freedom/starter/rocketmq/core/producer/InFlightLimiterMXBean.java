@@ -0,0 +1,32 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.freedom.starter.rocketmq.enums.InFlightRejectPolicy;
+
+/**
+ * 发送中消息限制的JMX接口
+ */
+public interface InFlightLimiterMXBean {
+
+    /** 最大发送中消息条数，小于等于0不限制 */
+    int getMaxMessages();
+
+    /** 最大发送中字节数，小于等于0不限制 */
+    int getMaxBytes();
+
+    InFlightRejectPolicy getRejectPolicy();
+
+    /** 发送中的消息条数 */
+    int getInFlightMessages();
+
+    /** 发送中的字节数 */
+    int getInFlightBytes();
+
+    /** 剩余可用的消息条数许可 */
+    int getAvailableMessages();
+
+    /** 剩余可用的字节数许可 */
+    int getAvailableBytes();
+
+    /** 被拒绝（包括FAIL、BLOCK超时、CALLER_RUNS）的次数 */
+    long getRejectedCount();
+}
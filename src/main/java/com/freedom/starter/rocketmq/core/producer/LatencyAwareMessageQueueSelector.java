@@ -0,0 +1,409 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.MessageQueueSelector;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.client.producer.SendStatus;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.remoting.exception.RemotingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按发送耗时选择队列的MessageQueueSelector，用于非顺序消息
+ * 按broker和队列分别统计发送耗时的EWMA（指数加权移动平均），
+ * 每次随机取两个队列，选择耗时较低的一个，使流量逐渐避开变慢的broker，
+ * 变慢的broker仍会分到少量流量，恢复后EWMA随之下降
+ *
+ * 发送时需要将newSelection()作为select()的arg参数，发送结束后调用record()记录耗时
+ *
+ * rocketmq按MessageQueueSelector发送时只发送一次，不会在内部重试，
+ * 因此send()按rocketmq默认发送的规则重试：同步最多retryTimesWhenSendFailed次、异步最多retryTimesWhenSendAsyncFailed次，
+ * 每次重试排除已失败的broker，总耗时不超过发送超时时间；异步发送的重试在单独的线程中发出，不占用rocketmq的回调线程
+ */
+public class LatencyAwareMessageQueueSelector implements MessageQueueSelector {
+    private static final Logger logger = LoggerFactory.getLogger(LatencyAwareMessageQueueSelector.class);
+
+    /** EWMA的平滑系数，越大越偏向最近的耗时 */
+    private final double alpha;
+
+    /** 发送失败时记录的耗时，单位毫秒 */
+    private final long failurePenaltyMillis;
+
+    /** broker维度的耗时统计，key为brokerName */
+    private final ConcurrentMap<String, Ewma> brokerStats = new ConcurrentHashMap<String, Ewma>();
+
+    /** 队列维度的耗时统计 */
+    private final ConcurrentMap<MessageQueue, Ewma> queueStats = new ConcurrentHashMap<MessageQueue, Ewma>();
+
+    /** 发出异步发送的重试 */
+    private final ExecutorService retryExecutor;
+
+
+    public LatencyAwareMessageQueueSelector(double alpha, long failurePenaltyMillis) {
+        if(alpha <= 0 || alpha > 1){
+            throw new IllegalArgumentException("'alpha' must be in (0, 1]");
+        }
+        this.alpha = alpha;
+        this.failurePenaltyMillis = failurePenaltyMillis;
+        this.retryExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RocketMQLatencyAwareRetry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void shutdown() {
+        retryExecutor.shutdownNow();
+    }
+
+
+    /**
+     * 按耗时选择队列同步发送，失败时排除失败的broker重试
+     * @param producer     生产者
+     * @param rocketmqMsg  rocketmq message
+     * @param timeout      发送超时时间，单位毫秒，包括所有重试
+     * @return
+     * @throws Exception   最后一次发送的异常
+     */
+    public SendResult send(DefaultMQProducer producer, Message rocketmqMsg, long timeout) throws Exception {
+        Selection selection = newSelection();
+        long deadline = System.currentTimeMillis() + timeout;
+        int times = 1 + Math.max(0, producer.getRetryTimesWhenSendFailed());
+        for(int i=1; ; i++){
+            SendResult sendResult;
+            try {
+                sendResult = producer.send(rocketmqMsg, this, selection, remaining(deadline));
+            }
+            catch (Exception e) {
+                record(selection, false);
+                if(i >= times || !isRetryable(e) || System.currentTimeMillis() >= deadline){
+                    throw e;
+                }
+                logger.warn("send failed, retry another broker. topic:{}, broker:{}, times:{}, error:{}",
+                        rocketmqMsg.getTopic(), selection.getBrokerName(), i, e.getMessage());
+                selection.excludeSelected();
+                continue;
+            }
+            record(selection, true);
+            //与rocketmq默认发送一致，开启retryAnotherBrokerWhenNotStoreOK时，刷盘、同步slave超时等也换broker重试
+            if(sendResult.getSendStatus() != SendStatus.SEND_OK && producer.isRetryAnotherBrokerWhenNotStoreOK()
+                    && i < times && System.currentTimeMillis() < deadline){
+                selection.excludeSelected();
+                continue;
+            }
+            return sendResult;
+        }
+    }
+
+    /**
+     * 按耗时选择队列异步发送，失败时排除失败的broker重试，所有重试都失败后才回调onException()
+     * @param producer     生产者
+     * @param rocketmqMsg  rocketmq message
+     * @param sendCallback 发送结果的回调
+     * @param timeout      发送超时时间，单位毫秒，包括所有重试
+     * @throws Exception   第一次发送时同步抛出、且不能重试的异常
+     */
+    public void send(DefaultMQProducer producer, Message rocketmqMsg, SendCallback sendCallback, long timeout) throws Exception {
+        new RetryingSend(producer, rocketmqMsg, sendCallback, timeout).send();
+    }
+
+
+    /**
+     * 创建一次发送的选择结果，作为select()的arg参数传入
+     * @return
+     */
+    public Selection newSelection() {
+        return new Selection();
+    }
+
+    @Override
+    public MessageQueue select(List<MessageQueue> mqs, Message msg, Object arg) {
+        if(arg instanceof Selection){
+            mqs = ((Selection) arg).filter(mqs);
+        }
+        MessageQueue selected;
+        int size = mqs.size();
+        if(size == 1){
+            selected = mqs.get(0);
+        }
+        else {
+            //两次随机选择，取耗时较低的队列
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            MessageQueue first = mqs.get(random.nextInt(size));
+            MessageQueue second = mqs.get(random.nextInt(size));
+            selected = score(first) <= score(second) ? first : second;
+        }
+
+        if(arg instanceof Selection){
+            Selection selection = (Selection) arg;
+            selection.messageQueue = selected;
+            selection.startNanos = System.nanoTime();
+        }
+        return selected;
+    }
+
+    /**
+     * 记录一次发送的耗时
+     * @param selection  select()时传入的arg
+     * @param success    是否发送成功，失败时按failurePenaltyMillis记录
+     */
+    public void record(Selection selection, boolean success) {
+        MessageQueue messageQueue = selection.messageQueue;
+        if(messageQueue == null){
+            return;  //还没选择队列就失败了，比如没有路由信息
+        }
+        long costMicros = (System.nanoTime() - selection.startNanos) / 1000;
+        if(!success){
+            costMicros = Math.max(costMicros, failurePenaltyMillis * 1000);
+        }
+        getOrCreate(brokerStats, messageQueue.getBrokerName()).update(costMicros, alpha);
+        getOrCreate(queueStats, messageQueue).update(costMicros, alpha);
+    }
+
+    /**
+     * 各broker发送耗时的EWMA，单位毫秒
+     * @return
+     */
+    public Map<String, Double> getBrokerLatencyMillis() {
+        Map<String, Double> result = new HashMap<String, Double>();
+        for(Map.Entry<String, Ewma> entry : brokerStats.entrySet()){
+            result.put(entry.getKey(), entry.getValue().get() / 1000D);
+        }
+        return result;
+    }
+
+    /**
+     * 各队列发送耗时的EWMA，单位毫秒
+     * @return
+     */
+    public Map<MessageQueue, Double> getQueueLatencyMillis() {
+        Map<MessageQueue, Double> result = new HashMap<MessageQueue, Double>();
+        for(Map.Entry<MessageQueue, Ewma> entry : queueStats.entrySet()){
+            result.put(entry.getKey(), entry.getValue().get() / 1000D);
+        }
+        return result;
+    }
+
+    /**
+     * 队列的耗时评分，没有统计数据的为0，会被优先选择
+     */
+    private double score(MessageQueue messageQueue) {
+        Ewma broker = brokerStats.get(messageQueue.getBrokerName());
+        Ewma queue = queueStats.get(messageQueue);
+        return (broker != null ? broker.get() : 0D) + (queue != null ? queue.get() : 0D);
+    }
+
+    /**
+     * 距离截止时间的剩余毫秒数，至少为1，已超时的发送由rocketmq客户端按超时失败
+     */
+    static long remaining(long deadline) {
+        return Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * 是否可以换broker重试，与rocketmq 3.5.8默认同步发送的规则一致
+     */
+    static boolean isRetryable(Throwable e) {
+        if(e instanceof RemotingException || e instanceof MQClientException){
+            return true;
+        }
+        if(e instanceof MQBrokerException){
+            switch (((MQBrokerException) e).getResponseCode()) {
+                case ResponseCode.TOPIC_NOT_EXIST:
+                case ResponseCode.SERVICE_NOT_AVAILABLE:
+                case ResponseCode.SYSTEM_ERROR:
+                case ResponseCode.NO_PERMISSION:
+                case ResponseCode.NO_BUYER_ID:
+                case ResponseCode.NOT_IN_CURRENT_UNIT:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    private static <K> Ewma getOrCreate(ConcurrentMap<K, Ewma> stats, K key) {
+        Ewma ewma = stats.get(key);
+        if(ewma == null){
+            Ewma newEwma = new Ewma();
+            ewma = stats.putIfAbsent(key, newEwma);
+            if(ewma == null){
+                ewma = newEwma;
+            }
+        }
+        return ewma;
+    }
+
+
+    /**
+     * 一次发送选择的队列和开始时间，以及重试时排除的broker
+     */
+    public static class Selection {
+        private volatile MessageQueue messageQueue;
+        private volatile long startNanos;
+        private final Set<String> excludedBrokers = new HashSet<String>();
+
+        public MessageQueue getMessageQueue() {
+            return messageQueue;
+        }
+
+        String getBrokerName() {
+            MessageQueue selected = messageQueue;
+            return selected != null ? selected.getBrokerName() : null;
+        }
+
+        /**
+         * 排除本次选择的broker，下次选择其他broker的队列
+         */
+        synchronized void excludeSelected() {
+            MessageQueue selected = messageQueue;
+            if(selected != null){
+                excludedBrokers.add(selected.getBrokerName());
+            }
+            messageQueue = null;
+        }
+
+        /**
+         * 去掉已排除broker的队列，全部被排除时返回原列表
+         */
+        synchronized List<MessageQueue> filter(List<MessageQueue> mqs) {
+            if(excludedBrokers.isEmpty()){
+                return mqs;
+            }
+            List<MessageQueue> candidates = new ArrayList<MessageQueue>(mqs.size());
+            for(MessageQueue mq : mqs){
+                if(!excludedBrokers.contains(mq.getBrokerName())){
+                    candidates.add(mq);
+                }
+            }
+            return candidates.isEmpty() ? mqs : candidates;
+        }
+    }
+
+    /**
+     * 一次可以重试的异步发送，每次发送失败后在retryExecutor中排除失败的broker再发送
+     */
+    private class RetryingSend implements SendCallback, Runnable {
+        private final DefaultMQProducer producer;
+        private final Message rocketmqMsg;
+        private final SendCallback delegate;
+        private final long deadline;
+        private final int times;
+        private final Selection selection = newSelection();
+        private volatile int attempts;
+
+        RetryingSend(DefaultMQProducer producer, Message rocketmqMsg, SendCallback delegate, long timeout) {
+            this.producer = producer;
+            this.rocketmqMsg = rocketmqMsg;
+            this.delegate = delegate;
+            this.deadline = System.currentTimeMillis() + timeout;
+            this.times = 1 + Math.max(0, producer.getRetryTimesWhenSendAsyncFailed());
+        }
+
+        /**
+         * 发出一次发送，同步抛出的异常可以重试时立即重试
+         */
+        void send() throws Exception {
+            while (true) {
+                attempts++;
+                try {
+                    producer.send(rocketmqMsg, LatencyAwareMessageQueueSelector.this, selection, this, remaining(deadline));
+                    return;
+                }
+                catch (Exception e) {
+                    record(selection, false);
+                    if(!canRetry(e)){
+                        throw e;
+                    }
+                    selection.excludeSelected();
+                }
+            }
+        }
+
+        private boolean canRetry(Throwable e) {
+            return attempts < times && isRetryable(e) && System.currentTimeMillis() < deadline;
+        }
+
+        @Override
+        public void run() {
+            try {
+                send();
+            }
+            catch (Exception e) {
+                delegate.onException(e);
+            }
+        }
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+            record(selection, true);
+            delegate.onSuccess(sendResult);
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            record(selection, false);
+            if(!canRetry(e)){
+                delegate.onException(e);
+                return;
+            }
+            logger.warn("asyncSend failed, retry another broker. topic:{}, broker:{}, times:{}, error:{}",
+                    rocketmqMsg.getTopic(), selection.getBrokerName(), attempts, e.getMessage());
+            selection.excludeSelected();
+            try {
+                retryExecutor.execute(this);
+            }
+            catch (RejectedExecutionException rejected) {
+                delegate.onException(e);  //已关闭
+            }
+        }
+    }
+
+    /**
+     * 无锁的EWMA，double以bit形式保存在AtomicLong中
+     */
+    private static class Ewma {
+        private final AtomicLong bits = new AtomicLong(Double.doubleToLongBits(-1D));
+
+        double get() {
+            double value = Double.longBitsToDouble(bits.get());
+            return value < 0 ? 0D : value;
+        }
+
+        void update(double sample, double alpha) {
+            while (true) {
+                long current = bits.get();
+                double value = Double.longBitsToDouble(current);
+                double next = value < 0 ? sample : value + alpha * (sample - value);  //第一次直接使用样本值
+                if(bits.compareAndSet(current, Double.doubleToLongBits(next))){
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.common.message.Message;
+import com.freedom.starter.rocketmq.enums.ProducerStripeStrategy;
+import com.freedom.starter.rocketmq.message.MessageBatchEnvelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步发送、One-way发送的消息累加器
+ * 按topic和tag将消息攒批，达到条数/字节数上限或等待时间超过linger后，打包成一条消息发送，
+ * 发送完成后逐个回调每条消息调用方的SendCallback
+ *
+ * 批次按topic + tag而不是按队列划分：打包后的消息只有一个tag，消费端按tag过滤；
+ * 队列在批次发送时由生产者选择，同一批次的消息发送到同一个队列
+ *
+ * 打包后的消息由DefaultRocketMQListenerContainer自动拆包，消费端无感知
+ * 注意：同一批次的消息共享一个SendResult，消费失败时整批重新投递
+ */
+public class MessageAccumulator {
+    private static final Logger logger = LoggerFactory.getLogger(MessageAccumulator.class);
+
+    /** 生产者池，每个批次按topic + tag选择生产者 */
+    private final ProducerPool producerPool;
+
+    /** 每批最多消息条数 */
+    private final int maxMessages;
+
+    /** 每批最大字节数，按打包后的信封消息体计算，包括每条消息的属性 */
+    private final int maxBytes;
+
+    /** 消息在累加器中最长等待时间，单位毫秒 */
+    private final long lingerMs;
+
+    /** 正在攒批的批次，key为topic + tag */
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<String, Batch>();
+
+    /** 定时检查linger超时的线程 */
+    private ScheduledExecutorService scheduler;
+
+    private volatile boolean closed;
+
+
+    public MessageAccumulator(DefaultMQProducer producer, int maxMessages, int maxBytes, long lingerMs) {
+        this(new ProducerPool(Collections.singletonList(producer), ProducerStripeStrategy.THREAD), maxMessages, maxBytes, lingerMs);
+    }
+
+    public MessageAccumulator(ProducerPool producerPool, int maxMessages, int maxBytes, long lingerMs) {
+        if(producerPool == null){
+            throw new IllegalArgumentException("'producerPool' cannot be null");
+        }
+        if(maxMessages <= 0 || maxBytes <= 0 || lingerMs <= 0){
+            throw new IllegalArgumentException("'maxMessages', 'maxBytes' and 'lingerMs' must be positive");
+        }
+        this.producerPool = producerPool;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.lingerMs = lingerMs;
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+
+    /**
+     * 启动linger定时检查
+     */
+    public synchronized void start() {
+        if(scheduler != null){
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RocketMQMessageAccumulator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushExpired();
+                }
+                catch (Throwable e) {
+                    logger.error("flush expired batch failed", e);
+                }
+            }
+        }, lingerMs, lingerMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 关闭累加器，发送所有未发送的消息
+     * 与close()并发、已通过closed检查的append()在批次锁内发现已关闭时自行发送所在批次，消息不会留在累加器中
+     */
+    public synchronized void close() {
+        closed = true;
+        if(scheduler != null){
+            scheduler.shutdown();
+        }
+        flushAll();
+    }
+
+
+    /**
+     * 追加一条消息
+     * @param rocketmqMsg    rocketmq message
+     * @param sendCallback   发送结束后的回调方法，One-way发送时为null
+     * @param timeout        消息发送超时时间，单位毫秒
+     */
+    public void append(Message rocketmqMsg, SendCallback sendCallback, long timeout) {
+        if(closed){
+            throw new IllegalStateException("MessageAccumulator already closed");
+        }
+
+        String key = rocketmqMsg.getTopic() + "#" + rocketmqMsg.getTags();
+        int size = MessageBatchEnvelope.encodedSize(rocketmqMsg);
+
+        while (true) {
+            Batch batch = batches.get(key);
+            if(batch == null){
+                Batch newBatch = new Batch(rocketmqMsg.getTopic(), rocketmqMsg.getTags());
+                batch = batches.putIfAbsent(key, newBatch);
+                if(batch == null){
+                    batch = newBatch;
+                }
+            }
+
+            Batch ready = null;
+            boolean appended = false;
+            synchronized (batch) {
+                if(batch.sealed){
+                    continue;  //批次已被其它线程取走，重新获取
+                }
+                //放不下当前消息，先发送已有的批次
+                if(!batch.messages.isEmpty() && batch.bytes + size > maxBytes){
+                    ready = seal(key, batch);
+                }
+                else {
+                    batch.add(rocketmqMsg, size, sendCallback, timeout);
+                    appended = true;
+                    //已关闭时flushAll()可能已经遍历过该批次，直接发送
+                    if(closed || batch.messages.size() >= maxMessages || batch.bytes >= maxBytes){
+                        ready = seal(key, batch);
+                    }
+                }
+            }
+
+            if(ready != null){
+                send(ready);
+            }
+            if(appended){
+                return;
+            }
+        }
+    }
+
+    /**
+     * 发送所有等待时间超过linger的批次
+     */
+    void flushExpired() {
+        long now = System.currentTimeMillis();
+        for(Map.Entry<String, Batch> entry : batches.entrySet()){
+            Batch batch = entry.getValue();
+            Batch ready = null;
+            synchronized (batch) {
+                if(!batch.sealed && now - batch.createTime >= lingerMs){
+                    ready = seal(entry.getKey(), batch);
+                }
+            }
+            if(ready != null){
+                send(ready);
+            }
+        }
+    }
+
+    /**
+     * 发送所有批次
+     */
+    void flushAll() {
+        for(Map.Entry<String, Batch> entry : batches.entrySet()){
+            Batch batch = entry.getValue();
+            Batch ready = null;
+            synchronized (batch) {
+                if(!batch.sealed){
+                    ready = seal(entry.getKey(), batch);
+                }
+            }
+            if(ready != null){
+                send(ready);
+            }
+        }
+    }
+
+    /**
+     * 封闭批次，并从正在攒批的批次中移除，需要持有batch锁
+     */
+    private Batch seal(String key, Batch batch) {
+        batch.sealed = true;
+        batches.remove(key, batch);
+        return batch.messages.isEmpty() ? null : batch;
+    }
+
+    /**
+     * 发送一个批次，只有一条消息时按原消息发送
+     * @param batch
+     */
+    private void send(Batch batch) {
+        Message rocketmqMsg = batch.messages.size() == 1
+                ? batch.messages.get(0)
+                : MessageBatchEnvelope.pack(batch.topic, batch.tag, batch.messages);
+
+        DefaultMQProducer producer = producerPool.selectByKey(batch.topic + "#" + batch.tag);
+        try {
+            if(batch.oneWayOnly){
+                producer.sendOneway(rocketmqMsg);
+            }
+            else {
+                producer.send(rocketmqMsg, new BatchSendCallback(batch.callbacks), batch.timeout);
+            }
+        }
+        catch (Exception e) {
+            logger.error("send batch failed. topic:{}, tag:{}, size:{}", batch.topic, batch.tag, batch.messages.size(), e);
+            new BatchSendCallback(batch.callbacks).onException(e);
+        }
+    }
+
+
+    /**
+     * 一个攒批中的批次
+     */
+    private static class Batch {
+        private final String topic;
+        private final String tag;
+        private final List<Message> messages = new ArrayList<Message>();
+        private final List<SendCallback> callbacks = new ArrayList<SendCallback>();
+        private final long createTime = System.currentTimeMillis();
+        private int bytes = MessageBatchEnvelope.HEADER_SIZE;
+        private long timeout = Long.MAX_VALUE;
+        private boolean oneWayOnly = true;
+        private boolean sealed;
+
+        Batch(String topic, String tag) {
+            this.topic = topic;
+            this.tag = tag;
+        }
+
+        void add(Message rocketmqMsg, int size, SendCallback sendCallback, long timeout) {
+            messages.add(rocketmqMsg);
+            callbacks.add(sendCallback);
+            bytes += size;
+            this.timeout = Math.min(this.timeout, timeout);  //批次超时时间取最短的一个
+            oneWayOnly = oneWayOnly && sendCallback == null;
+        }
+    }
+
+    /**
+     * 批次发送完成后，逐个回调每条消息的SendCallback
+     */
+    private static class BatchSendCallback implements SendCallback {
+        private final List<SendCallback> callbacks;
+
+        BatchSendCallback(List<SendCallback> callbacks) {
+            this.callbacks = callbacks;
+        }
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+            for(SendCallback callback : callbacks){
+                if(callback == null){
+                    continue;
+                }
+                try {
+                    callback.onSuccess(sendResult);
+                }
+                catch (Throwable e) {
+                    logger.error("SendCallback.onSuccess failed", e);
+                }
+            }
+        }
+
+        @Override
+        public void onException(Throwable t) {
+            for(SendCallback callback : callbacks){
+                if(callback == null){
+                    continue;
+                }
+                try {
+                    callback.onException(t);
+                }
+                catch (Throwable e) {
+                    logger.error("SendCallback.onException failed", e);
+                }
+            }
+        }
+    }
+}
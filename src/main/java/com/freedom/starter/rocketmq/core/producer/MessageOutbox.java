@@ -0,0 +1,806 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.remoting.exception.RemotingConnectException;
+import com.alibaba.rocketmq.remoting.exception.RemotingSendRequestException;
+import com.alibaba.rocketmq.remoting.exception.RemotingTimeoutException;
+import com.alibaba.rocketmq.remoting.exception.RemotingTooMuchRequestException;
+import com.freedom.starter.rocketmq.enums.OutboxMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.MessagingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 本地发件箱，broker不可用时暂存消息，broker恢复后由后台线程按限定速率重放
+ *
+ * 消息以追加的方式写入内存映射的segment文件，文件名为segment的起始offset，格式：
+ *   [记录长度 int][CRC32 int][topic长度 short][topic][属性长度 int][属性][消息体长度 int][消息体]
+ * 记录长度为0表示segment剩余空间不足，从下一个segment继续
+ * 已重放的位置保存在checkpoint文件中，重启后从checkpoint继续重放，重放完的segment文件解除映射后删除
+ *
+ * 重放使用异步发送，最多REPLAY_WINDOW条同时发送，checkpoint只推进到连续完成的位置；
+ * 失败的消息单独退避重试，不阻塞后面的消息：
+ * 1、连接失败、超时、broker繁忙（isRecoverable()）视为broker不可用，一直重试；但其他消息在此期间重放成功的，按被拒绝计数
+ * 2、其他错误（broker拒绝、没有路由信息等）按被拒绝计数，MESSAGE_ILLEGAL或被拒绝MAX_REJECTED_ATTEMPTS次后丢弃
+ *
+ * FAILED模式下，发送失败后新消息直接写入发件箱，重放成功（broker恢复）后新消息恢复直接发送，发件箱中的消息在后台继续重放，
+ * 因此恢复期间新消息可能先于发件箱中的旧消息到达
+ *
+ * 注意：重放只保证至少发送一次，进程在发送成功和保存checkpoint之间退出时会重复发送
+ */
+public class MessageOutbox {
+    private static final Logger logger = LoggerFactory.getLogger(MessageOutbox.class);
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /** 重放失败后的等待时间，单位毫秒 */
+    private static final long REPLAY_BACKOFF_MILLIS = 1000;
+
+    /** 同一条消息被拒绝的最大次数，超过后丢弃该消息 */
+    private static final int MAX_REJECTED_ATTEMPTS = 16;
+
+    /** 同时重放（发送中或等待重试）的最大消息条数 */
+    private static final int REPLAY_WINDOW = 64;
+
+    /** 已读取、还没有提交checkpoint的最大记录数，失败的消息阻塞checkpoint时，后面的消息最多继续重放这么多条 */
+    private static final int MAX_UNCOMMITTED_RECORDS = 65536;
+
+    /** 刷盘间隔，单位毫秒 */
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    /** 发件箱目录 */
+    private final File dir;
+
+    /** 每个segment文件的大小 */
+    private final int segmentSize;
+
+    /** 发件箱模式 */
+    private final OutboxMode mode;
+
+    /** 每秒最多重放的消息条数，小于等于0不限制 */
+    private final int replayPermitsPerSecond;
+
+    /** 生产者池，用于重放 */
+    private final ProducerPool producerPool;
+
+    /** 异步启动时等待生产者池启动完成后再重放 */
+    private ProducerWarmup producerWarmup;
+
+    /** 重放失败后的等待时间，单位毫秒 */
+    private long replayBackoffMillis = REPLAY_BACKOFF_MILLIS;
+
+    /** 已经打开的segment，key为起始offset */
+    private final ConcurrentMap<Long, MappedByteBuffer> segments = new ConcurrentHashMap<Long, MappedByteBuffer>();
+
+    /** 写入、重放完成时通知重放线程 */
+    private final Object writeLock = new Object();
+
+    /** 下一条记录的写入位置，记录写完之后才更新 */
+    private volatile long writeOffset;
+
+    /** 下一条需要重放的记录位置，即checkpoint */
+    private volatile long readOffset;
+
+    /** 下一条需要读取发送的记录位置，只由重放线程访问 */
+    private long sendOffset;
+
+    /** 已读取、还没有提交的记录，按offset排序，只由重放线程访问 */
+    private final ArrayDeque<Replay> window = new ArrayDeque<Replay>();
+
+    /** 重放完成（成功或失败）的次数，用于唤醒重放线程 */
+    private final AtomicLong replayEvents = new AtomicLong();
+
+    /** broker是否可用，发送失败写入发件箱时设为false，重放成功时设为true */
+    private volatile boolean brokerAvailable = true;
+
+    private MappedByteBuffer checkpoint;
+
+    private final AtomicLong appendedCount = new AtomicLong();
+
+    private final AtomicLong replayedCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private Thread replayThread;
+
+    private volatile boolean stopped;
+
+
+    public MessageOutbox(String dir, int segmentSize, OutboxMode mode, int replayPermitsPerSecond, ProducerPool producerPool) {
+        if(dir==null || "".equals(dir)){
+            throw new IllegalArgumentException("'dir' cannot be null");
+        }
+        if(segmentSize <= RECORD_HEADER_SIZE){
+            throw new IllegalArgumentException("'segmentSize' is too small");
+        }
+        if(mode==null || producerPool==null){
+            throw new IllegalArgumentException("'mode' and 'producerPool' cannot be null");
+        }
+        this.dir = new File(dir);
+        this.segmentSize = segmentSize;
+        this.mode = mode;
+        this.replayPermitsPerSecond = replayPermitsPerSecond;
+        this.producerPool = producerPool;
+    }
+
+    public void setProducerWarmup(ProducerWarmup producerWarmup) {
+        this.producerWarmup = producerWarmup;
+    }
+
+    void setReplayBackoffMillis(long replayBackoffMillis) {
+        this.replayBackoffMillis = replayBackoffMillis;
+    }
+
+
+    /**
+     * 恢复发件箱并启动重放线程
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if(replayThread != null){
+            return;
+        }
+        if(!dir.exists() && !dir.mkdirs()){
+            throw new IOException("create outbox dir failed. " + dir.getAbsolutePath());
+        }
+        recover();
+
+        replayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replayLoop();
+            }
+        }, "RocketMQMessageOutboxReplayer");
+        replayThread.setDaemon(true);
+        replayThread.start();
+
+        logger.info("MessageOutbox started. dir:{}, mode:{}, readOffset:{}, writeOffset:{}", dir.getAbsolutePath(), mode, readOffset, writeOffset);
+    }
+
+    /**
+     * 停止重放线程，未重放的消息保留在发件箱中，下次启动后继续重放
+     * segment不解除映射，关闭后仍可能有消息写入
+     */
+    public synchronized void shutdown() {
+        stopped = true;
+        if(replayThread != null){
+            replayThread.interrupt();
+            try {
+                replayThread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (writeLock) {
+            for(MappedByteBuffer segment : segments.values()){
+                segment.force();
+            }
+            if(checkpoint != null){
+                checkpoint.force();
+            }
+        }
+    }
+
+
+    /**
+     * 消息是否应该直接写入发件箱
+     * WRITE_AHEAD模式下总是写入；FAILED模式下broker不可用、且发件箱中还有未重放的消息时写入，避免每条消息都等待发送超时，
+     * 重放成功后恢复直接发送
+     * @return
+     */
+    public boolean shouldDivert() {
+        return mode == OutboxMode.WRITE_AHEAD || (!brokerAvailable && hasPending());
+    }
+
+    /**
+     * 发送失败、消息写入发件箱时调用，之后的消息直接写入发件箱，直到重放成功
+     */
+    public void markUnavailable() {
+        brokerAvailable = false;
+    }
+
+    /**
+     * 发送失败的异常是否可以通过重放恢复，只有连接失败、超时、broker繁忙可以恢复，
+     * 消息不合法、没有路由信息等重放也不会成功的不写入发件箱
+     * @param e
+     * @return
+     */
+    public boolean isRecoverable(Throwable e) {
+        for(Throwable cause = e; cause != null; cause = cause.getCause()){
+            if(cause instanceof RemotingConnectException || cause instanceof RemotingSendRequestException
+                    || cause instanceof RemotingTimeoutException || cause instanceof RemotingTooMuchRequestException){
+                return true;
+            }
+            if(cause instanceof MQBrokerException){
+                int responseCode = ((MQBrokerException) cause).getResponseCode();
+                return responseCode == ResponseCode.SYSTEM_BUSY || responseCode == ResponseCode.SERVICE_NOT_AVAILABLE;
+            }
+            //异步发送超时、请求没有发出时，rocketmq回调的MQClientException没有cause
+            if(cause instanceof MQClientException && cause.getCause() == null && cause.getMessage() != null
+                    && (cause.getMessage().startsWith("wait response timeout") || cause.getMessage().startsWith("send request failed"))){
+                return true;
+            }
+            if(cause.getCause() == cause){
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 写入一条消息
+     * @param rocketmqMsg  rocketmq message
+     * @return 消息在发件箱中的位置
+     */
+    public long append(Message rocketmqMsg) {
+        byte[] topic = rocketmqMsg.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
+        byte[] properties = MessageDecoder.messageProperties2String(rocketmqMsg.getProperties()).getBytes(MessageDecoder.CHARSET_UTF8);
+        byte[] body = rocketmqMsg.getBody();
+
+        int payloadLength = 2 + topic.length + 4 + properties.length + 4 + body.length;
+        int recordLength = RECORD_HEADER_SIZE + payloadLength;
+        if(recordLength > segmentSize){
+            throw new IllegalArgumentException("message is too large for outbox segment. size:" + recordLength);
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+        payload.putShort((short) topic.length);
+        payload.put(topic);
+        payload.putInt(properties.length);
+        payload.put(properties);
+        payload.putInt(body.length);
+        payload.put(body);
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload.array());
+
+        synchronized (writeLock) {
+            long offset = writeOffset;
+            int position = (int) (offset % segmentSize);
+            //剩余空间不足，从下一个segment开始写，剩余部分为0
+            if(position + recordLength > segmentSize){
+                offset = offset - position + segmentSize;
+                position = 0;
+            }
+
+            ByteBuffer buffer = segment(offset - position, true).duplicate();
+            buffer.position(position);
+            buffer.putInt(payloadLength);
+            buffer.putInt((int) crc32.getValue());
+            buffer.put(payload.array());
+
+            writeOffset = offset + recordLength;
+            appendedCount.incrementAndGet();
+            writeLock.notifyAll();
+            return offset;
+        }
+    }
+
+
+    /**
+     * 重放线程
+     */
+    private void replayLoop() {
+        if(!awaitProducerStarted()){
+            return;
+        }
+
+        long intervalNanos = replayPermitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / replayPermitsPerSecond : 0;
+        long nextReplayNanos = System.nanoTime();
+        long lastFlushMillis = System.currentTimeMillis();
+        sendOffset = readOffset;
+
+        while (!stopped) {
+            try {
+                long events = replayEvents.get();
+                long written = writeOffset;
+                if(System.currentTimeMillis() - lastFlushMillis >= FLUSH_INTERVAL_MILLIS){
+                    flush();
+                    lastFlushMillis = System.currentTimeMillis();
+                }
+
+                boolean progressed = commitCompleted();
+                long now = System.currentTimeMillis();
+                long waitMillis = FLUSH_INTERVAL_MILLIS;
+                int unresolved = 0;
+
+                //失败的消息，退避后重试
+                for(Replay replay : window){
+                    if(replay.state == Replay.FAILED){
+                        onReplayFailed(replay, now);
+                        progressed = true;
+                    }
+                    if(replay.state == Replay.WAITING){
+                        if(replay.retryAtMillis > now){
+                            waitMillis = Math.min(waitMillis, replay.retryAtMillis - now);
+                        }
+                        else if(nextReplayNanos <= System.nanoTime()){
+                            send(replay);
+                            nextReplayNanos = Math.max(nextReplayNanos, System.nanoTime()) + intervalNanos;
+                            progressed = true;
+                        }
+                    }
+                    if(replay.state != Replay.DONE){
+                        unresolved++;
+                    }
+                    else {
+                        replay.message = null;  //已完成、等待前面的记录提交，释放消息体
+                    }
+                }
+
+                //读取新的记录，异步发送
+                while (unresolved < REPLAY_WINDOW && window.size() < MAX_UNCOMMITTED_RECORDS && sendOffset < writeOffset
+                        && nextReplayNanos <= System.nanoTime()) {
+                    Replay replay = readNext();
+                    window.addLast(replay);
+                    progressed = true;
+                    if(replay.message != null){
+                        send(replay);
+                        nextReplayNanos = Math.max(nextReplayNanos, System.nanoTime()) + intervalNanos;
+                        unresolved++;
+                    }
+                }
+
+                if(progressed){
+                    continue;
+                }
+                //限速
+                if(sendOffset < writeOffset && nextReplayNanos > System.nanoTime()){
+                    waitMillis = Math.min(waitMillis, TimeUnit.NANOSECONDS.toMillis(nextReplayNanos - System.nanoTime()) + 1);
+                }
+                //等待写入或重放完成
+                synchronized (writeLock) {
+                    if(events == replayEvents.get() && written == writeOffset){
+                        writeLock.wait(Math.max(waitMillis, 1));
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                if(stopped){
+                    return;
+                }
+            }
+            catch (Throwable e) {
+                logger.error("outbox replay loop error", e);
+            }
+        }
+    }
+
+    /**
+     * 异步启动时等待生产者池启动完成
+     * @return 生产者池启动失败或发件箱已关闭时返回false
+     */
+    private boolean awaitProducerStarted() {
+        if(producerWarmup == null){
+            return true;
+        }
+        while (!stopped) {
+            try {
+                producerWarmup.awaitStarted(FLUSH_INTERVAL_MILLIS);
+                return true;
+            }
+            catch (MessagingException e) {
+                Thread.interrupted();  //清除awaitStarted()被中断时设置的中断标记
+                if(producerWarmup.getStartFailure() != null){
+                    logger.error("producer start failed, outbox replay stopped. dir:{}", dir.getAbsolutePath(), e);
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读取sendOffset处的记录，segment结束、记录损坏时返回已完成的Replay，只推进checkpoint
+     */
+    private Replay readNext() {
+        long offset = sendOffset;
+        int position = (int) (offset % segmentSize);
+        long segmentOffset = offset - position;
+        ByteBuffer buffer = segment(segmentOffset, false);
+        int payloadLength = position + RECORD_HEADER_SIZE <= segmentSize ? buffer.getInt(position) : 0;
+
+        //当前segment已读完，提交后删除当前segment，从下一个segment继续
+        if(payloadLength == 0){
+            sendOffset = segmentOffset + segmentSize;
+            return new Replay(offset, sendOffset, null, segmentOffset);
+        }
+
+        Message rocketmqMsg = readRecord(buffer, position, payloadLength);
+        if(rocketmqMsg == null){
+            logger.error("outbox record is corrupted, skip it. offset:{}", offset);
+            droppedCount.incrementAndGet();
+            //长度超出segment时不可信，跳过segment剩余部分
+            if(payloadLength < 0 || position + RECORD_HEADER_SIZE + payloadLength > segmentSize){
+                sendOffset = segmentOffset + segmentSize;
+                return new Replay(offset, sendOffset, null, segmentOffset);
+            }
+            sendOffset = offset + RECORD_HEADER_SIZE + payloadLength;
+            return new Replay(offset, sendOffset, null, -1);
+        }
+        sendOffset = offset + RECORD_HEADER_SIZE + payloadLength;
+        return new Replay(offset, sendOffset, rocketmqMsg, -1);
+    }
+
+    /**
+     * 异步发送一条消息，完成后更新状态并唤醒重放线程
+     */
+    private void send(final Replay replay) {
+        replay.state = Replay.SENDING;
+        replay.replayedCountAtSend = replayedCount.get();
+        try {
+            producerPool.select(replay.message).send(replay.message, new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                    replayedCount.incrementAndGet();
+                    brokerAvailable = true;
+                    replay.state = Replay.DONE;
+                    signal();
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                    replay.error = e;
+                    replay.state = Replay.FAILED;
+                    signal();
+                }
+            });
+        }
+        catch (Exception e) {
+            replay.error = e;
+            replay.state = Replay.FAILED;
+        }
+    }
+
+    /**
+     * 处理一次失败的重放，决定退避重试还是丢弃
+     */
+    private void onReplayFailed(Replay replay, long now) {
+        Throwable e = replay.error;
+        Message rocketmqMsg = replay.message;
+        boolean recoverable = isRecoverable(e);
+        //broker不可用时一直重试；其他消息在此期间重放成功，说明不是broker整体不可用，按被拒绝计数
+        if(!recoverable || replayedCount.get() != replay.replayedCountAtSend){
+            replay.rejectedAttempts++;
+        }
+        if(recoverable){
+            brokerAvailable = false;
+        }
+        if(isIllegal(e) || replay.rejectedAttempts >= MAX_REJECTED_ATTEMPTS){
+            logger.error("replay outbox message failed {} times, drop it. offset:{}, topic:{}", replay.rejectedAttempts, replay.offset, rocketmqMsg.getTopic(), e);
+            droppedCount.incrementAndGet();
+            replay.state = Replay.DONE;
+            return;
+        }
+        //broker不可用时窗口中的每条消息都会反复失败，只在第一次失败时打印warn
+        if(++replay.failures == 1){
+            logger.warn("replay outbox message failed, retry later. offset:{}, topic:{}, error:{}", replay.offset, rocketmqMsg.getTopic(), e.getMessage());
+        }
+        else {
+            logger.debug("replay outbox message failed, retry later. offset:{}, topic:{}, failures:{}, error:{}", replay.offset, rocketmqMsg.getTopic(), replay.failures, e.getMessage());
+        }
+        replay.retryAtMillis = now + replayBackoffMillis;
+        replay.state = Replay.WAITING;
+    }
+
+    private static boolean isIllegal(Throwable e) {
+        return (e instanceof MQClientException && ((MQClientException) e).getResponseCode() == ResponseCode.MESSAGE_ILLEGAL)
+                || (e instanceof MQBrokerException && ((MQBrokerException) e).getResponseCode() == ResponseCode.MESSAGE_ILLEGAL);
+    }
+
+    /**
+     * 提交窗口头部连续完成的记录，segment结束时删除segment
+     * @return 是否提交了记录
+     */
+    private boolean commitCompleted() {
+        boolean committed = false;
+        while (!window.isEmpty() && window.peekFirst().state == Replay.DONE) {
+            Replay replay = window.pollFirst();
+            commit(replay.nextOffset);
+            if(replay.segmentToDelete >= 0){
+                deleteSegment(replay.segmentToDelete);
+            }
+            committed = true;
+        }
+        return committed;
+    }
+
+    private void signal() {
+        replayEvents.incrementAndGet();
+        synchronized (writeLock) {
+            writeLock.notifyAll();
+        }
+    }
+
+    /**
+     * 读取一条记录，CRC校验失败返回null
+     */
+    private Message readRecord(ByteBuffer segment, int position, int payloadLength) {
+        if(payloadLength < 0 || position + RECORD_HEADER_SIZE + payloadLength > segmentSize){
+            return null;
+        }
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position(position + 4);
+        int crc = buffer.getInt();
+        byte[] payload = new byte[payloadLength];
+        buffer.get(payload);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        if((int) crc32.getValue() != crc){
+            return null;
+        }
+
+        ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+        byte[] topic = new byte[payloadBuffer.getShort()];
+        payloadBuffer.get(topic);
+        byte[] properties = new byte[payloadBuffer.getInt()];
+        payloadBuffer.get(properties);
+        byte[] body = new byte[payloadBuffer.getInt()];
+        payloadBuffer.get(body);
+
+        Message rocketmqMsg = new Message(new String(topic, MessageDecoder.CHARSET_UTF8), body);
+        Map<String, String> propertyMap = MessageDecoder.string2messageProperties(new String(properties, MessageDecoder.CHARSET_UTF8));
+        for(Map.Entry<String, String> entry : propertyMap.entrySet()){
+            String name = entry.getKey();
+            if(MessageConst.PROPERTY_KEYS.equals(name)){
+                rocketmqMsg.setKeys(entry.getValue());
+            }
+            else if(MessageConst.PROPERTY_TAGS.equals(name)){
+                rocketmqMsg.setTags(entry.getValue());
+            }
+            else if(MessageConst.PROPERTY_WAIT_STORE_MSG_OK.equals(name)){
+                rocketmqMsg.setWaitStoreMsgOK(Boolean.parseBoolean(entry.getValue()));
+            }
+            else if(MessageConst.PROPERTY_DELAY_TIME_LEVEL.equals(name)){
+                rocketmqMsg.setDelayTimeLevel(Integer.parseInt(entry.getValue()));
+            }
+            else if(!MessageConst.systemKeySet.contains(name)){
+                rocketmqMsg.putUserProperty(name, entry.getValue());
+            }
+        }
+        return rocketmqMsg;
+    }
+
+
+    /**
+     * 启动时恢复读写位置
+     */
+    private void recover() throws IOException {
+        File checkpointFile = new File(dir, CHECKPOINT_FILE);
+        boolean exists = checkpointFile.exists();
+        checkpoint = map(checkpointFile, 8);
+        long checkpointOffset = exists ? checkpoint.getLong(0) : 0;
+
+        long[] offsets = listSegmentOffsets();
+        if(offsets.length == 0){
+            readOffset = writeOffset = checkpointOffset - checkpointOffset % segmentSize;
+            commit(readOffset);
+            return;
+        }
+
+        //checkpoint之前的segment已经重放完
+        for(long offset : offsets){
+            if(offset + segmentSize <= checkpointOffset){
+                deleteSegment(offset);
+            }
+        }
+        readOffset = Math.max(checkpointOffset, offsets[0]);
+
+        //扫描最后一个segment，找到最后一条完整的记录
+        long lastSegmentOffset = offsets[offsets.length - 1];
+        ByteBuffer buffer = segment(lastSegmentOffset, true);
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= segmentSize) {
+            int payloadLength = buffer.getInt(position);
+            if(payloadLength <= 0 || readRecord(buffer, position, payloadLength) == null){
+                break;
+            }
+            position += RECORD_HEADER_SIZE + payloadLength;
+        }
+        writeOffset = Math.max(lastSegmentOffset + position, readOffset);
+    }
+
+    private long[] listSegmentOffsets() {
+        File[] files = dir.listFiles();
+        if(files == null){
+            return new long[0];
+        }
+        long[] offsets = new long[files.length];
+        int count = 0;
+        for(File file : files){
+            if(file.getName().matches("\\d{20}")){
+                offsets[count++] = Long.parseLong(file.getName());
+            }
+        }
+        offsets = Arrays.copyOf(offsets, count);
+        Arrays.sort(offsets);
+        return offsets;
+    }
+
+    private MappedByteBuffer segment(long segmentOffset, boolean create) throws OutboxIOException {
+        MappedByteBuffer segment = segments.get(segmentOffset);
+        if(segment != null){
+            return segment;
+        }
+        synchronized (segments) {
+            segment = segments.get(segmentOffset);
+            if(segment == null){
+                File file = new File(dir, String.format("%020d", segmentOffset));
+                if(!create && !file.exists()){
+                    throw new OutboxIOException("outbox segment not found. " + file.getAbsolutePath(), null);
+                }
+                try {
+                    segment = map(file, segmentSize);
+                }
+                catch (IOException e) {
+                    throw new OutboxIOException("map outbox segment failed. " + file.getAbsolutePath(), e);
+                }
+                segments.put(segmentOffset, segment);
+            }
+            return segment;
+        }
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        finally {
+            randomAccessFile.close();  //关闭文件不影响已经映射的内存
+        }
+    }
+
+    private void deleteSegment(long segmentOffset) {
+        MappedByteBuffer segment = segments.remove(segmentOffset);
+        if(segment != null){
+            unmap(segment);
+        }
+        File file = new File(dir, String.format("%020d", segmentOffset));
+        if(file.exists() && !file.delete()){
+            logger.warn("delete outbox segment failed. {}", file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 解除segment的内存映射，否则要等到GC时才释放，Windows上也无法删除文件
+     * 解除后不能再访问该buffer，只用于已经重放完、不会再写入的segment
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = null;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);  //Java 9及以上
+            }
+            catch (NoSuchMethodException e) {
+                //Java 8
+            }
+            if(invokeCleaner != null){
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                return;
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if(cleaner != null){
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        }
+        catch (Throwable e) {
+            logger.warn("unmap outbox segment failed, it will be released by GC. error:{}", e.toString());
+        }
+    }
+
+    private void commit(long offset) {
+        readOffset = offset;
+        checkpoint.putLong(0, offset);
+    }
+
+    private void flush() {
+        for(MappedByteBuffer segment : segments.values()){
+            segment.force();
+        }
+        checkpoint.force();
+    }
+
+
+    /**
+     * 是否有未重放的消息
+     */
+    public boolean hasPending() {
+        return readOffset < writeOffset;
+    }
+    /** 未重放的字节数 */
+    public long getPendingBytes() {
+        return Math.max(writeOffset - readOffset, 0);
+    }
+    public long getAppendedCount() {
+        return appendedCount.get();
+    }
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+    public OutboxMode getMode() {
+        return mode;
+    }
+
+
+    /**
+     * 一条已读取的记录的重放状态
+     */
+    private static class Replay {
+        static final int SENDING = 0;
+        static final int DONE = 1;
+        static final int FAILED = 2;
+        static final int WAITING = 3;
+
+        final long offset;
+        final long nextOffset;
+        /** 为null时表示segment结束、记录损坏或已完成，不需要发送 */
+        Message message;
+        /** 提交后需要删除的segment，-1表示没有 */
+        final long segmentToDelete;
+
+        volatile int state;
+        volatile Throwable error;
+        long replayedCountAtSend;
+        int rejectedAttempts;
+        int failures;
+        long retryAtMillis;
+
+        Replay(long offset, long nextOffset, Message message, long segmentToDelete) {
+            this.offset = offset;
+            this.nextOffset = nextOffset;
+            this.message = message;
+            this.segmentToDelete = segmentToDelete;
+            this.state = message == null ? DONE : SENDING;
+        }
+    }
+
+    /**
+     * 发件箱文件读写失败
+     */
+    public static class OutboxIOException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OutboxIOException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
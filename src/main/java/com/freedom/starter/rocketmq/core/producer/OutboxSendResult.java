@@ -0,0 +1,26 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.producer.SendResult;
+
+/**
+ * 消息写入本地发件箱后返回的SendResult
+ * 此时消息还没有发送到broker，sendStatus、msgId、messageQueue均为null，由后台线程稍后重放
+ */
+public class OutboxSendResult extends SendResult {
+
+    /** 消息在发件箱中的位置 */
+    private final long outboxOffset;
+
+    public OutboxSendResult(long outboxOffset) {
+        this.outboxOffset = outboxOffset;
+    }
+
+    public long getOutboxOffset() {
+        return outboxOffset;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxSendResult [outboxOffset=" + outboxOffset + "]";
+    }
+}
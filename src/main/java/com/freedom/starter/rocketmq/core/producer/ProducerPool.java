@@ -0,0 +1,116 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.common.message.Message;
+import com.freedom.starter.rocketmq.core.route.TopicRouteSnapshot;
+import com.freedom.starter.rocketmq.enums.ProducerStripeStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 生产者池
+ * 池中每个DefaultMQProducer使用不同的instanceName，即各自独立的MQClientInstance和netty连接，
+ * 发送时按线程或key分散到不同的生产者上
+ */
+public class ProducerPool {
+    private static final Logger logger = LoggerFactory.getLogger(ProducerPool.class);
+
+    private final DefaultMQProducer[] producers;
+
+    /** 非顺序消息选择生产者的方式 */
+    private final ProducerStripeStrategy stripeStrategy;
+
+    /** topic路由快照，生产者启动前写入快照中的路由 */
+    private TopicRouteSnapshot topicRouteSnapshot;
+
+
+    public ProducerPool(List<DefaultMQProducer> producers, ProducerStripeStrategy stripeStrategy) {
+        if(producers==null || producers.isEmpty()){
+            throw new IllegalArgumentException("'producers' cannot be empty");
+        }
+        if(stripeStrategy == null){
+            throw new IllegalArgumentException("'stripeStrategy' cannot be null");
+        }
+        this.producers = producers.toArray(new DefaultMQProducer[producers.size()]);
+        this.stripeStrategy = stripeStrategy;
+    }
+
+
+    public TopicRouteSnapshot getTopicRouteSnapshot() {
+        return topicRouteSnapshot;
+    }
+    public void setTopicRouteSnapshot(TopicRouteSnapshot topicRouteSnapshot) {
+        this.topicRouteSnapshot = topicRouteSnapshot;
+    }
+
+
+    /**
+     * 启动池中所有生产者
+     * @throws MQClientException
+     */
+    public void start() throws MQClientException {
+        for(DefaultMQProducer producer : producers){
+            if(topicRouteSnapshot != null){
+                topicRouteSnapshot.seedProducer(producer);
+            }
+            producer.start();
+        }
+        logger.info("ProducerPool started, size:{}, stripeStrategy:{}", producers.length, stripeStrategy);
+    }
+
+    /**
+     * 关闭池中所有生产者
+     */
+    public void shutdown() {
+        for(DefaultMQProducer producer : producers){
+            producer.shutdown();
+        }
+    }
+
+    /**
+     * 为非顺序消息选择生产者
+     * @param rocketmqMsg  rocketmq message
+     * @return
+     */
+    public DefaultMQProducer select(Message rocketmqMsg) {
+        if(producers.length == 1){
+            return producers[0];
+        }
+        if(stripeStrategy == ProducerStripeStrategy.KEY){
+            String keys = rocketmqMsg.getKeys();
+            if(keys!=null && !"".equals(keys)){
+                return selectByKey(keys);
+            }
+        }
+        return producers[(int) (Thread.currentThread().getId() % producers.length)];
+    }
+
+    /**
+     * 按key选择生产者，同一个key始终选择同一个生产者
+     * @param key  顺序消息的selectQueueKey或其它用于分散的key
+     * @return
+     */
+    public DefaultMQProducer selectByKey(Object key) {
+        if(producers.length == 1){
+            return producers[0];
+        }
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);  //高位参与运算，避免只有低位不同的key集中在同一个生产者
+        return producers[(hash & Integer.MAX_VALUE) % producers.length];
+    }
+
+    public int size() {
+        return producers.length;
+    }
+
+    public DefaultMQProducer get(int index) {
+        return producers[index];
+    }
+
+    public ProducerStripeStrategy getStripeStrategy() {
+        return stripeStrategy;
+    }
+}
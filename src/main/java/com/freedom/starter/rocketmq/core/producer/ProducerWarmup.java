@@ -0,0 +1,198 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.impl.factory.MQClientInstance;
+import com.alibaba.rocketmq.client.impl.producer.TopicPublishInfo;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生产者启动和预热
+ * 启动生产者池后，为配置的topic提前从nameServer拉取路由，并向broker发送心跳建立连接，
+ * 避免发布后每个topic的第一次发送都要等待路由查询和建立连接
+ *
+ * 异步启动时，启动和预热在后台线程执行，不阻塞spring容器刷新，
+ * 启动完成前的发送会等待启动完成，最多等待发送超时时间
+ */
+public class ProducerWarmup {
+    private static final Logger logger = LoggerFactory.getLogger(ProducerWarmup.class);
+
+    private final ProducerPool producerPool;
+
+    /** 需要预热路由的topic */
+    private final List<String> topics;
+
+    /** 是否在后台线程启动 */
+    private final boolean async;
+
+    /** 生产者池启动完成，可以发送 */
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    /** 启动和预热都完成后设置 */
+    private final SettableListenableFuture<Void> readyFuture = new SettableListenableFuture<Void>();
+
+    /** 启动失败的原因 */
+    private volatile Throwable startFailure;
+
+    private volatile Thread startThread;
+
+
+    public ProducerWarmup(ProducerPool producerPool, List<String> topics, boolean async) {
+        if(producerPool == null){
+            throw new IllegalArgumentException("'producerPool' cannot be null");
+        }
+        this.producerPool = producerPool;
+        this.topics = topics != null ? new ArrayList<String>(topics) : Collections.<String>emptyList();
+        this.async = async;
+    }
+
+
+    /**
+     * 启动生产者池并预热，同步启动时启动失败直接抛出异常
+     * @throws Exception
+     */
+    public synchronized void start() throws Exception {
+        if(!async){
+            producerPool.start();
+            started.countDown();
+            prewarm();
+            return;
+        }
+
+        startThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    producerPool.start();
+                }
+                catch (Throwable e) {
+                    logger.error("start producer failed", e);
+                    startFailure = e;
+                    started.countDown();
+                    readyFuture.setException(e);
+                    return;
+                }
+                started.countDown();
+                prewarm();
+            }
+        }, "RocketMQProducerWarmup");
+        startThread.setDaemon(true);
+        startThread.start();
+    }
+
+    /**
+     * 停止还没完成的预热
+     */
+    public void shutdown() {
+        Thread thread = startThread;
+        if(thread != null && thread.isAlive()){
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * 等待生产者池启动完成
+     * @param timeoutMillis  最长等待时间，单位毫秒
+     * @throws MessagingException 等待超时、被中断或启动失败
+     */
+    public void awaitStarted(long timeoutMillis) {
+        if(started.getCount() > 0){
+            try {
+                if(!started.await(timeoutMillis, TimeUnit.MILLISECONDS)){
+                    throw new MessagingException("producer not started in " + timeoutMillis + " ms");
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("interrupted while waiting for producer start", e);
+            }
+        }
+        if(startFailure != null){
+            throw new MessagingException("producer start failed", startFailure);
+        }
+    }
+
+    /**
+     * 生产者池是否已启动
+     * @return
+     */
+    public boolean isStarted() {
+        return started.getCount() == 0 && startFailure == null;
+    }
+
+    /**
+     * 启动和预热是否都已完成
+     * @return
+     */
+    public boolean isReady() {
+        return readyFuture.isDone() && startFailure == null;
+    }
+
+    /**
+     * 启动失败的原因
+     * @return
+     */
+    public Throwable getStartFailure() {
+        return startFailure;
+    }
+
+    /**
+     * 启动和预热都完成后完成的Future，启动失败时以异常完成
+     * 个别topic预热失败不影响就绪，第一次发送时会重新查询路由
+     * @return
+     */
+    public ListenableFuture<Void> getReadyFuture() {
+        return readyFuture;
+    }
+
+    public List<String> getTopics() {
+        return Collections.unmodifiableList(topics);
+    }
+
+
+    /**
+     * 为每个生产者拉取topic路由，并向路由中的broker发送心跳建立连接
+     */
+    private void prewarm() {
+        long now = System.currentTimeMillis();
+        int warmed = 0;
+        try {
+            for(int i=0; i<producerPool.size() && !Thread.currentThread().isInterrupted(); i++){
+                DefaultMQProducer producer = producerPool.get(i);
+                MQClientInstance clientInstance = producer.getDefaultMQProducerImpl().getmQClientFactory();
+                for(String topic : topics){
+                    try {
+                        //更新路由时会同时更新生产者的TopicPublishInfo
+                        clientInstance.updateTopicRouteInfoFromNameServer(topic);
+                        TopicPublishInfo publishInfo = producer.getDefaultMQProducerImpl().getTopicPublishInfoTable().get(topic);
+                        if(publishInfo != null && publishInfo.ok()){
+                            warmed++;
+                        }
+                        else {
+                            logger.warn("prewarm topic route failed, route not found. topic:{}", topic);
+                        }
+                    }
+                    catch (Exception e) {
+                        logger.warn("prewarm topic route failed. topic:{}", topic, e);
+                    }
+                }
+                if(!topics.isEmpty()){
+                    clientInstance.sendHeartbeatToAllBrokerWithLock();  //建立到路由中各broker的连接
+                }
+            }
+        }
+        finally {
+            logger.info("producer warmup finished, topics:{}, warmed routes:{}, cost:{} ms", topics, warmed, System.currentTimeMillis() - now);
+            readyFuture.set(null);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.producer.SendResult;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+
+/**
+ * 返回Flux的流式发送，需要引入io.projectreactor:reactor-core
+ * 单独成类，避免RocketMQTemplate依赖Reactor
+ */
+public class ReactorSendSupport {
+
+    /**
+     * 流式发送，见RocketMQTemplate.sendMany()
+     * @param rocketMQTemplate  RocketMQTemplate
+     * @param topic             主题
+     * @param tag               标签
+     * @param messages          消息体的Publisher
+     * @return
+     */
+    public static <T> Flux<SendResult> sendMany(RocketMQTemplate rocketMQTemplate, String topic, String tag, Publisher<T> messages) {
+        return Flux.from(rocketMQTemplate.sendMany(topic, tag, messages));
+    }
+
+    /**
+     * 流式发送，见RocketMQTemplate.sendMany()
+     * @param rocketMQTemplate  RocketMQTemplate
+     * @param topic             主题
+     * @param tag               标签
+     * @param messages          消息体的Publisher
+     * @param maxInFlight       已向messages请求、还没有发给下游的最大消息数
+     * @param timeout           每条消息的发送超时时间，单位毫秒
+     * @return
+     */
+    public static <T> Flux<SendResult> sendMany(RocketMQTemplate rocketMQTemplate, String topic, String tag, Publisher<T> messages, int maxInFlight, long timeout) {
+        return Flux.from(rocketMQTemplate.sendMany(topic, tag, messages, maxInFlight, timeout));
+    }
+
+    private ReactorSendSupport() {
+    }
+}
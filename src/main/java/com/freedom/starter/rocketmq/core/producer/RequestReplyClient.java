@@ -0,0 +1,418 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
+import com.alibaba.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import com.alibaba.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import com.alibaba.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.consumer.ConsumeFromWhere;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
+import com.alibaba.rocketmq.remoting.common.RemotingUtil;
+import com.freedom.starter.rocketmq.core.codec.MessageCodec;
+import com.freedom.starter.rocketmq.core.codec.MessageCodecRegistry;
+import com.freedom.starter.rocketmq.core.compress.MessageCompressorRegistry;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求/应答的请求方
+ * 每个实例使用同一个应答topic下不同的tag接收应答，按tag在broker端过滤，
+ * broker按消费组的订阅过滤消息，同一消费组内各实例订阅不同tag时会互相覆盖，因此每个实例使用单独的集群消费组：消费组前缀_应答tag，
+ * 应答tag由实例标识生成，默认为客户端IP@进程号，重启后沿用原来的消费组和broker上的消费进度，不会在broker上不断新增订阅组；
+ * 关联id以启动时间为起点，重启前发出的请求的迟到应答不会匹配到新的请求
+ * 请求消息上记录应答topic、tag和关联id，应答方（RocketMQReplyListener）处理后按记录发送应答
+ *
+ * 等待中的请求按关联id分段保存在多个ConcurrentHashMap中，减少竞争；
+ * 超时使用时间轮检查，每个tick只检查一个槽位，注册和完成请求都不需要加锁
+ */
+public class RequestReplyClient {
+    private static final Logger logger = LoggerFactory.getLogger(RequestReplyClient.class);
+
+    /** 等待中请求的分段数，2的幂 */
+    private static final int STRIPES = 16;
+
+    /** 时间轮的槽位数，2的幂 */
+    private static final int WHEEL_SIZE = 512;
+
+    /** 时间轮每个tick的时长，单位毫秒 */
+    private static final long TICK_MILLIS = 10;
+
+    /** 应答consumer的消费线程数 */
+    private static final int CONSUME_THREAD_MIN = 4;
+    private static final int CONSUME_THREAD_MAX = 16;
+
+    private final String nameServer;
+
+    /** 应答consumer的消费组，每个实例单独一个 */
+    private final String consumerGroup;
+
+    /** 应答topic */
+    private final String replyTopic;
+
+    /** 当前实例的应答tag */
+    private final String replyTag;
+
+    /** 应答为String类型时使用的字符集 */
+    private final Charset charset;
+
+    /** 应答没有记录编解码器名称时使用的编解码器 */
+    private final MessageCodec messageCodec;
+
+    /** 关联id生成器，以启动时间为起点 */
+    private final AtomicLong correlationIds = new AtomicLong(System.currentTimeMillis() << 20);
+
+    /** 等待中的请求，按关联id分段 */
+    private final ConcurrentMap<Long, PendingReply<?>>[] stripes;
+
+    /** 时间轮的槽位，每个槽位保存deadline落在该槽位的请求 */
+    private final Queue<PendingReply<?>>[] wheel;
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicLong lateReplyCount = new AtomicLong();
+
+    private DefaultMQPushConsumer consumer;
+
+    private Thread ticker;
+
+    private volatile boolean running;
+
+
+    /**
+     * @param nameServer           name server地址
+     * @param consumerGroupPrefix  应答consumer消费组的前缀，实际消费组为：前缀_应答tag
+     * @param replyTopic           应答topic
+     * @param instanceId           实例标识，用于生成应答tag，同时运行的实例之间不能相同，为空时使用客户端IP@进程号
+     * @param charset              应答为String类型时使用的字符集
+     * @param messageCodec         应答没有记录编解码器名称时使用的编解码器
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RequestReplyClient(String nameServer, String consumerGroupPrefix, String replyTopic, String instanceId, Charset charset, MessageCodec messageCodec) {
+        if(replyTopic==null || "".equals(replyTopic)){
+            throw new IllegalArgumentException("'replyTopic' cannot be null");
+        }
+        if(consumerGroupPrefix==null || "".equals(consumerGroupPrefix)){
+            throw new IllegalArgumentException("'consumerGroupPrefix' cannot be null");
+        }
+        this.nameServer = nameServer;
+        this.replyTopic = replyTopic;
+        this.replyTag = "REPLY_" + toReplyTagPart(instanceId != null && !"".equals(instanceId.trim()) ? instanceId.trim() : defaultInstanceId());
+        this.consumerGroup = consumerGroupPrefix + "_" + replyTag;
+        this.charset = charset;
+        this.messageCodec = messageCodec;
+
+        this.stripes = new ConcurrentMap[STRIPES];
+        for(int i=0; i<STRIPES; i++){
+            stripes[i] = new ConcurrentHashMap<Long, PendingReply<?>>();
+        }
+        this.wheel = new Queue[WHEEL_SIZE];
+        for(int i=0; i<WHEEL_SIZE; i++){
+            wheel[i] = new ConcurrentLinkedQueue<PendingReply<?>>();
+        }
+    }
+
+    /**
+     * 默认的实例标识：客户端IP@进程号，与rocketmq客户端的clientId相同
+     */
+    static String defaultInstanceId() {
+        return RemotingUtil.getLocalAddress() + "@" + UtilAll.getPid();
+    }
+
+    /**
+     * 消费组名只允许字母、数字、_和-，其它字符替换为_
+     */
+    static String toReplyTagPart(String instanceId) {
+        StringBuilder builder = new StringBuilder(instanceId.length());
+        for(int i=0; i<instanceId.length(); i++){
+            char c = instanceId.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+            builder.append(valid ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    public String getReplyTopic() {
+        return replyTopic;
+    }
+    public String getReplyTag() {
+        return replyTag;
+    }
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+    /**
+     * 等待应答的请求数
+     * @return
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for(ConcurrentMap<Long, PendingReply<?>> stripe : stripes){
+            count += stripe.size();
+        }
+        return count;
+    }
+
+    /**
+     * 超时的请求数
+     * @return
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * 请求已超时后才收到的应答数
+     * @return
+     */
+    public long getLateReplyCount() {
+        return lateReplyCount.get();
+    }
+
+
+    /**
+     * 启动应答consumer和超时检查线程
+     * @throws MQClientException
+     */
+    public synchronized void start() throws MQClientException {
+        if(running){
+            return;
+        }
+        consumer = new DefaultMQPushConsumer(consumerGroup);
+        consumer.setNamesrvAddr(nameServer);
+        consumer.setMessageModel(MessageModel.CLUSTERING);  //消费组只有本实例，消费进度保存在broker上，重启后沿用
+        consumer.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET);
+        consumer.setConsumeThreadMin(CONSUME_THREAD_MIN);
+        consumer.setConsumeThreadMax(CONSUME_THREAD_MAX);
+        consumer.subscribe(replyTopic, replyTag);
+        consumer.setMessageListener(new MessageListenerConcurrently() {
+            @Override
+            public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
+                for(MessageExt messageExt : msgs){
+                    try {
+                        complete(messageExt);
+                    }
+                    catch (Throwable e) {
+                        logger.error("handle reply failed. msgId:{}", messageExt.getMsgId(), e);
+                    }
+                }
+                return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;  //应答只投递一次，处理失败时请求方超时
+            }
+        });
+        consumer.start();
+
+        running = true;
+        ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, "RocketMQReplyTimeout");
+        ticker.setDaemon(true);
+        ticker.start();
+
+        logger.info("RequestReplyClient started, replyTopic:{}, replyTag:{}, consumerGroup:{}", replyTopic, replyTag, consumerGroup);
+    }
+
+    /**
+     * 关闭，所有等待中的请求以失败结束
+     */
+    public synchronized void shutdown() {
+        if(!running){
+            return;
+        }
+        running = false;
+        ticker.interrupt();
+        consumer.shutdown();
+
+        MessagingException e = new MessagingException("RequestReplyClient already shutdown");
+        for(ConcurrentMap<Long, PendingReply<?>> stripe : stripes){
+            for(PendingReply<?> pending : stripe.values()){
+                if(stripe.remove(pending.correlationId, pending)){
+                    pending.future.setException(e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 注册一个等待应答的请求，并在请求消息上设置应答topic、tag和关联id
+     * @param request        请求消息
+     * @param replyType      应答消息类型
+     * @param timeoutMillis  等待应答的超时时间，单位毫秒
+     * @return
+     */
+    public <R> PendingReply<R> register(Message request, Class<R> replyType, long timeoutMillis) {
+        if(!running){
+            throw new IllegalStateException("RequestReplyClient not started");
+        }
+        long correlationId = correlationIds.incrementAndGet();
+        PendingReply<R> pending = new PendingReply<R>(correlationId, replyType, System.currentTimeMillis() + timeoutMillis);
+        stripe(correlationId).put(correlationId, pending);
+        schedule(pending);
+
+        request.putUserProperty(RocketMQMessageConst.PROPERTY_REPLY_TOPIC, replyTopic);
+        request.putUserProperty(RocketMQMessageConst.PROPERTY_REPLY_TAG, replyTag);
+        request.putUserProperty(RocketMQMessageConst.PROPERTY_CORRELATION_ID, String.valueOf(correlationId));
+        return pending;
+    }
+
+    /**
+     * 请求发送失败，结束等待
+     * @param pending  register()返回的请求
+     * @param e        失败原因
+     */
+    public void fail(PendingReply<?> pending, Throwable e) {
+        if(stripe(pending.correlationId).remove(pending.correlationId, pending)){
+            pending.future.setException(e);
+        }
+    }
+
+    /**
+     * 收到应答，按关联id找到等待中的请求并解码应答
+     */
+    private void complete(MessageExt reply) {
+        String correlationId = reply.getUserProperty(RocketMQMessageConst.PROPERTY_CORRELATION_ID);
+        if(correlationId == null){
+            return;
+        }
+        long id = Long.parseLong(correlationId);
+        PendingReply<?> pending = stripe(id).remove(id);
+        if(pending == null){
+            lateReplyCount.incrementAndGet();
+            logger.debug("no pending request for reply, maybe timeout. correlationId:{}, msgId:{}", id, reply.getMsgId());
+            return;
+        }
+
+        try {
+            MessageCompressorRegistry.decompress(reply);
+            String status = reply.getUserProperty(RocketMQMessageConst.PROPERTY_REPLY_STATUS);
+            if(RocketMQMessageConst.REPLY_STATUS_ERROR.equals(status)){
+                pending.future.setException(new MessagingException("reply failed: " + new String(reply.getBody(), charset)));
+            }
+            else if(RocketMQMessageConst.REPLY_STATUS_NULL.equals(status)){
+                pending.future.set(null);
+            }
+            else {
+                pending.setDecoded(decode(reply, pending.replyType));
+            }
+        }
+        catch (Exception e) {
+            pending.future.setException(new MessagingException("decode reply failed. msgId:" + reply.getMsgId(), e));
+        }
+    }
+
+    private Object decode(MessageExt reply, Class<?> replyType) {
+        if(replyType == MessageExt.class){
+            return reply;
+        }
+        else if(replyType == String.class){
+            return new String(reply.getBody(), charset);
+        }
+        String codecName = reply.getUserProperty(RocketMQMessageConst.PROPERTY_CODEC);
+        MessageCodec codec = codecName != null ? MessageCodecRegistry.get(codecName) : messageCodec;
+        return codec.decode(reply.getBody(), replyType);
+    }
+
+    /**
+     * 放入deadline所在的时间轮槽位
+     */
+    private void schedule(PendingReply<?> pending) {
+        long deadlineTick = pending.deadline / TICK_MILLIS;
+        wheel[(int) (deadlineTick & (WHEEL_SIZE - 1))].offer(pending);
+    }
+
+    /**
+     * 时间轮线程，每个tick检查当前槽位，已超时的请求以失败结束，还没到期的（deadline在之后的轮次）重新放回
+     */
+    private void tick() {
+        long currentTick = System.currentTimeMillis() / TICK_MILLIS;
+        while (running) {
+            long nowTick = System.currentTimeMillis() / TICK_MILLIS;
+            for(; currentTick <= nowTick; currentTick++){
+                expire(wheel[(int) (currentTick & (WHEEL_SIZE - 1))], currentTick);
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(TICK_MILLIS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void expire(Queue<PendingReply<?>> bucket, long currentTick) {
+        int size = bucket.size();
+        for(int i=0; i<size; i++){
+            PendingReply<?> pending = bucket.poll();
+            if(pending == null){
+                return;
+            }
+            if(pending.future.isDone()){
+                continue;
+            }
+            if(pending.deadline / TICK_MILLIS > currentTick){
+                bucket.offer(pending);  //deadline在之后的轮次
+                continue;
+            }
+            if(stripe(pending.correlationId).remove(pending.correlationId, pending)){
+                timeoutCount.incrementAndGet();
+                pending.future.setException(new MessagingException("wait for reply timeout. correlationId:" + pending.correlationId));
+            }
+        }
+    }
+
+    private ConcurrentMap<Long, PendingReply<?>> stripe(long correlationId) {
+        return stripes[(int) (correlationId & (STRIPES - 1))];
+    }
+
+
+    /**
+     * 一个等待应答的请求
+     */
+    public static class PendingReply<R> {
+        private final long correlationId;
+        private final Class<R> replyType;
+        private final long deadline;
+        private final SettableListenableFuture<R> future = new SettableListenableFuture<R>();
+
+        PendingReply(long correlationId, Class<R> replyType, long deadline) {
+            this.correlationId = correlationId;
+            this.replyType = replyType;
+            this.deadline = deadline;
+        }
+
+        @SuppressWarnings("unchecked")
+        void setDecoded(Object reply) {
+            future.set((R) reply);
+        }
+
+        public long getCorrelationId() {
+            return correlationId;
+        }
+
+        /**
+         * 应答的Future，超时或应答方处理失败时以MessagingException结束
+         * @return
+         */
+        public SettableListenableFuture<R> getFuture() {
+            return future;
+        }
+    }
+}
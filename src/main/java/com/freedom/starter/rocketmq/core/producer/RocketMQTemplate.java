@@ -1,21 +1,38 @@
 package com.freedom.starter.rocketmq.core.producer;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
 import com.alibaba.rocketmq.client.producer.MessageQueueSelector;
 import com.alibaba.rocketmq.client.producer.SendCallback;
 import com.alibaba.rocketmq.client.producer.SendResult;
 import com.alibaba.rocketmq.client.producer.selector.SelectMessageQueueByHash;
 import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.freedom.starter.rocketmq.core.codec.MessageCodec;
+import com.freedom.starter.rocketmq.core.codec.MessageCodecRegistry;
+import com.freedom.starter.rocketmq.core.compress.MessageCompressor;
+import com.freedom.starter.rocketmq.core.metrics.RocketMQSendMetrics;
+import com.freedom.starter.rocketmq.enums.ProducerStripeStrategy;
+import com.freedom.starter.rocketmq.enums.SendMode;
+import com.freedom.starter.rocketmq.message.MessageChunks;
 import com.freedom.starter.rocketmq.message.RocketMQHeader;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.messaging.MessagingException;
 import org.springframework.util.Assert;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
 
 import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 发送RocketMQ消息的模板类
@@ -26,12 +43,60 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
     /** 生产者，自动配置RocketMQTemplate时设置 */
     private DefaultMQProducer producer;
 
+    /** 生产者池，为空时只使用producer发送 */
+    private ProducerPool producerPool;
+
     /** 消息默认字符集 */
     private String charset = "UTF-8";
 
-    /** 默认队列选择器 */
+    /** 顺序消息默认队列选择器 */
     private MessageQueueSelector defalutMessageQueueSelector = new SelectMessageQueueByHash();
 
+    /** 非String类型消息的编解码器，默认json */
+    private MessageCodec messageCodec = MessageCodecRegistry.getDefault();
+
+    /** 非顺序消息按发送耗时选择队列，为空时使用rocketmq默认的轮询选择 */
+    private LatencyAwareMessageQueueSelector latencyAwareSelector;
+
+    /** 发送中消息的限制，为空时不限制 */
+    private InFlightLimiter inFlightLimiter;
+
+    /** 消息体压缩器，为空时不压缩 */
+    private MessageCompressor messageCompressor;
+
+    /** 消息体压缩阀值，单位byte，超过阀值时使用messageCompressor压缩 */
+    private int compressBodyOverHowmuch = 1024 * 4;
+
+    /** 生产者启动和topic路由预热，为空时在afterPropertiesSet中同步启动生产者池 */
+    private ProducerWarmup producerWarmup;
+
+    /** 发送指标，为空时不统计 */
+    private RocketMQSendMetrics sendMetrics;
+
+    /** 按topic的自适应发送速率限制，为空时不限制 */
+    private AdaptiveRateLimiter rateLimiter;
+
+    /** 本地发件箱，为空时发送失败直接抛出异常 */
+    private MessageOutbox messageOutbox;
+
+    /** 消息累加器，不为空时异步发送、One-way发送的消息会攒批后再发送 */
+    private MessageAccumulator messageAccumulator;
+
+    /** 大消息分片大小，单位byte，消息体超过该值时拆分成多条分片消息发送，0表示不分片 */
+    private int chunkSize = 0;
+
+    /** 非顺序消息的分片按分片组id选择队列，保证同一分片组发送到同一个队列 */
+    private final MessageQueueSelector chunkQueueSelector = new SelectMessageQueueByHash();
+
+    /** 请求/应答的请求方，为空时不能使用sendAndReceive() */
+    private RequestReplyClient requestReplyClient;
+
+    /** 对冲发送，不为空时开启了对冲的topic同步发送超过对冲延迟后向另一个broker再发送一次 */
+    private HedgedSender hedgedSender;
+
+    /** 流式发送sendMany()默认的最大未完成消息数 */
+    private int sendManyMaxInFlight = 256;
+
 
     public String getCharset() {
         return charset;
@@ -45,6 +110,102 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
     public void setProducer(DefaultMQProducer producer) {
         this.producer = producer;
     }
+    public MessageQueueSelector getDefaultMessageQueueSelector() {
+        return defalutMessageQueueSelector;
+    }
+    public void setDefaultMessageQueueSelector(MessageQueueSelector defaultMessageQueueSelector) {
+        this.defalutMessageQueueSelector = defaultMessageQueueSelector;
+    }
+    public ProducerPool getProducerPool() {
+        return producerPool;
+    }
+    public void setProducerPool(ProducerPool producerPool) {
+        this.producerPool = producerPool;
+    }
+    public MessageCodec getMessageCodec() {
+        return messageCodec;
+    }
+    public void setMessageCodec(MessageCodec messageCodec) {
+        this.messageCodec = messageCodec;
+    }
+    public LatencyAwareMessageQueueSelector getLatencyAwareSelector() {
+        return latencyAwareSelector;
+    }
+    public void setLatencyAwareSelector(LatencyAwareMessageQueueSelector latencyAwareSelector) {
+        this.latencyAwareSelector = latencyAwareSelector;
+    }
+    public InFlightLimiter getInFlightLimiter() {
+        return inFlightLimiter;
+    }
+    public void setInFlightLimiter(InFlightLimiter inFlightLimiter) {
+        this.inFlightLimiter = inFlightLimiter;
+    }
+    public MessageCompressor getMessageCompressor() {
+        return messageCompressor;
+    }
+    public void setMessageCompressor(MessageCompressor messageCompressor) {
+        this.messageCompressor = messageCompressor;
+    }
+    public int getCompressBodyOverHowmuch() {
+        return compressBodyOverHowmuch;
+    }
+    public void setCompressBodyOverHowmuch(int compressBodyOverHowmuch) {
+        this.compressBodyOverHowmuch = compressBodyOverHowmuch;
+    }
+    public ProducerWarmup getProducerWarmup() {
+        return producerWarmup;
+    }
+    public void setProducerWarmup(ProducerWarmup producerWarmup) {
+        this.producerWarmup = producerWarmup;
+    }
+    public RocketMQSendMetrics getSendMetrics() {
+        return sendMetrics;
+    }
+    public void setSendMetrics(RocketMQSendMetrics sendMetrics) {
+        this.sendMetrics = sendMetrics;
+    }
+    public AdaptiveRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+    public void setRateLimiter(AdaptiveRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+    public MessageOutbox getMessageOutbox() {
+        return messageOutbox;
+    }
+    public void setMessageOutbox(MessageOutbox messageOutbox) {
+        this.messageOutbox = messageOutbox;
+    }
+    public MessageAccumulator getMessageAccumulator() {
+        return messageAccumulator;
+    }
+    public void setMessageAccumulator(MessageAccumulator messageAccumulator) {
+        this.messageAccumulator = messageAccumulator;
+    }
+    public RequestReplyClient getRequestReplyClient() {
+        return requestReplyClient;
+    }
+    public void setRequestReplyClient(RequestReplyClient requestReplyClient) {
+        this.requestReplyClient = requestReplyClient;
+    }
+    public HedgedSender getHedgedSender() {
+        return hedgedSender;
+    }
+    public void setHedgedSender(HedgedSender hedgedSender) {
+        this.hedgedSender = hedgedSender;
+    }
+    public int getSendManyMaxInFlight() {
+        return sendManyMaxInFlight;
+    }
+    public void setSendManyMaxInFlight(int sendManyMaxInFlight) {
+        this.sendManyMaxInFlight = sendManyMaxInFlight;
+    }
+    public int getChunkSize() {
+        return chunkSize;
+    }
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
 
     /**
      * 实现InitializingBean接口的方法
@@ -55,7 +216,31 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
     @Override
     public void afterPropertiesSet() throws Exception {
         Assert.notNull(producer, "DefaultMQProducer can not null");
-        producer.start();
+
+        //没有设置生产者池时，只使用producer发送
+        if(producerPool == null){
+            producerPool = new ProducerPool(Collections.singletonList(producer), ProducerStripeStrategy.THREAD);
+        }
+        //异步启动时在后台线程启动生产者池，并预热topic路由
+        if(producerWarmup != null){
+            producerWarmup.start();
+        }
+        else {
+            producerPool.start();
+        }
+
+        if(messageOutbox != null){
+            messageOutbox.setProducerWarmup(producerWarmup);  //异步启动时，生产者启动完成后才开始重放
+            messageOutbox.start();
+        }
+
+        if(messageAccumulator != null){
+            messageAccumulator.start();
+        }
+
+        if(requestReplyClient != null){
+            requestReplyClient.start();
+        }
     }
 
     /**
@@ -65,7 +250,32 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
      */
     @Override
     public void destroy() throws Exception {
-        if(producer != null){
+        if(producerWarmup != null){
+            producerWarmup.shutdown();
+        }
+        if(requestReplyClient != null){
+            requestReplyClient.shutdown();
+        }
+        //先发送累加器中未发送的消息
+        if(messageAccumulator != null){
+            messageAccumulator.close();
+        }
+        if(messageOutbox != null){
+            messageOutbox.shutdown();
+        }
+        if(hedgedSender != null){
+            hedgedSender.shutdown();
+        }
+        if(latencyAwareSelector != null){
+            latencyAwareSelector.shutdown();
+        }
+        if(sendMetrics != null){
+            sendMetrics.close();
+        }
+        if(producerPool != null){
+            producerPool.shutdown();
+        }
+        else if(producer != null){
             producer.shutdown();
         }
     }
@@ -149,14 +359,57 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
             throw new IllegalArgumentException("'message' and 'message.body' cannot be null");
         }
 
+        //大消息拆分成分片，按分片组id发送到同一个队列
+        if(isOversized(rocketmqMsg)){
+            return sendChunks(rocketmqMsg, chunkQueueSelector, null, timeout, SendMode.SYNC);
+        }
+
+        awaitStarted(timeout);  //异步启动时等待生产者启动完成
+
+        //WRITE_AHEAD模式，或broker不可用且发件箱中还有未重放的消息，直接写入发件箱
+        if(messageOutbox != null && messageOutbox.shouldDivert()){
+            return storeInOutbox(rocketmqMsg);
+        }
+
+        //按topic限制发送速率，被拒绝的消息写入发件箱
+        if(rateLimiter != null){
+            try {
+                rateLimiter.acquire(topic, timeout);
+            }
+            catch (MessagingException e) {
+                if(messageOutbox != null){
+                    return storeInOutbox(rocketmqMsg);
+                }
+                throw e;
+            }
+        }
+
+        TopicHedgePolicy hedgePolicy = hedgedSender != null ? hedgedSender.get(topic) : null;
+        long startNanos = System.nanoTime();
         try {
-            long now = System.currentTimeMillis();
-            SendResult sendResult = producer.send(rocketmqMsg, timeout);
-            long costTime = System.currentTimeMillis() - now;
-            logger.debug("send message cost: {} ms, msgId:{}", costTime, sendResult.getMsgId());
+            SendResult sendResult;
+            //开启了对冲的topic，超过对冲延迟后向另一个broker再发送一次
+            if(hedgePolicy != null){
+                sendResult = hedgedSender.send(producerPool.select(rocketmqMsg), rocketmqMsg, hedgePolicy, timeout);
+            }
+            //按发送耗时选择队列，失败时换broker重试
+            else if(latencyAwareSelector != null){
+                sendResult = latencyAwareSelector.send(producerPool.select(rocketmqMsg), rocketmqMsg, timeout);
+            }
+            else {
+                sendResult = producerPool.select(rocketmqMsg).send(rocketmqMsg, timeout);
+            }
+            recordSuccess(rocketmqMsg, SendMode.SYNC, startNanos, sendResult);
+            logger.debug("send message cost: {} ms, msgId:{}", (System.nanoTime() - startNanos) / 1000000, sendResult.getMsgId());
             return sendResult;
         }
         catch (Exception e) {
+            recordFailure(rocketmqMsg, SendMode.SYNC, startNanos, e);
+            //broker不可用，写入发件箱，稍后重放
+            if(messageOutbox != null && messageOutbox.isRecoverable(e)){
+                logger.warn("syncSend failed, store in outbox. topic:{}, tag:{}, error:{}", topic, tag, e.getMessage());
+                return storeFailedInOutbox(rocketmqMsg);
+            }
             logger.error("syncSend failed. topic:{}, tag:{}, messageBody:{} ", topic, tag, rocketmqMsg.getBody());
             throw new MessagingException(e.getMessage(), e);
         }
@@ -303,14 +556,27 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
             messageQueueSelector = this.defalutMessageQueueSelector;
         }
 
+        //大消息拆分成分片，分片使用同一个selectQueueKey，发送到同一个队列
+        if(isOversized(rocketmqMsg)){
+            return sendChunks(rocketmqMsg, messageQueueSelector, selectQueueKey, timeout, SendMode.SYNC_ORDERLY);
+        }
+
+        awaitStarted(timeout);  //异步启动时等待生产者启动完成
+
+        //按topic限制发送速率
+        if(rateLimiter != null){
+            rateLimiter.acquire(topic, timeout);
+        }
+
+        long startNanos = System.nanoTime();
         try {
-            long now = System.currentTimeMillis();
-            SendResult sendResult = producer.send(rocketmqMsg, messageQueueSelector, selectQueueKey, timeout);
-            long costTime = System.currentTimeMillis() - now;
-            logger.debug("send message cost: {} ms, msgId:{}", costTime, sendResult.getMsgId());
+            SendResult sendResult = producerPool.selectByKey(selectQueueKey).send(rocketmqMsg, messageQueueSelector, selectQueueKey, timeout);
+            recordSuccess(rocketmqMsg, SendMode.SYNC_ORDERLY, startNanos, sendResult);
+            logger.debug("send message cost: {} ms, msgId:{}", (System.nanoTime() - startNanos) / 1000000, sendResult.getMsgId());
             return sendResult;
         }
         catch (Exception e) {
+            recordFailure(rocketmqMsg, SendMode.SYNC_ORDERLY, startNanos, e);
             logger.error("syncSendOrderly failed. topic:{}, tag:{}, messageBody:{} ", topic, tag, rocketmqMsg.getBody());
             throw new MessagingException(e.getMessage(), e);
         }
@@ -388,10 +654,85 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
             throw new IllegalArgumentException("'sendCallback' cannot be null");
         }
 
+        //大消息拆分成分片，按分片组id发送到同一个队列，前一个分片发送成功后再发送下一个
+        if(isOversized(rocketmqMsg)){
+            new ChunkSendCallback(rocketmqMsg, chunkQueueSelector, null, sendCallback, timeout, SendMode.ASYNC).start();
+            return;
+        }
+
+        awaitStarted(timeout);  //异步启动时等待生产者启动完成
+
+        //WRITE_AHEAD模式，或broker不可用且发件箱中还有未重放的消息，直接写入发件箱
+        SendCallback originalSendCallback = sendCallback;
+        if(messageOutbox != null){
+            if(messageOutbox.shouldDivert()){
+                sendCallback.onSuccess(storeInOutbox(rocketmqMsg));
+                return;
+            }
+            sendCallback = new OutboxSendCallback(rocketmqMsg, sendCallback);  //发送失败时写入发件箱
+        }
+
+        //按topic限制发送速率，被拒绝的消息写入发件箱
+        if(rateLimiter != null){
+            try {
+                rateLimiter.acquire(topic, timeout);
+            }
+            catch (MessagingException e) {
+                if(messageOutbox != null){
+                    originalSendCallback.onSuccess(storeInOutbox(rocketmqMsg));
+                    return;
+                }
+                throw e;
+            }
+        }
+
+        //获取发送中消息的许可，达到上限且策略为CALLER_RUNS时在当前线程同步发送
+        InFlightSendCallback inFlightSendCallback = null;
+        if(inFlightLimiter != null){
+            int bytes;
+            try {
+                bytes = inFlightLimiter.acquire(rocketmqMsg, timeout);
+            }
+            catch (MessagingException e) {
+                //被拒绝的消息写入发件箱
+                if(messageOutbox != null){
+                    originalSendCallback.onSuccess(storeInOutbox(rocketmqMsg));
+                    return;
+                }
+                throw e;
+            }
+            if(bytes == InFlightLimiter.CALLER_RUNS){
+                callerRunsSend(rocketmqMsg, null, null, withRecorder(sendCallback, rocketmqMsg, SendMode.ASYNC), timeout);
+                return;
+            }
+            sendCallback = inFlightSendCallback = new InFlightSendCallback(sendCallback, bytes);
+        }
+
+        long startNanos = System.nanoTime();
+        sendCallback = withRecorder(sendCallback, rocketmqMsg, SendMode.ASYNC);  //回调时记录发送指标、反馈限流器
         try {
-            producer.send(rocketmqMsg, sendCallback, timeout);
+            if(messageAccumulator != null){
+                messageAccumulator.append(rocketmqMsg, sendCallback, timeout);
+            }
+            //按发送耗时选择队列，回调时记录耗时，失败时换broker重试
+            else if(latencyAwareSelector != null){
+                latencyAwareSelector.send(producerPool.select(rocketmqMsg), rocketmqMsg, sendCallback, timeout);
+            }
+            else {
+                producerPool.select(rocketmqMsg).send(rocketmqMsg, sendCallback, timeout);
+            }
         }
         catch (Exception e) {
+            if(inFlightSendCallback != null){
+                inFlightSendCallback.release();
+            }
+            recordFailure(rocketmqMsg, SendMode.ASYNC, startNanos, e);
+            //broker不可用，写入发件箱，稍后重放
+            if(messageOutbox != null && messageOutbox.isRecoverable(e)){
+                logger.warn("asyncSend failed, store in outbox. topic:{}, tag:{}, error:{}", topic, tag, e.getMessage());
+                originalSendCallback.onSuccess(storeFailedInOutbox(rocketmqMsg));
+                return;
+            }
             logger.error("asyncSend failed. topic:{}, tag:{}, messageBody:{} ", topic, tag, rocketmqMsg.getBody());
             throw new MessagingException(e.getMessage(), e);
         }
@@ -400,6 +741,78 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
 
 
 
+    /**
+     * 异步发送消息，返回ListenableFuture
+     * @param topic          主题
+     * @param tag            标签
+     * @param message        消息体，Object类型
+     * @return
+     */
+    public ListenableFuture<SendResult> sendAsync(String topic, String tag, Object message) {
+        return sendAsync(topic, tag, message, null, producer.getSendMsgTimeout());
+    }
+
+    /**
+     * 异步发送消息，返回ListenableFuture
+     * @param topic          主题
+     * @param tag            标签
+     * @param message        消息体，Object类型
+     * @param timeout         消息发送超时时间，单位毫秒
+     * @return
+     */
+    public ListenableFuture<SendResult> sendAsync(String topic, String tag, Object message, long timeout) {
+        return sendAsync(topic, tag, message, null, timeout);
+    }
+
+    /**
+     * 异步发送消息，返回ListenableFuture
+     * @param topic          主题
+     * @param tag            标签
+     * @param message        消息体，Object类型
+     * @param header         消息头
+     * @return
+     */
+    public ListenableFuture<SendResult> sendAsync(String topic, String tag, Object message, RocketMQHeader header) {
+        return sendAsync(topic, tag, message, header, producer.getSendMsgTimeout());
+    }
+
+    /**
+     * 异步发送消息，返回ListenableFuture
+     * 发送中的消息达到上限时，按照InFlightRejectPolicy处理，FAIL或BLOCK超时时返回失败的Future
+     * @param topic          主题
+     * @param tag            标签
+     * @param message        消息体，Object类型
+     * @param header         消息头
+     * @param timeout         消息发送超时时间，单位毫秒
+     * @return
+     */
+    public ListenableFuture<SendResult> sendAsync(String topic, String tag, Object message, RocketMQHeader header, long timeout) {
+        Message rocketmqMsg = doConvert(topic, tag, message, header);
+        final SettableListenableFuture<SendResult> future = new SettableListenableFuture<SendResult>();
+
+        try {
+            asyncSend(topic, tag, rocketmqMsg, new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                    future.set(sendResult);
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                    future.setException(e);
+                }
+            }, timeout);
+        }
+        catch (MessagingException e) {
+            future.setException(e);
+        }
+
+        return future;
+    }
+
+
+
+
 
     /**
      * 异步发送顺序消息，使用默认的MessageQueueSelector
@@ -550,19 +963,429 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
             messageQueueSelector = this.defalutMessageQueueSelector;
         }
 
+        //大消息拆分成分片，分片使用同一个selectQueueKey，前一个分片发送成功后再发送下一个
+        if(isOversized(rocketmqMsg)){
+            new ChunkSendCallback(rocketmqMsg, messageQueueSelector, selectQueueKey, sendCallback, timeout, SendMode.ASYNC_ORDERLY).start();
+            return;
+        }
+
+        awaitStarted(timeout);  //异步启动时等待生产者启动完成
+
+        //按topic限制发送速率
+        if(rateLimiter != null){
+            rateLimiter.acquire(topic, timeout);
+        }
+
+        //获取发送中消息的许可，达到上限且策略为CALLER_RUNS时在当前线程同步发送
+        InFlightSendCallback inFlightSendCallback = null;
+        if(inFlightLimiter != null){
+            int bytes = inFlightLimiter.acquire(rocketmqMsg, timeout);
+            if(bytes == InFlightLimiter.CALLER_RUNS){
+                callerRunsSend(rocketmqMsg, messageQueueSelector, selectQueueKey, withRecorder(sendCallback, rocketmqMsg, SendMode.ASYNC_ORDERLY), timeout);
+                return;
+            }
+            sendCallback = inFlightSendCallback = new InFlightSendCallback(sendCallback, bytes);
+        }
+
+        long startNanos = System.nanoTime();
+        sendCallback = withRecorder(sendCallback, rocketmqMsg, SendMode.ASYNC_ORDERLY);  //回调时记录发送指标、反馈限流器
         try {
-            producer.send(rocketmqMsg, messageQueueSelector, selectQueueKey, sendCallback, timeout);
+            producerPool.selectByKey(selectQueueKey).send(rocketmqMsg, messageQueueSelector, selectQueueKey, sendCallback, timeout);
         }
         catch (Exception e) {
+            if(inFlightSendCallback != null){
+                inFlightSendCallback.release();
+            }
+            recordFailure(rocketmqMsg, SendMode.ASYNC_ORDERLY, startNanos, e);
             logger.error("asyncSendOrderly failed. topic:{}, tag:{}, messageBody:{} ", topic, tag, rocketmqMsg.getBody());
             throw new MessagingException(e.getMessage(), e);
         }
     }
 
+    /**
+     * 发送中的消息达到上限，在调用方线程同步发送，发送结束后在当前线程执行SendCallback
+     * @param rocketmqMsg           rocketmq message
+     * @param messageQueueSelector  队列选择器，非顺序消息为null
+     * @param selectQueueKey        用于选择队列的key，非顺序消息为null
+     * @param sendCallback          发送结束后的回调方法
+     * @param timeout               消息发送超时时间，单位毫秒
+     */
+    private void callerRunsSend(Message rocketmqMsg, MessageQueueSelector messageQueueSelector, String selectQueueKey, SendCallback sendCallback, long timeout) {
+        SendResult sendResult;
+        try {
+            if(messageQueueSelector != null){
+                sendResult = producerPool.selectByKey(selectQueueKey).send(rocketmqMsg, messageQueueSelector, selectQueueKey, timeout);
+            }
+            else {
+                sendResult = producerPool.select(rocketmqMsg).send(rocketmqMsg, timeout);
+            }
+        }
+        catch (Exception e) {
+            sendCallback.onException(e);
+            return;
+        }
+        sendCallback.onSuccess(sendResult);
+    }
+
+
+
+
+
+    /**
+     * 流式发送，订阅messages逐条异步发送，按messages的顺序发出SendResult
+     * 订阅返回的Publisher后才开始发送，有空闲容量时才向messages请求，最多sendManyMaxInFlight条未完成
+     * 开启攒批时，消息经过MessageAccumulator打包发送
+     * 有Reactor时可以使用Flux.from()转换，或者使用ReactorSendSupport.sendMany()
+     * @param topic      主题
+     * @param tag        标签
+     * @param messages   消息体的Publisher
+     * @return  发送结果的Publisher，任意一条发送失败时以onError结束
+     */
+    public <T> Publisher<SendResult> sendMany(String topic, String tag, Publisher<T> messages) {
+        return sendMany(topic, tag, messages, sendManyMaxInFlight, producer.getSendMsgTimeout());
+    }
+
+    /**
+     * 流式发送，订阅messages逐条异步发送，按messages的顺序发出SendResult
+     * @param topic        主题
+     * @param tag          标签
+     * @param messages     消息体的Publisher
+     * @param maxInFlight  已向messages请求、还没有发给下游的最大消息数
+     * @param timeout      每条消息的发送超时时间，单位毫秒
+     * @return  发送结果的Publisher，任意一条发送失败时以onError结束
+     */
+    public <T> Publisher<SendResult> sendMany(String topic, String tag, Publisher<T> messages, int maxInFlight, long timeout) {
+        return new SendManyPublisher<T>(this, topic, tag, messages, maxInFlight, timeout);
+    }
+
+
+
+
+    /**
+     * 发送请求并同步等待应答，应答由RocketMQReplyListener处理请求后自动发送
+     * @param topic      主题
+     * @param tag        标签
+     * @param request    请求消息体，Object类型
+     * @param replyType  应答消息类型，可以是String、MessageExt或编解码器支持的类型
+     * @param timeout    发送请求和等待应答的总超时时间，单位毫秒
+     * @return  应答，应答方返回null时为null
+     */
+    public <R> R sendAndReceive(String topic, String tag, Object request, Class<R> replyType, long timeout) {
+        ListenableFuture<R> future = sendAndReceiveAsync(topic, tag, request, replyType, timeout);
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof MessagingException){
+                throw (MessagingException) cause;
+            }
+            throw new MessagingException(cause.getMessage(), cause);
+        }
+        catch (TimeoutException e) {
+            throw new MessagingException("wait for reply timeout. topic:" + topic + ", tag:" + tag, e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("wait for reply interrupted", e);
+        }
+    }
+
+    /**
+     * 发送请求，返回应答的ListenableFuture
+     * 超时或应答方处理失败时Future以MessagingException结束
+     * @param topic      主题
+     * @param tag        标签
+     * @param request    请求消息体，Object类型
+     * @param replyType  应答消息类型，可以是String、MessageExt或编解码器支持的类型
+     * @param timeout    发送请求和等待应答的总超时时间，单位毫秒
+     * @return
+     */
+    public <R> ListenableFuture<R> sendAndReceiveAsync(String topic, String tag, Object request, Class<R> replyType, long timeout) {
+        if(requestReplyClient == null){
+            throw new IllegalStateException("request/reply is not enabled, set [spring.rocketmq.producer.reply-enabled] to true");
+        }
+        if(topic==null || "".equals(topic)){
+            throw new IllegalArgumentException("'topic' cannot be null");
+        }
+        if(replyType == null){
+            throw new IllegalArgumentException("'replyType' cannot be null");
+        }
+
+        Message rocketmqMsg = doConvert(topic, tag, request, null);
+        awaitStarted(timeout);  //异步启动时等待生产者启动完成
+
+        final RequestReplyClient.PendingReply<R> pending = requestReplyClient.register(rocketmqMsg, replyType, timeout);
+        //请求不经过发件箱和累加器，发送失败时立即结束等待；分片、限流和发送中消息许可与asyncSend()相同
+        SendCallback sendCallback = new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                requestReplyClient.fail(pending, e instanceof MessagingException ? e : new MessagingException(e.getMessage(), e));
+            }
+        };
+
+        //大消息拆分成分片，整个分片组获取一次限流、发送中消息许可
+        if(isOversized(rocketmqMsg)){
+            try {
+                new ChunkSendCallback(rocketmqMsg, chunkQueueSelector, null, sendCallback, timeout, SendMode.ASYNC).start();
+            }
+            catch (MessagingException e) {
+                requestReplyClient.fail(pending, e);
+            }
+            return pending.getFuture();
+        }
+
+        InFlightSendCallback inFlightSendCallback = null;
+        try {
+            if(rateLimiter != null){
+                rateLimiter.acquire(topic, timeout);
+            }
+            if(inFlightLimiter != null){
+                int bytes = inFlightLimiter.acquire(rocketmqMsg, timeout);
+                if(bytes == InFlightLimiter.CALLER_RUNS){
+                    callerRunsSend(rocketmqMsg, null, null, withRecorder(sendCallback, rocketmqMsg, SendMode.ASYNC), timeout);
+                    return pending.getFuture();
+                }
+                sendCallback = inFlightSendCallback = new InFlightSendCallback(sendCallback, bytes);
+            }
+        }
+        catch (MessagingException e) {
+            requestReplyClient.fail(pending, e);
+            return pending.getFuture();
+        }
+
+        long startNanos = System.nanoTime();
+        sendCallback = withRecorder(sendCallback, rocketmqMsg, SendMode.ASYNC);
+        try {
+            producerPool.select(rocketmqMsg).send(rocketmqMsg, sendCallback, timeout);
+        }
+        catch (Exception e) {
+            if(inFlightSendCallback != null){
+                inFlightSendCallback.release();
+            }
+            recordFailure(rocketmqMsg, SendMode.ASYNC, startNanos, e);
+            requestReplyClient.fail(pending, new MessagingException(e.getMessage(), e));
+        }
+        return pending.getFuture();
+    }
+
+    /**
+     * 向请求方发送应答，由DefaultRocketMQListenerContainer在RocketMQReplyListener处理请求后调用
+     * 应答异步发送，发送失败只记录日志，请求方等待超时
+     * @param request  请求消息
+     * @param reply    应答消息体，可以为null
+     * @param error    应答方处理失败的异常，不为null时发送失败应答
+     * @return  请求是否需要应答，不是通过sendAndReceive()发送的请求返回false
+     */
+    public boolean reply(MessageExt request, Object reply, Throwable error) {
+        final String replyTopic = request.getUserProperty(RocketMQMessageConst.PROPERTY_REPLY_TOPIC);
+        String correlationId = request.getUserProperty(RocketMQMessageConst.PROPERTY_CORRELATION_ID);
+        if(replyTopic == null || correlationId == null){
+            return false;
+        }
+        String replyTag = request.getUserProperty(RocketMQMessageConst.PROPERTY_REPLY_TAG);
+
+        Message replyMsg;
+        if(error != null){
+            String errorMessage = error.getClass().getName() + ": " + error.getMessage();
+            replyMsg = new Message(replyTopic, replyTag, errorMessage.getBytes(Charset.forName(charset)));
+            replyMsg.putUserProperty(RocketMQMessageConst.PROPERTY_REPLY_STATUS, RocketMQMessageConst.REPLY_STATUS_ERROR);
+        }
+        else if(reply == null){
+            replyMsg = new Message(replyTopic, replyTag, new byte[]{0});  //rocketmq不允许空消息体
+            replyMsg.putUserProperty(RocketMQMessageConst.PROPERTY_REPLY_STATUS, RocketMQMessageConst.REPLY_STATUS_NULL);
+        }
+        else {
+            replyMsg = doConvert(replyTopic, replyTag, reply, null);
+            replyMsg.putUserProperty(RocketMQMessageConst.PROPERTY_REPLY_STATUS, RocketMQMessageConst.REPLY_STATUS_OK);
+        }
+        replyMsg.putUserProperty(RocketMQMessageConst.PROPERTY_CORRELATION_ID, correlationId);
+
+        final String requestMsgId = request.getMsgId();
+        try {
+            producerPool.select(replyMsg).send(replyMsg, new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                    logger.error("send reply failed. replyTopic:{}, requestMsgId:{}", replyTopic, requestMsgId, e);
+                }
+            }, producer.getSendMsgTimeout());
+        }
+        catch (Exception e) {
+            logger.error("send reply failed. replyTopic:{}, requestMsgId:{}", replyTopic, requestMsgId, e);
+        }
+        return true;
+    }
+
 
+    /**
+     * 异步启动时，等待生产者池启动完成
+     * @param timeout  最长等待时间，单位毫秒
+     */
+    private void awaitStarted(long timeout) {
+        if(producerWarmup != null){
+            producerWarmup.awaitStarted(timeout);
+        }
+    }
+
+    /**
+     * 生产者是否已启动，并完成topic路由预热
+     * @return
+     */
+    public boolean isReady() {
+        return producerWarmup == null || producerWarmup.isReady();
+    }
+
+    /**
+     * 开启发送指标或自适应限流时，包装SendCallback，回调时记录耗时和结果
+     * @param sendCallback  发送结束后的回调方法
+     * @param rocketmqMsg   rocketmq message
+     * @param mode          发送方式
+     * @return
+     */
+    private SendCallback withRecorder(SendCallback sendCallback, Message rocketmqMsg, SendMode mode) {
+        if(sendMetrics == null && rateLimiter == null){
+            return sendCallback;
+        }
+        return new RecordSendCallback(sendCallback, rocketmqMsg, mode, System.nanoTime());
+    }
+
+    /**
+     * 发送成功，记录发送指标，并反馈给限流器
+     * @param rocketmqMsg  rocketmq message
+     * @param mode         发送方式
+     * @param startNanos   开始发送时的System.nanoTime()
+     * @param sendResult   发送结果，One-way发送为null，不反馈给限流器
+     */
+    private void recordSuccess(Message rocketmqMsg, SendMode mode, long startNanos, SendResult sendResult) {
+        if(sendMetrics != null){
+            sendMetrics.recordSuccess(rocketmqMsg, mode, startNanos);
+        }
+        if(rateLimiter != null && sendResult != null){
+            rateLimiter.onSuccess(rocketmqMsg.getTopic(), sendResult, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 发送失败，记录发送指标，broker拥塞时限流器降低速率
+     * @param rocketmqMsg  rocketmq message
+     * @param mode         发送方式
+     * @param startNanos   开始发送时的System.nanoTime()
+     * @param e            失败原因
+     */
+    private void recordFailure(Message rocketmqMsg, SendMode mode, long startNanos, Throwable e) {
+        if(sendMetrics != null){
+            sendMetrics.recordFailure(rocketmqMsg, mode, startNanos, e);
+        }
+        if(rateLimiter != null){
+            rateLimiter.onException(rocketmqMsg.getTopic(), e);
+        }
+    }
+
+    /**
+     * 消息体是否超过分片大小
+     * @param rocketmqMsg  rocketmq message
+     * @return
+     */
+    private boolean isOversized(Message rocketmqMsg) {
+        return chunkSize > 0 && rocketmqMsg.getBody().length > chunkSize;
+    }
+
+    /**
+     * 拆分大消息，逐个同步发送分片
+     * 整个分片组只获取一次限流许可，分片之间不再等待
+     * @param rocketmqMsg           rocketmq message
+     * @param messageQueueSelector  队列选择器
+     * @param selectQueueKey        用于选择队列的key，为null时使用分片组id
+     * @param timeout               整个分片组的发送超时时间，单位毫秒，包括分片的重试
+     * @param sendMode              调用方的发送方式，用于记录发送指标
+     * @return  最后一个分片的发送结果
+     */
+    private SendResult sendChunks(Message rocketmqMsg, MessageQueueSelector messageQueueSelector, String selectQueueKey, long timeout, SendMode sendMode) {
+        List<Message> chunks = MessageChunks.split(rocketmqMsg, chunkSize);
+        String key = selectQueueKey != null ? selectQueueKey : MessageChunks.getGroup(chunks.get(0));
+        logger.debug("send message in {} chunks. topic:{}, size:{}", chunks.size(), rocketmqMsg.getTopic(), rocketmqMsg.getBody().length);
+
+        awaitStarted(timeout);  //异步启动时等待生产者启动完成
+        if(rateLimiter != null){
+            rateLimiter.acquire(rocketmqMsg.getTopic(), timeout);
+        }
+        return sendChunks(chunks, messageQueueSelector, key, System.currentTimeMillis() + timeout, sendMode);
+    }
+
+    /**
+     * 逐个同步发送分片，不获取限流许可
+     * @param deadline  整个分片组的发送截止时间
+     * @return  最后一个分片的发送结果
+     */
+    private SendResult sendChunks(List<Message> chunks, MessageQueueSelector messageQueueSelector, String selectQueueKey, long deadline, SendMode sendMode) {
+        DefaultMQProducer chunkProducer = producerPool.selectByKey(selectQueueKey);
+        SendResult sendResult = null;
+        for(Message chunk : chunks){
+            sendResult = sendChunk(chunkProducer, chunk, messageQueueSelector, selectQueueKey, deadline, sendMode);
+        }
+        return sendResult;
+    }
+
+    /**
+     * 同步发送一个分片
+     * 按队列选择器发送时rocketmq客户端只发送一次，失败时在这里向同一个队列重试retryTimesWhenSendFailed次，
+     * 换队列会使分片组分散到多个消费者，无法重组；超过分片组的截止时间后不再重试
+     */
+    private SendResult sendChunk(DefaultMQProducer chunkProducer, Message chunk, MessageQueueSelector messageQueueSelector, String selectQueueKey, long deadline, SendMode sendMode) {
+        int times = chunkProducer.getRetryTimesWhenSendFailed();
+        for(int i = 0; ; i++){
+            long startNanos = System.nanoTime();
+            try {
+                SendResult sendResult = chunkProducer.send(chunk, messageQueueSelector, selectQueueKey, LatencyAwareMessageQueueSelector.remaining(deadline));
+                recordSuccess(chunk, sendMode, startNanos, sendResult);
+                return sendResult;
+            }
+            catch (Exception e) {
+                recordFailure(chunk, sendMode, startNanos, e);
+                if(i < times && LatencyAwareMessageQueueSelector.isRetryable(e) && System.currentTimeMillis() < deadline){
+                    logger.warn("send chunk failed, retry. topic:{}, chunk:{}, times:{}, error:{}", chunk.getTopic(), describeChunk(chunk), i + 1, e.getMessage());
+                    continue;
+                }
+                logger.error("send chunk failed. topic:{}, chunk:{}", chunk.getTopic(), describeChunk(chunk));
+                throw new MessagingException(e.getMessage(), e);
+            }
+        }
+    }
 
+    /**
+     * 分片的日志描述，分片组id:序号/总数
+     */
+    private static String describeChunk(Message chunk) {
+        return MessageChunks.getGroup(chunk) + ":" + chunk.getProperty(RocketMQMessageConst.PROPERTY_CHUNK_INDEX)
+                + "/" + chunk.getProperty(RocketMQMessageConst.PROPERTY_CHUNK_TOTAL);
+    }
 
+    /**
+     * 消息写入本地发件箱
+     * @param rocketmqMsg  rocketmq message
+     * @return
+     */
+    private OutboxSendResult storeInOutbox(Message rocketmqMsg) {
+        return new OutboxSendResult(messageOutbox.append(rocketmqMsg));
+    }
 
+    /**
+     * broker不可用、发送失败的消息写入本地发件箱，之后的消息也直接写入发件箱，直到发件箱重放成功
+     * @param rocketmqMsg  rocketmq message
+     * @return
+     */
+    private OutboxSendResult storeFailedInOutbox(Message rocketmqMsg) {
+        messageOutbox.markUnavailable();
+        return storeInOutbox(rocketmqMsg);
+    }
 
 
     /**
@@ -574,18 +1397,35 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
      * @return
      */
     protected Message doConvert(String topic, String tag, Object message, RocketMQHeader header) {
-        String content;
+        byte[] messageBody;
+        String codecName = null;
 
         if (message instanceof String) {
-            content = (String) message;
+            messageBody = ((String) message).getBytes(Charset.forName(charset));
         }
-        //如果消息不是字符串类型，默认使用fastjson
+        //如果消息不是字符串类型，使用messageCodec直接编码为byte[]，并记录编解码器名称，消费端据此解码
         else {
-            content = JSON.toJSONString(message);
+            messageBody = messageCodec.encode(message);
+            codecName = messageCodec.getName();
+        }
+
+        //消息体超过阀值时压缩，压缩后没有变小则发送原消息体
+        String compressorName = null;
+        if(messageCompressor != null && messageBody.length > compressBodyOverHowmuch){
+            byte[] compressed = messageCompressor.compress(messageBody);
+            if(compressed.length < messageBody.length){
+                messageBody = compressed;
+                compressorName = messageCompressor.getName();
+            }
         }
 
-        byte[] messageBody = content.getBytes(Charset.forName(charset));
         Message rocketmqMsg = new Message(topic, tag, messageBody);
+        if(codecName != null){
+            rocketmqMsg.putUserProperty(RocketMQMessageConst.PROPERTY_CODEC, codecName);
+        }
+        if(compressorName != null){
+            rocketmqMsg.putUserProperty(RocketMQMessageConst.PROPERTY_COMPRESSION, compressorName);
+        }
 
         //如果RocketMQHeader不为空
         if(header != null){
@@ -629,13 +1469,300 @@ public class RocketMQTemplate /*extends AbstractMessageSendingTemplate<String>*/
             throw new IllegalArgumentException("'message' and 'message.body' cannot be null");
         }
 
+        //大消息拆分成分片，分片需要全部送达才能重组，改为同步发送
+        if(isOversized(rocketmqMsg)){
+            sendChunks(rocketmqMsg, chunkQueueSelector, null, producer.getSendMsgTimeout(), SendMode.ONEWAY);
+            return;
+        }
+
+        awaitStarted(producer.getSendMsgTimeout());  //异步启动时等待生产者启动完成
+
+        //WRITE_AHEAD模式，或broker不可用且发件箱中还有未重放的消息，直接写入发件箱
+        if(messageOutbox != null && messageOutbox.shouldDivert()){
+            storeInOutbox(rocketmqMsg);
+            return;
+        }
+
+        //按topic限制发送速率，被拒绝的消息写入发件箱
+        if(rateLimiter != null){
+            try {
+                rateLimiter.acquire(topic, producer.getSendMsgTimeout());
+            }
+            catch (MessagingException e) {
+                if(messageOutbox != null){
+                    storeInOutbox(rocketmqMsg);
+                    return;
+                }
+                throw e;
+            }
+        }
+
+        long startNanos = System.nanoTime();
         try {
-            producer.sendOneway(rocketmqMsg);
+            if(messageAccumulator != null){
+                messageAccumulator.append(rocketmqMsg, null, producer.getSendMsgTimeout());
+            }
+            else {
+                producerPool.select(rocketmqMsg).sendOneway(rocketmqMsg);
+            }
+            recordSuccess(rocketmqMsg, SendMode.ONEWAY, startNanos, null);
         }
         catch (Exception e) {
+            recordFailure(rocketmqMsg, SendMode.ONEWAY, startNanos, e);
+            //broker不可用，写入发件箱，稍后重放
+            if(messageOutbox != null && messageOutbox.isRecoverable(e)){
+                logger.warn("sendOneWay failed, store in outbox. topic:{}, tag:{}, error:{}", topic, tag, e.getMessage());
+                storeFailedInOutbox(rocketmqMsg);
+                return;
+            }
             logger.error("sendOneWay failed. topic:{}, tag:{}, messageBody:{} ", topic, tag, rocketmqMsg.getBody());
             throw new MessagingException(e.getMessage(), e);
         }
     }
 
+
+
+    /**
+     * 逐个异步发送分片的SendCallback，前一个分片发送成功后发送下一个，
+     * 最后一个分片发送成功后以它的SendResult回调，任一分片重试后仍失败时回调onException
+     * timeout是整个分片组的发送超时时间，获取许可后开始计算，各分片和重试使用剩余的时间
+     *
+     * 整个分片组在调用方线程获取一次启动等待、限流、发送中消息许可，之后的分片在rocketmq的回调线程中直接发送，
+     * 不经过可能阻塞的限流器，避免回调线程等待只有回调才能归还的许可而死锁；发送中消息许可在整组结束时归还
+     */
+    private class ChunkSendCallback implements SendCallback {
+        private final Message rocketmqMsg;
+        private final List<Message> chunks;
+        private final MessageQueueSelector messageQueueSelector;
+        private final String selectQueueKey;
+        private final SendCallback delegate;
+        private final long timeout;
+        private final SendMode sendMode;
+        private final DefaultMQProducer chunkProducer;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private volatile int next;
+        private volatile int attempts;
+        private volatile long startNanos;
+        private volatile long deadline;
+        private volatile int inFlightBytes = -1;
+
+        ChunkSendCallback(Message rocketmqMsg, MessageQueueSelector messageQueueSelector, String selectQueueKey, SendCallback delegate, long timeout, SendMode sendMode) {
+            this.rocketmqMsg = rocketmqMsg;
+            this.chunks = MessageChunks.split(rocketmqMsg, chunkSize);
+            this.messageQueueSelector = messageQueueSelector;
+            this.selectQueueKey = selectQueueKey != null ? selectQueueKey : MessageChunks.getGroup(chunks.get(0));
+            this.delegate = delegate;
+            this.timeout = timeout;
+            this.sendMode = sendMode;
+            this.chunkProducer = producerPool.selectByKey(this.selectQueueKey);
+        }
+
+        /**
+         * 获取整个分片组的许可，发送第一个分片，同步失败时直接抛出异常
+         * 发送中消息达到上限且策略为CALLER_RUNS时，在当前线程同步发送所有分片后回调
+         */
+        void start() {
+            logger.debug("send message in {} chunks. topic:{}, size:{}", chunks.size(), rocketmqMsg.getTopic(), rocketmqMsg.getBody().length);
+            awaitStarted(timeout);  //异步启动时等待生产者启动完成
+            if(rateLimiter != null){
+                rateLimiter.acquire(rocketmqMsg.getTopic(), timeout);
+            }
+            if(inFlightLimiter != null){
+                int bytes = inFlightLimiter.acquire(rocketmqMsg, timeout);
+                if(bytes == InFlightLimiter.CALLER_RUNS){
+                    deadline = System.currentTimeMillis() + timeout;
+                    callerRuns();
+                    return;
+                }
+                inFlightBytes = bytes;
+            }
+            deadline = System.currentTimeMillis() + timeout;
+
+            try {
+                send();
+            }
+            catch (Exception e) {
+                releaseInFlight();
+                throw new MessagingException(e.getMessage(), e);
+            }
+        }
+
+        private void callerRuns() {
+            SendResult sendResult;
+            try {
+                sendResult = sendChunks(chunks, messageQueueSelector, selectQueueKey, deadline, sendMode);
+            }
+            catch (MessagingException e) {
+                delegate.onException(e.getCause() != null ? e.getCause() : e);
+                return;
+            }
+            delegate.onSuccess(sendResult);
+        }
+
+        private void send() throws Exception {
+            startNanos = System.nanoTime();
+            chunkProducer.send(chunks.get(next), messageQueueSelector, selectQueueKey, this, LatencyAwareMessageQueueSelector.remaining(deadline));
+        }
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+            recordSuccess(chunks.get(next), sendMode, startNanos, sendResult);
+            if(next + 1 >= chunks.size()){
+                finish(sendResult, null);
+                return;
+            }
+            next++;
+            attempts = 0;
+            try {
+                send();
+            }
+            catch (Exception e) {
+                onException(e);
+            }
+        }
+
+        /**
+         * 分片发送失败，rocketmq客户端按队列选择器发送时不重试，在这里向同一个队列重试retryTimesWhenSendAsyncFailed次，
+         * 超过分片组的截止时间后不再重试
+         */
+        @Override
+        public void onException(Throwable e) {
+            Message chunk = chunks.get(next);
+            recordFailure(chunk, sendMode, startNanos, e);
+            while (attempts < chunkProducer.getRetryTimesWhenSendAsyncFailed() && LatencyAwareMessageQueueSelector.isRetryable(e)
+                    && System.currentTimeMillis() < deadline) {
+                attempts++;
+                logger.warn("send chunk failed, retry. topic:{}, chunk:{}, times:{}, error:{}", chunk.getTopic(), describeChunk(chunk), attempts, e.getMessage());
+                try {
+                    send();
+                    return;
+                }
+                catch (Exception sendException) {
+                    recordFailure(chunk, sendMode, startNanos, sendException);
+                    e = sendException;
+                }
+            }
+            logger.error("send chunk failed. topic:{}, chunk:{}", chunk.getTopic(), describeChunk(chunk));
+            finish(null, e);
+        }
+
+        private void finish(SendResult sendResult, Throwable e) {
+            if(!finished.compareAndSet(false, true)){
+                return;
+            }
+            releaseInFlight();
+            if(e != null){
+                delegate.onException(e);
+            }
+            else {
+                delegate.onSuccess(sendResult);
+            }
+        }
+
+        private void releaseInFlight() {
+            if(inFlightBytes >= 0){
+                inFlightLimiter.release(inFlightBytes);
+                inFlightBytes = -1;
+            }
+        }
+    }
+
+    /**
+     * 回调时归还发送中消息许可的SendCallback，许可只归还一次
+     */
+    private class InFlightSendCallback implements SendCallback {
+        private final SendCallback delegate;
+        private final int bytes;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        InFlightSendCallback(SendCallback delegate, int bytes) {
+            this.delegate = delegate;
+            this.bytes = bytes;
+        }
+
+        void release() {
+            if(released.compareAndSet(false, true)){
+                inFlightLimiter.release(bytes);
+            }
+        }
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+            release();
+            delegate.onSuccess(sendResult);
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            release();
+            delegate.onException(e);
+        }
+    }
+
+    /**
+     * 回调时记录发送指标、反馈限流器的SendCallback
+     */
+    private class RecordSendCallback implements SendCallback {
+        private final SendCallback delegate;
+        private final Message rocketmqMsg;
+        private final SendMode mode;
+        private final long startNanos;
+
+        RecordSendCallback(SendCallback delegate, Message rocketmqMsg, SendMode mode, long startNanos) {
+            this.delegate = delegate;
+            this.rocketmqMsg = rocketmqMsg;
+            this.mode = mode;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+            recordSuccess(rocketmqMsg, mode, startNanos, sendResult);
+            delegate.onSuccess(sendResult);
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            recordFailure(rocketmqMsg, mode, startNanos, e);
+            delegate.onException(e);
+        }
+    }
+
+    /**
+     * 发送失败时将消息写入发件箱的SendCallback，写入成功后以OutboxSendResult回调onSuccess
+     */
+    private class OutboxSendCallback implements SendCallback {
+        private final Message rocketmqMsg;
+        private final SendCallback delegate;
+
+        OutboxSendCallback(Message rocketmqMsg, SendCallback delegate) {
+            this.rocketmqMsg = rocketmqMsg;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+            delegate.onSuccess(sendResult);
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            if(messageOutbox.isRecoverable(e)){
+                OutboxSendResult outboxSendResult;
+                try {
+                    outboxSendResult = storeFailedInOutbox(rocketmqMsg);
+                }
+                catch (RuntimeException storeException) {
+                    logger.error("store message in outbox failed. topic:{}", rocketmqMsg.getTopic(), storeException);
+                    delegate.onException(e);
+                    return;
+                }
+                delegate.onSuccess(outboxSendResult);
+            }
+            else {
+                delegate.onException(e);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,294 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.messaging.MessagingException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式发送，由RocketMQTemplate.sendMany()创建
+ * 订阅上游的消息逐条异步发送，按上游顺序向下游发出SendResult
+ *
+ * 已向上游请求、还没有发给下游的消息（发送中的和发送完成等待下游请求的）不超过maxInFlight条，
+ * 有空闲容量时才向上游请求，下游处理慢时也会减慢上游，内存占用与消息总数无关
+ * 任意一条发送失败时，取消上游并向下游发出onError，之前的结果仍按顺序发出
+ *
+ * @param <T> 消息体类型
+ */
+public class SendManyPublisher<T> implements Publisher<SendResult> {
+
+    private final RocketMQTemplate rocketMQTemplate;
+    private final String topic;
+    private final String tag;
+    private final Publisher<T> messages;
+    private final int maxInFlight;
+    private final long timeout;
+
+
+    public SendManyPublisher(RocketMQTemplate rocketMQTemplate, String topic, String tag, Publisher<T> messages, int maxInFlight, long timeout) {
+        if(rocketMQTemplate == null){
+            throw new IllegalArgumentException("'rocketMQTemplate' cannot be null");
+        }
+        if(topic==null || "".equals(topic)){
+            throw new IllegalArgumentException("'topic' cannot be null");
+        }
+        if(messages == null){
+            throw new IllegalArgumentException("'messages' cannot be null");
+        }
+        if(maxInFlight <= 0){
+            throw new IllegalArgumentException("'maxInFlight' must be positive");
+        }
+        this.rocketMQTemplate = rocketMQTemplate;
+        this.topic = topic;
+        this.tag = tag;
+        this.messages = messages;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super SendResult> subscriber) {
+        if(subscriber == null){
+            throw new NullPointerException("'subscriber' cannot be null");
+        }
+        messages.subscribe(new SendManySubscription(subscriber));
+    }
+
+
+    /**
+     * 一次订阅，作为上游的Subscriber和下游的Subscription
+     * 向下游发出信号、向上游请求都在drain()中完成，由wip保证同一时间只有一个线程执行
+     */
+    private class SendManySubscription implements Subscriber<T>, Subscription {
+        private final Subscriber<? super SendResult> downstream;
+
+        /** 环形槽位，第seq条消息使用slots[seq % maxInFlight] */
+        private final Slot[] slots;
+
+        /** 向上游请求消息的批量，减少request()调用 */
+        private final int requestBatch;
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        /** 下游请求但还没有发出的结果数 */
+        private final AtomicLong requested = new AtomicLong();
+
+        private volatile Subscription upstream;
+
+        /** 已从上游收到的消息数 */
+        private volatile long received;
+
+        /** 已向下游发出的结果数 */
+        private volatile long emitted;
+
+        /** 已向上游请求的消息数，只在drain()中访问 */
+        private long upstreamRequested;
+
+        private volatile boolean upstreamDone;
+        private volatile Throwable upstreamError;
+        private volatile boolean cancelled;
+
+        /** 下游请求了非正数，按规范以onError结束 */
+        private volatile Throwable requestError;
+
+        SendManySubscription(Subscriber<? super SendResult> downstream) {
+            this.downstream = downstream;
+            this.slots = new Slot[maxInFlight];
+            for(int i = 0; i < maxInFlight; i++){
+                slots[i] = new Slot();
+            }
+            this.requestBatch = Math.max(1, maxInFlight / 4);
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            if(upstream != null){
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            downstream.onSubscribe(this);
+            drain();
+        }
+
+        @Override
+        public void onNext(T message) {
+            if(upstreamDone || cancelled){
+                return;
+            }
+            long seq = received;
+            if(seq - emitted >= maxInFlight){
+                upstream.cancel();
+                onError(new MessagingException("upstream sent more messages than requested. topic:" + topic));
+                return;
+            }
+            final Slot slot = slots[(int) (seq % maxInFlight)];
+            slot.reset();
+            received = seq + 1;
+
+            try {
+                rocketMQTemplate.asyncSend(topic, tag, message, new SendCallback() {
+                    @Override
+                    public void onSuccess(SendResult sendResult) {
+                        slot.complete(sendResult, null);
+                        drain();
+                    }
+
+                    @Override
+                    public void onException(Throwable e) {
+                        slot.complete(null, e);
+                        drain();
+                    }
+                }, timeout);
+            }
+            catch (Exception e) {
+                slot.complete(null, e);
+                drain();
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if(upstreamDone){
+                return;
+            }
+            upstreamError = e;
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0){
+                requestError = new IllegalArgumentException("request must be positive, but was " + n);
+                drain();
+                return;
+            }
+            while (true) {
+                long current = requested.get();
+                long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                if(requested.compareAndSet(current, next)){
+                    break;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if(cancelled){
+                return;
+            }
+            cancelled = true;
+            Subscription subscription = upstream;
+            if(subscription != null){
+                subscription.cancel();
+            }
+        }
+
+        private void drain() {
+            if(wip.getAndIncrement() != 0){
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                if(requestError != null && !cancelled){
+                    cancel();
+                    downstream.onError(requestError);
+                    return;
+                }
+                if(cancelled){
+                    return;
+                }
+
+                //按顺序发出已完成的结果
+                long e = emitted;
+                long r = requested.get();
+                long sent = 0;
+                while (sent != r && e != received) {
+                    Slot slot = slots[(int) (e % maxInFlight)];
+                    if(!slot.done){
+                        break;
+                    }
+                    if(slot.error != null){
+                        cancel();
+                        downstream.onError(slot.error);
+                        return;
+                    }
+                    SendResult sendResult = slot.result;
+                    slot.result = null;
+                    e++;
+                    emitted = e;
+                    sent++;
+                    downstream.onNext(sendResult);
+                    if(cancelled){
+                        return;
+                    }
+                }
+                if(sent != 0 && r != Long.MAX_VALUE){
+                    requested.addAndGet(-sent);
+                }
+
+                //上游结束且所有结果都已发出
+                if(upstreamDone && e == received){
+                    cancelled = true;
+                    Throwable error = upstreamError;
+                    if(error != null){
+                        downstream.onError(error);
+                    }
+                    else {
+                        downstream.onComplete();
+                    }
+                    return;
+                }
+
+                //有空闲容量时向上游请求
+                Subscription subscription = upstream;
+                if(subscription != null && !upstreamDone){
+                    long free = maxInFlight - (upstreamRequested - e);
+                    if(free >= requestBatch || (free > 0 && upstreamRequested == received)){
+                        upstreamRequested += free;
+                        subscription.request(free);
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+                if(missed == 0){
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一条消息的发送结果
+     */
+    private static class Slot {
+        private SendResult result;
+        private Throwable error;
+        private volatile boolean done;
+
+        void reset() {
+            result = null;
+            error = null;
+            done = false;
+        }
+
+        void complete(SendResult result, Throwable error) {
+            this.result = result;
+            this.error = error;
+            this.done = true;
+        }
+    }
+}
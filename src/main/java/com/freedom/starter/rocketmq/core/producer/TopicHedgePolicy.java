@@ -0,0 +1,208 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.freedom.starter.rocketmq.core.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 一个topic的对冲发送策略
+ * 发送超过对冲延迟仍未收到broker确认时，向另一个broker再发送一次，取先成功的结果
+ *
+ * 对冲延迟取最近一个统计窗口内发送耗时的percentile分位数，不低于minDelayMillis；
+ * 窗口内样本少于MIN_SAMPLES时不对冲。
+ * 对冲次数按令牌桶限制：每次发送增加maxHedgeRatio个令牌，每次对冲消耗1个，最多积累MAX_BURST个
+ */
+public class TopicHedgePolicy implements TopicHedgePolicyMXBean {
+
+    /** 计算对冲延迟需要的最少样本数 */
+    static final long MIN_SAMPLES = 100;
+
+    /** 对冲令牌最多积累的个数 */
+    private static final long MAX_BURST = 10;
+
+    /** 令牌的精度，1个令牌 = TOKEN_SCALE */
+    private static final long TOKEN_SCALE = 1000000;
+
+    private final String topic;
+
+    /** 触发对冲的发送耗时分位数，如0.95 */
+    private final double percentile;
+
+    /** 最小对冲延迟，单位纳秒 */
+    private final long minDelayNanos;
+
+    /** 每次发送增加的令牌，按TOKEN_SCALE放大 */
+    private final long tokensPerSend;
+
+    /** 统计窗口，单位纳秒 */
+    private final long windowNanos;
+
+    /** 当前窗口的发送耗时 */
+    private final AtomicReference<LatencyHistogram> current = new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+
+    /** 上一个窗口的发送耗时 */
+    private volatile LatencyHistogram previous;
+
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong tokens = new AtomicLong(MAX_BURST * TOKEN_SCALE);
+
+    private final AtomicLong sendCount = new AtomicLong();
+    private final AtomicLong hedgeFiredCount = new AtomicLong();
+    private final AtomicLong hedgeWonCount = new AtomicLong();
+    private final AtomicLong hedgeSkippedCount = new AtomicLong();
+
+
+    /**
+     * @param topic          主题
+     * @param percentile     触发对冲的发送耗时分位数，0-1之间
+     * @param minDelayMillis 最小对冲延迟，单位毫秒
+     * @param maxHedgeRatio  对冲次数占发送次数的最大比例，0-1之间
+     * @param windowMillis   发送耗时的统计窗口，单位毫秒
+     */
+    public TopicHedgePolicy(String topic, double percentile, long minDelayMillis, double maxHedgeRatio, long windowMillis) {
+        if(topic==null || "".equals(topic)){
+            throw new IllegalArgumentException("'topic' cannot be null");
+        }
+        if(percentile <= 0 || percentile >= 1){
+            throw new IllegalArgumentException("'percentile' must be in (0, 1)");
+        }
+        if(maxHedgeRatio <= 0 || maxHedgeRatio > 1){
+            throw new IllegalArgumentException("'maxHedgeRatio' must be in (0, 1]");
+        }
+        if(windowMillis <= 0){
+            throw new IllegalArgumentException("'windowMillis' must be positive");
+        }
+        this.topic = topic;
+        this.percentile = percentile;
+        this.minDelayNanos = minDelayMillis * 1000000L;
+        this.tokensPerSend = (long) (maxHedgeRatio * TOKEN_SCALE);
+        this.windowNanos = windowMillis * 1000000L;
+    }
+
+
+    /**
+     * 开始一次发送，增加对冲令牌
+     * @return  对冲延迟，单位纳秒，样本不足时返回-1，不对冲
+     */
+    long onSend() {
+        sendCount.incrementAndGet();
+        while (true) {
+            long available = tokens.get();
+            long next = Math.min(available + tokensPerSend, MAX_BURST * TOKEN_SCALE);
+            if(available == next || tokens.compareAndSet(available, next)){
+                break;
+            }
+        }
+        return getHedgeDelayNanos();
+    }
+
+    /**
+     * 获取一个对冲令牌
+     * @return  超过对冲比例时返回false
+     */
+    boolean tryAcquireHedge() {
+        while (true) {
+            long available = tokens.get();
+            if(available < TOKEN_SCALE){
+                hedgeSkippedCount.incrementAndGet();
+                return false;
+            }
+            if(tokens.compareAndSet(available, available - TOKEN_SCALE)){
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 记录一次成功发送的耗时，原发送和对冲发送都会记录
+     * @param costNanos
+     */
+    void recordLatency(long costNanos) {
+        rotateIfNecessary();
+        current.get().record(costNanos);
+    }
+
+    void onHedgeFired() {
+        hedgeFiredCount.incrementAndGet();
+    }
+
+    void onHedgeWon() {
+        hedgeWonCount.incrementAndGet();
+    }
+
+    void onHedgeSkipped() {
+        hedgeSkippedCount.incrementAndGet();
+    }
+
+    /**
+     * 对冲延迟，单位纳秒
+     * @return  样本不足时返回-1
+     */
+    long getHedgeDelayNanos() {
+        rotateIfNecessary();
+        LatencyHistogram histogram = previous;
+        if(histogram == null || histogram.getCount() < MIN_SAMPLES){
+            histogram = current.get();
+            if(histogram.getCount() < MIN_SAMPLES){
+                return -1;
+            }
+        }
+        return Math.max(histogram.getValueAtQuantile(percentile), minDelayNanos);
+    }
+
+    /**
+     * 统计窗口结束时，当前窗口成为上一个窗口
+     */
+    private void rotateIfNecessary() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if(now - start >= windowNanos && windowStart.compareAndSet(start, now)){
+            previous = current.getAndSet(new LatencyHistogram());
+        }
+    }
+
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public double getPercentile() {
+        return percentile;
+    }
+
+    @Override
+    public double getHedgeDelayMillis() {
+        long delayNanos = getHedgeDelayNanos();
+        return delayNanos < 0 ? -1 : delayNanos / 1000000D;
+    }
+
+    @Override
+    public long getSendCount() {
+        return sendCount.get();
+    }
+
+    @Override
+    public long getHedgeFiredCount() {
+        return hedgeFiredCount.get();
+    }
+
+    @Override
+    public long getHedgeWonCount() {
+        return hedgeWonCount.get();
+    }
+
+    @Override
+    public long getHedgeSkippedCount() {
+        return hedgeSkippedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "TopicHedgePolicy{topic=" + topic + ", percentile=" + percentile + ", hedgeDelayMillis=" + getHedgeDelayMillis()
+                + ", sendCount=" + sendCount + ", hedgeFiredCount=" + hedgeFiredCount + ", hedgeWonCount=" + hedgeWonCount + "}";
+    }
+}
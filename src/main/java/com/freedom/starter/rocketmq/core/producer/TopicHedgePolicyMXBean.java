@@ -0,0 +1,27 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+/**
+ * topic对冲发送策略的JMX接口
+ */
+public interface TopicHedgePolicyMXBean {
+
+    String getTopic();
+
+    /** 触发对冲的发送耗时分位数 */
+    double getPercentile();
+
+    /** 当前的对冲延迟，单位毫秒，样本不足时为-1 */
+    double getHedgeDelayMillis();
+
+    /** 对冲策略下的发送次数 */
+    long getSendCount();
+
+    /** 发出的对冲发送次数 */
+    long getHedgeFiredCount();
+
+    /** 对冲发送先于原发送成功的次数 */
+    long getHedgeWonCount();
+
+    /** 到达对冲延迟但因超过对冲比例或只有一个broker而没有对冲的次数 */
+    long getHedgeSkippedCount();
+}
@@ -0,0 +1,224 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.MessagingException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一个topic的AIMD（加性增、乘性减）发送速率限制
+ * broker返回SYSTEM_BUSY、刷盘超时或发送超时时，速率乘以decreaseFactor，
+ * 之后每秒内的发送耗时都低于latencyThresholdMillis时，速率增加increasePermits，直到maxPermitsPerSecond
+ *
+ * 许可按时间槽发放，无锁：每次发送预约下一个空闲时间槽，需要等待时在调用方线程park
+ */
+public class TopicRateLimiter implements TopicRateLimiterMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(TopicRateLimiter.class);
+
+    /** 两次增加速率的最小间隔 */
+    private static final long INCREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** 两次降低速率的最小间隔，避免同一波拥塞信号把速率连续降到最低 */
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /** 空闲时最多累积的许可，按时间计算 */
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String topic;
+
+    private final double maxPermitsPerSecond;
+
+    private final double minPermitsPerSecond;
+
+    private final double increasePermits;
+
+    private final double decreaseFactor;
+
+    private final long latencyThresholdNanos;
+
+    /** 当前速率，double以bit形式保存 */
+    private final AtomicLong permitsPerSecondBits;
+
+    /** 下一个空闲的时间槽 */
+    private final AtomicLong nextFreeNanos = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong lastIncreaseNanos;
+
+    private final AtomicLong lastDecreaseNanos;
+
+    /** 最近一个增加周期内是否出现过慢发送 */
+    private volatile boolean slowInPeriod;
+
+    private final AtomicLong throttledCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong decreaseCount = new AtomicLong();
+
+
+    /**
+     * @param topic                  主题
+     * @param maxPermitsPerSecond    最大发送速率，条/秒，也是初始速率
+     * @param minPermitsPerSecond    最小发送速率，条/秒
+     * @param increasePermits        每秒增加的速率
+     * @param decreaseFactor         降低速率时乘以的系数，0-1之间
+     * @param latencyThresholdMillis 发送耗时低于该值时才增加速率
+     */
+    public TopicRateLimiter(String topic, double maxPermitsPerSecond, double minPermitsPerSecond, double increasePermits,
+                            double decreaseFactor, long latencyThresholdMillis) {
+        if(topic==null || "".equals(topic)){
+            throw new IllegalArgumentException("'topic' cannot be null");
+        }
+        if(minPermitsPerSecond <= 0 || maxPermitsPerSecond < minPermitsPerSecond){
+            throw new IllegalArgumentException("'minPermitsPerSecond' must be positive and not greater than 'maxPermitsPerSecond'");
+        }
+        if(decreaseFactor <= 0 || decreaseFactor >= 1){
+            throw new IllegalArgumentException("'decreaseFactor' must be in (0, 1)");
+        }
+        this.topic = topic;
+        this.maxPermitsPerSecond = maxPermitsPerSecond;
+        this.minPermitsPerSecond = minPermitsPerSecond;
+        this.increasePermits = increasePermits;
+        this.decreaseFactor = decreaseFactor;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+        this.permitsPerSecondBits = new AtomicLong(Double.doubleToLongBits(maxPermitsPerSecond));
+
+        long now = System.nanoTime();
+        this.lastIncreaseNanos = new AtomicLong(now);
+        this.lastDecreaseNanos = new AtomicLong(now - DECREASE_COOLDOWN_NANOS);
+    }
+
+
+    /**
+     * 获取一个发送许可，需要等待时阻塞调用方线程
+     * @param timeoutMillis  最长等待时间，单位毫秒
+     * @throws MessagingException 需要等待的时间超过timeoutMillis，或等待时被中断
+     */
+    public void acquire(long timeoutMillis) {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / getPermitsPerSecond());
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        long now;
+        long slot;
+        while (true) {
+            now = System.nanoTime();
+            long next = nextFreeNanos.get();
+            slot = Math.max(next, now - MAX_BURST_NANOS);
+            if(slot - now > timeoutNanos){
+                rejectedCount.incrementAndGet();
+                throw new MessagingException("send rate of topic [" + topic + "] is limited to " + (long) getPermitsPerSecond() + " permits/s, wait timeout");
+            }
+            if(nextFreeNanos.compareAndSet(next, slot + intervalNanos)){
+                break;
+            }
+        }
+
+        if(slot > now){
+            throttledCount.incrementAndGet();
+            long waitNanos;
+            while ((waitNanos = slot - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, waitNanos);
+                if(Thread.interrupted()){
+                    Thread.currentThread().interrupt();
+                    throw new MessagingException("interrupted while waiting for send rate permit of topic [" + topic + "]");
+                }
+            }
+        }
+    }
+
+    /**
+     * 发送成功，按耗时决定是否增加速率
+     * @param costNanos  发送耗时，单位纳秒
+     */
+    public void onSuccess(long costNanos) {
+        if(costNanos > latencyThresholdNanos){
+            slowInPeriod = true;
+            return;
+        }
+
+        long now = System.nanoTime();
+        long last = lastIncreaseNanos.get();
+        if(now - last < INCREASE_INTERVAL_NANOS || !lastIncreaseNanos.compareAndSet(last, now)){
+            return;
+        }
+        //上个周期出现过慢发送，本周期不增加
+        if(slowInPeriod){
+            slowInPeriod = false;
+            return;
+        }
+        while (true) {
+            long current = permitsPerSecondBits.get();
+            double rate = Double.longBitsToDouble(current);
+            if(rate >= maxPermitsPerSecond){
+                return;
+            }
+            double next = Math.min(maxPermitsPerSecond, rate + increasePermits);
+            if(permitsPerSecondBits.compareAndSet(current, Double.doubleToLongBits(next))){
+                return;
+            }
+        }
+    }
+
+    /**
+     * broker繁忙、刷盘超时或发送超时，降低速率
+     */
+    public void onCongestion() {
+        long now = System.nanoTime();
+        long last = lastDecreaseNanos.get();
+        if(now - last < DECREASE_COOLDOWN_NANOS || !lastDecreaseNanos.compareAndSet(last, now)){
+            return;
+        }
+        lastIncreaseNanos.set(now);  //降低后至少一个周期内不增加
+
+        while (true) {
+            long current = permitsPerSecondBits.get();
+            double rate = Double.longBitsToDouble(current);
+            double next = Math.max(minPermitsPerSecond, rate * decreaseFactor);
+            if(permitsPerSecondBits.compareAndSet(current, Double.doubleToLongBits(next))){
+                decreaseCount.incrementAndGet();
+                if(next < rate){
+                    logger.warn("broker busy, decrease send rate of topic [{}] from {} to {} permits/s", topic, (long) rate, (long) next);
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public double getPermitsPerSecond() {
+        return Double.longBitsToDouble(permitsPerSecondBits.get());
+    }
+
+    @Override
+    public double getMaxPermitsPerSecond() {
+        return maxPermitsPerSecond;
+    }
+
+    @Override
+    public double getMinPermitsPerSecond() {
+        return minPermitsPerSecond;
+    }
+
+    @Override
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public long getDecreaseCount() {
+        return decreaseCount.get();
+    }
+}
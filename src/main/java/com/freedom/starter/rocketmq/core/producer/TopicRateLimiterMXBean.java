@@ -0,0 +1,25 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+/**
+ * topic发送速率限制的JMX接口
+ */
+public interface TopicRateLimiterMXBean {
+
+    String getTopic();
+
+    /** 当前允许的发送速率，条/秒 */
+    double getPermitsPerSecond();
+
+    double getMaxPermitsPerSecond();
+
+    double getMinPermitsPerSecond();
+
+    /** 因限流等待过的发送次数 */
+    long getThrottledCount();
+
+    /** 等待超过发送超时时间被拒绝的发送次数 */
+    long getRejectedCount();
+
+    /** 降低速率的次数 */
+    long getDecreaseCount();
+}
@@ -0,0 +1,440 @@
+package com.freedom.starter.rocketmq.core.route;
+
+import com.alibaba.rocketmq.client.ClientConfig;
+import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
+import com.alibaba.rocketmq.client.impl.MQClientManager;
+import com.alibaba.rocketmq.client.impl.consumer.RebalanceImpl;
+import com.alibaba.rocketmq.client.impl.factory.MQClientInstance;
+import com.alibaba.rocketmq.client.impl.producer.TopicPublishInfo;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
+import com.alibaba.rocketmq.common.protocol.route.BrokerData;
+import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * topic路由快照
+ * 定时把生产者、消费者使用的topic路由保存到本地文件，重启时在生产者、消费者启动前把快照中的路由和broker地址
+ * 写入MQClientInstance，不用等待nameServer即可发送和消费，之后由MQClientInstance定时从nameServer刷新路由
+ *
+ * 每条路由单独记录保存时间，超过maxAgeMillis的不再使用；
+ * 一直没有从nameServer刷新过的路由，保存时沿用原来的时间，不会因为反复保存而一直有效
+ *
+ * 文件格式（gzip）：
+ *   [MAGIC int][VERSION byte][路由条数 int]
+ *   [topic UTF][用途 byte][保存时间 long][路由json长度 int][路由json byte[]]  * 路由条数
+ */
+public class TopicRouteSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(TopicRouteSnapshot.class);
+
+    private static final int MAGIC = 0x524F5554;  //ROUT
+
+    private static final byte VERSION = 1;
+
+    /** 确认快照中的路由时请求nameServer的超时时间，单位毫秒 */
+    private static final long CONFIRM_TIMEOUT_MILLIS = 3000;
+
+    /** 生产者发送过的topic */
+    private static final byte USAGE_PUBLISH = 1;
+
+    /** 消费者订阅的topic */
+    private static final byte USAGE_SUBSCRIBE = 2;
+
+    private static final Field BROKER_ADDR_TABLE_FIELD = ReflectionUtils.findField(MQClientInstance.class, "brokerAddrTable");
+
+    static {
+        if(BROKER_ADDR_TABLE_FIELD != null){
+            ReflectionUtils.makeAccessible(BROKER_ADDR_TABLE_FIELD);
+        }
+    }
+
+    /** 快照文件 */
+    private final File file;
+
+    /** 快照中路由的最长有效时间，单位毫秒 */
+    private final long maxAgeMillis;
+
+    /** 定时保存的间隔，单位毫秒 */
+    private final long saveIntervalMillis;
+
+    /** 从文件加载的路由 */
+    private final ConcurrentMap<String, Entry> loaded = new ConcurrentHashMap<String, Entry>();
+
+    /** 写入MQClientInstance的快照路由，按对象判断路由是否已被nameServer刷新 */
+    private final Map<TopicRouteData, Entry> seeded = Collections.synchronizedMap(new IdentityHashMap<TopicRouteData, Entry>());
+
+    private final List<DefaultMQProducer> producers = new CopyOnWriteArrayList<DefaultMQProducer>();
+
+    private final List<DefaultMQPushConsumer> consumers = new CopyOnWriteArrayList<DefaultMQPushConsumer>();
+
+    private ScheduledExecutorService scheduler;
+
+
+    public TopicRouteSnapshot(String file, long maxAgeMillis, long saveIntervalMillis) {
+        if(file==null || "".equals(file)){
+            throw new IllegalArgumentException("'file' cannot be null");
+        }
+        if(saveIntervalMillis <= 0){
+            throw new IllegalArgumentException("'saveIntervalMillis' must be positive");
+        }
+        this.file = new File(file);
+        this.maxAgeMillis = maxAgeMillis;
+        this.saveIntervalMillis = saveIntervalMillis;
+    }
+
+
+    /**
+     * 加载快照文件，并开始定时保存
+     */
+    public synchronized void start() {
+        if(scheduler != null){
+            return;
+        }
+        load();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RocketMQTopicRouteSnapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        }, saveIntervalMillis, saveIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时保存，并保存一次
+     */
+    public synchronized void shutdown() {
+        if(scheduler != null){
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        save();
+    }
+
+
+    /**
+     * 在生产者启动前，把快照中生产者发送过的topic路由写入它的MQClientInstance和TopicPublishInfo
+     * @param producer  还未启动的生产者
+     */
+    public void seedProducer(DefaultMQProducer producer) {
+        producers.add(producer);
+        if(loaded.isEmpty()){
+            return;
+        }
+
+        MQClientInstance clientInstance = getClientInstance(producer);
+        int count = 0;
+        for(Entry entry : loaded.values()){
+            if((entry.usage & USAGE_PUBLISH) == 0 || isExpired(entry)){
+                continue;
+            }
+            TopicRouteData route = seedClientInstance(clientInstance, entry);
+            TopicPublishInfo publishInfo = MQClientInstance.topicRouteData2TopicPublishInfo(entry.topic, route);
+            publishInfo.setHaveTopicRouterInfo(true);
+            producer.getDefaultMQProducerImpl().updateTopicPublishInfo(entry.topic, publishInfo);
+            count++;
+        }
+        logger.info("seed producer with topic route snapshot, group:{}, topics:{}", producer.getProducerGroup(), count);
+    }
+
+    /**
+     * 在消费者启动前，把快照中已订阅topic（包括重试topic）的路由写入它的MQClientInstance和订阅的队列
+     * 需要在subscribe()之后调用
+     * @param consumer  还未启动的消费者
+     */
+    public void seedConsumer(DefaultMQPushConsumer consumer) {
+        consumers.add(consumer);
+        if(loaded.isEmpty()){
+            return;
+        }
+
+        MQClientInstance clientInstance = getClientInstance(consumer);
+        RebalanceImpl rebalanceImpl = consumer.getDefaultMQPushConsumerImpl().getRebalanceImpl();
+        Set<String> topics = new HashSet<String>(rebalanceImpl.getSubscriptionInner().keySet());
+        topics.add(MixAll.getRetryTopic(consumer.getConsumerGroup()));
+
+        int count = 0;
+        for(String topic : topics){
+            Entry entry = loaded.get(topic);
+            if(entry == null || (entry.usage & USAGE_SUBSCRIBE) == 0 || isExpired(entry)){
+                continue;
+            }
+            TopicRouteData route = seedClientInstance(clientInstance, entry);
+            rebalanceImpl.getTopicSubscribeInfoTable().put(topic, MQClientInstance.topicRouteData2TopicSubscribeInfo(topic, route));
+            count++;
+        }
+        logger.info("seed consumer with topic route snapshot, group:{}, topics:{}", consumer.getConsumerGroup(), count);
+    }
+
+    /**
+     * 保存快照
+     */
+    public void save() {
+        long now = System.currentTimeMillis();
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+
+        try {
+            for(DefaultMQProducer producer : producers){
+                MQClientInstance clientInstance = producer.getDefaultMQProducerImpl().getmQClientFactory();
+                if(clientInstance == null){
+                    continue;
+                }
+                for(String topic : producer.getDefaultMQProducerImpl().getTopicPublishInfoTable().keySet()){
+                    if(!MixAll.DEFAULT_TOPIC.equals(topic)){
+                        collect(entries, clientInstance, topic, USAGE_PUBLISH, now);
+                    }
+                }
+            }
+            for(DefaultMQPushConsumer consumer : consumers){
+                MQClientInstance clientInstance = consumer.getDefaultMQPushConsumerImpl().getmQClientFactory();
+                if(clientInstance == null){
+                    continue;
+                }
+                for(String topic : consumer.getDefaultMQPushConsumerImpl().getRebalanceImpl().getTopicSubscribeInfoTable().keySet()){
+                    collect(entries, clientInstance, topic, USAGE_SUBSCRIBE, now);
+                }
+            }
+            if(entries.isEmpty()){
+                return;
+            }
+            write(entries);
+        }
+        catch (Exception e) {
+            logger.warn("save topic route snapshot failed. file:{}", file, e);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 从文件加载的未过期路由的topic
+     * @return
+     */
+    public Set<String> getLoadedTopics() {
+        return Collections.unmodifiableSet(loaded.keySet());
+    }
+
+
+    private void collect(Map<String, Entry> entries, MQClientInstance clientInstance, String topic, byte usage, long now) {
+        TopicRouteData route = clientInstance.getTopicRouteTable().get(topic);
+        if(route == null){
+            return;
+        }
+        long savedTime = now;
+        Entry seededEntry = seeded.get(route);
+        if(seededEntry != null){
+            //还是快照中的路由，nameServer返回的路由没有变化时MQClientInstance不会替换路由对象，需要确认一次
+            if(confirm(clientInstance, topic)){
+                seeded.remove(route);
+            }
+            else {
+                savedTime = seededEntry.savedTime;  //nameServer不可用，沿用原来的时间
+            }
+        }
+
+        Entry entry = entries.get(topic);
+        if(entry == null){
+            entries.put(topic, new Entry(topic, usage, savedTime, route));
+        }
+        else {
+            entry.usage |= usage;
+        }
+    }
+
+    /**
+     * 确认nameServer是否能返回topic的路由
+     */
+    private static boolean confirm(MQClientInstance clientInstance, String topic) {
+        try {
+            return clientInstance.getMQClientAPIImpl().getTopicRouteInfoFromNameServer(topic, CONFIRM_TIMEOUT_MILLIS) != null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 把快照中的路由和broker地址写入MQClientInstance，已有的不覆盖
+     * @return  MQClientInstance中的路由
+     */
+    private TopicRouteData seedClientInstance(MQClientInstance clientInstance, Entry entry) {
+        TopicRouteData route = entry.route.cloneTopicRouteData();
+        TopicRouteData existing = clientInstance.getTopicRouteTable().putIfAbsent(entry.topic, route);
+        if(existing != null){
+            return existing;
+        }
+        seeded.put(route, entry);
+
+        if(BROKER_ADDR_TABLE_FIELD != null){
+            @SuppressWarnings("unchecked")
+            ConcurrentMap<String, HashMap<Long, String>> brokerAddrTable = (ConcurrentMap<String, HashMap<Long, String>>) ReflectionUtils.getField(BROKER_ADDR_TABLE_FIELD, clientInstance);
+            for(BrokerData brokerData : route.getBrokerDatas()){
+                brokerAddrTable.putIfAbsent(brokerData.getBrokerName(), new HashMap<Long, String>(brokerData.getBrokerAddrs()));
+            }
+        }
+        return route;
+    }
+
+    /**
+     * 获取客户端启动时会使用的MQClientInstance，与DefaultMQProducerImpl、DefaultMQPushConsumerImpl的start()中的逻辑一致
+     */
+    private static MQClientInstance getClientInstance(ClientConfig clientConfig) {
+        boolean broadcasting = clientConfig instanceof DefaultMQPushConsumer
+                && ((DefaultMQPushConsumer) clientConfig).getMessageModel() == MessageModel.BROADCASTING;
+        if(!broadcasting){
+            clientConfig.changeInstanceNameToPID();
+        }
+        return MQClientManager.getInstance().getAndCreateMQClientInstance(clientConfig);
+    }
+
+    private boolean isExpired(Entry entry) {
+        return maxAgeMillis > 0 && System.currentTimeMillis() - entry.savedTime > maxAgeMillis;
+    }
+
+    private void load() {
+        if(!file.exists()){
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)));
+            if(in.readInt() != MAGIC || in.readByte() != VERSION){
+                logger.warn("unknown topic route snapshot format, ignore it. file:{}", file);
+                return;
+            }
+            int count = in.readInt();
+            int expired = 0;
+            for(int i=0; i<count; i++){
+                String topic = in.readUTF();
+                byte usage = in.readByte();
+                long savedTime = in.readLong();
+                byte[] json = new byte[in.readInt()];
+                in.readFully(json);
+
+                Entry entry = new Entry(topic, usage, savedTime, RemotingSerializable.decode(json, TopicRouteData.class));
+                if(isExpired(entry)){
+                    expired++;
+                }
+                else {
+                    loaded.put(topic, entry);
+                }
+            }
+            logger.info("load topic route snapshot, file:{}, topics:{}, expired:{}", file, loaded.size(), expired);
+        }
+        catch (EOFException e) {
+            logger.warn("topic route snapshot truncated, ignore it. file:{}", file);
+            loaded.clear();
+        }
+        catch (Exception e) {
+            logger.warn("load topic route snapshot failed, ignore it. file:{}", file, e);
+            loaded.clear();
+        }
+        finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，避免进程退出时留下不完整的快照
+     */
+    private synchronized void write(Map<String, Entry> entries) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null && !dir.exists() && !dir.mkdirs()){
+            throw new IOException("create directory failed: " + dir);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for(Entry entry : entries.values()){
+                byte[] json = RemotingSerializable.encode(entry.route);
+                out.writeUTF(entry.topic);
+                out.writeByte(entry.usage);
+                out.writeLong(entry.savedTime);
+                out.writeInt(json.length);
+                out.write(json);
+            }
+        }
+        finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if(in != null){
+            try {
+                in.close();
+            }
+            catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+
+    /**
+     * 快照中的一条路由
+     */
+    private static class Entry {
+        private final String topic;
+        private byte usage;
+        private final long savedTime;
+        private final TopicRouteData route;
+
+        Entry(String topic, byte usage, long savedTime, TopicRouteData route) {
+            this.topic = topic;
+            this.usage = usage;
+            this.savedTime = savedTime;
+            this.route = route;
+        }
+    }
+}
@@ -29,5 +29,11 @@ public enum ConsumeMode {
     /**
      * 顺序接收消息
      */
-    ORDERLY
+    ORDERLY,
+
+    /**
+     * 按消息keys顺序接收消息，同一队列中keys不同的消息并行处理，keys相同的消息按顺序处理
+     * 并行度取决于consumeMessageBatchMaxSize和keyOrderedLanes，consumeMessageBatchMaxSize小于keyOrderedLanes时按keyOrderedLanes取
+     */
+    KEY_ORDERED
 }
@@ -0,0 +1,21 @@
+package com.freedom.starter.rocketmq.enums;
+
+/**
+ * 消费端去重的消息标识
+ */
+public enum DedupKey {
+    /**
+     * 不去重
+     */
+    NONE,
+
+    /**
+     * 按消息id去重，使用生产者生成的唯一id，生产者重试、消费重试时不变
+     */
+    MSG_ID,
+
+    /**
+     * 按消息keys去重，需要发送时通过RocketMQHeader设置业务唯一的keys，没有keys的消息按消息id去重
+     */
+    KEYS
+}
@@ -0,0 +1,21 @@
+package com.freedom.starter.rocketmq.enums;
+
+/**
+ * 异步发送中的消息达到上限时的处理策略
+ */
+public enum InFlightRejectPolicy {
+    /**
+     * 阻塞等待，最长等待消息发送超时时间，超时后发送失败
+     */
+    BLOCK,
+
+    /**
+     * 立即发送失败
+     */
+    FAIL,
+
+    /**
+     * 在调用方线程同步发送
+     */
+    CALLER_RUNS
+}
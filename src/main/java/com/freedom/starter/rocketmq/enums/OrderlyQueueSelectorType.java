@@ -0,0 +1,16 @@
+package com.freedom.starter.rocketmq.enums;
+
+/**
+ * 顺序消息默认的队列选择方式
+ */
+public enum OrderlyQueueSelectorType {
+    /**
+     * selectQueueKey的hashCode对队列数取模，即rocketmq的SelectMessageQueueByHash
+     */
+    HASH,
+
+    /**
+     * 一致性哈希（jump consistent hash），队列数变化时只有少量key会映射到新的队列，并统计热点key
+     */
+    CONSISTENT_HASH
+}
@@ -0,0 +1,16 @@
+package com.freedom.starter.rocketmq.enums;
+
+/**
+ * 本地发件箱模式
+ */
+public enum OutboxMode {
+    /**
+     * 发送失败或被拒绝的消息写入发件箱，发送失败后、发件箱重放成功前，后续消息也直接写入发件箱
+     */
+    FAILED,
+
+    /**
+     * 所有消息先写入发件箱，由后台线程发送
+     */
+    WRITE_AHEAD
+}
@@ -0,0 +1,17 @@
+package com.freedom.starter.rocketmq.enums;
+
+/**
+ * 生产者池中选择生产者的方式
+ * 顺序消息始终按selectQueueKey选择，保证同一个key使用同一个生产者
+ */
+public enum ProducerStripeStrategy {
+    /**
+     * 按发送线程选择
+     */
+    THREAD,
+
+    /**
+     * 按消息keys选择，没有keys时按发送线程选择
+     */
+    KEY
+}
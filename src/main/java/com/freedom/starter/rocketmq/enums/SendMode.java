@@ -0,0 +1,32 @@
+package com.freedom.starter.rocketmq.enums;
+
+/**
+ * 消息发送方式，用于发送指标的统计维度
+ */
+public enum SendMode {
+
+    /**
+     * 同步发送
+     */
+    SYNC,
+
+    /**
+     * 异步发送
+     */
+    ASYNC,
+
+    /**
+     * 单向发送，耗时只包含写入网络的时间
+     */
+    ONEWAY,
+
+    /**
+     * 同步发送顺序消息
+     */
+    SYNC_ORDERLY,
+
+    /**
+     * 异步发送顺序消息
+     */
+    ASYNC_ORDERLY
+}
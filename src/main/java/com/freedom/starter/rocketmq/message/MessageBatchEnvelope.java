@@ -0,0 +1,186 @@
+package com.freedom.starter.rocketmq.message;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 批量消息信封
+ * 将同一topic、tag下的多条消息打包成一条rocketmq message发送，消费端再拆包还原
+ *
+ * 消息体格式：
+ *   [消息条数 int]
+ *   [属性长度 int][属性 byte[]][消息体长度 int][消息体 byte[]]  * 消息条数
+ */
+public class MessageBatchEnvelope {
+
+    /** 信封消息体中消息条数占用的字节数 */
+    public static final int HEADER_SIZE = 4;
+
+    private MessageBatchEnvelope() {
+    }
+
+    /**
+     * 一条消息打包后在信封消息体中占用的字节数，包括属性和长度字段
+     * @param message
+     * @return
+     */
+    public static int encodedSize(Message message) {
+        return 8 + propertiesBytes(message).length + message.getBody().length;
+    }
+
+    private static byte[] propertiesBytes(Message message) {
+        return MessageDecoder.messageProperties2String(message.getProperties()).getBytes(MessageDecoder.CHARSET_UTF8);
+    }
+
+    /**
+     * 将多条消息打包成一条
+     * @param topic     主题
+     * @param tag       标签
+     * @param messages  需要打包的消息，topic、tag需要和参数一致
+     * @return
+     */
+    public static Message pack(String topic, String tag, List<Message> messages) {
+        List<byte[]> properties = new ArrayList<byte[]>(messages.size());
+        Set<String> keys = new LinkedHashSet<String>();
+        boolean waitStoreMsgOK = false;
+        int length = HEADER_SIZE;
+
+        for(Message message : messages){
+            byte[] propertiesBytes = propertiesBytes(message);
+            properties.add(propertiesBytes);
+            length += 8 + propertiesBytes.length + message.getBody().length;
+
+            String messageKeys = message.getKeys();
+            if(messageKeys!=null && !"".equals(messageKeys)){
+                for(String key : messageKeys.split(MessageConst.KEY_SEPARATOR)){
+                    if(!"".equals(key)){
+                        keys.add(key);
+                    }
+                }
+            }
+            waitStoreMsgOK = waitStoreMsgOK || message.isWaitStoreMsgOK();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(messages.size());
+        for(int i=0; i<messages.size(); i++){
+            byte[] propertiesBytes = properties.get(i);
+            byte[] body = messages.get(i).getBody();
+            buffer.putInt(propertiesBytes.length);
+            buffer.put(propertiesBytes);
+            buffer.putInt(body.length);
+            buffer.put(body);
+        }
+
+        Message envelope = new Message(topic, tag, buffer.array());
+        if(!keys.isEmpty()){
+            envelope.setKeys(keys);  //所有消息的keys合并到信封上，保证按key查询消息仍然可用
+        }
+        envelope.setWaitStoreMsgOK(waitStoreMsgOK);
+        envelope.putUserProperty(RocketMQMessageConst.PROPERTY_BATCH, String.valueOf(messages.size()));
+
+        return envelope;
+    }
+
+    /**
+     * 是否是批量消息信封
+     * @param message
+     * @return
+     */
+    public static boolean isEnvelope(Message message) {
+        return message.getProperty(RocketMQMessageConst.PROPERTY_BATCH) != null;
+    }
+
+    /**
+     * 拆包，如果没有批量消息信封，直接返回原列表
+     * @param msgs  consumer拉取到的消息
+     * @return
+     */
+    public static List<MessageExt> unpack(List<MessageExt> msgs) {
+        boolean hasEnvelope = false;
+        for(MessageExt messageExt : msgs){
+            if(isEnvelope(messageExt)){
+                hasEnvelope = true;
+                break;
+            }
+        }
+        if(!hasEnvelope){
+            return msgs;
+        }
+
+        List<MessageExt> result = new ArrayList<MessageExt>();
+        for(MessageExt messageExt : msgs){
+            if(isEnvelope(messageExt)){
+                result.addAll(unpack(messageExt));
+            }
+            else {
+                result.add(messageExt);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 拆包单条批量消息信封，拆出的消息沿用信封的msgId、队列、offset、重试次数等系统信息
+     * @param envelope
+     * @return
+     */
+    public static List<MessageExt> unpack(MessageExt envelope) {
+        ByteBuffer buffer = ByteBuffer.wrap(envelope.getBody());
+        int size = buffer.getInt();
+        List<MessageExt> result = new ArrayList<MessageExt>(size);
+
+        for(int i=0; i<size; i++){
+            byte[] propertiesBytes = new byte[buffer.getInt()];
+            buffer.get(propertiesBytes);
+            byte[] body = new byte[buffer.getInt()];
+            buffer.get(body);
+
+            MessageExt messageExt = new MessageExt();
+            messageExt.setTopic(envelope.getTopic());
+            messageExt.setFlag(envelope.getFlag());
+            messageExt.setBody(body);
+            messageExt.setQueueId(envelope.getQueueId());
+            messageExt.setQueueOffset(envelope.getQueueOffset());
+            messageExt.setCommitLogOffset(envelope.getCommitLogOffset());
+            messageExt.setSysFlag(envelope.getSysFlag());
+            messageExt.setBornTimestamp(envelope.getBornTimestamp());
+            messageExt.setBornHost(envelope.getBornHost());
+            messageExt.setStoreTimestamp(envelope.getStoreTimestamp());
+            messageExt.setStoreHost(envelope.getStoreHost());
+            messageExt.setMsgId(envelope.getMsgId());
+            messageExt.setBodyCRC(envelope.getBodyCRC());
+            messageExt.setReconsumeTimes(envelope.getReconsumeTimes());
+            messageExt.setPreparedTransactionOffset(envelope.getPreparedTransactionOffset());
+
+            Map<String, String> properties = MessageDecoder.string2messageProperties(new String(propertiesBytes, MessageDecoder.CHARSET_UTF8));
+            for(Map.Entry<String, String> entry : properties.entrySet()){
+                String name = entry.getKey();
+                if(MessageConst.PROPERTY_KEYS.equals(name)){
+                    messageExt.setKeys(entry.getValue());
+                }
+                else if(MessageConst.PROPERTY_TAGS.equals(name)){
+                    messageExt.setTags(entry.getValue());
+                }
+                else if(!MessageConst.systemKeySet.contains(name)){
+                    messageExt.putUserProperty(name, entry.getValue());
+                }
+            }
+
+            messageExt.putUserProperty(RocketMQMessageConst.PROPERTY_BATCH_INDEX, String.valueOf(i));  //拆出的消息共用信封的msgId，按序号区分
+
+            result.add(messageExt);
+        }
+
+        return result;
+    }
+}
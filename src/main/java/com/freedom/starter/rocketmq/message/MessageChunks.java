@@ -0,0 +1,69 @@
+package com.freedom.starter.rocketmq.message;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageAccessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 大消息分片
+ * 消息体超过分片大小时拆分成多条分片消息发送，每个分片带有相同的分片组id和各自的序号，
+ * 消费端由MessageChunkAssembler收齐所有分片后还原为一条消息
+ *
+ * 同一分片组的消息需要发送到同一个队列，才能被同一个消费者收齐
+ */
+public class MessageChunks {
+
+    private MessageChunks() {
+    }
+
+    /**
+     * 拆分消息，每个分片沿用原消息的属性（keys、编解码器、压缩器等）
+     * @param rocketmqMsg  需要拆分的消息
+     * @param chunkSize    每个分片消息体的最大字节数
+     * @return
+     */
+    public static List<Message> split(Message rocketmqMsg, int chunkSize) {
+        if(chunkSize <= 0){
+            throw new IllegalArgumentException("'chunkSize' must be positive");
+        }
+        byte[] body = rocketmqMsg.getBody();
+        int total = (body.length + chunkSize - 1) / chunkSize;
+        String group = UUID.randomUUID().toString();
+
+        List<Message> chunks = new ArrayList<Message>(total);
+        for(int i=0; i<total; i++){
+            int from = i * chunkSize;
+            Message chunk = new Message(rocketmqMsg.getTopic(), Arrays.copyOfRange(body, from, Math.min(from + chunkSize, body.length)));
+            MessageAccessor.setProperties(chunk, new HashMap<String, String>(rocketmqMsg.getProperties()));
+            chunk.setFlag(rocketmqMsg.getFlag());
+            chunk.putUserProperty(RocketMQMessageConst.PROPERTY_CHUNK_GROUP, group);
+            chunk.putUserProperty(RocketMQMessageConst.PROPERTY_CHUNK_INDEX, String.valueOf(i));
+            chunk.putUserProperty(RocketMQMessageConst.PROPERTY_CHUNK_TOTAL, String.valueOf(total));
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * 是否是分片消息
+     * @param message
+     * @return
+     */
+    public static boolean isChunk(Message message) {
+        return message.getProperty(RocketMQMessageConst.PROPERTY_CHUNK_GROUP) != null;
+    }
+
+    /**
+     * 分片组id
+     * @param chunk
+     * @return
+     */
+    public static String getGroup(Message chunk) {
+        return chunk.getProperty(RocketMQMessageConst.PROPERTY_CHUNK_GROUP);
+    }
+}
@@ -0,0 +1,54 @@
+package com.freedom.starter.rocketmq.message;
+
+/**
+ * starter内部使用的消息属性名
+ * 这些属性会随消息一起发送到broker，由DefaultRocketMQListenerContainer在消费端识别
+ */
+public class RocketMQMessageConst {
+
+    /** 批量消息标示，值为批量中的消息条数，由MessageAccumulator打包时设置 */
+    public static final String PROPERTY_BATCH = "STARTER_BATCH";
+
+    /** 批量消息信封拆出的消息在信封中的序号，从0开始，只在消费端拆包时设置 */
+    public static final String PROPERTY_BATCH_INDEX = "STARTER_BATCH_INDEX";
+
+    /** 消息体编解码器名称，非String类型的消息由RocketMQTemplate设置 */
+    public static final String PROPERTY_CODEC = "STARTER_CODEC";
+
+    /** 消息体压缩器名称，消息体超过压缩阀值时由RocketMQTemplate设置 */
+    public static final String PROPERTY_COMPRESSION = "STARTER_COMPRESSION";
+
+    /** 分片消息的分片组id，同一条消息拆出的分片相同，由RocketMQTemplate拆分大消息时设置 */
+    public static final String PROPERTY_CHUNK_GROUP = "STARTER_CHUNK_GROUP";
+
+    /** 分片序号，从0开始 */
+    public static final String PROPERTY_CHUNK_INDEX = "STARTER_CHUNK_INDEX";
+
+    /** 分片总数 */
+    public static final String PROPERTY_CHUNK_TOTAL = "STARTER_CHUNK_TOTAL";
+
+    /** 请求消息的应答topic，由RocketMQTemplate.sendAndReceive()设置 */
+    public static final String PROPERTY_REPLY_TOPIC = "STARTER_REPLY_TOPIC";
+
+    /** 请求消息的应答tag，每个请求方实例不同 */
+    public static final String PROPERTY_REPLY_TAG = "STARTER_REPLY_TAG";
+
+    /** 请求和应答的关联id，应答消息沿用请求消息的值 */
+    public static final String PROPERTY_CORRELATION_ID = "STARTER_CORRELATION_ID";
+
+    /** 应答状态，见REPLY_STATUS_* */
+    public static final String PROPERTY_REPLY_STATUS = "STARTER_REPLY_STATUS";
+
+    /** 应答成功，消息体为应答内容 */
+    public static final String REPLY_STATUS_OK = "OK";
+
+    /** 应答成功，应答内容为null */
+    public static final String REPLY_STATUS_NULL = "NULL";
+
+    /** 应答方处理失败，消息体为异常信息 */
+    public static final String REPLY_STATUS_ERROR = "ERROR";
+
+
+    private RocketMQMessageConst() {
+    }
+}
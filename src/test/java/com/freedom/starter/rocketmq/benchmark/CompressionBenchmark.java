@@ -0,0 +1,122 @@
+package com.freedom.starter.rocketmq.benchmark;
+
+import com.alibaba.rocketmq.common.UtilAll;
+import com.freedom.starter.rocketmq.core.compress.Lz4MessageCompressor;
+import com.freedom.starter.rocketmq.core.compress.MessageCompressor;
+import com.freedom.starter.rocketmq.core.compress.ZstdMessageCompressor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 各压缩器的CPU耗时和网络字节数对比：rocketmq自带的zlib（UtilAll.compress，客户端默认压缩级别5）、lz4、zstd
+ * 消息体为模拟的JSON订单列表，CPU耗时取当前线程的CPU时间，不含GC等其他线程
+ *
+ * 运行：mvn test-compile后，以test classpath运行本类的main方法
+ * 参数：[每种消息体大小的迭代次数，默认2000] [zstd压缩级别，默认3]
+ */
+public class CompressionBenchmark {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int[] BODY_SIZES = {1024, 4 * 1024, 16 * 1024, 64 * 1024};
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int zstdLevel = args.length > 1 ? Integer.parseInt(args[1]) : ZstdMessageCompressor.DEFAULT_LEVEL;
+
+        MessageCompressor[] compressors = {new ZlibCompressor(), new Lz4MessageCompressor(), new ZstdMessageCompressor(zstdLevel)};
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        for(MessageCompressor compressor : compressors){
+            run(threadMXBean, compressor, json(16 * 1024), iterations);  //预热
+        }
+
+        System.out.printf("iterations: %d, zstd level: %d%n", iterations, zstdLevel);
+        System.out.printf("%-6s %8s %10s %7s %14s %14s%n", "codec", "body", "wire", "ratio", "compress ns", "decompress ns");
+        for(int bodySize : BODY_SIZES){
+            byte[] body = json(bodySize);
+            for(MessageCompressor compressor : compressors){
+                long[] result = run(threadMXBean, compressor, body, iterations);
+                System.out.printf("%-6s %8d %10d %7.2f %14d %14d%n", compressor.getName(), body.length, result[0],
+                        (double) body.length / result[0], result[1], result[2]);
+            }
+        }
+    }
+
+    /**
+     * @return  [压缩后字节数, 每次压缩的CPU纳秒, 每次解压的CPU纳秒]
+     */
+    private static long[] run(ThreadMXBean threadMXBean, MessageCompressor compressor, byte[] body, int iterations) {
+        byte[] compressed = null;
+        long start = threadMXBean.getCurrentThreadCpuTime();
+        for(int i=0; i<iterations; i++){
+            compressed = compressor.compress(body);
+        }
+        long compressCost = threadMXBean.getCurrentThreadCpuTime() - start;
+
+        byte[] decompressed = null;
+        start = threadMXBean.getCurrentThreadCpuTime();
+        for(int i=0; i<iterations; i++){
+            decompressed = compressor.decompress(compressed);
+        }
+        long decompressCost = threadMXBean.getCurrentThreadCpuTime() - start;
+        if(!Arrays.equals(body, decompressed)){
+            throw new IllegalStateException(compressor.getName() + " decompressed body mismatch");
+        }
+        return new long[]{compressed.length, compressCost / iterations, decompressCost / iterations};
+    }
+
+    /**
+     * 生成约size字节的JSON订单列表，字段名重复、取值随机，接近业务消息的压缩率
+     */
+    private static byte[] json(int size) {
+        Random random = new Random(size);
+        StringBuilder builder = new StringBuilder(size + 256).append('[');
+        while (builder.length() < size) {
+            builder.append("{\"orderId\":").append(1000000000L + random.nextInt(Integer.MAX_VALUE))
+                    .append(",\"userId\":").append(random.nextInt(10000000))
+                    .append(",\"amount\":").append(random.nextInt(100000) / 100.0)
+                    .append(",\"status\":\"").append(random.nextBoolean() ? "PAID" : "CREATED")
+                    .append("\",\"sku\":\"SKU-").append(Integer.toHexString(random.nextInt()))
+                    .append("\",\"createTime\":").append(1500000000000L + random.nextInt(Integer.MAX_VALUE)).append("},");
+        }
+        builder.setCharAt(builder.length() - 1, ']');
+        return builder.toString().getBytes(UTF8);
+    }
+
+    /**
+     * rocketmq客户端超过compressMsgBodyOverHowmuch时使用的zlib压缩
+     */
+    private static class ZlibCompressor implements MessageCompressor {
+
+        @Override
+        public String getName() {
+            return "zlib";
+        }
+
+        @Override
+        public byte[] compress(byte[] body) {
+            try {
+                return UtilAll.compress(body, 5);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] compressed) {
+            try {
+                return UtilAll.uncompress(compressed);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
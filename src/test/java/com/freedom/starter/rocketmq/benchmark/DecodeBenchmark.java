@@ -0,0 +1,184 @@
+package com.freedom.starter.rocketmq.benchmark;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.freedom.starter.rocketmq.core.codec.MessageCodec;
+import com.freedom.starter.rocketmq.core.codec.MessageCodecRegistry;
+import com.freedom.starter.rocketmq.core.compress.MessageCompressorRegistry;
+import com.freedom.starter.rocketmq.core.consumer.MessageDecoder;
+import com.freedom.starter.rocketmq.core.consumer.MessageDecoders;
+import com.freedom.starter.rocketmq.core.consumer.RocketMQListener;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 每条消息的解码耗时对比：
+ * before：逐条判断消息类型、每条消息Charset.forName()、按消息上的编解码器名称查找编解码器（预编译解码器之前的doConvertMessage）
+ * after：container启动时按完整泛型类型创建的MessageDecoder
+ * 消息类型为String、POJO和List<POJO>，before只能解析出Class，List<POJO>解码为JSONArray，元素不是POJO
+ *
+ * 运行：mvn test-compile后，以test classpath运行本类的main方法
+ * 参数：[每种消息类型每轮的解码次数，默认1000000，List<POJO>为十分之一]，结果取3轮中的最小值
+ */
+public class DecodeBenchmark {
+
+    private static final String CHARSET = "UTF-8";
+
+    /** 测量轮数 */
+    private static final int ROUNDS = 3;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        MessageCodec codec = MessageCodecRegistry.getDefault();
+
+        Order order = newOrder(1);
+        List<Order> orders = new ArrayList<Order>();
+        for(int i=0; i<10; i++){
+            orders.add(newOrder(i));
+        }
+        MessageExt stringMessage = message("{\"orderId\":1,\"status\":\"PAID\"}".getBytes(CHARSET), null);
+        MessageExt orderMessage = message(codec.encode(order), codec.getName());
+        MessageExt listMessage = message(codec.encode(orders), codec.getName());
+
+        Type listType = MessageDecoders.resolveMessageType(new OrderListListener(), RocketMQListener.class);
+        MessageDecoder stringDecoder = MessageDecoders.create(String.class, CHARSET, codec);
+        MessageDecoder orderDecoder = MessageDecoders.create(Order.class, CHARSET, codec);
+        MessageDecoder listDecoder = MessageDecoders.create(listType, CHARSET, codec);
+
+        //预热
+        for(int i=0; i<3; i++){
+            before(stringMessage, String.class, codec, count / 10);
+            after(stringMessage, stringDecoder, count / 10);
+            before(orderMessage, Order.class, codec, count / 10);
+            after(orderMessage, orderDecoder, count / 10);
+            before(listMessage, List.class, codec, count / 100);
+            after(listMessage, listDecoder, count / 100);
+        }
+
+        System.out.printf("messages: %d, list type: %s%n", count, listType);
+        System.out.printf("%-12s %12s %12s%n", "type", "before ns", "after ns");
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        for(int round=0; round<ROUNDS; round++){  //before、after交替运行，取每项的最小值
+            best[0] = Math.min(best[0], before(stringMessage, String.class, codec, count));
+            best[1] = Math.min(best[1], after(stringMessage, stringDecoder, count));
+            best[2] = Math.min(best[2], before(orderMessage, Order.class, codec, count));
+            best[3] = Math.min(best[3], after(orderMessage, orderDecoder, count));
+            best[4] = Math.min(best[4], before(listMessage, List.class, codec, count / 10));
+            best[5] = Math.min(best[5], after(listMessage, listDecoder, count / 10));
+        }
+        System.out.printf("%-12s %12d %12d%n", "String", best[0], best[1]);
+        System.out.printf("%-12s %12d %12d%n", "Order", best[2], best[3]);
+        System.out.printf("%-12s %12d %12d%n", "List<Order>", best[4], best[5]);
+        System.out.println("List<Order> element type before: " + ((List<?>) decodeBefore(listMessage, List.class, codec)).get(0).getClass().getName()
+                + ", after: " + ((List<?>) listDecoder.decode(listMessage)).get(0).getClass().getName());
+    }
+
+    /**
+     * @return  每条消息的平均耗时，单位纳秒
+     */
+    private static long before(MessageExt messageExt, Class<?> messageType, MessageCodec codec, int count) {
+        long start = System.nanoTime();
+        for(int i=0; i<count; i++){
+            sink = decodeBefore(messageExt, messageType, codec);
+        }
+        return (System.nanoTime() - start) / count;
+    }
+
+    private static long after(MessageExt messageExt, MessageDecoder decoder, int count) {
+        long start = System.nanoTime();
+        for(int i=0; i<count; i++){
+            sink = decoder.decode(messageExt);
+        }
+        return (System.nanoTime() - start) / count;
+    }
+
+    /**
+     * 预编译解码器之前的doConvertMessage
+     */
+    private static Object decodeBefore(MessageExt messageExt, Class<?> messageType, MessageCodec defaultCodec) {
+        MessageCompressorRegistry.decompress(messageExt);
+        if(Objects.equals(messageType, MessageExt.class)){
+            return messageExt;
+        }
+        else if(Objects.equals(messageType, String.class)){
+            return new String(messageExt.getBody(), Charset.forName(CHARSET));
+        }
+        else {
+            String codecName = messageExt.getUserProperty(RocketMQMessageConst.PROPERTY_CODEC);
+            MessageCodec codec = codecName != null ? MessageCodecRegistry.get(codecName) : defaultCodec;
+            return codec.decode(messageExt.getBody(), messageType);
+        }
+    }
+
+    private static MessageExt message(byte[] body, String codecName) {
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic("DecodeBenchmark");
+        messageExt.setBody(body);
+        messageExt.setWaitStoreMsgOK(true);  //Message.putProperty()不是public的，先创建属性map
+        if(codecName != null){
+            messageExt.getProperties().put(RocketMQMessageConst.PROPERTY_CODEC, codecName);
+        }
+        return messageExt;
+    }
+
+    private static Order newOrder(int i) {
+        Order order = new Order();
+        order.setOrderId(1000000L + i);
+        order.setUserId(42L);
+        order.setAmount(99.5 + i);
+        order.setStatus("PAID");
+        order.setCreateTime(System.currentTimeMillis());
+        return order;
+    }
+
+    private static class OrderListListener implements RocketMQListener<List<Order>> {
+        @Override
+        public void onMessage(List<Order> message) {
+        }
+    }
+
+    public static class Order {
+        private long orderId;
+        private long userId;
+        private double amount;
+        private String status;
+        private long createTime;
+
+        public long getOrderId() {
+            return orderId;
+        }
+        public void setOrderId(long orderId) {
+            this.orderId = orderId;
+        }
+        public long getUserId() {
+            return userId;
+        }
+        public void setUserId(long userId) {
+            this.userId = userId;
+        }
+        public double getAmount() {
+            return amount;
+        }
+        public void setAmount(double amount) {
+            this.amount = amount;
+        }
+        public String getStatus() {
+            return status;
+        }
+        public void setStatus(String status) {
+            this.status = status;
+        }
+        public long getCreateTime() {
+            return createTime;
+        }
+        public void setCreateTime(long createTime) {
+            this.createTime = createTime;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.freedom.starter.rocketmq.benchmark;
+
+import com.freedom.starter.rocketmq.core.consumer.RocketMQListener;
+import com.freedom.starter.rocketmq.core.consumer.VirtualThreadConsumeExecutor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 阻塞I/O listener的消费吞吐量对比：不同大小的平台线程池 vs 虚拟线程（VirtualThreadConsumeExecutor）
+ * listener的onMessage()每条消息sleep ioMillis，模拟调用下游接口、写库；消费任务与rocketmq consumer一样提交到消费线程池
+ * 平台线程池的吞吐量受线程数限制，虚拟线程只受信号量限制的并发数限制；JDK 21以下跳过虚拟线程
+ *
+ * 运行：mvn test-compile后，以test classpath运行本类的main方法
+ * 参数：[消息条数，默认20000] [每条消息的I/O耗时毫秒，默认20] [虚拟线程的最大并发数，默认1024]
+ */
+public class IoBoundListenerBenchmark {
+
+    /** 平台线程池大小，64为consumeThreadMax的默认值 */
+    private static final int[] POOL_SIZES = {20, 64, 256, 1024};
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final long ioMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int virtualConcurrency = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        RocketMQListener<String> listener = new RocketMQListener<String>() {
+            @Override
+            public void onMessage(String message) {
+                try {
+                    Thread.sleep(ioMillis);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        System.out.printf("messages: %d, io: %d ms, java: %s%n", count, ioMillis, System.getProperty("java.version"));
+        for(int poolSize : POOL_SIZES){
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            run("platform(" + poolSize + ")", executor, listener, count);
+        }
+        if(VirtualThreadConsumeExecutor.isSupported()){
+            run("virtual(" + virtualConcurrency + ")", new VirtualThreadConsumeExecutor("IoBoundListenerBenchmark", virtualConcurrency), listener, count);
+        }
+        else {
+            System.out.println("virtual threads require JDK 21+, skipped");
+        }
+    }
+
+    private static void run(String name, ThreadPoolExecutor executor, final RocketMQListener<String> listener, int count) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(count);
+        List<String> messages = new ArrayList<String>(count);
+        for(int i=0; i<count; i++){
+            messages.add("message-" + i);
+        }
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+        long start = System.nanoTime();
+        for(final String message : messages){
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.onMessage(message);
+                    }
+                    finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        latch.await(10, TimeUnit.MINUTES);
+        long cost = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        int peakThreads = threadMXBean.getPeakThreadCount();  //只统计平台线程
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.printf("%-16s %8d ms %10d msg/s  peak platform threads %d%n", name, cost, count * 1000L / cost, peakThreads);
+    }
+}
@@ -0,0 +1,107 @@
+package com.freedom.starter.rocketmq.benchmark;
+
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.common.message.Message;
+import com.freedom.starter.rocketmq.core.producer.MessageAccumulator;
+import com.freedom.starter.rocketmq.support.StandInBroker;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步发送吞吐量对比：逐条producer.send() vs MessageAccumulator攒批
+ * 使用本地StandInBroker，每个发送请求在broker端耗时sendDelayMillis，模拟网络往返和写入
+ * 两种方式都限制最多MAX_IN_FLIGHT条消息未完成，避免请求堆积超时后重试
+ *
+ * 运行：mvn test-compile后，以test classpath运行本类的main方法
+ * 参数：[消息条数，默认100000] [消息体字节数，默认256] [broker处理每个请求的耗时毫秒，默认0]
+ */
+public class MessageAccumulatorBenchmark {
+
+    private static final String TOPIC = "BenchmarkTopic";
+
+    private static final int MAX_IN_FLIGHT = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int bodySize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        long sendDelayMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        StandInBroker broker = new StandInBroker();
+        broker.createTopic(TOPIC, 8);
+        broker.setSendDelayMillis(sendDelayMillis);
+        broker.start();
+        DefaultMQProducer producer = broker.newProducer("MessageAccumulatorBenchmark");
+        try {
+            byte[] body = new byte[bodySize];
+            run("warmup per-message", producer, null, count / 10, body);
+            run("warmup batched", producer, new MessageAccumulator(producer, 64, 128 * 1024, 5), count / 10, body);
+            broker.clearReceived();
+
+            long perMessage = run("per-message", producer, null, count, body);
+            int perMessageRequests = broker.getReceived(TOPIC).size();
+            broker.clearReceived();
+            long batched = run("batched(64, 128k, 5ms)", producer, new MessageAccumulator(producer, 64, 128 * 1024, 5), count, body);
+            int batchedRequests = broker.getReceived(TOPIC).size();
+
+            System.out.printf("messages: %d, body: %d bytes, broker delay: %d ms%n", count, bodySize, sendDelayMillis);
+            System.out.printf("per-message: %,d msg/s, %d send requests%n", count * 1000L / Math.max(1, perMessage), perMessageRequests);
+            System.out.printf("batched:     %,d msg/s, %d send requests%n", count * 1000L / Math.max(1, batched), batchedRequests);
+        }
+        finally {
+            producer.shutdown();
+            broker.shutdown();
+        }
+    }
+
+    /**
+     * 发送count条消息，等待所有回调完成
+     * @return  耗时，单位毫秒
+     */
+    private static long run(String name, DefaultMQProducer producer, MessageAccumulator accumulator, int count, byte[] body) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(count);
+        final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        final AtomicInteger failed = new AtomicInteger();
+        SendCallback callback = new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                inFlight.release();
+                latch.countDown();
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                failed.incrementAndGet();
+                inFlight.release();
+                latch.countDown();
+            }
+        };
+        if(accumulator != null){
+            accumulator.start();
+        }
+        long start = System.nanoTime();
+        for(int i=0; i<count; i++){
+            Message message = new Message(TOPIC, "tag", body);
+            inFlight.acquire();
+            if(accumulator != null){
+                accumulator.append(message, callback, 3000);
+            }
+            else {
+                producer.send(message, callback, 3000);
+            }
+        }
+        if(!latch.await(120, TimeUnit.SECONDS)){
+            System.out.println(name + ": timeout, remaining " + latch.getCount());
+        }
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if(accumulator != null){
+            accumulator.close();
+        }
+        System.out.println(name + ": " + cost + " ms, failed: " + failed.get());
+        return cost;
+    }
+}
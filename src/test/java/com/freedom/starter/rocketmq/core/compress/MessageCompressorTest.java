@@ -0,0 +1,70 @@
+package com.freedom.starter.rocketmq.core.compress;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+public class MessageCompressorTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MessageCompressor[] compressors = {new Lz4MessageCompressor(1024 * 1024), new ZstdMessageCompressor(3, 1024 * 1024)};
+
+    @Test
+    public void compressAndDecompressRestoresBody() {
+        StringBuilder json = new StringBuilder();
+        for(int i=0; i<200; i++){
+            json.append("{\"orderId\":").append(i).append(",\"status\":\"PAID\"},");
+        }
+        byte[] body = json.toString().getBytes(UTF8);
+        for(MessageCompressor compressor : compressors){
+            assertArrayEquals(compressor.getName(), body, compressor.decompress(compressor.compress(body)));
+            assertArrayEquals(compressor.getName(), new byte[0], compressor.decompress(compressor.compress(new byte[0])));
+        }
+    }
+
+    @Test
+    public void negativeLengthIsRejected() {
+        for(MessageCompressor compressor : compressors){
+            byte[] compressed = compressor.compress("hello".getBytes(UTF8));
+            ByteBuffer.wrap(compressed).putInt(-1);
+            assertRejected(compressor, compressed);
+        }
+    }
+
+    @Test
+    public void lengthOverMaxIsRejected() {
+        for(MessageCompressor compressor : compressors){
+            byte[] compressed = compressor.compress("hello".getBytes(UTF8));
+            ByteBuffer.wrap(compressed).putInt(Integer.MAX_VALUE);  //不应按头部长度分配2G内存
+            assertRejected(compressor, compressed);
+        }
+    }
+
+    @Test
+    public void lengthMismatchAndTruncatedBodyAreRejected() {
+        for(MessageCompressor compressor : compressors){
+            byte[] compressed = compressor.compress(new byte[1000]);
+            byte[] longer = Arrays.copyOf(compressed, compressed.length);
+            ByteBuffer.wrap(longer).putInt(2000);  //头部长度大于实际解压长度
+            assertRejected(compressor, longer);
+            assertRejected(compressor, Arrays.copyOf(compressed, compressed.length / 2));
+            assertRejected(compressor, new byte[3]);
+        }
+    }
+
+    private static void assertRejected(MessageCompressor compressor, byte[] compressed) {
+        try {
+            compressor.decompress(compressed);
+            fail(compressor.getName() + " should reject the corrupted body");
+        }
+        catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
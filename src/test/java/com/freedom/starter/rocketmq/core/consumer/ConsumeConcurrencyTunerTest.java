@@ -0,0 +1,103 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsumeConcurrencyTunerTest {
+
+    private static final int MIN = 2;
+
+    private static final int MAX = 8;
+
+    /** 与rocketmq 3.5.8的消费线程池相同：核心线程数consumeThreadMin，最大线程数consumeThreadMax，无界队列 */
+    private ThreadPoolExecutor executor;
+
+    private ConsumeConcurrencyTuner tuner;
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicInteger peak = new AtomicInteger();
+
+    private volatile long taskMillis = 5;
+
+    @Before
+    public void setUp() {
+        executor = new ThreadPoolExecutor(MIN, MAX, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        tuner = new ConsumeConcurrencyTuner("group", "topic", MIN, MAX, 2, 0.5, new ConsumeConcurrencyTuner.ExecutorTarget(executor) {
+            @Override
+            public long getBacklog() {
+                return 10000;  //一直有积压
+            }
+        });
+        for(int i=0; i<100000; i++){
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int current = running.incrementAndGet();
+                    while (true) {
+                        int max = peak.get();
+                        if(current <= max || peak.compareAndSet(max, current)){
+                            break;
+                        }
+                    }
+                    long millis = taskMillis;
+                    try {
+                        Thread.sleep(millis);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    tuner.record(1, millis, true);
+                }
+            });
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void decreaseStopsBusyWorkersWithBacklog() throws Exception {
+        //积压没有减少且并发用满，逐步增加到最大并发
+        for(int i=0; i<50 && tuner.getConcurrency() < MAX; i++){
+            Thread.sleep(50);
+            tuner.tune();
+        }
+        assertEquals(MAX, tuner.getConcurrency());
+        assertTrue("peak " + samplePeak(), samplePeak() > MIN + 2);
+
+        //下游变慢，降低并发
+        taskMillis = 50;
+        for(int i=0; i<50 && tuner.getConcurrency() > MIN; i++){
+            Thread.sleep(200);
+            tuner.tune();
+        }
+        assertEquals(MIN, tuner.getConcurrency());
+        assertTrue(tuner.getDecreaseCount() > 0);
+
+        Thread.sleep(200);  //超出的线程完成当前任务后退出
+        assertTrue("peak " + samplePeak(), samplePeak() <= MIN);
+        assertTrue(executor.getPoolSize() <= MIN);
+    }
+
+    /**
+     * 一段时间内同时执行的最大任务数
+     */
+    private int samplePeak() throws InterruptedException {
+        peak.set(running.get());
+        Thread.sleep(300);
+        return peak.get();
+    }
+}
@@ -0,0 +1,133 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyOrderedDispatcherTest {
+
+    private static final MessageQueue QUEUE = new MessageQueue("KeyOrderedTopic", "broker", 0);
+
+    private KeyOrderedDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        if(dispatcher != null){
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void batchMaxSizeIsAtLeastLanes() {
+        assertEquals(16, KeyOrderedDispatcher.batchMaxSize(1, 16));
+        assertEquals(32, KeyOrderedDispatcher.batchMaxSize(32, 16));
+        assertEquals(1024, KeyOrderedDispatcher.batchMaxSize(1, 2048));
+    }
+
+    @Test
+    public void sameKeyIsHandledInQueueOrder() {
+        dispatcher = new KeyOrderedDispatcher("order", 4);
+        List<MessageExt> messages = new ArrayList<MessageExt>();
+        for(int i=0; i<200; i++){
+            messages.add(message(i, "key" + (i % 10)));
+        }
+        final Map<String, List<Long>> handled = new ConcurrentHashMap<String, List<Long>>();
+        for(int i=0; i<10; i++){
+            handled.put("key" + i, new CopyOnWriteArrayList<Long>());
+        }
+
+        boolean success = dispatcher.dispatch(QUEUE, messages, new KeyOrderedDispatcher.Handler() {
+            @Override
+            public void handle(MessageExt messageExt) throws Exception {
+                if(messageExt.getQueueOffset() % 7 == 0){
+                    Thread.sleep(1);
+                }
+                handled.get(messageExt.getKeys()).add(messageExt.getQueueOffset());
+            }
+        });
+
+        assertTrue(success);
+        for(List<Long> offsets : handled.values()){
+            assertEquals(20, offsets.size());
+            for(int i=1; i<offsets.size(); i++){
+                assertTrue(offsets.get(i - 1) < offsets.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void differentLanesRunInParallel() {
+        dispatcher = new KeyOrderedDispatcher("parallel", 4);
+        //没有keys的消息按offset分到各lane
+        List<MessageExt> messages = Arrays.asList(message(0, null), message(1, null), message(2, null), message(3, null));
+        final CyclicBarrier barrier = new CyclicBarrier(4);
+
+        boolean success = dispatcher.dispatch(QUEUE, messages, new KeyOrderedDispatcher.Handler() {
+            @Override
+            public void handle(MessageExt messageExt) throws Exception {
+                barrier.await(5, TimeUnit.SECONDS);  //4个lane同时处理时才能通过
+            }
+        });
+
+        assertTrue(success);
+    }
+
+    @Test
+    public void redeliverySkipsCompletedMessages() {
+        dispatcher = new KeyOrderedDispatcher("redeliver", 2);
+        //lane0: 0 2 4，lane1: 1 3 5
+        List<MessageExt> messages = new ArrayList<MessageExt>();
+        for(int i=0; i<6; i++){
+            messages.add(message(i, null));
+        }
+        final List<Long> handled = new CopyOnWriteArrayList<Long>();
+        final boolean[] failOffset2 = {true};
+        KeyOrderedDispatcher.Handler handler = new KeyOrderedDispatcher.Handler() {
+            @Override
+            public void handle(MessageExt messageExt) throws Exception {
+                if(messageExt.getQueueOffset() == 2 && failOffset2[0]){
+                    throw new IllegalStateException("fail offset 2");
+                }
+                handled.add(messageExt.getQueueOffset());
+            }
+        };
+
+        assertFalse(dispatcher.dispatch(QUEUE, messages, handler));
+        assertEquals(4, handled.size());
+        assertFalse(handled.contains(4L));  //同一lane中失败消息之后的不处理
+
+        handled.clear();
+        failOffset2[0] = false;
+        assertTrue(dispatcher.dispatch(QUEUE, messages, handler));
+        assertEquals(Arrays.asList(2L, 4L), handled);
+
+        handled.clear();
+        assertTrue(dispatcher.dispatch(QUEUE, messages, handler));  //整批成功后清除记录
+        assertEquals(6, handled.size());
+    }
+
+    private static MessageExt message(long offset, String keys) {
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic(QUEUE.getTopic());
+        messageExt.setQueueId(QUEUE.getQueueId());
+        messageExt.setQueueOffset(offset);
+        if(keys != null){
+            messageExt.setKeys(keys);
+        }
+        return messageExt;
+    }
+}
@@ -0,0 +1,123 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.freedom.starter.rocketmq.message.MessageChunks;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageChunkAssemblerTest {
+
+    @Test
+    public void assemblesOutOfOrderChunksAndIgnoresDuplicates() {
+        byte[] body = body(2500);
+        List<Message> chunks = MessageChunks.split(message(body), 1000);
+        assertEquals(3, chunks.size());
+        String group = MessageChunks.getGroup(chunks.get(0));
+        MessageChunkAssembler assembler = new MessageChunkAssembler(1024 * 1024, 60000);
+
+        assertNull(assembler.assemble(toMessageExt(chunks.get(2))));
+        assertNull(assembler.assemble(toMessageExt(chunks.get(0))));
+        assertNull(assembler.assemble(toMessageExt(chunks.get(0))));  //重复投递的分片不重复计数
+        assertEquals(1500, assembler.getBufferedBytes());
+        MessageExt assembled = assembler.assemble(toMessageExt(chunks.get(1)));
+
+        assertNotNull(assembled);
+        assertArrayEquals(body, assembled.getBody());
+        assertFalse(MessageChunks.isChunk(assembled));
+        assertEquals("order", assembled.getUserProperty("biz"));
+        assertTrue(assembler.contains(group));
+
+        assembler.release(group);
+        assertFalse(assembler.contains(group));
+        assertEquals(0, assembler.getBufferedBytes());
+        assertEquals(0, assembler.getGroupCount());
+    }
+
+    @Test
+    public void completedGroupCanBeAssembledAgainBeforeRelease() {
+        byte[] body = body(1500);
+        List<Message> chunks = MessageChunks.split(message(body), 1000);
+        MessageChunkAssembler assembler = new MessageChunkAssembler(1024 * 1024, 60000);
+
+        assertNull(assembler.assemble(toMessageExt(chunks.get(0))));
+        assertNotNull(assembler.assemble(toMessageExt(chunks.get(1))));
+        //消费失败后重新投递最后一个分片
+        MessageExt again = assembler.assemble(toMessageExt(chunks.get(1)));
+
+        assertNotNull(again);
+        assertArrayEquals(body, again.getBody());
+    }
+
+    @Test
+    public void oldestGroupIsEvictedWhenBufferIsFull() {
+        List<Message> first = MessageChunks.split(message(body(2000)), 1000);
+        List<Message> second = MessageChunks.split(message(body(2000)), 1000);
+        MessageChunkAssembler assembler = new MessageChunkAssembler(1500, 60000);
+
+        assertNull(assembler.assemble(toMessageExt(first.get(0))));
+        assertNull(assembler.assemble(toMessageExt(second.get(0))));  //超过1500字节，丢弃最早的分片组
+
+        assertFalse(assembler.contains(MessageChunks.getGroup(first.get(0))));
+        assertTrue(assembler.contains(MessageChunks.getGroup(second.get(0))));
+        assertEquals(1, assembler.getDiscardedGroups());
+        assertEquals(1000, assembler.getBufferedBytes());
+        assertNotNull(assembler.assemble(toMessageExt(second.get(1))));
+    }
+
+    @Test
+    public void timedOutGroupIsDiscarded() throws Exception {
+        List<Message> stale = MessageChunks.split(message(body(2000)), 1000);
+        List<Message> fresh = MessageChunks.split(message(body(2000)), 1000);
+        MessageChunkAssembler assembler = new MessageChunkAssembler(1024 * 1024, 50);
+
+        assertNull(assembler.assemble(toMessageExt(stale.get(0))));
+        Thread.sleep(1100);  //超时检查最多每秒一次
+        assertNull(assembler.assemble(toMessageExt(fresh.get(0))));
+
+        assertFalse(assembler.contains(MessageChunks.getGroup(stale.get(0))));
+        assertEquals(1, assembler.getDiscardedGroups());
+        assertEquals(1000, assembler.getBufferedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalChunkIndexIsRejected() {
+        Message chunk = MessageChunks.split(message(body(1500)), 1000).get(0);
+        MessageExt messageExt = toMessageExt(chunk);
+        messageExt.getProperties().put(RocketMQMessageConst.PROPERTY_CHUNK_INDEX, "5");
+
+        new MessageChunkAssembler(1024 * 1024, 60000).assemble(messageExt);
+    }
+
+    private static Message message(byte[] body) {
+        Message message = new Message("topic", "tag", body);
+        message.putUserProperty("biz", "order");
+        return message;
+    }
+
+    private static byte[] body(int size) {
+        byte[] body = new byte[size];
+        for(int i=0; i<size; i++){
+            body[i] = (byte) i;
+        }
+        return body;
+    }
+
+    private static MessageExt toMessageExt(Message message) {
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic(message.getTopic());
+        messageExt.setBody(message.getBody().clone());
+        messageExt.setWaitStoreMsgOK(true);  //Message.putProperty()不是public的，先创建属性map
+        messageExt.getProperties().putAll(message.getProperties());
+        return messageExt;
+    }
+}
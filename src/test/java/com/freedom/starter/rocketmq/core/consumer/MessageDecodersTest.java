@@ -0,0 +1,92 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.freedom.starter.rocketmq.core.codec.MessageCodec;
+import com.freedom.starter.rocketmq.core.codec.MessageCodecRegistry;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+import org.junit.Test;
+import org.springframework.messaging.converter.MessageConversionException;
+
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class MessageDecodersTest {
+
+    @Test
+    public void jsonListenerDecodesJsonMessage() {
+        MessageDecoder decoder = MessageDecoders.create(Order.class, "UTF-8", MessageCodecRegistry.getDefault());
+
+        Order order = (Order) decoder.decode(message("{\"id\":\"o1\"}".getBytes(), null));
+
+        assertEquals("o1", order.getId());
+    }
+
+    @Test
+    public void recordedCodecTakesPrecedence() {
+        OrderIdCodec orderIdCodec = new OrderIdCodec();
+        MessageCodecRegistry.register(orderIdCodec);
+        MessageDecoder decoder = MessageDecoders.create(Order.class, "UTF-8", MessageCodecRegistry.getDefault());
+        Order order = new Order();
+        order.setId("o2");
+
+        Order decoded = (Order) decoder.decode(message(orderIdCodec.encode(order), OrderIdCodec.NAME));
+
+        assertEquals("o2", decoded.getId());
+    }
+
+    @Test(expected = MessageConversionException.class)
+    public void unregisteredCodecIsRejected() {
+        MessageDecoder decoder = MessageDecoders.create(Order.class, "UTF-8", MessageCodecRegistry.getDefault());
+
+        decoder.decode(message("o3".getBytes(), "not-registered"));
+    }
+
+    private static MessageExt message(byte[] body, String codec) {
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic("topic");
+        messageExt.setBody(body);
+        if(codec != null){
+            messageExt.putUserProperty(RocketMQMessageConst.PROPERTY_CODEC, codec);
+        }
+        return messageExt;
+    }
+
+    /**
+     * 只编码订单id的二进制编解码器
+     */
+    private static class OrderIdCodec implements MessageCodec {
+        static final String NAME = "order-id";
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        public byte[] encode(Object payload) {
+            return ((Order) payload).getId().getBytes(UTF8);
+        }
+
+        @Override
+        public Object decode(byte[] body, Type type) {
+            Order order = new Order();
+            order.setId(new String(body, UTF8));
+            return order;
+        }
+    }
+
+    public static class Order {
+        private String id;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.freedom.starter.rocketmq.enums.DedupKey;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageDeduplicatorTest {
+
+    private static final long WINDOW_MILLIS = 60000;
+
+    @Test
+    public void consumedMessageIsDuplicate() {
+        MessageDeduplicator deduplicator = new MessageDeduplicator("group", "topic", DedupKey.MSG_ID, 1024, WINDOW_MILLIS);
+        MessageExt messageExt = message("msgId1", null, null);
+
+        assertFalse(deduplicator.isDuplicate(messageExt));
+        deduplicator.markConsumed(messageExt);
+        assertTrue(deduplicator.isDuplicate(messageExt));
+        assertFalse(deduplicator.isDuplicate(message("msgId2", null, null)));
+
+        assertEquals(1, deduplicator.getHitCount());
+        assertEquals(2, deduplicator.getMissCount());
+        assertEquals(1, deduplicator.getSize());
+    }
+
+    @Test
+    public void uniqueIdSurvivesProducerRetry() {
+        MessageDeduplicator deduplicator = new MessageDeduplicator("group", "topic", DedupKey.MSG_ID, 1024, WINDOW_MILLIS);
+        //生产者重试时broker生成的msgId不同，UNIQ_KEY相同
+        deduplicator.markConsumed(message("offsetMsgId1", "uniq1", null));
+
+        assertTrue(deduplicator.isDuplicate(message("offsetMsgId2", "uniq1", null)));
+        assertFalse(deduplicator.isDuplicate(message("offsetMsgId1", "uniq2", null)));
+    }
+
+    @Test
+    public void keysModeFallsBackToMessageId() {
+        MessageDeduplicator deduplicator = new MessageDeduplicator("group", "topic", DedupKey.KEYS, 1024, WINDOW_MILLIS);
+        deduplicator.markConsumed(message("msgId1", null, "order-1"));
+        deduplicator.markConsumed(message("msgId2", null, null));
+
+        assertTrue(deduplicator.isDuplicate(message("msgId3", null, "order-1")));
+        assertTrue(deduplicator.isDuplicate(message("msgId2", null, null)));
+        assertFalse(deduplicator.isDuplicate(message("msgId1", null, "order-2")));
+    }
+
+    @Test
+    public void batchIndexDistinguishesUnpackedMessages() {
+        MessageDeduplicator deduplicator = new MessageDeduplicator("group", "topic", DedupKey.MSG_ID, 1024, WINDOW_MILLIS);
+        MessageExt first = message("envelopeId", null, null);
+        first.putUserProperty(RocketMQMessageConst.PROPERTY_BATCH_INDEX, "0");
+        MessageExt second = message("envelopeId", null, null);
+        second.putUserProperty(RocketMQMessageConst.PROPERTY_BATCH_INDEX, "1");
+
+        deduplicator.markConsumed(first);
+
+        assertTrue(deduplicator.isDuplicate(first));
+        assertFalse(deduplicator.isDuplicate(second));
+    }
+
+    @Test
+    public void oldestEntriesAreEvictedWhenFull() {
+        MessageDeduplicator deduplicator = new MessageDeduplicator("group", "topic", DedupKey.MSG_ID, 8, WINDOW_MILLIS);
+        for(int i=0; i<20; i++){
+            deduplicator.markConsumed(message("msgId" + i, null, null));
+        }
+
+        assertTrue(deduplicator.getSize() <= 8);
+        assertFalse(deduplicator.isDuplicate(message("msgId0", null, null)));
+        assertTrue(deduplicator.isDuplicate(message("msgId19", null, null)));
+    }
+
+    @Test
+    public void entriesExpireAfterWindow() throws Exception {
+        MessageDeduplicator deduplicator = new MessageDeduplicator("group", "topic", DedupKey.MSG_ID, 1024, 40);
+        deduplicator.markConsumed(message("msgId1", null, null));
+
+        Thread.sleep(100);
+
+        assertFalse(deduplicator.isDuplicate(message("msgId1", null, null)));
+        assertEquals(0, deduplicator.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noneDedupKeyIsRejected() {
+        new MessageDeduplicator("group", "topic", DedupKey.NONE, 1024, WINDOW_MILLIS);
+    }
+
+    private static MessageExt message(String msgId, String uniqId, String keys) {
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic("topic");
+        messageExt.setMsgId(msgId);
+        messageExt.setWaitStoreMsgOK(true);  //Message.putProperty()不是public的，先创建属性map
+        if(uniqId != null){
+            messageExt.getProperties().put(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX, uniqId);
+        }
+        if(keys != null){
+            messageExt.setKeys(keys);
+        }
+        return messageExt;
+    }
+}
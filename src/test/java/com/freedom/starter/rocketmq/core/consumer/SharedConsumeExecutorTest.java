@@ -0,0 +1,222 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SharedConsumeExecutorTest {
+
+    private SharedConsumeExecutor executor;
+
+    @After
+    public void tearDown() {
+        if(executor != null){
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void threadsAreSharedInProportionToWeight() throws Exception {
+        executor = new SharedConsumeExecutor(1);
+        SharedConsumeExecutor.Lane light = executor.register("light", "topic", 1, 0, 1);
+        SharedConsumeExecutor.Lane heavy = executor.register("heavy", "topic", 3, 0, 1);
+
+        //占住唯一的工作线程，两个队列的任务都排队后再开始调度
+        final CountDownLatch release = new CountDownLatch(1);
+        light.execute(new Runnable() {
+            @Override
+            public void run() {
+                await(release);
+            }
+        });
+        final List<String> order = new CopyOnWriteArrayList<String>();
+        final CountDownLatch done = new CountDownLatch(400);
+        for(int i=0; i<100; i++){
+            light.execute(record(order, "light", done));
+        }
+        for(int i=0; i<300; i++){
+            heavy.execute(record(order, "heavy", done));
+        }
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        int lightCount = 0;
+        for(String name : order.subList(0, 200)){
+            if("light".equals(name)){
+                lightCount++;
+            }
+        }
+        assertTrue("light " + lightCount, Math.abs(lightCount - 50) <= 2);
+    }
+
+    @Test
+    public void laneBelowMinShareIsScheduledFirst() throws Exception {
+        assertEquals("guaranteed", nextAfterBusyLane(1));
+        assertEquals("busy", nextAfterBusyLane(0));  //没有minShare时按虚拟时间调度busy
+    }
+
+    /**
+     * busy权重很高、虚拟时间更小，guaranteed之前执行过任务、虚拟时间更大；
+     * 两个线程都在执行busy的任务时，释放一个线程，返回下一个被调度的队列
+     */
+    private String nextAfterBusyLane(int minShare) throws Exception {
+        executor = new SharedConsumeExecutor(2);
+        SharedConsumeExecutor.Lane busy = executor.register("busy", "topic", 1000, 0, 2);
+        SharedConsumeExecutor.Lane guaranteed = executor.register("guaranteed", "topic", 1, minShare, 2);
+
+        final CountDownLatch warmedUp = new CountDownLatch(10);
+        for(int i=0; i<10; i++){
+            guaranteed.execute(countDown(warmedUp));
+        }
+        assertTrue(warmedUp.await(10, TimeUnit.SECONDS));
+        waitIdle(guaranteed);
+
+        final Semaphore permits = new Semaphore(0);
+        final CountDownLatch running = new CountDownLatch(2);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+        for(int i=0; i<2; i++){
+            busy.execute(new Runnable() {
+                @Override
+                public void run() {
+                    running.countDown();
+                    permits.acquireUninterruptibly();
+                }
+            });
+        }
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        final CountDownLatch done = new CountDownLatch(2);
+        busy.execute(record(order, "busy", done));
+        guaranteed.execute(record(order, "guaranteed", done));
+
+        permits.release();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        permits.release();
+        String next = order.get(0);
+        executor.shutdown();
+        executor = null;
+        return next;
+    }
+
+    @Test
+    public void concurrencyIsCappedByMaxShare() throws Exception {
+        executor = new SharedConsumeExecutor(4);
+        SharedConsumeExecutor.Lane lane = executor.register("capped", "topic", 1, 0, 2);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(40);
+        for(int i=0; i<40; i++){
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int current = active.incrementAndGet();
+                    while (true) {
+                        int max = peak.get();
+                        if(current <= max || peak.compareAndSet(max, current)){
+                            break;
+                        }
+                    }
+                    sleep(5);
+                    active.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, peak.get());
+    }
+
+    @Test
+    public void laneIsRemovedAfterShutdownAndRunningTasksComplete() throws Exception {
+        executor = new SharedConsumeExecutor(2);
+        SharedConsumeExecutor.Lane idle = executor.register("idle", "topic", 1, 0, 2);
+        SharedConsumeExecutor.Lane working = executor.register("working", "topic", 1, 0, 2);
+
+        idle.shutdown();
+        assertFalse(executor.getLanes().contains(idle));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(1);
+        working.execute(new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                await(release);
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        working.shutdown();
+        assertTrue(executor.getLanes().contains(working));  //任务执行完前保留
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getLanes().contains(working) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(executor.getLanes().contains(working));
+        assertEquals(1, working.getCompletedTaskCount());
+
+        try {
+            working.execute(countDown(new CountDownLatch(1)));
+            throw new AssertionError("lane should reject tasks after shutdown");
+        }
+        catch (RejectedExecutionException e) {
+            //已shutdown
+        }
+    }
+
+    private static Runnable record(final List<String> order, final String name, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private static void waitIdle(SharedConsumeExecutor.Lane lane) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (lane.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, lane.getActiveCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.freedom.starter.rocketmq.core.consumer;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 需要JDK 21+，更低版本跳过
+ */
+public class VirtualThreadConsumeExecutorTest {
+
+    private VirtualThreadConsumeExecutor executor;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(VirtualThreadConsumeExecutor.isSupported());
+    }
+
+    @After
+    public void tearDown() {
+        if(executor != null){
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrencyIsCappedByMaxConcurrency() throws Exception {
+        executor = new VirtualThreadConsumeExecutor("VirtualThreadTest", 4);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(100);
+        for(int i=0; i<100; i++){
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int current = active.incrementAndGet();
+                    while (true) {
+                        int max = peak.get();
+                        if(current <= max || peak.compareAndSet(max, current)){
+                            break;
+                        }
+                    }
+                    sleep(5);
+                    active.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue("peak " + peak.get(), peak.get() <= 4);
+        assertEquals(4, peak.get());
+    }
+
+    @Test
+    public void shutdownWaitsForRunningAndPendingTasks() throws Exception {
+        executor = new VirtualThreadConsumeExecutor("VirtualThreadTest", 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger finished = new AtomicInteger();
+        for(int i=0; i<5; i++){
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.isShutdown());
+        assertFalse(executor.isTerminated());
+        assertTrue(executor.isTerminating());
+        assertFalse(executor.awaitTermination(100, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(executor.isTerminated());
+        assertEquals(5, finished.get());
+        assertEquals(5, executor.getCompletedTaskCount());
+    }
+
+    @Test
+    public void shutdownNowInterruptsRunningAndReturnsPending() throws Exception {
+        executor = new VirtualThreadConsumeExecutor("VirtualThreadTest", 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger interrupted = new AtomicInteger();
+        for(int i=0; i<3; i++){
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    }
+                    catch (InterruptedException e) {
+                        interrupted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        List<Runnable> pending = executor.shutdownNow();
+        assertEquals(2, pending.size());
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, interrupted.get());
+    }
+
+    @Test
+    public void shutdownWithoutTasksTerminatesImmediately() throws Exception {
+        executor = new VirtualThreadConsumeExecutor("VirtualThreadTest", 1);
+        executor.shutdown();
+        assertTrue(executor.isTerminated());
+        assertTrue(executor.awaitTermination(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void executeAfterShutdownIsRejected() {
+        executor = new VirtualThreadConsumeExecutor("VirtualThreadTest", 1);
+        executor.shutdown();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.freedom.starter.rocketmq.core.producer.InFlightLimiter;
+import com.freedom.starter.rocketmq.enums.InFlightRejectPolicy;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class JmxSendMetricsExporterTest {
+
+    @Test
+    public void exportsInFlightLimiter() throws Exception {
+        MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+        RocketMQSendMetrics sendMetrics = new RocketMQSendMetrics();
+        sendMetrics.addListener(new JmxSendMetricsExporter(mBeanServer));
+        InFlightLimiter inFlightLimiter = new InFlightLimiter(10, 1024, InFlightRejectPolicy.FAIL);
+        sendMetrics.addInFlightLimiter(inFlightLimiter);
+
+        int bytes = inFlightLimiter.acquire(new Message("topic", "tag", new byte[100]), 1000);
+
+        ObjectName objectName = new ObjectName(JmxSendMetricsExporter.DOMAIN + ":type=SendInFlight");
+        assertEquals(1, mBeanServer.getAttribute(objectName, "InFlightMessages"));
+        assertEquals(100, mBeanServer.getAttribute(objectName, "InFlightBytes"));
+        assertEquals(9, mBeanServer.getAttribute(objectName, "AvailableMessages"));
+        assertEquals("FAIL", mBeanServer.getAttribute(objectName, "RejectPolicy"));
+
+        inFlightLimiter.release(bytes);
+        assertEquals(0, mBeanServer.getAttribute(objectName, "InFlightMessages"));
+
+        sendMetrics.close();
+        assertFalse(mBeanServer.isRegistered(objectName));
+    }
+}
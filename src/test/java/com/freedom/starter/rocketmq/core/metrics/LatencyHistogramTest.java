@@ -0,0 +1,100 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReturnsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0D, histogram.getMeanNanos(), 0D);
+        assertEquals(0, histogram.getValueAtQuantile(0.99));
+    }
+
+    @Test
+    public void quantilesAreWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long i=1; i<=100000; i++){
+            histogram.record(i * 1000);  //1us - 100ms
+        }
+
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000L * 1000, histogram.getMaxNanos());
+        assertEquals(50000.5 * 1000, histogram.getMeanNanos(), 1D);
+        assertWithinRelativeError(50000L * 1000, histogram.getValueAtQuantile(0.5));
+        assertWithinRelativeError(99000L * 1000, histogram.getValueAtQuantile(0.99));
+        assertWithinRelativeError(99900L * 1000, histogram.getValueAtQuantile(0.999));
+        assertWithinRelativeError(histogram.getMaxNanos(), histogram.getValueAtQuantile(1));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i=0; i<32; i++){
+            histogram.record(i);
+        }
+
+        assertEquals(15, histogram.getValueAtQuantile(0.5));
+        assertEquals(31, histogram.getValueAtQuantile(1));
+    }
+
+    @Test
+    public void negativeAndHugeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        assertEquals((1L << 40) - 1, histogram.getMaxNanos());
+        assertTrue(histogram.getValueAtQuantile(1) <= histogram.getMaxNanos());
+    }
+
+    @Test
+    public void bucketMiddleStaysInBucket() {
+        for(long value : new long[]{0, 31, 32, 33, 63, 64, 1000, 123456789L, (1L << 40) - 1}){
+            int index = LatencyHistogram.bucketIndex(value);
+            assertEquals("value " + value, index, LatencyHistogram.bucketIndex(LatencyHistogram.bucketMiddle(index)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void quantileOutOfRangeIsRejected() {
+        new LatencyHistogram().getValueAtQuantile(1.5);
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 8;
+        final int perThread = 100000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for(int t=0; t<threads; t++){
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i=0; i<perThread; i++){
+                        histogram.record(i);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals((long) threads * perThread, histogram.getCount());
+        assertEquals(perThread - 1, histogram.getMaxNanos());
+    }
+
+    private static void assertWithinRelativeError(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 32);
+    }
+}
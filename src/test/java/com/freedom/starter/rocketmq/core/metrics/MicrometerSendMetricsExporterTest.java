@@ -0,0 +1,36 @@
+package com.freedom.starter.rocketmq.core.metrics;
+
+import com.freedom.starter.rocketmq.enums.SendMode;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class MicrometerSendMetricsExporterTest {
+
+    @Test
+    public void sendMetricsAreRegisteredWithTags() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SendMetrics sendMetrics = new SendMetrics("topic", "tag", SendMode.SYNC);
+        new MicrometerSendMetricsExporter(registry).onCreated(sendMetrics);
+
+        sendMetrics.recordSuccess(100, TimeUnit.MILLISECONDS.toNanos(10));
+        sendMetrics.recordFailure(50, TimeUnit.MILLISECONDS.toNanos(30), true);
+
+        FunctionTimer timer = registry.get("rocketmq.producer.send").tags("topic", "topic", "tag", "tag").functionTimer();
+        assertEquals(2D, timer.count(), 0D);
+        assertEquals(40D, timer.totalTime(TimeUnit.MILLISECONDS), 1D);
+        FunctionCounter bytes = registry.get("rocketmq.producer.send.bytes").functionCounter();
+        assertEquals(150D, bytes.count(), 0D);
+        assertEquals(1D, registry.get("rocketmq.producer.send.timeout").functionCounter().count(), 0D);
+        TimeGauge max = registry.get("rocketmq.producer.send.latency").tag("quantile", "1.0").timeGauge();
+        assertEquals(30D, max.value(TimeUnit.MILLISECONDS), 1D);
+        TimeGauge median = registry.get("rocketmq.producer.send.latency").tag("quantile", "0.5").timeGauge();
+        assertEquals(10D, median.value(TimeUnit.MILLISECONDS), 1D);
+    }
+}
@@ -0,0 +1,104 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsistentHashMessageQueueSelectorTest {
+
+    private static final String TOPIC = "ConsistentHashTopic";
+
+    private static final int KEYS = 100000;
+
+    @Test
+    public void jumpHashIsDeterministicAndBalanced() {
+        int buckets = 16;
+        int[] counts = new int[buckets];
+        for(long key=0; key<KEYS; key++){
+            long hashed = key * 0x9E3779B97F4A7C15L;
+            int bucket = ConsistentHashMessageQueueSelector.jumpConsistentHash(hashed, buckets);
+            assertTrue(bucket >= 0 && bucket < buckets);
+            assertEquals(bucket, ConsistentHashMessageQueueSelector.jumpConsistentHash(hashed, buckets));
+            counts[bucket]++;
+        }
+        for(int count : counts){
+            assertTrue("count " + count, Math.abs(count - KEYS / buckets) < KEYS / buckets / 10);
+        }
+        assertEquals(0, ConsistentHashMessageQueueSelector.jumpConsistentHash(12345L, 1));
+    }
+
+    @Test
+    public void sameKeySelectsSameQueueAcrossInstances() {
+        List<MessageQueue> mqs = queues(8);
+        ConsistentHashMessageQueueSelector first = new ConsistentHashMessageQueueSelector(0, 60000);
+        ConsistentHashMessageQueueSelector second = new ConsistentHashMessageQueueSelector(0, 60000);
+        for(int i=0; i<1000; i++){
+            String key = "order-" + i;
+            assertEquals(first.select(mqs, message(), key), second.select(mqs, message(), key));
+        }
+    }
+
+    @Test
+    public void addingQueueRemapsAboutOneInNPlusOneKeys() {
+        ConsistentHashMessageQueueSelector selector = new ConsistentHashMessageQueueSelector(0, 60000);
+        List<MessageQueue> eight = queues(8);
+        List<MessageQueue> nine = queues(9);
+
+        int moved = 0;
+        for(int i=0; i<KEYS; i++){
+            String key = "order-" + i;
+            MessageQueue before = selector.select(eight, message(), key);
+            MessageQueue after = selector.select(nine, message(), key);
+            if(!before.equals(after)){
+                moved++;
+                assertEquals(8, after.getQueueId());  //只会移动到新增的队列
+            }
+        }
+        double ratio = moved / (double) KEYS;
+        assertTrue("ratio " + ratio, Math.abs(ratio - 1.0 / 9) < 0.01);
+    }
+
+    @Test
+    public void hotKeyIsDetectedByCountMinSketch() {
+        ConsistentHashMessageQueueSelector selector = new ConsistentHashMessageQueueSelector(0.1, 60000);
+        List<MessageQueue> mqs = queues(8);
+        for(int i=0; i<5000; i++){
+            String key = i % 10 < 3 ? "hot-order" : "order-" + i;  //hot-order占30%
+            selector.select(mqs, message(), key);
+        }
+
+        Map<String, Long> hotKeys = selector.getHotKeys();
+        assertEquals(1, hotKeys.size());
+        long count = hotKeys.get("hot-order");
+        assertTrue("count " + count, count >= 1500 && count < 1600);  //count-min只会高估，冲突的key很少
+    }
+
+    @Test
+    public void hotKeysAreNotCountedWhenDisabled() {
+        ConsistentHashMessageQueueSelector selector = new ConsistentHashMessageQueueSelector(0, 60000);
+        List<MessageQueue> mqs = queues(8);
+        for(int i=0; i<5000; i++){
+            selector.select(mqs, message(), "hot-order");
+        }
+        assertTrue(selector.getHotKeys().isEmpty());
+    }
+
+    private static List<MessageQueue> queues(int count) {
+        List<MessageQueue> mqs = new ArrayList<MessageQueue>(count);
+        for(int i=0; i<count; i++){
+            mqs.add(new MessageQueue(TOPIC, "broker", i));
+        }
+        return mqs;
+    }
+
+    private static Message message() {
+        return new Message(TOPIC, "tag", new byte[1]);
+    }
+}
@@ -0,0 +1,233 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.client.impl.producer.TopicPublishInfo;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.MessageQueueSelector;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.client.producer.SendStatus;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HedgedSenderTest {
+
+    private static final String TOPIC = "HedgedTopic";
+
+    private HedgedSender hedgedSender;
+
+    private StubProducer producer;
+
+    @Before
+    public void setUp() {
+        hedgedSender = new HedgedSender();
+    }
+
+    @After
+    public void tearDown() {
+        hedgedSender.shutdown();
+        if(producer != null){
+            producer.close();
+        }
+    }
+
+    @Test
+    public void primaryWinsWithoutHedge() throws Exception {
+        producer = new StubProducer("brokerA", "brokerB");
+        producer.attempt(0, false);
+        TopicHedgePolicy policy = policy(1);
+
+        SendResult sendResult = hedgedSender.send(producer, message(), policy, 3000);
+
+        assertEquals("attempt-0", sendResult.getMsgId());
+        assertEquals(1, producer.brokers.size());
+        assertEquals(0, policy.getHedgeFiredCount());
+    }
+
+    @Test
+    public void hedgeWinsOnAnotherBrokerWhenPrimaryIsSlow() throws Exception {
+        producer = new StubProducer("brokerA", "brokerB");
+        producer.attempt(1000, false);
+        producer.attempt(0, false);
+        TopicHedgePolicy policy = policy(1);
+
+        long start = System.currentTimeMillis();
+        SendResult sendResult = hedgedSender.send(producer, message(), policy, 3000);
+
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals("attempt-1", sendResult.getMsgId());
+        assertEquals(2, producer.brokers.size());
+        assertFalse(producer.brokers.get(0).equals(producer.brokers.get(1)));
+        assertEquals(1, policy.getHedgeFiredCount());
+        assertEquals(1, policy.getHedgeWonCount());
+    }
+
+    @Test
+    public void primaryFailureIsHedgedImmediately() throws Exception {
+        producer = new StubProducer("brokerA", "brokerB");
+        producer.attempt(0, true);
+        producer.attempt(0, false);
+        TopicHedgePolicy policy = policy(1, 1000);
+
+        long start = System.currentTimeMillis();
+        SendResult sendResult = hedgedSender.send(producer, message(), policy, 3000);
+
+        assertTrue(System.currentTimeMillis() - start < 500);  //不等对冲延迟
+        assertEquals("attempt-1", sendResult.getMsgId());
+        assertFalse(producer.brokers.get(0).equals(producer.brokers.get(1)));
+        assertEquals(1, policy.getHedgeFiredCount());
+    }
+
+    @Test
+    public void bothFailuresSurfaceTheLastError() throws Exception {
+        producer = new StubProducer("brokerA", "brokerB");
+        producer.attempt(0, true);
+        producer.attempt(0, true);
+        TopicHedgePolicy policy = policy(1);
+
+        try {
+            hedgedSender.send(producer, message(), policy, 3000);
+            fail("both attempts failed");
+        }
+        catch (MQBrokerException e) {
+            assertEquals(ResponseCode.SYSTEM_ERROR, e.getResponseCode());
+        }
+        assertEquals(2, producer.brokers.size());
+        assertEquals(1, policy.getHedgeFiredCount());
+    }
+
+    @Test
+    public void hedgesAreCappedByMaxHedgeRatio() throws Exception {
+        producer = new StubProducer("brokerA", "brokerB");
+        TopicHedgePolicy policy = policy(0.1);
+        int sends = 50;
+        for(int i=0; i<sends; i++){
+            producer.attempt(60, false);  //每次原发送都超过对冲延迟
+            producer.attempt(0, false);
+        }
+
+        for(int i=0; i<sends; i++){
+            producer.nextSend(i * 2);
+            hedgedSender.send(producer, message(), policy, 3000);
+        }
+
+        //初始10个令牌，每次发送增加0.1个
+        assertTrue("fired " + policy.getHedgeFiredCount(), policy.getHedgeFiredCount() <= 10 + sends / 10);
+        assertTrue(policy.getHedgeFiredCount() < sends);
+        assertTrue(policy.getHedgeSkippedCount() > 0);
+    }
+
+    @Test
+    public void singleBrokerUsesPlainSendWithClientRetries() throws Exception {
+        producer = new StubProducer("brokerA");
+        TopicHedgePolicy policy = policy(1);
+
+        SendResult sendResult = hedgedSender.send(producer, message(), policy, 3000);
+
+        assertEquals("sync", sendResult.getMsgId());
+        assertEquals(1, producer.syncSends.get());
+        assertEquals(0, producer.brokers.size());
+        assertEquals(0, policy.getHedgeFiredCount());
+    }
+
+    /**
+     * 对冲延迟为20ms的策略
+     */
+    private static TopicHedgePolicy policy(double maxHedgeRatio) {
+        return policy(maxHedgeRatio, 20);
+    }
+
+    private static TopicHedgePolicy policy(double maxHedgeRatio, long hedgeDelayMillis) {
+        TopicHedgePolicy policy = new TopicHedgePolicy(TOPIC, 0.5, hedgeDelayMillis, maxHedgeRatio, 60000);
+        for(int i=0; i<1000; i++){
+            policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return policy;
+    }
+
+    private static Message message() {
+        return new Message(TOPIC, "tag", "hedged".getBytes());
+    }
+
+
+    /**
+     * 不连接broker的生产者，按发送顺序模拟每次发送的耗时和结果
+     */
+    private static class StubProducer extends DefaultMQProducer {
+        private final List<MessageQueue> queues = new ArrayList<MessageQueue>();
+        private final List<long[]> attempts = new ArrayList<long[]>();
+        private final AtomicInteger next = new AtomicInteger();
+        private final List<String> brokers = new CopyOnWriteArrayList<String>();
+        private final AtomicInteger syncSends = new AtomicInteger();
+        private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+        StubProducer(String... brokerNames) {
+            super("HedgedSenderTest");
+            for(String brokerName : brokerNames){
+                queues.add(new MessageQueue(TOPIC, brokerName, 0));
+            }
+            TopicPublishInfo publishInfo = new TopicPublishInfo();
+            publishInfo.setMessageQueueList(queues);
+            publishInfo.setHaveTopicRouterInfo(true);
+            getDefaultMQProducerImpl().getTopicPublishInfoTable().put(TOPIC, publishInfo);
+        }
+
+        /**
+         * 添加一次发送的模拟结果
+         */
+        void attempt(long delayMillis, boolean fail) {
+            attempts.add(new long[]{delayMillis, fail ? 1 : 0});
+        }
+
+        void nextSend(int index) {
+            next.set(index);
+        }
+
+        @Override
+        public SendResult send(Message msg, long timeout) {
+            syncSends.incrementAndGet();
+            return new SendResult(SendStatus.SEND_OK, "sync", "sync", queues.get(0), 0);
+        }
+
+        @Override
+        public void send(Message msg, MessageQueueSelector selector, Object arg, final SendCallback sendCallback, long timeout) {
+            final int index = next.getAndIncrement();
+            final MessageQueue mq = selector.select(queues, msg, arg);
+            brokers.add(mq.getBrokerName());
+            long[] attempt = attempts.get(index);
+            final boolean fail = attempt[1] == 1;
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if(fail){
+                        sendCallback.onException(new MQBrokerException(ResponseCode.SYSTEM_ERROR, "stub failure"));
+                    }
+                    else {
+                        sendCallback.onSuccess(new SendResult(SendStatus.SEND_OK, "attempt-" + index, "attempt-" + index, mq, index));
+                    }
+                }
+            }, attempt[0], TimeUnit.MILLISECONDS);
+        }
+
+        void close() {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.client.producer.SendStatus;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.freedom.starter.rocketmq.support.StandInBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LatencyAwareMessageQueueSelectorTest {
+
+    private static final String TOPIC = "LatencyAwareTopic";
+
+    private StandInBroker broker;
+
+    private DefaultMQProducer producer;
+
+    private LatencyAwareMessageQueueSelector selector;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new StandInBroker();
+        broker.createTopic(TOPIC, 4);
+        broker.start();
+        producer = broker.newProducer("LatencyAwareMessageQueueSelectorTest");
+        producer.setRetryTimesWhenSendFailed(2);
+        producer.setRetryTimesWhenSendAsyncFailed(2);
+        selector = new LatencyAwareMessageQueueSelector(0.3, 3000);
+    }
+
+    @After
+    public void tearDown() {
+        selector.shutdown();
+        producer.shutdown();
+        broker.shutdown();
+    }
+
+    @Test
+    public void syncSendRetriesBrokerError() throws Exception {
+        broker.failNextSends(2, ResponseCode.SYSTEM_ERROR);
+
+        SendResult sendResult = selector.send(producer, new Message(TOPIC, "tag", "body".getBytes()), 3000);
+
+        assertEquals(SendStatus.SEND_OK, sendResult.getSendStatus());
+        assertEquals(1, broker.getReceived(TOPIC).size());
+    }
+
+    @Test
+    public void syncSendGivesUpAfterRetryTimes() throws Exception {
+        broker.failNextSends(3, ResponseCode.SYSTEM_ERROR);
+
+        try {
+            selector.send(producer, new Message(TOPIC, "tag", "body".getBytes()), 3000);
+            fail();
+        }
+        catch (MQBrokerException e) {
+            assertEquals(ResponseCode.SYSTEM_ERROR, e.getResponseCode());
+        }
+        assertEquals(0, broker.getReceived(TOPIC).size());
+    }
+
+    @Test
+    public void syncSendDoesNotRetryNonRetryableError() throws Exception {
+        broker.failNextSends(1, ResponseCode.MESSAGE_ILLEGAL);
+
+        try {
+            selector.send(producer, new Message(TOPIC, "tag", "body".getBytes()), 3000);
+            fail();
+        }
+        catch (MQBrokerException e) {
+            assertEquals(ResponseCode.MESSAGE_ILLEGAL, e.getResponseCode());
+        }
+        selector.send(producer, new Message(TOPIC, "tag", "body".getBytes()), 3000);
+        assertEquals(1, broker.getReceived(TOPIC).size());
+    }
+
+    @Test
+    public void asyncSendRetriesBrokerError() throws Exception {
+        broker.failNextSends(2, ResponseCode.SYSTEM_ERROR);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+
+        selector.send(producer, new Message(TOPIC, "tag", "body".getBytes()), new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                result.set(sendResult);
+                latch.countDown();
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                result.set(e);
+                latch.countDown();
+            }
+        }, 3000);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(String.valueOf(result.get()), result.get() instanceof SendResult);
+        assertEquals(1, broker.getReceived(TOPIC).size());
+    }
+
+    @Test
+    public void selectionSkipsExcludedBroker() {
+        List<MessageQueue> mqs = new ArrayList<MessageQueue>(Arrays.asList(
+                new MessageQueue(TOPIC, "broker-a", 0), new MessageQueue(TOPIC, "broker-b", 0)));
+        LatencyAwareMessageQueueSelector.Selection selection = selector.newSelection();
+        MessageQueue first = selector.select(mqs, null, selection);
+        selection.excludeSelected();
+
+        for(int i=0; i<20; i++){
+            MessageQueue next = selector.select(mqs, null, selection);
+            assertTrue(!first.getBrokerName().equals(next.getBrokerName()));
+        }
+    }
+}
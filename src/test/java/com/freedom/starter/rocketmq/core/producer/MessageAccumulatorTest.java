@@ -0,0 +1,174 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.freedom.starter.rocketmq.message.MessageBatchEnvelope;
+import com.freedom.starter.rocketmq.support.StandInBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageAccumulatorTest {
+
+    private static final String TOPIC = "AccumulatorTopic";
+
+    private StandInBroker broker;
+
+    private DefaultMQProducer producer;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new StandInBroker();
+        broker.createTopic(TOPIC, 4);
+        broker.start();
+        producer = broker.newProducer("MessageAccumulatorTest");
+    }
+
+    @After
+    public void tearDown() {
+        producer.shutdown();
+        broker.shutdown();
+    }
+
+    @Test
+    public void batchesCompleteEveryCallback() throws Exception {
+        MessageAccumulator accumulator = new MessageAccumulator(producer, 10, 1024 * 1024, 50);
+        accumulator.start();
+        int count = 95;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicInteger failed = new AtomicInteger();
+        for(int i=0; i<count; i++){
+            accumulator.append(new Message(TOPIC, "tag", ("msg" + i).getBytes("UTF-8")), new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                    failed.incrementAndGet();
+                    latch.countDown();
+                }
+            }, 3000);
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(0, failed.get());
+        List<MessageExt> received = broker.getReceived(TOPIC);
+        assertEquals(10, received.size());  //9批10条，1批5条由linger发送
+        int unpacked = 0;
+        for(MessageExt messageExt : received){
+            unpacked += MessageBatchEnvelope.unpack(messageExt).size();
+        }
+        assertEquals(count, unpacked);
+        accumulator.close();
+    }
+
+    @Test
+    public void maxBytesCountsEncodedEnvelope() throws Exception {
+        Message sample = new Message(TOPIC, "tag", "key", new byte[100]);
+        sample.putUserProperty("trace", "0123456789");
+        int encodedSize = MessageBatchEnvelope.encodedSize(sample);
+        int maxBytes = MessageBatchEnvelope.HEADER_SIZE + encodedSize * 3;  //只按消息体计算时能放下4条以上
+        MessageAccumulator accumulator = new MessageAccumulator(producer, 100, maxBytes, 50);
+
+        for(int i=0; i<9; i++){
+            Message message = new Message(TOPIC, "tag", "key", new byte[100]);
+            message.putUserProperty("trace", "0123456789");
+            accumulator.append(message, null, 3000);
+        }
+        accumulator.close();
+
+        waitReceived(3);
+        for(MessageExt messageExt : broker.getReceived(TOPIC)){
+            assertTrue(messageExt.getBody().length <= maxBytes);
+            assertEquals(3, MessageBatchEnvelope.unpack(messageExt).size());
+        }
+    }
+
+    @Test
+    public void singleMessageIsSentUnwrapped() throws Exception {
+        MessageAccumulator accumulator = new MessageAccumulator(producer, 10, 1024, 50);
+
+        accumulator.append(new Message(TOPIC, "tag", new byte[2048]), null, 3000);  //超过maxBytes的消息单独发送
+        accumulator.close();
+
+        waitReceived(1);
+        MessageExt received = broker.getReceived(TOPIC).get(0);
+        assertTrue(!MessageBatchEnvelope.isEnvelope(received));
+        assertEquals(2048, received.getBody().length);
+    }
+
+    @Test
+    public void appendRacingWithCloseIsNeverLost() throws Exception {
+        for(int round=0; round<20; round++){
+            broker.clearReceived();
+            final MessageAccumulator accumulator = new MessageAccumulator(producer, 1000, 1024 * 1024, 60000);
+            final AtomicInteger accepted = new AtomicInteger();
+            final AtomicInteger completed = new AtomicInteger();
+            final CountDownLatch ready = new CountDownLatch(4);
+            List<Thread> threads = new ArrayList<Thread>();
+            for(int t=0; t<4; t++){
+                final String tag = "tag" + t;
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ready.countDown();
+                        try {
+                            while (true) {
+                                accumulator.append(new Message(TOPIC, tag, new byte[16]), new SendCallback() {
+                                    @Override
+                                    public void onSuccess(SendResult sendResult) {
+                                        completed.incrementAndGet();
+                                    }
+
+                                    @Override
+                                    public void onException(Throwable e) {
+                                        completed.incrementAndGet();
+                                    }
+                                }, 3000);
+                                accepted.incrementAndGet();
+                            }
+                        }
+                        catch (IllegalStateException e) {
+                            //已关闭
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            ready.await();
+            accumulator.close();
+            for(Thread thread : threads){
+                thread.join(5000);
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (completed.get() < accepted.get() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(accepted.get(), completed.get());
+        }
+    }
+
+    private void waitReceived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (broker.getReceived(TOPIC).size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, broker.getReceived(TOPIC).size());
+    }
+}
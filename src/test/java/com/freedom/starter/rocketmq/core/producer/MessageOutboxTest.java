@@ -0,0 +1,199 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.remoting.exception.RemotingConnectException;
+import com.freedom.starter.rocketmq.enums.OutboxMode;
+import com.freedom.starter.rocketmq.enums.ProducerStripeStrategy;
+import com.freedom.starter.rocketmq.support.StandInBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageOutboxTest {
+
+    private static final String TOPIC = "OutboxTopic";
+
+    /** 每个segment大约能放10条消息 */
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInBroker broker;
+
+    private DefaultMQProducer producer;
+
+    private ProducerPool producerPool;
+
+    private MessageOutbox outbox;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new StandInBroker();
+        broker.createTopic(TOPIC, 4);
+        broker.start();
+        producer = broker.newProducer("MessageOutboxTest");
+        producer.setSendMsgTimeout(1000);
+        producer.setRetryTimesWhenSendFailed(0);
+        producerPool = new ProducerPool(Collections.singletonList(producer), ProducerStripeStrategy.THREAD);
+    }
+
+    @After
+    public void tearDown() {
+        if(outbox != null){
+            outbox.shutdown();
+        }
+        producer.shutdown();
+        broker.shutdown();
+    }
+
+    @Test
+    public void classifiesRecoverableErrors() throws Exception {
+        MessageOutbox outbox = newOutbox(OutboxMode.FAILED);
+
+        assertTrue(outbox.isRecoverable(new RemotingConnectException("127.0.0.1:10911")));
+        assertTrue(outbox.isRecoverable(new MQClientException("Send [3] times, still failed", new RemotingConnectException("127.0.0.1:10911"))));
+        assertTrue(outbox.isRecoverable(new MQClientException("wait response timeout 3000ms", null)));
+        assertTrue(outbox.isRecoverable(new MQBrokerException(ResponseCode.SYSTEM_BUSY, "busy")));
+        assertFalse(outbox.isRecoverable(new MQBrokerException(ResponseCode.MESSAGE_ILLEGAL, "illegal")));
+        assertFalse(outbox.isRecoverable(new MQBrokerException(ResponseCode.NO_PERMISSION, "no permission")));
+        assertFalse(outbox.isRecoverable(new MQClientException("No route info of this topic, " + TOPIC, null)));
+        assertFalse(outbox.isRecoverable(new IllegalStateException()));
+    }
+
+    @Test
+    public void replaysAfterBrokerOutageAndStopsDiverting() throws Exception {
+        broker.stopBroker();
+        outbox = newOutbox(OutboxMode.FAILED);
+        outbox.start();
+
+        outbox.markUnavailable();
+        for(int i=0; i<50; i++){
+            outbox.append(message(TOPIC, i));
+        }
+        assertTrue(outbox.shouldDivert());
+        Thread.sleep(300);  //broker不可用，连接失败的消息不丢弃
+        assertEquals(0, outbox.getDroppedCount());
+
+        broker.startBroker();
+        waitReplayed(outbox, 50);
+
+        assertFalse(outbox.shouldDivert());
+        assertEquals(0, outbox.getDroppedCount());
+        assertEquals(50, bodies(TOPIC).size());
+        assertEquals(1, segmentFiles().length);  //重放完的segment已删除，只剩当前写入的segment
+    }
+
+    @Test
+    public void brokerBusyDoesNotDropMessages() throws Exception {
+        broker.setSendResponseCode(ResponseCode.SYSTEM_BUSY);
+        outbox = newOutbox(OutboxMode.FAILED);
+        outbox.start();
+
+        outbox.markUnavailable();
+        for(int i=0; i<5; i++){
+            outbox.append(message(TOPIC, i));
+        }
+        Thread.sleep(1000);  //超过MAX_REJECTED_ATTEMPTS次退避
+        assertEquals(0, outbox.getDroppedCount());
+        assertTrue(outbox.shouldDivert());
+
+        broker.setSendResponseCode(ResponseCode.SUCCESS);
+        waitReplayed(outbox, 5);
+        assertEquals(0, outbox.getDroppedCount());
+        assertFalse(outbox.shouldDivert());
+    }
+
+    @Test
+    public void unroutableMessageDoesNotBlockReplay() throws Exception {
+        outbox = newOutbox(OutboxMode.WRITE_AHEAD);
+        outbox.start();
+
+        outbox.append(message("UnknownTopic", 0));
+        for(int i=0; i<20; i++){
+            outbox.append(message(TOPIC, i));
+        }
+
+        waitReplayed(outbox, 20);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (outbox.hasPending() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(outbox.hasPending());
+        assertEquals(1, outbox.getDroppedCount());
+        assertEquals(20, bodies(TOPIC).size());
+    }
+
+    @Test
+    public void resumesFromCheckpointAfterRestart() throws Exception {
+        broker.stopBroker();
+        outbox = newOutbox(OutboxMode.FAILED);
+        outbox.start();
+        for(int i=0; i<25; i++){
+            outbox.append(message(TOPIC, i));
+        }
+        outbox.shutdown();
+
+        broker.startBroker();
+        outbox = newOutbox(OutboxMode.FAILED);
+        outbox.start();
+        waitReplayed(outbox, 25);
+
+        Set<String> expected = new HashSet<String>();
+        for(int i=0; i<25; i++){
+            expected.add("message-" + i);
+        }
+        assertEquals(expected, bodies(TOPIC));
+    }
+
+    private MessageOutbox newOutbox(OutboxMode mode) {
+        MessageOutbox outbox = new MessageOutbox(new File(folder.getRoot(), "outbox").getAbsolutePath(), SEGMENT_SIZE, mode, 0, producerPool);
+        outbox.setReplayBackoffMillis(50);
+        return outbox;
+    }
+
+    private static Message message(String topic, int index) throws Exception {
+        return new Message(topic, "tag", ("message-" + index).getBytes("UTF-8"));
+    }
+
+    private void waitReplayed(MessageOutbox outbox, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while ((outbox.getReplayedCount() < count || outbox.hasPending() && outbox.getDroppedCount() == 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, outbox.getReplayedCount());
+    }
+
+    private Set<String> bodies(String topic) throws Exception {
+        Set<String> bodies = new HashSet<String>();
+        for(MessageExt messageExt : broker.getReceived(topic)){
+            bodies.add(new String(messageExt.getBody(), "UTF-8"));
+        }
+        return bodies;
+    }
+
+    private File[] segmentFiles() {
+        return new File(folder.getRoot(), "outbox").listFiles(new java.io.FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().matches("\\d{20}");
+            }
+        });
+    }
+}
@@ -0,0 +1,37 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.freedom.starter.rocketmq.core.codec.MessageCodecRegistry;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RequestReplyClientTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void defaultInstanceIdIsStable() {
+        RequestReplyClient first = newClient(null);
+        RequestReplyClient second = newClient("");
+
+        //同一进程（重启后IP、进程号不变时）使用相同的应答tag和消费组
+        assertEquals(first.getReplyTag(), second.getReplyTag());
+        assertEquals(first.getConsumerGroup(), second.getConsumerGroup());
+        assertTrue(first.getConsumerGroup().matches("^[%|a-zA-Z0-9_-]+$"));
+    }
+
+    @Test
+    public void configuredInstanceIdIsSanitized() {
+        RequestReplyClient client = newClient("order-service-0.svc@1");
+
+        assertEquals("REPLY_order-service-0_svc_1", client.getReplyTag());
+        assertEquals("group_REPLY_CONSUMER_REPLY_order-service-0_svc_1", client.getConsumerGroup());
+    }
+
+    private static RequestReplyClient newClient(String instanceId) {
+        return new RequestReplyClient("127.0.0.1:9876", "group_REPLY_CONSUMER", "group_REPLY", instanceId, UTF8, MessageCodecRegistry.getDefault());
+    }
+}
@@ -0,0 +1,198 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.freedom.starter.rocketmq.core.metrics.RocketMQSendMetrics;
+import com.freedom.starter.rocketmq.core.metrics.SendMetrics;
+import com.freedom.starter.rocketmq.enums.SendMode;
+import com.freedom.starter.rocketmq.enums.InFlightRejectPolicy;
+import com.freedom.starter.rocketmq.message.MessageChunks;
+import com.freedom.starter.rocketmq.message.RocketMQMessageConst;
+import com.freedom.starter.rocketmq.support.StandInBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RocketMQTemplateChunkTest {
+
+    private static final String TOPIC = "ChunkTopic";
+
+    private StandInBroker broker;
+
+    private RocketMQTemplate rocketMQTemplate;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new StandInBroker();
+        broker.createTopic(TOPIC, 4);
+        broker.start();
+
+        DefaultMQProducer producer = new DefaultMQProducer("RocketMQTemplateChunkTest");
+        producer.setNamesrvAddr(broker.getNameServerAddress());
+        producer.setInstanceName("RocketMQTemplateChunkTest");
+        producer.setVipChannelEnabled(false);
+        producer.setRetryTimesWhenSendFailed(2);
+        producer.setRetryTimesWhenSendAsyncFailed(2);
+        rocketMQTemplate = new RocketMQTemplate();
+        rocketMQTemplate.setProducer(producer);
+        rocketMQTemplate.setChunkSize(100);
+        rocketMQTemplate.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        rocketMQTemplate.destroy();
+        broker.shutdown();
+    }
+
+    @Test
+    public void syncChunksAreRetriedToTheSameQueue() {
+        broker.failNextSends(2, ResponseCode.SYSTEM_ERROR);
+
+        SendResult sendResult = rocketMQTemplate.send(TOPIC, "tag", body(350));
+
+        assertNotNull(sendResult);
+        assertChunksReceived(4);
+    }
+
+    @Test
+    public void asyncChunksAreRetriedAndPermitsAreReleasedOnce() throws Exception {
+        InFlightLimiter inFlightLimiter = new InFlightLimiter(1, 0, InFlightRejectPolicy.FAIL);
+        rocketMQTemplate.setInFlightLimiter(inFlightLimiter);
+        broker.failNextSends(1, ResponseCode.SYSTEM_ERROR);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        //整个分片组只占用一条发送中消息许可，之后的分片不再获取许可
+        rocketMQTemplate.asyncSend(TOPIC, "tag", body(350), new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                error.set(e);
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertNull(error.get());
+        assertChunksReceived(4);
+        assertEquals(0, inFlightLimiter.getInFlightMessages());
+    }
+
+    @Test
+    public void chunksAreRecordedWithTheCallerSendMode() throws Exception {
+        RocketMQSendMetrics sendMetrics = new RocketMQSendMetrics();
+        rocketMQTemplate.setSendMetrics(sendMetrics);
+
+        rocketMQTemplate.send(TOPIC, "tag", body(350));
+        final CountDownLatch latch = new CountDownLatch(1);
+        rocketMQTemplate.asyncSend(TOPIC, "tag", body(350), new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(4, sendMetrics.get(TOPIC, "tag", SendMode.SYNC).getSuccessCount());
+        assertEquals(4, sendMetrics.get(TOPIC, "tag", SendMode.ASYNC).getSuccessCount());
+        for(SendMetrics metrics : sendMetrics.getAll()){
+            assertFalse(metrics.getSendMode() == SendMode.SYNC_ORDERLY || metrics.getSendMode() == SendMode.ASYNC_ORDERLY);
+        }
+    }
+
+    @Test
+    public void timeoutAppliesToTheWholeChunkGroup() {
+        //每个分片200ms，单个分片不超时，4个分片超过整组的500ms
+        broker.setSendDelayMillis(200);
+        long start = System.currentTimeMillis();
+        try {
+            rocketMQTemplate.send(TOPIC, "tag", body(350), 500);
+            throw new AssertionError("chunk group should time out");
+        }
+        catch (MessagingException e) {
+            long cost = System.currentTimeMillis() - start;
+            assertTrue("cost " + cost, cost < 800);
+        }
+    }
+
+    @Test
+    public void requestsAreChunkedThroughTheSameGuards() throws Exception {
+        broker.createTopic("ChunkTopic_REPLY", 1);
+        RequestReplyClient requestReplyClient = new RequestReplyClient(broker.getNameServerAddress(), "RocketMQTemplateChunkTest_REPLY_CONSUMER",
+                "ChunkTopic_REPLY", "chunkTest", Charset.forName("UTF-8"), rocketMQTemplate.getMessageCodec());
+        requestReplyClient.start();
+        rocketMQTemplate.setRequestReplyClient(requestReplyClient);
+        InFlightLimiter inFlightLimiter = new InFlightLimiter(1, 0, InFlightRejectPolicy.FAIL);
+        rocketMQTemplate.setInFlightLimiter(inFlightLimiter);
+        try {
+            ListenableFuture<String> reply = rocketMQTemplate.sendAndReceiveAsync(TOPIC, "tag", body(350), String.class, 500);
+
+            try {
+                reply.get(5, TimeUnit.SECONDS);  //没有应答方，等待超时
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().contains("timeout"));
+            }
+            assertChunksReceived(4);
+            for(MessageExt messageExt : broker.getReceived(TOPIC)){
+                assertEquals(requestReplyClient.getReplyTag(), messageExt.getUserProperty(RocketMQMessageConst.PROPERTY_REPLY_TAG));
+            }
+            assertEquals(0, inFlightLimiter.getInFlightMessages());
+        }
+        finally {
+            requestReplyClient.shutdown();
+        }
+    }
+
+    private void assertChunksReceived(int total) {
+        List<MessageExt> received = broker.getReceived(TOPIC);
+        assertEquals(total, received.size());
+        Set<Integer> queueIds = new HashSet<Integer>();
+        Set<String> groups = new HashSet<String>();
+        for(MessageExt messageExt : received){
+            assertTrue(MessageChunks.isChunk(messageExt));
+            queueIds.add(messageExt.getQueueId());
+            groups.add(MessageChunks.getGroup(messageExt));
+        }
+        assertEquals(1, queueIds.size());
+        assertEquals(1, groups.size());
+    }
+
+    private static String body(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        for(int i=0; i<size; i++){
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,205 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.freedom.starter.rocketmq.support.StandInBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SendManyPublisherTest {
+
+    private static final String TOPIC = "SendManyTopic";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private StandInBroker broker;
+
+    private RocketMQTemplate rocketMQTemplate;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new StandInBroker();
+        broker.createTopic(TOPIC, 4);
+        broker.start();
+
+        DefaultMQProducer producer = new DefaultMQProducer("SendManyPublisherTest");
+        producer.setNamesrvAddr(broker.getNameServerAddress());
+        producer.setInstanceName("SendManyPublisherTest");
+        producer.setVipChannelEnabled(false);
+        producer.setRetryTimesWhenSendAsyncFailed(0);
+        rocketMQTemplate = new RocketMQTemplate();
+        rocketMQTemplate.setProducer(producer);
+        rocketMQTemplate.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        rocketMQTemplate.destroy();
+        broker.shutdown();
+    }
+
+    @Test
+    public void resultsFollowUpstreamOrder() throws Exception {
+        broker.setSendDelayMillis(1);
+        RangePublisher upstream = new RangePublisher(100);
+        CollectingSubscriber downstream = new CollectingSubscriber(Long.MAX_VALUE);
+
+        rocketMQTemplate.sendMany(TOPIC, "tag", upstream, 8, 3000).subscribe(downstream);
+
+        assertTrue(downstream.done.await(10, TimeUnit.SECONDS));
+        assertNull(downstream.error.get());
+        assertEquals(100, downstream.results.size());
+        Map<Long, String> bodies = new HashMap<Long, String>();  //StandInBroker的queueOffset全局递增，可以定位消息
+        for(MessageExt messageExt : broker.getReceived(TOPIC)){
+            bodies.put(messageExt.getQueueOffset(), new String(messageExt.getBody(), UTF8));
+        }
+        for(int i=0; i<100; i++){
+            assertEquals(RangePublisher.payload(i), bodies.get(downstream.results.get(i).getQueueOffset()));
+        }
+    }
+
+    @Test
+    public void slowDownstreamLimitsUpstreamRequests() throws Exception {
+        final RangePublisher upstream = new RangePublisher(50);
+        final AtomicLong maxOutstanding = new AtomicLong();
+        CollectingSubscriber downstream = new CollectingSubscriber(1) {
+            @Override
+            public void onNext(SendResult sendResult) {
+                super.onNext(sendResult);
+                maxOutstanding.set(Math.max(maxOutstanding.get(), upstream.requested.get() - results.size()));
+                subscription.request(1);
+            }
+        };
+
+        rocketMQTemplate.sendMany(TOPIC, "tag", upstream, 4, 3000).subscribe(downstream);
+
+        assertTrue(downstream.done.await(10, TimeUnit.SECONDS));
+        assertNull(downstream.error.get());
+        assertEquals(50, downstream.results.size());
+        assertTrue("outstanding " + maxOutstanding.get(), maxOutstanding.get() <= 4);
+    }
+
+    @Test
+    public void sendFailureCancelsUpstream() throws Exception {
+        broker.setSendResponseCode(ResponseCode.SYSTEM_ERROR);
+        RangePublisher upstream = new RangePublisher(1000);
+        CollectingSubscriber downstream = new CollectingSubscriber(Long.MAX_VALUE);
+
+        rocketMQTemplate.sendMany(TOPIC, "tag", upstream, 8, 3000).subscribe(downstream);
+
+        assertTrue(downstream.done.await(10, TimeUnit.SECONDS));
+        assertNotNull(downstream.error.get());
+        assertTrue(upstream.cancelled.get());
+        assertTrue(upstream.emitted.get() < 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveMaxInFlightIsRejected() {
+        rocketMQTemplate.sendMany(TOPIC, "tag", new RangePublisher(1), 0, 3000);
+    }
+
+
+    /**
+     * 按请求同步发出0到count-1对应的消息体，记录请求总数和是否被取消
+     */
+    private static class RangePublisher implements Publisher<String> {
+        private final int count;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger emitted = new AtomicInteger();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        RangePublisher(int count) {
+            this.count = count;
+        }
+
+        static String payload(int i) {
+            return "message-" + i;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super String> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private final AtomicInteger wip = new AtomicInteger();
+
+                @Override
+                public void request(long n) {
+                    requested.addAndGet(n);
+                    if(wip.getAndIncrement() != 0){
+                        return;
+                    }
+                    do {
+                        while (!cancelled.get() && emitted.get() < Math.min(count, requested.get())) {
+                            subscriber.onNext(payload(emitted.getAndIncrement()));
+                        }
+                        if(!cancelled.get() && emitted.get() == count){
+                            cancelled.set(true);
+                            subscriber.onComplete();
+                        }
+                    } while (wip.decrementAndGet() != 0);
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled.set(true);
+                }
+            });
+        }
+    }
+
+    private static class CollectingSubscriber implements Subscriber<SendResult> {
+        private final long initialRequest;
+        final List<SendResult> results = new CopyOnWriteArrayList<SendResult>();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Subscription subscription;
+
+        CollectingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(SendResult sendResult) {
+            results.add(sendResult);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error.set(e);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.freedom.starter.rocketmq.core.producer;
+
+import org.junit.Test;
+import org.springframework.messaging.MessagingException;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TopicRateLimiterTest {
+
+    private static final String TOPIC = "RateLimiterTopic";
+
+    @Test(expected = IllegalArgumentException.class)
+    public void minGreaterThanMaxIsRejected() {
+        new TopicRateLimiter(TOPIC, 100, 200, 10, 0.5, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decreaseFactorOutOfRangeIsRejected() {
+        new TopicRateLimiter(TOPIC, 100, 10, 10, 1, 100);
+    }
+
+    @Test
+    public void acquirePacesSends() {
+        TopicRateLimiter limiter = new TopicRateLimiter(TOPIC, 100, 10, 10, 0.5, 100);
+
+        long start = System.nanoTime();
+        for(int i=0; i<30; i++){
+            limiter.acquire(3000);
+        }
+        long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("cost " + costMillis + " ms", costMillis >= 200);  //30条，每条10ms
+        assertTrue(limiter.getThrottledCount() > 0);
+        assertEquals(0, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void acquireRejectsWhenWaitExceedsTimeout() {
+        TopicRateLimiter limiter = new TopicRateLimiter(TOPIC, 10, 1, 1, 0.5, 100);
+        limiter.acquire(0);
+
+        try {
+            limiter.acquire(0);  //下一个时间槽在100ms后
+            fail("expected MessagingException");
+        }
+        catch (MessagingException e) {
+            assertEquals(1, limiter.getRejectedCount());
+        }
+    }
+
+    @Test
+    public void congestionDecreasesRateWithCooldownAndFloor() throws Exception {
+        TopicRateLimiter limiter = new TopicRateLimiter(TOPIC, 1000, 200, 50, 0.5, 100);
+
+        limiter.onCongestion();
+        assertEquals(500D, limiter.getPermitsPerSecond(), 0D);
+        limiter.onCongestion();  //冷却期内忽略
+        assertEquals(500D, limiter.getPermitsPerSecond(), 0D);
+        assertEquals(1, limiter.getDecreaseCount());
+
+        Thread.sleep(600);
+        limiter.onCongestion();
+        assertEquals(250D, limiter.getPermitsPerSecond(), 0D);
+        Thread.sleep(600);
+        limiter.onCongestion();
+        assertEquals(200D, limiter.getPermitsPerSecond(), 0D);
+    }
+
+    @Test
+    public void fastSendsIncreaseRateOncePerPeriod() throws Exception {
+        TopicRateLimiter limiter = new TopicRateLimiter(TOPIC, 1000, 100, 50, 0.5, 100);
+        long fast = TimeUnit.MILLISECONDS.toNanos(10);
+        long slow = TimeUnit.MILLISECONDS.toNanos(500);
+        limiter.onCongestion();
+        limiter.onSuccess(fast);
+        assertEquals(500D, limiter.getPermitsPerSecond(), 0D);  //降低后一个周期内不增加
+
+        limiter.onSuccess(slow);
+        Thread.sleep(1100);
+        limiter.onSuccess(fast);
+        assertEquals(500D, limiter.getPermitsPerSecond(), 0D);  //上个周期出现过慢发送
+
+        Thread.sleep(1100);
+        limiter.onSuccess(fast);
+        limiter.onSuccess(fast);
+        assertEquals(550D, limiter.getPermitsPerSecond(), 0D);
+    }
+}
@@ -0,0 +1,98 @@
+package com.freedom.starter.rocketmq.message;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageBatchEnvelopeTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void packAndUnpackRestoresBodiesAndProperties() {
+        Message first = new Message("topic", "tag", "k1", "first".getBytes(UTF8));
+        first.putUserProperty("trace", "t1");
+        Message second = new Message("topic", "tag", "k2 k3", "second".getBytes(UTF8));
+
+        Message envelope = MessageBatchEnvelope.pack("topic", "tag", Arrays.asList(first, second));
+        assertTrue(MessageBatchEnvelope.isEnvelope(envelope));
+        assertEquals("k1 k2 k3", envelope.getKeys());
+
+        MessageExt received = toMessageExt(envelope);
+        received.setMsgId("msgId");
+        received.setReconsumeTimes(2);
+        List<MessageExt> unpacked = MessageBatchEnvelope.unpack(received);
+
+        assertEquals(2, unpacked.size());
+        assertEquals("first", new String(unpacked.get(0).getBody(), UTF8));
+        assertEquals("k1", unpacked.get(0).getKeys());
+        assertEquals("tag", unpacked.get(0).getTags());
+        assertEquals("t1", unpacked.get(0).getUserProperty("trace"));
+        assertEquals("second", new String(unpacked.get(1).getBody(), UTF8));
+        assertEquals("k2 k3", unpacked.get(1).getKeys());
+        for(int i=0; i<unpacked.size(); i++){
+            assertEquals("msgId", unpacked.get(i).getMsgId());
+            assertEquals(2, unpacked.get(i).getReconsumeTimes());
+            assertEquals(String.valueOf(i), unpacked.get(i).getUserProperty(RocketMQMessageConst.PROPERTY_BATCH_INDEX));
+            assertFalse(MessageBatchEnvelope.isEnvelope(unpacked.get(i)));
+        }
+    }
+
+    @Test
+    public void encodedSizeMatchesEnvelopeBody() {
+        List<Message> messages = new ArrayList<Message>();
+        int expected = MessageBatchEnvelope.HEADER_SIZE;
+        for(int i=0; i<10; i++){
+            Message message = new Message("topic", "tag", "key" + i, new byte[i * 100]);
+            message.putUserProperty("index", String.valueOf(i));
+            messages.add(message);
+            expected += MessageBatchEnvelope.encodedSize(message);
+        }
+
+        Message envelope = MessageBatchEnvelope.pack("topic", "tag", messages);
+
+        assertEquals(expected, envelope.getBody().length);
+    }
+
+    @Test
+    public void unpackListWithoutEnvelopeReturnsSameList() {
+        MessageExt plain = toMessageExt(new Message("topic", "tag", "plain".getBytes(UTF8)));
+        List<MessageExt> msgs = Collections.singletonList(plain);
+
+        assertSame(msgs, MessageBatchEnvelope.unpack(msgs));
+    }
+
+    @Test
+    public void unpackListMixesEnvelopesAndPlainMessages() {
+        Message envelope = MessageBatchEnvelope.pack("topic", "tag", Arrays.asList(
+                new Message("topic", "tag", "a".getBytes(UTF8)), new Message("topic", "tag", "b".getBytes(UTF8))));
+        List<MessageExt> msgs = Arrays.asList(toMessageExt(new Message("topic", "tag", "plain".getBytes(UTF8))), toMessageExt(envelope));
+
+        List<MessageExt> unpacked = MessageBatchEnvelope.unpack(msgs);
+
+        assertEquals(3, unpacked.size());
+        assertEquals("plain", new String(unpacked.get(0).getBody(), UTF8));
+        assertEquals("a", new String(unpacked.get(1).getBody(), UTF8));
+        assertEquals("b", new String(unpacked.get(2).getBody(), UTF8));
+    }
+
+    private static MessageExt toMessageExt(Message message) {
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic(message.getTopic());
+        messageExt.setBody(message.getBody());
+        messageExt.setWaitStoreMsgOK(true);  //Message.putProperty()不是public的，先创建属性map
+        messageExt.getProperties().putAll(message.getProperties());
+        return messageExt;
+    }
+}
@@ -0,0 +1,297 @@
+package com.freedom.starter.rocketmq.support;
+
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.header.SendMessageResponseHeader;
+import com.alibaba.rocketmq.common.protocol.route.BrokerData;
+import com.alibaba.rocketmq.common.protocol.route.QueueData;
+import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.shade.io.netty.channel.ChannelHandlerContext;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 测试用的本地name server + broker，实现rocketmq 3.5.8客户端发送消息用到的协议：
+ * 查询topic路由、发送消息（SEND_MESSAGE、SEND_MESSAGE_V2）、心跳
+ * 收到的消息保存在内存中；可以停止、重启broker模拟broker不可用，或指定发送返回的响应码模拟broker繁忙、出错
+ *
+ * 生产者需要关闭vip通道：producer.setVipChannelEnabled(false)
+ */
+public class StandInBroker {
+
+    public static final String BROKER_NAME = "standInBroker";
+
+    private final ConcurrentMap<String, Integer> topics = new ConcurrentHashMap<String, Integer>();
+
+    private final Queue<MessageExt> received = new ConcurrentLinkedQueue<MessageExt>();
+
+    private final AtomicLong offset = new AtomicLong();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    private NettyRemotingServer nameServer;
+
+    private NettyRemotingServer broker;
+
+    private int brokerPort;
+
+    /** 发送消息返回的响应码，默认SUCCESS */
+    private volatile int sendResponseCode = ResponseCode.SUCCESS;
+
+    /** 处理每条发送请求的耗时，模拟broker写入 */
+    private volatile long sendDelayMillis;
+
+    /** 接下来返回failResponseCode的发送请求数 */
+    private final AtomicInteger failNextSends = new AtomicInteger();
+
+    private volatile int failResponseCode = ResponseCode.SYSTEM_ERROR;
+
+
+    public synchronized void start() {
+        nameServer = newServer(0);
+        nameServer.registerProcessor(RequestCode.GET_ROUTEINTO_BY_TOPIC, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+                return route(request.getExtFields().get("topic"));
+            }
+
+            @Override
+            public boolean rejectRequest() {
+                return false;
+            }
+        }, executor);
+        nameServer.start();
+        startBroker();
+    }
+
+    /**
+     * 启动broker，重启时使用原来的端口
+     */
+    public synchronized void startBroker() {
+        broker = newServer(brokerPort);
+        NettyRequestProcessor sendProcessor = new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) throws Exception {
+                return send(request);
+            }
+
+            @Override
+            public boolean rejectRequest() {
+                return false;
+            }
+        };
+        broker.registerProcessor(RequestCode.SEND_MESSAGE, sendProcessor, executor);
+        broker.registerProcessor(RequestCode.SEND_MESSAGE_V2, sendProcessor, executor);
+        broker.registerDefaultProcessor(new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+                return RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null);  //心跳等
+            }
+
+            @Override
+            public boolean rejectRequest() {
+                return false;
+            }
+        }, executor);
+        broker.start();
+        brokerPort = broker.localListenPort();
+    }
+
+    /**
+     * 停止broker，name server仍然返回原来的路由
+     */
+    public synchronized void stopBroker() {
+        if(broker != null){
+            broker.shutdown();
+            broker = null;
+        }
+    }
+
+    public synchronized void shutdown() {
+        stopBroker();
+        if(nameServer != null){
+            nameServer.shutdown();
+            nameServer = null;
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * 创建topic
+     * @param topic
+     * @param queueNums  队列数
+     */
+    public void createTopic(String topic, int queueNums) {
+        topics.put(topic, queueNums);
+    }
+
+    /**
+     * 创建并启动一个连接本broker的生产者，每个生产组使用单独的instanceName
+     * @param producerGroup
+     * @return
+     * @throws MQClientException
+     */
+    public DefaultMQProducer newProducer(String producerGroup) throws MQClientException {
+        DefaultMQProducer producer = new DefaultMQProducer(producerGroup);
+        producer.setNamesrvAddr(getNameServerAddress());
+        producer.setInstanceName(producerGroup);
+        producer.setVipChannelEnabled(false);
+        producer.setSendMsgTimeout(3000);
+        producer.start();
+        return producer;
+    }
+
+    public String getNameServerAddress() {
+        return "127.0.0.1:" + nameServer.localListenPort();
+    }
+
+    public String getBrokerAddress() {
+        return "127.0.0.1:" + brokerPort;
+    }
+
+    public List<MessageExt> getReceived() {
+        return new ArrayList<MessageExt>(received);
+    }
+
+    /**
+     * 收到的某个topic的消息
+     * @param topic
+     * @return
+     */
+    public List<MessageExt> getReceived(String topic) {
+        List<MessageExt> result = new ArrayList<MessageExt>();
+        for(MessageExt messageExt : received){
+            if(topic.equals(messageExt.getTopic())){
+                result.add(messageExt);
+            }
+        }
+        return result;
+    }
+
+    public void clearReceived() {
+        received.clear();
+    }
+
+    public void setSendResponseCode(int sendResponseCode) {
+        this.sendResponseCode = sendResponseCode;
+    }
+
+    public void setSendDelayMillis(long sendDelayMillis) {
+        this.sendDelayMillis = sendDelayMillis;
+    }
+
+    /**
+     * 接下来的count个发送请求返回responseCode，之后恢复正常
+     * @param count
+     * @param responseCode
+     */
+    public void failNextSends(int count, int responseCode) {
+        this.failResponseCode = responseCode;
+        this.failNextSends.set(count);
+    }
+
+
+    private NettyRemotingServer newServer(int port) {
+        NettyServerConfig config = new NettyServerConfig();
+        config.setListenPort(port);
+        config.setServerWorkerThreads(4);
+        config.setServerSelectorThreads(2);
+        config.setServerCallbackExecutorThreads(2);
+        config.setUseEpollNativeSelector(false);
+        return new NettyRemotingServer(config);
+    }
+
+    private RemotingCommand route(String topic) {
+        Integer queueNums = topic == null ? null : topics.get(topic);
+        if(queueNums == null){
+            return RemotingCommand.createResponseCommand(ResponseCode.TOPIC_NOT_EXIST, "No topic route info in name server for the topic: " + topic);
+        }
+        QueueData queueData = new QueueData();
+        queueData.setBrokerName(BROKER_NAME);
+        queueData.setReadQueueNums(queueNums);
+        queueData.setWriteQueueNums(queueNums);
+        queueData.setPerm(6);  //可读可写
+        BrokerData brokerData = new BrokerData();
+        brokerData.setBrokerName(BROKER_NAME);
+        HashMap<Long, String> brokerAddrs = new HashMap<Long, String>();
+        brokerAddrs.put(0L, getBrokerAddress());
+        brokerData.setBrokerAddrs(brokerAddrs);
+
+        TopicRouteData routeData = new TopicRouteData();
+        routeData.setQueueDatas(new ArrayList<QueueData>(Collections.singletonList(queueData)));
+        routeData.setBrokerDatas(new ArrayList<BrokerData>(Collections.singletonList(brokerData)));
+        routeData.setFilterServerTable(new HashMap<String, List<String>>());
+
+        RemotingCommand response = RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null);
+        response.setBody(routeData.encode());
+        return response;
+    }
+
+    private RemotingCommand send(RemotingCommand request) throws Exception {
+        if(sendDelayMillis > 0){
+            Thread.sleep(sendDelayMillis);
+        }
+        int code = sendResponseCode;
+        if(code == ResponseCode.SUCCESS && failNextSends.get() > 0 && failNextSends.getAndDecrement() > 0){
+            code = failResponseCode;
+        }
+        if(code != ResponseCode.SUCCESS){
+            return RemotingCommand.createResponseCommand(code, "stand-in broker response code " + code);
+        }
+
+        Map<String, String> fields = request.getExtFields();
+        String topic = field(fields, "b", "topic");
+        int queueId = Integer.parseInt(field(fields, "e", "queueId"));
+        String properties = field(fields, "i", "properties");
+        long queueOffset = offset.getAndIncrement();
+        String msgId = MessageDecoder.createMessageId(new InetSocketAddress("127.0.0.1", brokerPort), queueOffset);
+
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic(topic);
+        messageExt.setQueueId(queueId);
+        messageExt.setQueueOffset(queueOffset);
+        messageExt.setMsgId(msgId);
+        messageExt.setBody(request.getBody());
+        messageExt.setFlag(Integer.parseInt(field(fields, "h", "flag")));
+        messageExt.setSysFlag(Integer.parseInt(field(fields, "f", "sysFlag")));
+        if(properties != null){
+            messageExt.setWaitStoreMsgOK(true);  //Message.putProperty()不是public的，先创建属性map
+            messageExt.getProperties().putAll(MessageDecoder.string2messageProperties(properties));
+        }
+        received.add(messageExt);
+
+        RemotingCommand response = RemotingCommand.createResponseCommand(SendMessageResponseHeader.class);
+        SendMessageResponseHeader responseHeader = (SendMessageResponseHeader) response.readCustomHeader();
+        responseHeader.setMsgId(msgId);
+        responseHeader.setQueueId(queueId);
+        responseHeader.setQueueOffset(queueOffset);
+        response.setCode(ResponseCode.SUCCESS);
+        return response;
+    }
+
+    private static String field(Map<String, String> fields, String shortName, String name) {
+        String value = fields.get(shortName);
+        return value != null ? value : fields.get(name);
+    }
+}